@@ -35,6 +35,7 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.SkipEntriesCallback;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPairConsumer;
 
 /**
  * A ManagedCursor is a persisted cursor inside a ManagedLedger.
@@ -561,6 +562,30 @@ public interface ManagedCursor {
     Set<? extends Position> asyncReplayEntries(
             Set<? extends Position> positions, ReadEntriesCallback callback, Object ctx, boolean sortEntries);
 
+    /**
+     * Read the specified positions from ManagedLedger, given as pairs of ledger id and entry id.
+     *
+     * <p>Entries are returned in the order of the given positions. Unlike
+     * {@link #asyncReplayEntries(Set, ReadEntriesCallback, Object, boolean)}, neither the positions to replay nor the
+     * skipped ones need to be materialized as {@link Position} objects by the caller.
+     *
+     * @param ledgerAndEntryIds
+     *            positions to read: the ledger id of the i-th position at index {@code 2 * i} and its entry id at
+     *            index {@code 2 * i + 1}
+     * @param count
+     *            number of positions to read
+     * @param callback
+     *            callback object returning the list of entries, not invoked if all the positions are skipped
+     * @param ctx
+     *            opaque context
+     * @param skippedPositions
+     *            receives the positions which are already deleted/acknowledged and skipped while replaying them. It is
+     *            invoked while holding the cursor lock and must not call back into the cursor
+     * @return the number of positions being replayed
+     */
+    int asyncReplayEntries(long[] ledgerAndEntryIds, int count, ReadEntriesCallback callback, Object ctx,
+            LongPairConsumer skippedPositions);
+
     /**
      * Close the cursor and releases the associated resources.
      *
@@ -598,6 +623,12 @@ public interface ManagedCursor {
      */
     void setInactive();
 
+    /**
+     * Stop reading entries ahead of the read position until the next read, because the reader of the cursor cannot
+     * dispatch more entries for now. The entries already read ahead are kept.
+     */
+    void pauseReadAhead();
+
     /**
      * A cursor that is set as always-inactive  will never trigger the caching of
      * entries.
@@ -19,6 +19,7 @@
 package org.apache.bookkeeper.mledger;
 
 import io.netty.buffer.ByteBuf;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.common.annotation.InterfaceAudience;
@@ -195,6 +196,33 @@ public interface ManagedLedger {
      */
     void asyncAddEntry(ByteBuf buffer, int numberOfMessages, AddEntryCallback callback, Object ctx);
 
+    /**
+     * Append several new entries asynchronously, in the given order. The callback is invoked once for every entry,
+     * with its own context.
+     *
+     * <p>This is equivalent to calling {@link #asyncAddEntry(ByteBuf, int, AddEntryCallback, Object)} for every
+     * entry, but lets the implementation hand them over to its writer as a single operation.
+     *
+     * @param buffers
+     *            buffers with the data of the entries
+     * @param numberOfMessages
+     *            numberOfMessages for every data entry, or null if not known
+     * @param callback
+     *            callback object
+     * @param ctxs
+     *            opaque context of every entry
+     */
+    default void asyncAddEntries(List<ByteBuf> buffers, int[] numberOfMessages, AddEntryCallback callback,
+                                 List<?> ctxs) {
+        for (int i = 0; i < buffers.size(); i++) {
+            if (numberOfMessages != null) {
+                asyncAddEntry(buffers.get(i), numberOfMessages[i], callback, ctxs.get(i));
+            } else {
+                asyncAddEntry(buffers.get(i), callback, ctxs.get(i));
+            }
+        }
+    }
+
     /**
      * Open a ManagedCursor in this ManagedLedger.
      *
@@ -71,6 +71,8 @@ public class ManagedLedgerConfig {
     private DigestType digestType = DigestType.CRC32C;
     private byte[] password = "".getBytes(Charsets.UTF_8);
     private boolean unackedRangesOpenCacheSetEnabled = true;
+    private boolean unackedRangesBitmapEnabled = false;
+    private int maxCursorAckStateDeltaEntries = 0;
     private Class<? extends EnsemblePlacementPolicy>  bookKeeperEnsemblePlacementPolicyClassName;
     private Map<String, Object> bookKeeperEnsemblePlacementPolicyProperties;
     private LedgerOffloader ledgerOffloader = NullLedgerOffloader.INSTANCE;
@@ -281,6 +283,44 @@ public class ManagedLedgerConfig {
         return this;
     }
 
+    /**
+     * should use {@link org.apache.bookkeeper.mledger.util.RoaringBitmapLongPairRangeSet} to store unacked
+     * ranges, and persist them as compressed bitmaps instead of a list of ranges. Takes precedence over
+     * {@link #isUnackedRangesOpenCacheSetEnabled()}.
+     * @return
+     */
+    public boolean isUnackedRangesBitmapEnabled() {
+        return unackedRangesBitmapEnabled;
+    }
+
+    public ManagedLedgerConfig setUnackedRangesBitmapEnabled(boolean unackedRangesBitmapEnabled) {
+        this.unackedRangesBitmapEnabled = unackedRangesBitmapEnabled;
+        return this;
+    }
+
+    /**
+     * @return the max number of delta entries, carrying only the acknowledgement state changes since the previous
+     *         entry, written to the cursor ledger between two full snapshots of the acknowledgement state. 0 means
+     *         that every entry is a full snapshot
+     */
+    public int getMaxCursorAckStateDeltaEntries() {
+        return maxCursorAckStateDeltaEntries;
+    }
+
+    /**
+     * Set the max number of delta entries written to the cursor ledger between two full snapshots of the
+     * acknowledgement state.
+     *
+     * <p>Cursor ledgers containing delta entries can't be recovered by brokers that don't support them.
+     *
+     * @param maxCursorAckStateDeltaEntries
+     *            the max number of delta entries between snapshots, or 0 to always write full snapshots
+     */
+    public ManagedLedgerConfig setMaxCursorAckStateDeltaEntries(int maxCursorAckStateDeltaEntries) {
+        this.maxCursorAckStateDeltaEntries = maxCursorAckStateDeltaEntries;
+        return this;
+    }
+
     /**
      * @return the metadataEnsemblesize
      */
@@ -38,6 +38,18 @@ public class ManagedLedgerFactoryConfig {
      */
     private double cacheEvictionWatermark = 0.90;
 
+    /**
+     * Class name of the {@link org.apache.bookkeeper.mledger.impl.EntryCacheEvictionPolicy} choosing which entries are
+     * admitted in and evicted from the cache.
+     */
+    private String cacheEvictionPolicyClassName = "org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy";
+
+    /**
+     * Number of entries behind the last confirmed entry from where a read is considered done by a backlogged reader.
+     * Eviction policies can refuse to admit in the cache the entries read by backlogged readers.
+     */
+    private long cacheBackloggedReadThreshold = 1000;
+
     private int numManagedLedgerWorkerThreads = Runtime.getRuntime().availableProcessors();
     private int numManagedLedgerSchedulerThreads = Runtime.getRuntime().availableProcessors();
 
@@ -56,6 +68,51 @@ public class ManagedLedgerFactoryConfig {
      */
     private boolean copyEntriesInCache = false;
 
+    /**
+     * Whether the entry cache of each managed ledger stores the entries in per-ledger segments of contiguous entries,
+     * indexed by entry id, instead of a single sorted map. Tail reads are then served without allocation and eviction
+     * drops whole segments at once.
+     */
+    private boolean segmentedEntryCache = false;
+
+    /**
+     * Number of entries of each segment when the segmented entry cache is enabled. Must be a power of 2.
+     */
+    private int entryCacheSegmentSize = 1024;
+
+    /**
+     * Directory of the local disk tier of the entry cache, where the entries evicted from memory are kept in
+     * memory-mapped files. The disk tier is disabled when not set. The content of the directory is discarded on
+     * startup.
+     */
+    private String diskCacheDirectory = null;
+
+    /**
+     * Maximum size of the files of the disk tier of the entry cache.
+     */
+    private long diskCacheMaxSize = 1024 * MB;
+
+    /**
+     * Size of each file of the disk tier of the entry cache.
+     */
+    private int diskCacheSegmentSize = (int) (64 * MB);
+
+    /**
+     * Maximum time entries stay in the disk tier of the entry cache.
+     */
+    private long diskCacheTtlSeconds = 600;
+
+    /**
+     * Number of batches read ahead of the read position of the cursors reading their backlog sequentially. The batches
+     * have the size of the last read of the cursor. Read-ahead is disabled when set to 0.
+     */
+    private int cursorReadAheadBatches = 0;
+
+    /**
+     * Maximum size of the entries read ahead by all the cursors.
+     */
+    private long cursorReadAheadMaxSize = 64 * MB;
+
     /**
      * Whether trace managed ledger task execution time
      */
@@ -71,6 +128,28 @@ public class ManagedLedgerFactoryConfig {
      */
     private int cursorPositionFlushSeconds = 60;
 
+    /**
+     * Whether to group-commit the position updates of all the cursors into a log ledger shared by the factory,
+     * instead of having every cursor write them to its own cursor ledger.
+     */
+    private boolean sharedCursorStateStoreEnabled = false;
+
+    /**
+     * Max time the cursor position updates wait for other updates, before being appended to the shared log ledger.
+     */
+    private long sharedCursorStateFlushIntervalMillis = 10;
+
+    /**
+     * Max number of cursor position updates appended to the shared log ledger in a single entry.
+     */
+    private int sharedCursorStateMaxBatchSize = 1000;
+
+    /**
+     * How frequently to roll the shared log ledger, re-appending the state of the cursors that still point to the
+     * previous ledgers so that these can be deleted.
+     */
+    private int sharedCursorStateCheckpointIntervalSeconds = 3600;
+
     /**
      * cluster name for prometheus stats
      */
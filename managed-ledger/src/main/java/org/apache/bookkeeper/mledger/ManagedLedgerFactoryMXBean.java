@@ -62,6 +62,36 @@ public interface ManagedLedgerFactoryMXBean {
      */
     double getCacheMissesThroughput();
 
+    /**
+     * Get the size in byte used to store the entries in the disk tier of the cache.
+     */
+    long getDiskCacheUsedSize();
+
+    /**
+     * Get the number of disk cache hits per second.
+     */
+    double getDiskCacheHitsRate();
+
+    /**
+     * Get the number of disk cache misses per second.
+     */
+    double getDiskCacheMissesRate();
+
+    /**
+     * Get the amount of data is retrieved from the disk cache in byte/s.
+     */
+    double getDiskCacheHitsThroughput();
+
+    /**
+     * Get the ratio of the entries read from the cache over all the entries read.
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Get the name of the cache eviction policy.
+     */
+    String getCacheEvictionPolicy();
+
     /**
      * Get the number of cache evictions during the last minute.
      */
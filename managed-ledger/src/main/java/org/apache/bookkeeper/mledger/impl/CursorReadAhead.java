@@ -0,0 +1,418 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-ahead of the entries of a cursor reading its backlog.
+ *
+ * <p>Once a cursor reads the same ledger sequentially, far enough behind the last confirmed entry for the entries not to
+ * be in the cache, the next batches are read while the current one is being dispatched, keeping up to
+ * {@code maxBatches} batches of the size of the last read ahead of the read position. The reads of the cursor are then
+ * served from the entries read ahead, or wait for the read ahead covering them to complete.
+ *
+ * <p>The memory used by the entries read ahead is accounted against a budget shared by all the cursors, see
+ * {@link EntryCacheManager#reserveReadAhead(long)}. The read-ahead is stopped with {@link #pause()} while the reader of
+ * the cursor cannot dispatch more entries, and resumes on the next read.
+ *
+ * <p>A read of the cursor waiting for the read-ahead is subject to the read timeout of the managed ledger, see
+ * {@link #checkReadTimeout(long)}.
+ */
+class CursorReadAhead {
+
+    // Number of consecutive sequential reads before starting to read ahead
+    private static final int SEQUENTIAL_READS_THRESHOLD = 2;
+
+    // Estimated entry size when the managed ledger has no entries to compute the average from
+    private static final long DEFAULT_ENTRY_SIZE = 1024;
+
+    private final ManagedLedgerImpl ledger;
+    private final String cursorName;
+    private final EntryCacheManager cacheManager;
+    private final int maxBatches;
+
+    // All the following state is guarded by this
+    private ReadHandle handle;
+    private long ledgerId = -1;
+    private long expectedEntryId = -1;
+    private int sequentialReads;
+    private int batchSize;
+    private long lastVisibleEntry = -1;
+    private boolean paused;
+
+    // Last entry requested by the read-ahead, either buffered or in flight
+    private long readAheadUpTo = -1;
+    private final NavigableMap<Long, EntryImpl> entries = new TreeMap<>();
+    private long entriesSize;
+
+    // Incremented on each reset, to discard the read-ahead completing after it
+    private int generation;
+
+    // Read of the cursor waiting for the read-ahead in flight
+    private OpReadEntry waitingOp;
+    private long waitingFirstEntry;
+    private long waitingLastEntry;
+    private long waitingSince;
+
+    CursorReadAhead(ManagedLedgerImpl ledger, String cursorName, EntryCacheManager cacheManager, int maxBatches) {
+        this.ledger = ledger;
+        this.cursorName = cursorName;
+        this.cacheManager = cacheManager;
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * Serve a read of the cursor from the entries read ahead, and read ahead of it if the cursor reads its backlog
+     * sequentially.
+     *
+     * @param lh
+     *            the handle of the ledger to read from
+     * @param firstEntry
+     *            the first entry to read
+     * @param lastEntry
+     *            the last entry to read
+     * @param lastVisibleEntry
+     *            the last entry of the ledger that can be read
+     * @param op
+     *            the read operation
+     * @return true if the read is completed by the read-ahead, false if it must be read from the ledger
+     */
+    boolean read(ReadHandle lh, long firstEntry, long lastEntry, long lastVisibleEntry, OpReadEntry op) {
+        List<Entry> readEntries = null;
+        List<long[]> toRead;
+        int currentGeneration;
+        boolean waiting = false;
+        OpReadEntry droppedOp = null;
+
+        synchronized (this) {
+            if (lh.getId() == ledgerId && firstEntry >= expectedEntryId
+                    && firstEntry <= Math.max(readAheadUpTo, expectedEntryId - 1) + 1) {
+                // Sequential read, or skipping entries already deleted
+                sequentialReads++;
+                releaseEntriesBefore(firstEntry);
+            } else {
+                droppedOp = reset();
+                ledgerId = lh.getId();
+                sequentialReads = 0;
+            }
+
+            this.handle = lh;
+            this.expectedEntryId = lastEntry + 1;
+            this.batchSize = (int) (lastEntry - firstEntry + 1);
+            this.lastVisibleEntry = lastVisibleEntry;
+            this.paused = false;
+
+            if (contains(firstEntry, lastEntry)) {
+                readEntries = take(firstEntry, lastEntry);
+            } else if (readAheadUpTo >= lastEntry) {
+                // The missing entries are being read ahead
+                waitingOp = op;
+                waitingFirstEntry = firstEntry;
+                waitingLastEntry = lastEntry;
+                waitingSince = System.nanoTime();
+                waiting = true;
+            }
+
+            toRead = sequentialReads >= SEQUENTIAL_READS_THRESHOLD && isBacklogged(lastEntry)
+                    ? nextReadAhead() : null;
+            currentGeneration = generation;
+        }
+
+        if (droppedOp != null) {
+            droppedOp.readEntriesFailed(new ManagedLedgerException("Read-ahead dropped by another read"),
+                    droppedOp.ctx);
+        }
+
+        if (toRead != null) {
+            for (long[] range : toRead) {
+                asyncReadAhead(lh, range[0], range[1], range[2], currentGeneration);
+            }
+        }
+
+        if (readEntries != null) {
+            op.readEntriesComplete(readEntries, op.ctx);
+            return true;
+        }
+        return waiting;
+    }
+
+    /**
+     * Stop reading ahead until the next read of the cursor.
+     */
+    synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Discard the entries read ahead and release their memory, when the cursor is closed. The read waiting for the
+     * read-ahead, if any, is failed.
+     */
+    void clear() {
+        OpReadEntry op;
+        synchronized (this) {
+            op = reset();
+            ledgerId = -1;
+            sequentialReads = 0;
+        }
+
+        if (op != null) {
+            op.readEntriesFailed(new ManagedLedgerException.CursorAlreadyClosedException(
+                    "Cursor was closed while reading ahead"), op.ctx);
+        }
+    }
+
+    /**
+     * Fail the read of the cursor that has been waiting for the read-ahead for longer than the read timeout, as it
+     * would be if it had been read from the ledger. The read-ahead in flight is then discarded.
+     *
+     * @param timeoutSec
+     *            the read timeout of the managed ledger
+     */
+    void checkReadTimeout(long timeoutSec) {
+        OpReadEntry op;
+        long readLedgerId;
+        long firstEntry;
+        long lastEntry;
+        synchronized (this) {
+            if (waitingOp == null || TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - waitingSince) < timeoutSec) {
+                return;
+            }
+            op = waitingOp;
+            readLedgerId = ledgerId;
+            firstEntry = waitingFirstEntry;
+            lastEntry = waitingLastEntry;
+            waitingOp = null;
+            reset();
+            sequentialReads = 0;
+        }
+
+        log.warn("[{}] [{}] Read of entries {}-{} from ledger {} waiting for the read-ahead timed out after {} sec",
+                ledger.getName(), cursorName, firstEntry, lastEntry, readLedgerId, timeoutSec);
+        op.readEntriesFailed(ManagedLedgerImpl.createManagedLedgerException(BKException.Code.TimeoutException),
+                op.ctx);
+    }
+
+    synchronized long getSize() {
+        return entriesSize;
+    }
+
+    synchronized int getNumberOfEntries() {
+        return entries.size();
+    }
+
+    private boolean isBacklogged(long lastEntry) {
+        PositionImpl lastConfirmedEntry = ledger.lastConfirmedEntry;
+        return lastConfirmedEntry != null && (lastConfirmedEntry.getLedgerId() != ledgerId
+                || lastConfirmedEntry.getEntryId() - lastEntry > cacheManager.getBackloggedReadThreshold());
+    }
+
+    private long estimatedEntrySize() {
+        long numberOfEntries = ledger.getNumberOfEntries();
+        return numberOfEntries > 0 ? Math.max(1, ledger.getTotalSize() / numberOfEntries) : DEFAULT_ENTRY_SIZE;
+    }
+
+    // Reserve the memory of the batches to read ahead, returning their ranges with the reserved size
+    private List<long[]> nextReadAhead() {
+        if (paused || batchSize <= 0) {
+            return null;
+        }
+
+        List<long[]> toRead = null;
+        long limit = Math.min(expectedEntryId + (long) maxBatches * batchSize - 1, lastVisibleEntry);
+        long entrySize = estimatedEntrySize();
+        while (true) {
+            long from = Math.max(readAheadUpTo, expectedEntryId - 1) + 1;
+            if (from > limit) {
+                break;
+            }
+
+            long to = Math.min(from + batchSize - 1, limit);
+            long size = (to - from + 1) * entrySize;
+            if (!cacheManager.reserveReadAhead(size)) {
+                break;
+            }
+
+            readAheadUpTo = to;
+            if (toRead == null) {
+                toRead = new ArrayList<>(maxBatches);
+            }
+            toRead.add(new long[] { from, to, size });
+        }
+        return toRead;
+    }
+
+    private void asyncReadAhead(ReadHandle lh, long firstEntry, long lastEntry, long reservedSize, int readGeneration) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] [{}] Reading ahead entries from ledger {} - first={} last={}", ledger.getName(),
+                    cursorName, lh.getId(), firstEntry, lastEntry);
+        }
+
+        ledger.entryCache.asyncReadEntry(lh, firstEntry, lastEntry, false, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> readEntries, Object ctx) {
+                readAheadComplete(firstEntry, lastEntry, reservedSize, readGeneration, readEntries);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                log.warn("[{}] [{}] Failed to read ahead entries from ledger {} - first={} last={}: {}",
+                        ledger.getName(), cursorName, lh.getId(), firstEntry, lastEntry, exception.getMessage());
+                readAheadFailed(reservedSize, readGeneration);
+            }
+        }, null);
+    }
+
+    private void readAheadComplete(long firstEntry, long lastEntry, long reservedSize, int readGeneration,
+            List<Entry> readEntries) {
+        OpReadEntry op = null;
+        List<Entry> waitingEntries = null;
+        List<long[]> toRead = null;
+        ReadHandle lh;
+
+        if (readEntries.size() != lastEntry - firstEntry + 1) {
+            readEntries.forEach(Entry::release);
+            readAheadFailed(reservedSize, readGeneration);
+            return;
+        }
+
+        synchronized (this) {
+            cacheManager.releaseReadAhead(reservedSize);
+            if (readGeneration != generation) {
+                readEntries.forEach(Entry::release);
+                return;
+            }
+
+            for (Entry entry : readEntries) {
+                EntryImpl previous = entries.put(entry.getEntryId(), (EntryImpl) entry);
+                cacheManager.forceReserveReadAhead(entry.getLength());
+                entriesSize += entry.getLength();
+                if (previous != null) {
+                    releaseEntry(previous);
+                }
+            }
+
+            if (waitingOp != null && contains(waitingFirstEntry, waitingLastEntry)) {
+                op = waitingOp;
+                waitingOp = null;
+                waitingEntries = take(waitingFirstEntry, waitingLastEntry);
+            }
+
+            // Resume the read-ahead stopped by the memory budget, unless the reader is blocked
+            lh = handle;
+            toRead = nextReadAhead();
+        }
+
+        if (toRead != null) {
+            for (long[] range : toRead) {
+                asyncReadAhead(lh, range[0], range[1], range[2], readGeneration);
+            }
+        }
+
+        if (op != null) {
+            op.readEntriesComplete(waitingEntries, op.ctx);
+        }
+    }
+
+    private void readAheadFailed(long reservedSize, int readGeneration) {
+        OpReadEntry op;
+        long firstEntry;
+        long lastEntry;
+        ReadHandle lh;
+
+        synchronized (this) {
+            cacheManager.releaseReadAhead(reservedSize);
+            if (readGeneration != generation) {
+                return;
+            }
+
+            op = waitingOp;
+            firstEntry = waitingFirstEntry;
+            lastEntry = waitingLastEntry;
+            lh = handle;
+            waitingOp = null;
+            reset();
+            sequentialReads = 0;
+        }
+
+        if (op != null) {
+            // Let the read of the cursor go to the ledger, and report the error if it fails again
+            ledger.asyncReadEntry(lh, firstEntry, lastEntry, false, op, op.ctx);
+        }
+    }
+
+    private boolean contains(long firstEntry, long lastEntry) {
+        return entries.containsKey(firstEntry) && entries.containsKey(lastEntry)
+                && entries.subMap(firstEntry, true, lastEntry, true).size() == lastEntry - firstEntry + 1;
+    }
+
+    private List<Entry> take(long firstEntry, long lastEntry) {
+        Map<Long, EntryImpl> range = entries.subMap(firstEntry, true, lastEntry, true);
+        List<Entry> result = new ArrayList<>(range.size());
+        for (Iterator<EntryImpl> it = range.values().iterator(); it.hasNext();) {
+            EntryImpl entry = it.next();
+            it.remove();
+            entriesSize -= entry.getLength();
+            cacheManager.releaseReadAhead(entry.getLength());
+            result.add(entry);
+        }
+        return result;
+    }
+
+    private void releaseEntriesBefore(long entryId) {
+        for (Iterator<EntryImpl> it = entries.headMap(entryId, false).values().iterator(); it.hasNext();) {
+            EntryImpl entry = it.next();
+            it.remove();
+            releaseEntry(entry);
+        }
+    }
+
+    private void releaseEntry(EntryImpl entry) {
+        entriesSize -= entry.getLength();
+        cacheManager.releaseReadAhead(entry.getLength());
+        entry.release();
+    }
+
+    // Returns the read that was waiting for the read-ahead, which the caller must complete outside of the lock
+    private OpReadEntry reset() {
+        generation++;
+        entries.values().forEach(this::releaseEntry);
+        entries.clear();
+        readAheadUpTo = -1;
+        expectedEntryId = -1;
+        OpReadEntry op = waitingOp;
+        waitingOp = null;
+        return op;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CursorReadAhead.class);
+}
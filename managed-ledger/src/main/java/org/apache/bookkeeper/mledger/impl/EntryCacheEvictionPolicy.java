@@ -34,4 +34,68 @@ public interface EntryCacheEvictionPolicy {
      *            the minimum size in bytes to be freed
      */
     void doEviction(List<EntryCache> caches, long sizeToFree);
+
+    /**
+     * Decide whether an entry appended to the managed ledger is added to its cache. It is only consulted when the
+     * cache usage is above the eviction watermark.
+     *
+     * @param cache
+     *            the cache of the managed ledger the entry was appended to
+     * @param entry
+     *            the appended entry
+     * @return true if the entry should be inserted in the cache
+     */
+    default boolean shouldAdmit(EntryCache cache, EntryImpl entry) {
+        return true;
+    }
+
+    /**
+     * Decide whether entries that were missing from the cache and have been read from the bookies are added to the
+     * cache.
+     *
+     * @param cache
+     *            the cache of the managed ledger that was read
+     * @param backlogged
+     *            whether the read was done by a backlogged reader, far behind the last confirmed entry
+     * @return true if the entries should be inserted in the cache
+     */
+    default boolean shouldAdmitReadEntries(EntryCache cache, boolean backlogged) {
+        return false;
+    }
+
+    /**
+     * Record a read on the cache.
+     *
+     * @param cache
+     *            the cache that was read
+     * @param hits
+     *            the number of entries served from the cache
+     * @param misses
+     *            the number of entries that had to be read from the bookies
+     * @param backlogged
+     *            whether the read was done by a backlogged reader, far behind the last confirmed entry
+     */
+    default void recordAccess(EntryCache cache, int hits, int misses, boolean backlogged) {
+    }
+
+    /**
+     * Whether the policy needs to know if reads are done by backlogged readers. When false, the caches do not classify
+     * their reads and always report them as not backlogged.
+     */
+    default boolean tracksBackloggedReads() {
+        return false;
+    }
+
+    /**
+     * Notify the policy that a cache has been removed, so that any state kept for it can be released.
+     */
+    default void cacheRemoved(EntryCache cache) {
+    }
+
+    /**
+     * Get the name of the policy, used to report the cache statistics.
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
 }
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frequency based admission and eviction policy, in the spirit of TinyLFU, applied at the granularity of the managed
+ * ledger caches.
+ *
+ * <p>The policy counts the entries read from each cache, leaving out the reads of backlogged readers, and halves all
+ * the counters every {@code sampleSize} reads so that they reflect the recent popularity of each managed ledger.
+ *
+ * <p>Eviction drains the least frequently read caches first. The frequency of the hottest cache that had to be
+ * evicted becomes the admission threshold: while the cache is above the eviction watermark, appended entries are only
+ * admitted for managed ledgers read more frequently than that. Entries read from the bookies are admitted back in the
+ * cache under the same condition, unless they were read by a backlogged reader.
+ */
+public class EntryCacheFrequencyEvictionPolicy implements EntryCacheEvictionPolicy {
+
+    private static final long DEFAULT_SAMPLE_SIZE = 100_000;
+
+    private final long sampleSize;
+    private final ConcurrentMap<String, LedgerStats> stats = Maps.newConcurrentMap();
+    private final AtomicLong sampledReads = new AtomicLong();
+    private volatile long admissionFrequency = 0;
+
+    public EntryCacheFrequencyEvictionPolicy() {
+        this(DEFAULT_SAMPLE_SIZE);
+    }
+
+    EntryCacheFrequencyEvictionPolicy(long sampleSize) {
+        checkArgument(sampleSize > 0);
+        this.sampleSize = sampleSize;
+    }
+
+    @Override
+    public void doEviction(List<EntryCache> caches, long sizeToFree) {
+        checkArgument(sizeToFree > 0);
+        checkArgument(!caches.isEmpty());
+
+        // Take a snapshot of the frequencies, since they keep changing while sorting
+        List<Pair<EntryCache, Long>> rankedCaches = Lists.newArrayListWithExpectedSize(caches.size());
+        for (EntryCache cache : caches) {
+            rankedCaches.add(Pair.of(cache, getFrequency(cache.getName())));
+        }
+        // Least frequently read first, then the largest ones
+        rankedCaches.sort(Comparator.<Pair<EntryCache, Long>>comparingLong(Pair::getRight)
+                .thenComparing(Pair::getLeft, Comparator.reverseOrder()));
+
+        long remainingSizeToFree = sizeToFree;
+        long victimFrequency = 0;
+        int evictedEntries = 0;
+        long evictedSize = 0;
+        int evictedCaches = 0;
+
+        for (Pair<EntryCache, Long> rankedCache : rankedCaches) {
+            if (remainingSizeToFree <= 0) {
+                break;
+            }
+
+            EntryCache entryCache = rankedCache.getLeft();
+            long cacheSize = entryCache.getSize();
+            if (cacheSize == 0) {
+                continue;
+            }
+
+            Pair<Integer, Long> evicted = entryCache.evictEntries(Math.min(remainingSizeToFree, cacheSize));
+            evictedEntries += evicted.getLeft();
+            evictedSize += evicted.getRight();
+            remainingSizeToFree -= evicted.getRight();
+            victimFrequency = rankedCache.getRight();
+            evictedCaches++;
+
+            if (log.isDebugEnabled()) {
+                log.debug("Evicted {} entries from cache {} with frequency {}", evicted.getLeft(),
+                        entryCache.getName(), victimFrequency);
+            }
+        }
+
+        admissionFrequency = victimFrequency;
+
+        log.info("Completed cache eviction. Removed {} entries from {} caches. ({} Mb) -- Admission frequency: {}",
+                evictedEntries, evictedCaches, evictedSize / EntryCacheManager.MB, victimFrequency);
+    }
+
+    @Override
+    public boolean shouldAdmit(EntryCache cache, EntryImpl entry) {
+        return getFrequency(cache.getName()) > admissionFrequency;
+    }
+
+    @Override
+    public boolean shouldAdmitReadEntries(EntryCache cache, boolean backlogged) {
+        return !backlogged && getFrequency(cache.getName()) > admissionFrequency;
+    }
+
+    @Override
+    public void recordAccess(EntryCache cache, int hits, int misses, boolean backlogged) {
+        LedgerStats ledgerStats = stats.computeIfAbsent(cache.getName(), name -> new LedgerStats());
+        ledgerStats.hits.add(hits);
+        ledgerStats.misses.add(misses);
+
+        if (backlogged) {
+            // Catching up readers must not make a managed ledger look popular
+            return;
+        }
+
+        int reads = hits + misses;
+        ledgerStats.frequency.addAndGet(reads);
+        long currentSampledReads = sampledReads.addAndGet(reads);
+        if (currentSampledReads >= sampleSize && sampledReads.compareAndSet(currentSampledReads, 0)) {
+            age();
+        }
+    }
+
+    @Override
+    public boolean tracksBackloggedReads() {
+        return true;
+    }
+
+    @Override
+    public void cacheRemoved(EntryCache cache) {
+        stats.remove(cache.getName());
+    }
+
+    /**
+     * Get the ratio of the entries read from the cache of a managed ledger over all the entries read from it.
+     */
+    public double getHitRate(String name) {
+        LedgerStats ledgerStats = stats.get(name);
+        if (ledgerStats == null) {
+            return 0;
+        }
+        long hits = ledgerStats.hits.sum();
+        long total = hits + ledgerStats.misses.sum();
+        return total > 0 ? hits / (double) total : 0;
+    }
+
+    long getFrequency(String name) {
+        LedgerStats ledgerStats = stats.get(name);
+        return ledgerStats != null ? ledgerStats.frequency.get() : 0;
+    }
+
+    long getAdmissionFrequency() {
+        return admissionFrequency;
+    }
+
+    private void age() {
+        stats.values().forEach(ledgerStats -> ledgerStats.frequency.updateAndGet(frequency -> frequency >> 1));
+        admissionFrequency = admissionFrequency >> 1;
+    }
+
+    private static class LedgerStats {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final AtomicLong frequency = new AtomicLong();
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheFrequencyEvictionPolicy.class);
+}
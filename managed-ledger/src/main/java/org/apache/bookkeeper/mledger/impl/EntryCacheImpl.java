@@ -29,16 +29,18 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.bookkeeper.client.api.BKException;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.util.RangeCache;
+import org.apache.bookkeeper.mledger.util.SegmentedRangeCache;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +52,27 @@ public class EntryCacheImpl implements EntryCache {
 
     private final EntryCacheManager manager;
     private final ManagedLedgerImpl ml;
-    private final RangeCache<PositionImpl, EntryImpl> entries;
+    private final CachedEntries entries;
     private final boolean copyEntries;
+    // Spills the evicted entries to the disk cache, null when it is disabled
+    private final Consumer<EntryImpl> evictionListener;
+    // Shares the reads in flight between the readers of the same entries
+    private final PendingReadsManager pendingReads;
 
     private static final double MB = 1024 * 1024;
 
     public EntryCacheImpl(EntryCacheManager manager, ManagedLedgerImpl ml, boolean copyEntries) {
+        this(manager, ml, copyEntries, false, SegmentedRangeCache.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public EntryCacheImpl(EntryCacheManager manager, ManagedLedgerImpl ml, boolean copyEntries,
+            boolean segmentedCache, int segmentSize) {
         this.manager = manager;
         this.ml = ml;
-        this.entries = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+        this.entries = segmentedCache ? new SegmentedCachedEntries(segmentSize) : new RangeCachedEntries();
         this.copyEntries = copyEntries;
+        this.evictionListener = manager.hasDiskCache() ? manager::spillToDiskCache : null;
+        this.pendingReads = new PendingReadsManager(this::readFromStorage);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Initialized managed-ledger entry cache", ml.getName());
@@ -92,6 +105,18 @@ public class EntryCacheImpl implements EntryCache {
             return false;
         }
 
+        if (!manager.shouldAdmit(this, entry)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Entry not admitted in cache by the eviction policy: {} - size: {}", ml.getName(),
+                        entry.getPosition(), entry.getLength());
+            }
+            return false;
+        }
+
+        return doInsert(entry);
+    }
+
+    private boolean doInsert(EntryImpl entry) {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Adding entry to cache: {} - size: {}", ml.getName(), entry.getPosition(),
                     entry.getLength());
@@ -121,6 +146,53 @@ public class EntryCacheImpl implements EntryCache {
         }
     }
 
+    /**
+     * Read a range of entries from the disk cache.
+     *
+     * @return the entries, or null if some of them are missing
+     */
+    private List<EntryImpl> readFromDiskCache(long ledgerId, long firstEntry, long lastEntry) {
+        final List<EntryImpl> diskEntries = Lists.newArrayListWithExpectedSize((int) (lastEntry - firstEntry) + 1);
+        long totalSize = 0;
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            EntryImpl entry = manager.readFromDiskCache(ledgerId, entryId);
+            if (entry == null) {
+                diskEntries.forEach(EntryImpl::release);
+                manager.mlFactoryMBean.recordDiskCacheMiss((int) (lastEntry - firstEntry) + 1);
+                return null;
+            }
+            diskEntries.add(entry);
+            totalSize += entry.getLength();
+        }
+
+        manager.mlFactoryMBean.recordDiskCacheHits(diskEntries.size(), totalSize);
+        return diskEntries;
+    }
+
+    private void insertReadEntries(List<EntryImpl> readEntries) {
+        for (int i = 0; i < readEntries.size(); i++) {
+            if (!manager.hasSpaceInCache() || !doInsert(readEntries.get(i))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Check whether a read of the given position is done by a backlogged reader. Reads of a ledger other than the
+     * current one are always considered backlogged. Reads are not classified when the eviction policy ignores it.
+     */
+    private boolean isBackloggedRead(long ledgerId, long entryId) {
+        if (!manager.tracksBackloggedReads()) {
+            return false;
+        }
+        PositionImpl lastConfirmedEntry = ml.lastConfirmedEntry;
+        if (lastConfirmedEntry == null) {
+            return false;
+        }
+        return ledgerId != lastConfirmedEntry.getLedgerId()
+                || lastConfirmedEntry.getEntryId() - entryId > manager.getBackloggedReadThreshold();
+    }
+
     private ByteBuf copyEntry(EntryImpl entry) {
         // Copy the entry into a buffer owned by the cache. The reason is that the incoming entry is retaining a buffer
         // from netty, usually allocated in 64Kb chunks. So if we just retain the entry without copying it, we might
@@ -202,43 +274,36 @@ public class EntryCacheImpl implements EntryCache {
             log.debug("[{}] Reading entry ledger {}: {}", ml.getName(), lh.getId(), position.getEntryId());
         }
         EntryImpl entry = entries.get(position);
+        final boolean backlogged = isBackloggedRead(position.getLedgerId(), position.getEntryId());
         if (entry != null) {
             EntryImpl cachedEntry = EntryImpl.create(entry);
             entry.release();
             manager.mlFactoryMBean.recordCacheHit(cachedEntry.getLength());
+            manager.recordAccess(this, 1, 0, backlogged);
             callback.readEntryComplete(cachedEntry, ctx);
         } else {
-            lh.readAsync(position.getEntryId(), position.getEntryId()).whenCompleteAsync(
-                    (ledgerEntries, exception) -> {
-                        if (exception != null) {
-                            ml.invalidateLedgerHandle(lh, exception);
-                            callback.readEntryFailed(createManagedLedgerException(exception), ctx);
-                            return;
-                        }
+            manager.recordAccess(this, 0, 1, backlogged);
+            if (manager.hasDiskCache()) {
+                EntryImpl diskEntry = manager.readFromDiskCache(position.getLedgerId(), position.getEntryId());
+                if (diskEntry != null) {
+                    manager.mlFactoryMBean.recordDiskCacheHits(1, diskEntry.getLength());
+                    callback.readEntryComplete(diskEntry, ctx);
+                    return;
+                }
+                manager.mlFactoryMBean.recordDiskCacheMiss(1);
+            }
 
-                        try {
-                            Iterator<LedgerEntry> iterator = ledgerEntries.iterator();
-                            if (iterator.hasNext()) {
-                                LedgerEntry ledgerEntry = iterator.next();
-                                EntryImpl returnEntry = EntryImpl.create(ledgerEntry);
-
-                                manager.mlFactoryMBean.recordCacheMiss(1, returnEntry.getLength());
-                                ml.mbean.addReadEntriesSample(1, returnEntry.getLength());
-                                callback.readEntryComplete(returnEntry, ctx);
-                            } else {
-                                // got an empty sequence
-                                callback.readEntryFailed(new ManagedLedgerException("Could not read given position"),
-                                                         ctx);
-                            }
-                        } finally {
-                            ledgerEntries.close();
-                        }
-                    }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception->{
-                    	  ml.invalidateLedgerHandle(lh, exception);
-                          callback.readEntryFailed(createManagedLedgerException(exception), ctx);
-                          return null;
-                    }
-                    );
+            pendingReads.readEntries(lh, position.getEntryId(), position.getEntryId(), new ReadEntriesCallback() {
+                @Override
+                public void readEntriesComplete(List<Entry> readEntries, Object ctx) {
+                    callback.readEntryComplete(readEntries.get(0), ctx);
+                }
+
+                @Override
+                public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                    callback.readEntryFailed(exception, ctx);
+                }
+            }, ctx);
         }
     }
 
@@ -262,88 +327,115 @@ public class EntryCacheImpl implements EntryCache {
             final ReadEntriesCallback callback, Object ctx) {
         final long ledgerId = lh.getId();
         final int entriesToRead = (int) (lastEntry - firstEntry) + 1;
-        final PositionImpl firstPosition = PositionImpl.get(lh.getId(), firstEntry);
-        final PositionImpl lastPosition = PositionImpl.get(lh.getId(), lastEntry);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Reading entries range ledger {}: {} to {}", ml.getName(), ledgerId, firstEntry, lastEntry);
         }
 
-        Collection<EntryImpl> cachedEntries = entries.getRange(firstPosition, lastPosition);
+        final List<EntryImpl> cachedEntries = Lists.newArrayListWithExpectedSize(entriesToRead);
+        int cachedCount = entries.getRange(ledgerId, firstEntry, lastEntry, cachedEntries);
+        final boolean backlogged = isBackloggedRead(ledgerId, firstEntry);
 
-        if (cachedEntries.size() == entriesToRead) {
+        if (cachedCount == entriesToRead) {
             long totalCachedSize = 0;
-            final List<EntryImpl> entriesToReturn = Lists.newArrayListWithExpectedSize(entriesToRead);
 
-            // All entries found in cache
-            for (EntryImpl entry : cachedEntries) {
-                entriesToReturn.add(EntryImpl.create(entry));
+            // All entries found in cache, replace them in place with the copies to return
+            for (int i = 0; i < entriesToRead; i++) {
+                EntryImpl entry = cachedEntries.get(i);
+                cachedEntries.set(i, EntryImpl.create(entry));
                 totalCachedSize += entry.getLength();
                 entry.release();
             }
 
-            manager.mlFactoryMBean.recordCacheHits(entriesToReturn.size(), totalCachedSize);
+            manager.mlFactoryMBean.recordCacheHits(cachedEntries.size(), totalCachedSize);
+            manager.recordAccess(this, entriesToRead, 0, backlogged);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Ledger {} -- Found in cache entries: {}-{}", ml.getName(), ledgerId, firstEntry,
                         lastEntry);
             }
 
-            callback.readEntriesComplete((List) entriesToReturn, ctx);
+            callback.readEntriesComplete((List) cachedEntries, ctx);
 
         } else {
             if (!cachedEntries.isEmpty()) {
                 cachedEntries.forEach(entry -> entry.release());
             }
+            manager.recordAccess(this, 0, entriesToRead, backlogged);
+
+            if (manager.hasDiskCache()) {
+                List<EntryImpl> diskEntries = readFromDiskCache(ledgerId, firstEntry, lastEntry);
+                if (diskEntries != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Ledger {} -- Found in disk cache entries: {}-{}", ml.getName(), ledgerId,
+                                firstEntry, lastEntry);
+                    }
+                    callback.readEntriesComplete((List) diskEntries, ctx);
+                    return;
+                }
+            }
+
+            pendingReads.readEntries(lh, firstEntry, lastEntry, callback, ctx);
+        }
+    }
 
-            // Read all the entries from bookkeeper
-            lh.readAsync(firstEntry, lastEntry).whenCompleteAsync(
-                    (ledgerEntries, exception) -> {
-                        if (exception != null) {
-                            if (exception instanceof BKException
-                                && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
-                                callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
-                            } else {
-                                ml.invalidateLedgerHandle(lh, exception);
-                                ManagedLedgerException mlException = createManagedLedgerException(exception);
-                                callback.readEntriesFailed(mlException, ctx);
-                            }
-                            return;
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void readFromStorage(ReadHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback,
+            Object ctx) {
+        final int entriesToRead = (int) (lastEntry - firstEntry) + 1;
+        final boolean backlogged = isBackloggedRead(lh.getId(), firstEntry);
+
+        // Read all the entries from bookkeeper
+        lh.readAsync(firstEntry, lastEntry).whenCompleteAsync(
+                (ledgerEntries, exception) -> {
+                    if (exception != null) {
+                        if (exception instanceof BKException
+                            && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
+                            callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
+                        } else {
+                            ml.invalidateLedgerHandle(lh, exception);
+                            ManagedLedgerException mlException = createManagedLedgerException(exception);
+                            callback.readEntriesFailed(mlException, ctx);
                         }
+                        return;
+                    }
 
-                        checkNotNull(ml.getName());
-                        checkNotNull(ml.getExecutor());
+                    checkNotNull(ml.getName());
+                    checkNotNull(ml.getExecutor());
 
-                        try {
-                            // We got the entries, we need to transform them to a List<> type
-                            long totalSize = 0;
-                            final List<EntryImpl> entriesToReturn
-                                = Lists.newArrayListWithExpectedSize(entriesToRead);
-                            for (LedgerEntry e : ledgerEntries) {
-                                EntryImpl entry = EntryImpl.create(e);
+                    try {
+                        // We got the entries, we need to transform them to a List<> type
+                        long totalSize = 0;
+                        final List<EntryImpl> entriesToReturn
+                            = Lists.newArrayListWithExpectedSize(entriesToRead);
+                        for (LedgerEntry e : ledgerEntries) {
+                            EntryImpl entry = EntryImpl.create(e);
 
-                                entriesToReturn.add(entry);
-                                totalSize += entry.getLength();
-                            }
+                            entriesToReturn.add(entry);
+                            totalSize += entry.getLength();
+                        }
 
-                            manager.mlFactoryMBean.recordCacheMiss(entriesToReturn.size(), totalSize);
-                            ml.getMBean().addReadEntriesSample(entriesToReturn.size(), totalSize);
+                        manager.mlFactoryMBean.recordCacheMiss(entriesToReturn.size(), totalSize);
+                        ml.getMBean().addReadEntriesSample(entriesToReturn.size(), totalSize);
 
-                            callback.readEntriesComplete((List) entriesToReturn, ctx);
-                        } finally {
-                            ledgerEntries.close();
+                        if (manager.shouldAdmitReadEntries(EntryCacheImpl.this, backlogged)) {
+                            insertReadEntries(entriesToReturn);
                         }
-                    }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception->{
-                    	  if (exception instanceof BKException
-                                  && ((BKException)exception).getCode() == BKException.Code.TooManyRequestsException) {
-                                  callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
-                              } else {
-                                  ml.invalidateLedgerHandle(lh, exception);
-                                  ManagedLedgerException mlException = createManagedLedgerException(exception);
-                                  callback.readEntriesFailed(mlException, ctx);
-                              }
-                    	return null;
-                    });
-        }
+
+                        callback.readEntriesComplete((List) entriesToReturn, ctx);
+                    } finally {
+                        ledgerEntries.close();
+                    }
+                }, ml.getExecutor().chooseThread(ml.getName())).exceptionally(exception -> {
+                    if (exception instanceof BKException
+                            && ((BKException) exception).getCode() == BKException.Code.TooManyRequestsException) {
+                        callback.readEntriesFailed(createManagedLedgerException(exception), ctx);
+                    } else {
+                        ml.invalidateLedgerHandle(lh, exception);
+                        ManagedLedgerException mlException = createManagedLedgerException(exception);
+                        callback.readEntriesFailed(mlException, ctx);
+                    }
+                    return null;
+                });
     }
 
     @Override
@@ -365,7 +457,7 @@ public class EntryCacheImpl implements EntryCache {
     @Override
     public Pair<Integer, Long> evictEntries(long sizeToFree) {
         checkArgument(sizeToFree > 0);
-        Pair<Integer, Long> evicted = entries.evictLeastAccessedEntries(sizeToFree);
+        Pair<Integer, Long> evicted = entries.evictLeastAccessedEntries(sizeToFree, evictionListener);
         int evictedEntries = evicted.getLeft();
         long evictedSize = evicted.getRight();
         if (log.isDebugEnabled()) {
@@ -380,9 +472,133 @@ public class EntryCacheImpl implements EntryCache {
 
     @Override
     public void invalidateEntriesBeforeTimestamp(long timestamp) {
-        long evictedSize = entries.evictLEntriesBeforeTimestamp(timestamp);
+        long evictedSize = entries.evictLEntriesBeforeTimestamp(timestamp, evictionListener);
         manager.entriesRemoved(evictedSize);
     }
 
+    /**
+     * Storage of the cached entries of the managed ledger.
+     */
+    private interface CachedEntries {
+        boolean put(PositionImpl position, EntryImpl entry);
+
+        EntryImpl get(PositionImpl position);
+
+        /**
+         * Add the retained cached entries of the range to {@code entries}. Since only a complete range is of use, the
+         * implementation can stop at the first missing entry.
+         *
+         * @return the number of entries added
+         */
+        int getRange(long ledgerId, long firstEntry, long lastEntry, List<EntryImpl> entries);
+
+        Pair<Integer, Long> removeRange(PositionImpl first, PositionImpl last, boolean lastInclusive);
+
+        Pair<Integer, Long> evictLeastAccessedEntries(long minSize, Consumer<EntryImpl> evictionListener);
+
+        long evictLEntriesBeforeTimestamp(long maxTimestamp, Consumer<EntryImpl> evictionListener);
+
+        long getSize();
+
+        long clear();
+    }
+
+    private static class RangeCachedEntries implements CachedEntries {
+        private final RangeCache<PositionImpl, EntryImpl> entries =
+                new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+
+        @Override
+        public boolean put(PositionImpl position, EntryImpl entry) {
+            return entries.put(position, entry);
+        }
+
+        @Override
+        public EntryImpl get(PositionImpl position) {
+            return entries.get(position);
+        }
+
+        @Override
+        public int getRange(long ledgerId, long firstEntry, long lastEntry, List<EntryImpl> cachedEntries) {
+            Collection<EntryImpl> range = entries.getRange(PositionImpl.get(ledgerId, firstEntry),
+                    PositionImpl.get(ledgerId, lastEntry));
+            cachedEntries.addAll(range);
+            return range.size();
+        }
+
+        @Override
+        public Pair<Integer, Long> removeRange(PositionImpl first, PositionImpl last, boolean lastInclusive) {
+            return entries.removeRange(first, last, lastInclusive);
+        }
+
+        @Override
+        public Pair<Integer, Long> evictLeastAccessedEntries(long minSize, Consumer<EntryImpl> evictionListener) {
+            return entries.evictLeastAccessedEntries(minSize, evictionListener);
+        }
+
+        @Override
+        public long evictLEntriesBeforeTimestamp(long maxTimestamp, Consumer<EntryImpl> evictionListener) {
+            return entries.evictLEntriesBeforeTimestamp(maxTimestamp, evictionListener);
+        }
+
+        @Override
+        public long getSize() {
+            return entries.getSize();
+        }
+
+        @Override
+        public long clear() {
+            return entries.clear();
+        }
+    }
+
+    private static class SegmentedCachedEntries implements CachedEntries {
+        private final SegmentedRangeCache<EntryImpl> entries;
+
+        SegmentedCachedEntries(int segmentSize) {
+            this.entries = new SegmentedRangeCache<>(segmentSize, EntryImpl::getLength, EntryImpl::getTimestamp);
+        }
+
+        @Override
+        public boolean put(PositionImpl position, EntryImpl entry) {
+            return entries.put(position.getLedgerId(), position.getEntryId(), entry);
+        }
+
+        @Override
+        public EntryImpl get(PositionImpl position) {
+            return entries.get(position.getLedgerId(), position.getEntryId());
+        }
+
+        @Override
+        public int getRange(long ledgerId, long firstEntry, long lastEntry, List<EntryImpl> cachedEntries) {
+            return entries.getRange(ledgerId, firstEntry, lastEntry, cachedEntries);
+        }
+
+        @Override
+        public Pair<Integer, Long> removeRange(PositionImpl first, PositionImpl last, boolean lastInclusive) {
+            return entries.removeRange(first.getLedgerId(), first.getEntryId(), last.getLedgerId(),
+                    last.getEntryId(), lastInclusive);
+        }
+
+        @Override
+        public Pair<Integer, Long> evictLeastAccessedEntries(long minSize, Consumer<EntryImpl> evictionListener) {
+            return entries.evictLeastAccessedEntries(minSize, evictionListener);
+        }
+
+        @Override
+        public long evictLEntriesBeforeTimestamp(long maxTimestamp, Consumer<EntryImpl> evictionListener) {
+            return entries.evictLEntriesBeforeTimestamp(maxTimestamp, evictionListener);
+        }
+
+        @Override
+        public long getSize() {
+            return entries.getSize();
+        }
+
+        @Override
+        public long clear() {
+            return entries.clear();
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(EntryCacheImpl.class);
 }
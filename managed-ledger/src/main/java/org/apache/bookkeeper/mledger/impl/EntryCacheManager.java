@@ -25,6 +25,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import io.netty.buffer.ByteBuf;
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
@@ -37,7 +39,9 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.common.util.Reflections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +54,13 @@ public class EntryCacheManager {
     private final AtomicLong currentSize = new AtomicLong(0);
     private final ConcurrentMap<String, EntryCache> caches = Maps.newConcurrentMap();
     private final EntryCacheEvictionPolicy evictionPolicy;
+    private final long backloggedReadThreshold;
+    private final boolean tracksBackloggedReads;
+    // Second tier of the cache on local disk, null when disabled
+    private final MappedFileEntryCache diskCache;
+
+    private final long readAheadMaxSize;
+    private final AtomicLong readAheadSize = new AtomicLong(0);
 
     private final AtomicBoolean evictionInProgress = new AtomicBoolean(false);
 
@@ -61,15 +72,28 @@ public class EntryCacheManager {
     private static final double evictionTriggerThresholdPercent = 0.98;
 
 
-    public EntryCacheManager(ManagedLedgerFactoryImpl factory) {
-        this.maxSize = factory.getConfig().getMaxCacheSize();
+    public EntryCacheManager(ManagedLedgerFactoryImpl factory) throws IOException {
+        ManagedLedgerFactoryConfig config = factory.getConfig();
+        this.maxSize = config.getMaxCacheSize();
         this.evictionTriggerThreshold = (long) (maxSize * evictionTriggerThresholdPercent);
-        this.cacheEvictionWatermak = factory.getConfig().getCacheEvictionWatermark();
-        this.evictionPolicy = new EntryCacheDefaultEvictionPolicy();
+        this.cacheEvictionWatermak = config.getCacheEvictionWatermark();
+        this.evictionPolicy = Reflections.createInstance(config.getCacheEvictionPolicyClassName(),
+                EntryCacheEvictionPolicy.class, Thread.currentThread().getContextClassLoader());
+        this.backloggedReadThreshold = config.getCacheBackloggedReadThreshold();
+        this.tracksBackloggedReads = evictionPolicy.tracksBackloggedReads();
+        if (maxSize > 0 && config.getDiskCacheDirectory() != null) {
+            this.diskCache = new MappedFileEntryCache(new File(config.getDiskCacheDirectory()),
+                    config.getDiskCacheMaxSize(), config.getDiskCacheSegmentSize(), config.getDiskCacheTtlSeconds(),
+                    TimeUnit.SECONDS);
+        } else {
+            this.diskCache = null;
+        }
+        this.readAheadMaxSize = config.getCursorReadAheadMaxSize();
         this.mlFactory = factory;
         this.mlFactoryMBean = factory.mbean;
 
-        log.info("Initialized managed-ledger entry cache of {} Mb", maxSize / MB);
+        log.info("Initialized managed-ledger entry cache of {} Mb with eviction policy {}", maxSize / MB,
+                evictionPolicy.getName());
     }
 
     public EntryCache getEntryCache(ManagedLedgerImpl ml) {
@@ -78,7 +102,9 @@ public class EntryCacheManager {
             return new EntryCacheDisabled(ml);
         }
 
-        EntryCache newEntryCache = new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache());
+        ManagedLedgerFactoryConfig config = mlFactory.getConfig();
+        EntryCache newEntryCache = new EntryCacheImpl(this, ml, config.isCopyEntriesInCache(),
+                config.isSegmentedEntryCache(), config.getEntryCacheSegmentSize());
         EntryCache currentEntryCache = caches.putIfAbsent(ml.getName(), newEntryCache);
         if (currentEntryCache != null) {
             return currentEntryCache;
@@ -95,6 +121,7 @@ public class EntryCacheManager {
 
         long size = entryCache.getSize();
         entryCache.clear();
+        evictionPolicy.cacheRemoved(entryCache);
 
         if (log.isDebugEnabled()) {
             log.debug("Removed cache for {} - Size: {} -- Current Size: {}", name, size / MB, currentSize.get() / MB);
@@ -132,6 +159,103 @@ public class EntryCacheManager {
         return currentSize < maxSize;
     }
 
+    boolean shouldAdmit(EntryCache cache, EntryImpl entry) {
+        // Below the eviction watermark there is room for everything, the policy only filters under memory pressure
+        return currentSize.get() < maxSize * cacheEvictionWatermak || evictionPolicy.shouldAdmit(cache, entry);
+    }
+
+    boolean shouldAdmitReadEntries(EntryCache cache, boolean backlogged) {
+        return evictionPolicy.shouldAdmitReadEntries(cache, backlogged);
+    }
+
+    void recordAccess(EntryCache cache, int hits, int misses, boolean backlogged) {
+        evictionPolicy.recordAccess(cache, hits, misses, backlogged);
+    }
+
+    boolean tracksBackloggedReads() {
+        return tracksBackloggedReads;
+    }
+
+    long getBackloggedReadThreshold() {
+        return backloggedReadThreshold;
+    }
+
+    /**
+     * Reserve memory for entries read ahead by a cursor, within the read-ahead budget shared by all the cursors.
+     *
+     * @param size
+     *            the size to reserve
+     * @return false if the reservation would exceed the read-ahead budget
+     */
+    boolean reserveReadAhead(long size) {
+        while (true) {
+            long current = readAheadSize.get();
+            if (current + size > readAheadMaxSize) {
+                return false;
+            }
+            if (readAheadSize.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    void forceReserveReadAhead(long size) {
+        readAheadSize.addAndGet(size);
+    }
+
+    void releaseReadAhead(long size) {
+        readAheadSize.addAndGet(-size);
+    }
+
+    public long getReadAheadSize() {
+        return readAheadSize.get();
+    }
+
+    public EntryCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    boolean hasDiskCache() {
+        return diskCache != null;
+    }
+
+    /**
+     * Copy an entry evicted from memory in the disk cache. The entry is written in background, the eviction doesn't
+     * wait for the disk.
+     */
+    void spillToDiskCache(EntryImpl entry) {
+        diskCache.putAsync(entry.getLedgerId(), entry.getEntryId(), entry.getDataBuffer());
+    }
+
+    /**
+     * Read an entry from the disk cache.
+     *
+     * @return the entry, or null if the disk cache is disabled or doesn't have it
+     */
+    EntryImpl readFromDiskCache(long ledgerId, long entryId) {
+        if (diskCache == null) {
+            return null;
+        }
+
+        ByteBuf data = diskCache.get(ledgerId, entryId);
+        if (data == null) {
+            return null;
+        }
+        EntryImpl entry = EntryImpl.create(ledgerId, entryId, data);
+        data.release();
+        return entry;
+    }
+
+    void doDiskCacheExpiry() {
+        if (diskCache != null) {
+            diskCache.expireSegments();
+        }
+    }
+
+    public long getDiskCacheSize() {
+        return diskCache != null ? diskCache.getSize() : 0;
+    }
+
     void entryAdded(long size) {
         currentSize.addAndGet(size);
     }
@@ -150,10 +274,24 @@ public class EntryCacheManager {
 
     public void clear() {
         caches.values().forEach(EntryCache::clear);
+        if (diskCache != null) {
+            diskCache.clear();
+        }
+    }
+
+    /**
+     * Clear the caches and stop the writer of the disk cache.
+     */
+    public void close() {
+        caches.values().forEach(EntryCache::clear);
+        if (diskCache != null) {
+            diskCache.close();
+        }
     }
 
     protected class EntryCacheDisabled implements EntryCache {
         private final ManagedLedgerImpl ml;
+        private final PendingReadsManager pendingReads = new PendingReadsManager(this::readFromStorage);
 
         public EntryCacheDisabled(ManagedLedgerImpl ml) {
             this.ml = ml;
@@ -193,6 +331,11 @@ public class EntryCacheManager {
         @Override
         public void asyncReadEntry(ReadHandle lh, long firstEntry, long lastEntry, boolean isSlowestReader,
                 final ReadEntriesCallback callback, Object ctx) {
+            pendingReads.readEntries(lh, firstEntry, lastEntry, callback, ctx);
+        }
+
+        private void readFromStorage(ReadHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback,
+                Object ctx) {
             lh.readAsync(firstEntry, lastEntry).whenComplete(
                     (ledgerEntries, exception) -> {
                         if (exception != null) {
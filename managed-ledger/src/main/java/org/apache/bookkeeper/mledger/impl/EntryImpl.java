@@ -30,6 +30,8 @@ import io.netty.util.ReferenceCounted;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.util.AbstractCASReferenceCounted;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
 
 public final class EntryImpl extends AbstractCASReferenceCounted implements Entry, Comparable<EntryImpl>, ReferenceCounted {
 
@@ -46,6 +48,14 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
     private long entryId;
     ByteBuf data;
 
+    // Message metadata parsed from the data on first access, reused until the entry is released
+    private final MessageMetadata messageMetadata = new MessageMetadata();
+    private boolean messageMetadataParsed;
+
+    // Hash of the sticky key of the message, set by the Key_Shared dispatchers and reused until the entry is released
+    private int stickyKeyHash;
+    private boolean stickyKeyHashSet;
+
     public static EntryImpl create(LedgerEntry ledgerEntry) {
         EntryImpl entry = RECYCLER.get();
         entry.timestamp = System.nanoTime();
@@ -148,6 +158,41 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         return entryId;
     }
 
+    /**
+     * Get the message metadata of the entry. It is parsed on the first call only, so that the dispatchers can look at
+     * the metadata of an entry several times without re-parsing it.
+     *
+     * <p>The returned instance is only valid until the entry is released, and must not be modified.
+     *
+     * @throws RuntimeException if the entry data doesn't start with valid message metadata
+     */
+    public MessageMetadata getMessageMetadata() {
+        if (!messageMetadataParsed) {
+            int readerIndex = data.readerIndex();
+            try {
+                Commands.skipBrokerEntryMetadataIfExist(data);
+                Commands.parseMessageMetadata(data, messageMetadata);
+            } finally {
+                data.readerIndex(readerIndex);
+            }
+            messageMetadataParsed = true;
+        }
+        return messageMetadata;
+    }
+
+    public boolean hasStickyKeyHash() {
+        return stickyKeyHashSet;
+    }
+
+    public int getStickyKeyHash() {
+        return stickyKeyHash;
+    }
+
+    public void setStickyKeyHash(int stickyKeyHash) {
+        this.stickyKeyHash = stickyKeyHash;
+        this.stickyKeyHashSet = true;
+    }
+
     @Override
     public int compareTo(EntryImpl other) {
         return ComparisonChain.start().compare(ledgerId, other.ledgerId).compare(entryId, other.entryId).result();
@@ -163,6 +208,11 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         // This method is called whenever the ref-count of the EntryImpl reaches 0, so that now we can recycle it
         data.release();
         data = null;
+        if (messageMetadataParsed) {
+            messageMetadata.clear();
+            messageMetadataParsed = false;
+        }
+        stickyKeyHashSet = false;
         timestamp = -1;
         ledgerId = -1;
         entryId = -1;
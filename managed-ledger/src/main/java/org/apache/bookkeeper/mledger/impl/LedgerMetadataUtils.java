@@ -43,12 +43,15 @@ public final class LedgerMetadataUtils {
             = "compacted-ledger".getBytes(StandardCharsets.UTF_8);
     private static final byte[] METADATA_PROPERTY_COMPONENT_SCHEMA
             = "schema".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METADATA_PROPERTY_COMPONENT_SHARED_CURSOR_STATE
+            = "shared-cursor-state".getBytes(StandardCharsets.UTF_8);
 
     private static final String METADATA_PROPERTY_MANAGED_LEDGER_NAME = "pulsar/managed-ledger";
     private static final String METADATA_PROPERTY_CURSOR_NAME = "pulsar/cursor";
     private static final String METADATA_PROPERTY_COMPACTEDTOPIC = "pulsar/compactedTopic";
     private static final String METADATA_PROPERTY_COMPACTEDTO = "pulsar/compactedTo";
     private static final String METADATA_PROPERTY_SCHEMAID = "pulsar/schemaId";
+    private static final String METADATA_PROPERTY_SHARED_CURSOR_STATE_STORE = "pulsar/sharedCursorStateStore";
 
     /**
      * Build base metadata for every ManagedLedger.
@@ -74,6 +77,30 @@ public final class LedgerMetadataUtils {
         return ImmutableMap.of(METADATA_PROPERTY_CURSOR_NAME, name.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Build metadata for a ledger holding the position updates of many cursors.
+     *
+     * @param storeId the id of the shared cursor state store writing the ledger
+     * @return an immutable map which describes a shared cursor state ledger
+     */
+    static Map<String, byte[]> buildMetadataForSharedCursorState(String storeId) {
+        return ImmutableMap.of(
+                METADATA_PROPERTY_APPLICATION, METADATA_PROPERTY_APPLICATION_PULSAR,
+                METADATA_PROPERTY_COMPONENT, METADATA_PROPERTY_COMPONENT_SHARED_CURSOR_STATE,
+                METADATA_PROPERTY_SHARED_CURSOR_STATE_STORE, storeId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the id of the shared cursor state store that wrote a ledger.
+     *
+     * @param customMetadata the custom metadata of the ledger
+     * @return the id of the store, or null if the ledger is not a shared cursor state ledger
+     */
+    static String getSharedCursorStateStoreId(Map<String, byte[]> customMetadata) {
+        byte[] storeId = customMetadata.get(METADATA_PROPERTY_SHARED_CURSOR_STATE_STORE);
+        return storeId != null ? new String(storeId, StandardCharsets.UTF_8) : null;
+    }
+
     /**
      * Build additional metadata for a CompactedLedger.
      *
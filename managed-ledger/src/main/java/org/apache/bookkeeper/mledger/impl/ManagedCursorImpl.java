@@ -37,10 +37,12 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import io.netty.util.concurrent.FastThreadLocal;
 
+import java.nio.ByteBuffer;
 import java.time.Clock;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -50,6 +52,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -91,13 +95,19 @@ import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.PositionBound;
 import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.IndividualDeletedMessageBitmap;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.LongProperty;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo.LedgerInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.MessageRange;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.NestedPositionInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfoDelta;
+import org.apache.bookkeeper.mledger.util.RoaringBitmapLongPairRangeSet;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.common.util.FutureUtil;
 import org.apache.pulsar.common.util.collections.BitSetRecyclable;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
 import org.apache.pulsar.common.util.collections.LongPairRangeSet;
 import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
@@ -189,6 +199,27 @@ public class ManagedCursorImpl implements ManagedCursor {
     private long entriesReadSize;
     private int individualDeletedMessagesSerializedSize;
 
+    // Versions of the entries written in the cursor ledger, see PositionInfo.version
+    private static final int POSITION_INFO_SNAPSHOT_VERSION = 1;
+    private static final int POSITION_INFO_DELTA_VERSION = 2;
+
+    // Acknowledgement state changes since the last entry written in the cursor ledger, only tracked when delta
+    // entries are enabled. Protected by the cursor lock
+    private final LongPairRangeSet<PositionImpl> deltaIndividualDeletedMessages =
+            new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+    private final Set<PositionImpl> deltaBatchDeletedIndexes = ConcurrentHashMap.newKeySet();
+    // Cursor ledger where the current chain of delta entries is written, and number of entries since its snapshot
+    private LedgerHandle deltaCursorLedger;
+    private int deltaEntriesSinceSnapshot;
+
+    // Store the position updates are appended to instead of a dedicated cursor ledger, when enabled in the factory
+    private final SharedCursorStateStore sharedCursorStateStore;
+    // Shared ledger the cursor z-node points to, and the one it is being updated to. The z-node updates are chained
+    // on sharedCursorStateUpdate, and all three are protected by the cursor monitor
+    private volatile long sharedCursorStateLedgerId = -1;
+    private long pendingSharedCursorStateLedgerId = -1;
+    private CompletableFuture<Void> sharedCursorStateUpdate = CompletableFuture.completedFuture(null);
+
     class MarkDeleteEntry {
         final PositionImpl newPosition;
         final MarkDeleteCallback callback;
@@ -235,6 +266,9 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     protected final ManagedCursorMXBean mbean;
 
+    // Entries read ahead of the read position, null when read-ahead is disabled
+    final CursorReadAhead readAhead;
+
     @SuppressWarnings("checkstyle:javadoctype")
     public interface VoidCallback {
         void operationComplete();
@@ -247,9 +281,13 @@ public class ManagedCursorImpl implements ManagedCursor {
         this.config = config;
         this.ledger = ledger;
         this.name = cursorName;
-        this.individualDeletedMessages = config.isUnackedRangesOpenCacheSetEnabled()
-                ? new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter)
-                : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        if (config.isUnackedRangesBitmapEnabled()) {
+            this.individualDeletedMessages = new RoaringBitmapLongPairRangeSet<>(positionRangeConverter);
+        } else {
+            this.individualDeletedMessages = config.isUnackedRangesOpenCacheSetEnabled()
+                    ? new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter)
+                    : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        }
         if (config.isDeletionAtBatchIndexLevelEnabled()) {
             this.batchDeletedIndexes = new ConcurrentSkipListMap<>();
         } else {
@@ -272,6 +310,8 @@ public class ManagedCursorImpl implements ManagedCursor {
             markDeleteLimiter = null;
         }
         this.mbean = new ManagedCursorMXBeanImpl(this);
+        this.readAhead = ledger != null ? ledger.newCursorReadAhead(cursorName) : null;
+        this.sharedCursorStateStore = ledger != null ? ledger.getSharedCursorStateStore() : null;
     }
 
     @Override
@@ -301,6 +341,9 @@ public class ManagedCursorImpl implements ManagedCursor {
                     if (info.getIndividualDeletedMessagesCount() > 0) {
                         recoverIndividualDeletedMessages(info.getIndividualDeletedMessagesList());
                     }
+                    if (info.getIndividualDeletedMessageBitmapsCount() > 0) {
+                        recoverIndividualDeletedMessageBitmaps(info.getIndividualDeletedMessageBitmapsList());
+                    }
 
                     Map<String, Long> recoveredProperties = Collections.emptyMap();
                     if (info.getPropertiesCount() > 0) {
@@ -314,6 +357,10 @@ public class ManagedCursorImpl implements ManagedCursor {
 
                     recoveredCursor(recoveredPosition, recoveredProperties, null);
                     callback.operationComplete();
+                } else if (info.getCursorsLedgerShared()) {
+                    log.info("[{}] Consumer {} meta-data recover from shared ledger {}", ledger.getName(), name,
+                            info.getCursorsLedgerId());
+                    recoverFromSharedCursorState(info, callback);
                 } else {
                     // Need to proceed and read the last entry in the specified ledger to find out the last position
                     log.info("[{}] Consumer {} meta-data recover from ledger {}", ledger.getName(), name,
@@ -389,26 +436,39 @@ public class ManagedCursorImpl implements ManagedCursor {
                     return;
                 }
 
-                Map<String, Long> recoveredProperties = Collections.emptyMap();
-                if (positionInfo.getPropertiesCount() > 0) {
-                    // Recover properties map
-                    recoveredProperties = Maps.newHashMap();
-                    for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
-                        LongProperty property = positionInfo.getProperties(i);
-                        recoveredProperties.put(property.getName(), property.getValue());
-                    }
+                if (!positionInfo.hasDelta()) {
+                    recoverFromPositionInfos(Collections.singletonList(positionInfo), lh, callback);
+                    return;
                 }
 
-                PositionImpl position = new PositionImpl(positionInfo);
-                if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
-                    recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
-                }
-                if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null
-                    && positionInfo.getBatchedEntryDeletionIndexInfoCount() > 0) {
-                    recoverBatchDeletedIndexes(positionInfo.getBatchedEntryDeletionIndexInfoList());
-                }
-                recoveredCursor(position, recoveredProperties, lh);
-                callback.operationComplete();
+                // The last entry only contains the changes since the previous one, replay all of them on top of the
+                // full snapshot they are based on
+                long snapshotEntryId = lastEntryInLedger - positionInfo.getDelta().getEntriesSinceSnapshot();
+                lh.asyncReadEntries(snapshotEntryId, lastEntryInLedger, (rc2, lh2, seq2, ctx2) -> {
+                    if (isBkErrorNotRecoverable(rc2)) {
+                        log.error("[{}] Error reading from metadata ledger {} for consumer {}: {}", ledger.getName(),
+                                ledgerId, name, BKException.getMessage(rc2));
+                        // Rewind to oldest entry available
+                        initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                        return;
+                    } else if (rc2 != BKException.Code.OK) {
+                        log.warn("[{}] Error reading from metadata ledger {} for consumer {}: {}", ledger.getName(),
+                                ledgerId, name, BKException.getMessage(rc2));
+                        callback.operationFailed(createManagedLedgerException(rc2));
+                        return;
+                    }
+
+                    List<PositionInfo> positionInfos = Lists.newArrayList();
+                    try {
+                        while (seq2.hasMoreElements()) {
+                            positionInfos.add(PositionInfo.parseFrom(seq2.nextElement().getEntry()));
+                        }
+                    } catch (InvalidProtocolBufferException e) {
+                        callback.operationFailed(new ManagedLedgerException(e));
+                        return;
+                    }
+                    recoverFromPositionInfos(positionInfos, lh, callback);
+                }, null);
             }, null);
         };
         try {
@@ -420,38 +480,179 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private void recoverFromSharedCursorState(final ManagedCursorInfo info, final VoidCallback callback) {
+        long ledgerId = info.getCursorsLedgerId();
+        CompletableFuture<Optional<PositionInfo>> future = sharedCursorStateStore != null
+                ? sharedCursorStateStore.readCursorState(ledgerId, config, ledger.getName(), name)
+                : SharedCursorStateStore.readCursorState(bookkeeper, ledgerId, config, ledger.getName(), name);
+        future.whenComplete((positionInfo, e) -> {
+            if (e != null) {
+                Throwable cause = FutureUtil.unwrapCompletionException(e);
+                if (cause instanceof BKException && isBkErrorNotRecoverable(((BKException) cause).getCode())) {
+                    log.error("[{}] Error reading from shared metadata ledger {} for consumer {}: {}",
+                            ledger.getName(), ledgerId, name, cause.getMessage());
+                    // Rewind to oldest entry available
+                    initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                } else {
+                    log.warn("[{}] Error reading from shared metadata ledger {} for consumer {}: {}",
+                            ledger.getName(), ledgerId, name, cause.getMessage());
+                    callback.operationFailed(new ManagedLedgerException(cause));
+                }
+                return;
+            }
+
+            if (!positionInfo.isPresent()) {
+                log.warn("[{}] Error reading from shared metadata ledger {} for consumer {}: No update in ledger",
+                        ledger.getName(), ledgerId, name);
+                // Rewind to last cursor snapshot available
+                initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                return;
+            }
+            recoverFromPositionInfos(Collections.singletonList(positionInfo.get()), null, callback);
+        });
+    }
+
+    /**
+     * Recover the cursor from the entries of its cursor ledger: either a full snapshot, or a full snapshot followed
+     * by the delta entries to apply on top of it.
+     */
+    private void recoverFromPositionInfos(List<PositionInfo> positionInfos, LedgerHandle lh,
+                                          VoidCallback callback) {
+        for (int i = 0; i < positionInfos.size(); i++) {
+            PositionInfo positionInfo = positionInfos.get(i);
+            if (positionInfo.getVersion() > POSITION_INFO_DELTA_VERSION || positionInfo.hasDelta() != (i > 0)) {
+                log.error("[{}] Unsupported entry in metadata ledger for consumer {}: version={} delta={}",
+                        ledger.getName(), name, positionInfo.getVersion(), positionInfo.hasDelta());
+                callback.operationFailed(new ManagedLedgerException(
+                        "Unsupported cursor ledger entry version " + positionInfo.getVersion()));
+                return;
+            }
+        }
+
+        PositionInfo snapshot = positionInfos.get(0);
+        if (snapshot.getIndividualDeletedMessagesCount() > 0) {
+            recoverIndividualDeletedMessages(snapshot.getIndividualDeletedMessagesList());
+        }
+        if (snapshot.getIndividualDeletedMessageBitmapsCount() > 0) {
+            recoverIndividualDeletedMessageBitmaps(snapshot.getIndividualDeletedMessageBitmapsList());
+        }
+        if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null
+            && snapshot.getBatchedEntryDeletionIndexInfoCount() > 0) {
+            recoverBatchDeletedIndexes(snapshot.getBatchedEntryDeletionIndexInfoList());
+        }
+        for (int i = 1; i < positionInfos.size(); i++) {
+            recoverAckStateDelta(positionInfos.get(i).getDelta());
+        }
+
+        PositionInfo positionInfo = positionInfos.get(positionInfos.size() - 1);
+        Map<String, Long> recoveredProperties = Collections.emptyMap();
+        if (positionInfo.getPropertiesCount() > 0) {
+            // Recover properties map
+            recoveredProperties = Maps.newHashMap();
+            for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
+                LongProperty property = positionInfo.getProperties(i);
+                recoveredProperties.put(property.getName(), property.getValue());
+            }
+        }
+
+        recoveredCursor(new PositionImpl(positionInfo), recoveredProperties, lh);
+        callback.operationComplete();
+    }
+
     private void recoverIndividualDeletedMessages(List<MLDataFormats.MessageRange> individualDeletedMessagesList) {
         lock.writeLock().lock();
         try {
             individualDeletedMessages.clear();
-            individualDeletedMessagesList.forEach(messageRange -> {
-                MLDataFormats.NestedPositionInfo lowerEndpoint = messageRange.getLowerEndpoint();
-                MLDataFormats.NestedPositionInfo upperEndpoint = messageRange.getUpperEndpoint();
+            addIndividualDeletedMessages(individualDeletedMessagesList);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                if (lowerEndpoint.getLedgerId() == upperEndpoint.getLedgerId()) {
+    private void addIndividualDeletedMessages(List<MLDataFormats.MessageRange> individualDeletedMessagesList) {
+        individualDeletedMessagesList.forEach(messageRange -> {
+            MLDataFormats.NestedPositionInfo lowerEndpoint = messageRange.getLowerEndpoint();
+            MLDataFormats.NestedPositionInfo upperEndpoint = messageRange.getUpperEndpoint();
+
+            if (lowerEndpoint.getLedgerId() == upperEndpoint.getLedgerId()) {
+                individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
+                        upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
+            } else {
+                // Store message ranges after splitting them by ledger ID
+                LedgerInfo lowerEndpointLedgerInfo = ledger.getLedgersInfo().get(lowerEndpoint.getLedgerId());
+                if (lowerEndpointLedgerInfo != null) {
                     individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
-                            upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
+                            lowerEndpoint.getLedgerId(), lowerEndpointLedgerInfo.getEntries() - 1);
                 } else {
-                    // Store message ranges after splitting them by ledger ID
-                    LedgerInfo lowerEndpointLedgerInfo = ledger.getLedgersInfo().get(lowerEndpoint.getLedgerId());
-                    if (lowerEndpointLedgerInfo != null) {
-                        individualDeletedMessages.addOpenClosed(lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId(),
-                                lowerEndpoint.getLedgerId(), lowerEndpointLedgerInfo.getEntries() - 1);
-                    } else {
-                        log.warn("[{}][{}] No ledger info of lower endpoint {}:{}", ledger.getName(), name,
-                                lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId());
-                    }
+                    log.warn("[{}][{}] No ledger info of lower endpoint {}:{}", ledger.getName(), name,
+                            lowerEndpoint.getLedgerId(), lowerEndpoint.getEntryId());
+                }
+
+                for (LedgerInfo li : ledger.getLedgersInfo()
+                        .subMap(lowerEndpoint.getLedgerId(), false, upperEndpoint.getLedgerId(), false).values()) {
+                    individualDeletedMessages.addOpenClosed(li.getLedgerId(), -1, li.getLedgerId(),
+                            li.getEntries() - 1);
+                }
+
+                individualDeletedMessages.addOpenClosed(upperEndpoint.getLedgerId(), -1,
+                        upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
+            }
+        });
+    }
 
-                    for (LedgerInfo li : ledger.getLedgersInfo()
-                            .subMap(lowerEndpoint.getLedgerId(), false, upperEndpoint.getLedgerId(), false).values()) {
-                        individualDeletedMessages.addOpenClosed(li.getLedgerId(), -1, li.getLedgerId(),
-                                li.getEntries() - 1);
+    private void recoverAckStateDelta(PositionInfoDelta delta) {
+        PositionImpl markDeletePosition = new PositionImpl(delta.getMarkDeletePosition());
+        lock.writeLock().lock();
+        try {
+            addIndividualDeletedMessages(delta.getIndividualDeletedMessagesList());
+            individualDeletedMessages.removeAtMost(markDeletePosition.getLedgerId(), markDeletePosition.getEntryId());
+            if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
+                delta.getRemovedBatchedEntryDeletionIndexInfoList().forEach(position -> {
+                    BitSetRecyclable bitSet = batchDeletedIndexes.remove(new PositionImpl(position));
+                    if (bitSet != null) {
+                        bitSet.recycle();
+                    }
+                });
+                delta.getBatchedEntryDeletionIndexInfoList().forEach(batchDeletedIndexInfo -> {
+                    long[] array = new long[batchDeletedIndexInfo.getDeleteSetCount()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = batchDeletedIndexInfo.getDeleteSet(i);
                     }
+                    BitSetRecyclable bitSet = batchDeletedIndexes.put(
+                            new PositionImpl(batchDeletedIndexInfo.getPosition()),
+                            BitSetRecyclable.create().resetWords(array));
+                    if (bitSet != null) {
+                        bitSet.recycle();
+                    }
+                });
+                Map<PositionImpl, BitSetRecyclable> subMap = batchDeletedIndexes.headMap(markDeletePosition, true);
+                subMap.values().forEach(BitSetRecyclable::recycle);
+                subMap.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                    individualDeletedMessages.addOpenClosed(upperEndpoint.getLedgerId(), -1,
-                            upperEndpoint.getLedgerId(), upperEndpoint.getEntryId());
-                }
-            });
+    private void recoverIndividualDeletedMessageBitmaps(List<IndividualDeletedMessageBitmap> bitmaps) {
+        lock.writeLock().lock();
+        try {
+            // Bitmaps written with the bitmap range set enabled are converted to ranges if it has been disabled since
+            RoaringBitmapLongPairRangeSet<PositionImpl> bitmapSet =
+                    individualDeletedMessages instanceof RoaringBitmapLongPairRangeSet
+                            ? (RoaringBitmapLongPairRangeSet<PositionImpl>) individualDeletedMessages
+                            : new RoaringBitmapLongPairRangeSet<>(positionRangeConverter);
+            bitmaps.forEach(bitmap -> bitmapSet.addSerializedBitmap(bitmap.getLedgerId(),
+                    bitmap.getEntryIds().asReadOnlyByteBuffer()));
+            if (bitmapSet != individualDeletedMessages) {
+                bitmapSet.forEach(range -> {
+                    PositionImpl lower = range.lowerEndpoint();
+                    PositionImpl upper = range.upperEndpoint();
+                    individualDeletedMessages.addOpenClosed(lower.getLedgerId(), lower.getEntryId(),
+                            upper.getLedgerId(), upper.getEntryId());
+                    return true;
+                });
+            }
         } finally {
             lock.writeLock().unlock();
         }
@@ -1013,6 +1214,8 @@ public class ManagedCursorImpl implements ManagedCursor {
                     lastMarkDeleteEntry = new MarkDeleteEntry(newMarkDeletePosition, Collections.emptyMap(),
                             null, null);
                     individualDeletedMessages.clear();
+                    // The next entry in the cursor ledger needs to be a full snapshot of the reset state
+                    resetAckStateDelta();
                     if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
                         batchDeletedIndexes.values().forEach(BitSetRecyclable::recycle);
                         batchDeletedIndexes.clear();
@@ -1256,6 +1459,164 @@ public class ManagedCursorImpl implements ManagedCursor {
         return alreadyAcknowledgedPositions;
     }
 
+    @Override
+    public int asyncReplayEntries(long[] ledgerAndEntryIds, int count, ReadEntriesCallback callback, Object ctx,
+            ConcurrentLongPairSet.LongPairConsumer skippedPositions) {
+        checkArgument(count >= 0 && ledgerAndEntryIds.length >= 2 * count);
+        if (count == 0) {
+            callback.readEntriesComplete(new ArrayList<>(), ctx);
+            return 0;
+        }
+
+        // filters out messages which are already acknowledged, and the positions requested more than once
+        final long[] replayIds = new long[2 * count];
+        int replayCount = 0;
+        boolean ascending = true;
+        lock.readLock().lock();
+        try {
+            final long markDeleteLedgerId = markDeletePosition.getLedgerId();
+            final long markDeleteEntryId = markDeletePosition.getEntryId();
+            for (int i = 0; i < count; i++) {
+                long ledgerId = ledgerAndEntryIds[2 * i];
+                long entryId = ledgerAndEntryIds[2 * i + 1];
+                if (ledgerId < markDeleteLedgerId
+                        || (ledgerId == markDeleteLedgerId && entryId <= markDeleteEntryId)
+                        || individualDeletedMessages.contains(ledgerId, entryId)) {
+                    skippedPositions.accept(ledgerId, entryId);
+                    continue;
+                }
+                if (replayCount > 0) {
+                    int order = comparePositions(ledgerId, entryId, replayIds[2 * replayCount - 2],
+                            replayIds[2 * replayCount - 1]);
+                    if (order == 0 || (!(ascending && order > 0) && indexOf(replayIds, replayCount, ledgerId,
+                            entryId) >= 0)) {
+                        continue;
+                    }
+                    ascending &= order > 0;
+                }
+                replayIds[2 * replayCount] = ledgerId;
+                replayIds[2 * replayCount + 1] = entryId;
+                replayCount++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (replayCount == 0) {
+            return 0;
+        }
+
+        ReplayEntriesCallback cb = new ReplayEntriesCallback(replayIds, replayCount, callback);
+        for (int i = 0; i < replayCount; i++) {
+            PositionImpl position = PositionImpl.get(replayIds[2 * i], replayIds[2 * i + 1]);
+            if (position.compareTo(this.readPosition) == 0) {
+                this.setReadPosition(this.readPosition.getNext());
+                log.warn("[{}][{}] replayPosition{} equals readPosition{}," + " need set next readPositio",
+                        ledger.getName(), name, position, this.readPosition);
+            }
+            ledger.asyncReadEntry(position, cb, ctx);
+        }
+        return replayCount;
+    }
+
+    private static int comparePositions(long ledgerId1, long entryId1, long ledgerId2, long entryId2) {
+        int order = Long.compare(ledgerId1, ledgerId2);
+        return order != 0 ? order : Long.compare(entryId1, entryId2);
+    }
+
+    private static int indexOf(long[] ledgerAndEntryIds, int count, long ledgerId, long entryId) {
+        for (int i = 0; i < count; i++) {
+            if (ledgerAndEntryIds[2 * i] == ledgerId && ledgerAndEntryIds[2 * i + 1] == entryId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Collects the entries read by {@link #asyncReplayEntries(long[], int, ReadEntriesCallback, Object,
+     * ConcurrentLongPairSet.LongPairConsumer)} in the order of the requested positions.
+     */
+    private class ReplayEntriesCallback implements ReadEntryCallback {
+        private final long[] ledgerAndEntryIds;
+        private final Entry[] entries;
+        private final ReadEntriesCallback callback;
+        private int pendingCallbacks;
+        private int nextSlot;
+        private ManagedLedgerException exception;
+
+        ReplayEntriesCallback(long[] ledgerAndEntryIds, int count, ReadEntriesCallback callback) {
+            this.ledgerAndEntryIds = ledgerAndEntryIds;
+            this.entries = new Entry[count];
+            this.callback = callback;
+            this.pendingCallbacks = count;
+        }
+
+        @Override
+        public synchronized void readEntryComplete(Entry entry, Object ctx) {
+            if (exception != null) {
+                // if there is already a failure for a different position, we should release the entry straight away
+                entry.release();
+            } else {
+                int slot = slotOf(entry.getLedgerId(), entry.getEntryId());
+                if (slot >= 0 && entries[slot] == null) {
+                    entries[slot] = entry;
+                } else {
+                    entry.release();
+                    fail(new ManagedLedgerException("Unexpected entry " + entry.getLedgerId() + ":"
+                            + entry.getEntryId() + " while replaying"));
+                }
+            }
+            if (--pendingCallbacks == 0) {
+                complete(ctx);
+            }
+        }
+
+        @Override
+        public synchronized void readEntryFailed(ManagedLedgerException mle, Object ctx) {
+            log.warn("[{}][{}] Error while replaying entries", ledger.getName(), name, mle);
+            if (exception == null) {
+                fail(mle);
+            }
+            if (--pendingCallbacks == 0) {
+                complete(ctx);
+            }
+        }
+
+        private void fail(ManagedLedgerException mle) {
+            exception = mle;
+            // release the entries just once, any further read success will release the entry straight away
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] != null) {
+                    entries[i].release();
+                    entries[i] = null;
+                }
+            }
+        }
+
+        private void complete(Object ctx) {
+            if (exception != null) {
+                callback.readEntriesFailed(exception, ctx);
+            } else {
+                List<Entry> result = new ArrayList<>(entries.length);
+                Collections.addAll(result, entries);
+                callback.readEntriesComplete(result, ctx);
+            }
+        }
+
+        // reads mostly complete in the requested order, so start looking right after the last slot found
+        private int slotOf(long ledgerId, long entryId) {
+            for (int i = 0; i < entries.length; i++) {
+                int slot = (nextSlot + i) % entries.length;
+                if (ledgerAndEntryIds[2 * slot] == ledgerId && ledgerAndEntryIds[2 * slot + 1] == entryId) {
+                    nextSlot = slot + 1;
+                    return slot;
+                }
+            }
+            return -1;
+        }
+    }
+
     protected long getNumberOfEntries(Range<PositionImpl> range) {
         long allEntries = ledger.getNumberOfEntries(range);
 
@@ -1618,6 +1979,7 @@ public class ManagedCursorImpl implements ManagedCursor {
         if (config.isDeletionAtBatchIndexLevelEnabled() && batchDeletedIndexes != null) {
             if (newPosition.ackSet != null) {
                 batchDeletedIndexes.put(newPosition, BitSetRecyclable.create().resetWords(newPosition.ackSet));
+                trackAckStateDelta(newPosition);
                 newPosition = ledger.getPreviousPosition(newPosition);
             }
             Map<PositionImpl, BitSetRecyclable> subMap = batchDeletedIndexes.subMap(PositionImpl.earliest, newPosition);
@@ -1706,7 +2068,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
         lastMarkDeleteEntry = mdEntry;
 
-        persistPositionToLedger(cursorLedger, mdEntry, new VoidCallback() {
+        VoidCallback persistCallback = new VoidCallback() {
             @Override
             public void operationComplete() {
                 if (log.isDebugEnabled()) {
@@ -1766,7 +2128,12 @@ public class ManagedCursorImpl implements ManagedCursor {
                     mdEntry.callback.markDeleteFailed(exception, mdEntry.ctx);
                 }
             }
-        });
+        };
+        if (sharedCursorStateStore != null) {
+            persistPositionToSharedCursorStateStore(mdEntry, persistCallback);
+        } else {
+            persistPositionToLedger(cursorLedger, mdEntry, persistCallback);
+        }
     }
 
     @Override
@@ -1863,6 +2230,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                         BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
                         if (bitSetRecyclable != null) {
                             bitSetRecyclable.recycle();
+                            trackAckStateDelta(position);
                         }
                     }
                     if (log.isDebugEnabled()) {
@@ -1875,6 +2243,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                         BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
                         if (bitSetRecyclable != null) {
                             bitSetRecyclable.recycle();
+                            trackAckStateDelta(position);
                         }
                     }
                     // Add a range (prev, pos] to the set. Adding the previous entry as an open limit to the range will make
@@ -1882,6 +2251,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                     PositionImpl previousPosition = ledger.getPreviousPosition(position);
                     individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
                         position.getLedgerId(), position.getEntryId());
+                    trackAckStateDelta(previousPosition, position);
                     MSG_CONSUMED_COUNTER_UPDATER.incrementAndGet(this);
 
                     if (log.isDebugEnabled()) {
@@ -1893,10 +2263,12 @@ public class ManagedCursorImpl implements ManagedCursor {
                     BitSetRecyclable givenBitSet = BitSetRecyclable.create().resetWords(position.ackSet);
                     bitSet.and(givenBitSet);
                     givenBitSet.recycle();
+                    trackAckStateDelta(position);
                     if (bitSet.isEmpty()) {
                         PositionImpl previousPosition = ledger.getPreviousPosition(position);
                         individualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
                             position.getLedgerId(), position.getEntryId());
+                        trackAckStateDelta(previousPosition, position);
                         MSG_CONSUMED_COUNTER_UPDATER.incrementAndGet(this);
                         BitSetRecyclable bitSetRecyclable = batchDeletedIndexes.remove(position);
                         if (bitSetRecyclable != null) {
@@ -2198,6 +2570,13 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private void persistPositionMetaStore(long cursorsLedgerId, PositionImpl position, Map<String, Long> properties,
             MetaStoreCallback<Void> callback, boolean persistIndividualDeletedMessageRanges) {
+        persistPositionMetaStore(cursorsLedgerId, position, properties, callback,
+                persistIndividualDeletedMessageRanges, false);
+    }
+
+    private void persistPositionMetaStore(long cursorsLedgerId, PositionImpl position, Map<String, Long> properties,
+            MetaStoreCallback<Void> callback, boolean persistIndividualDeletedMessageRanges,
+            boolean cursorsLedgerShared) {
         if (state == State.Closed) {
             ledger.getExecutor().execute(safeRun(() -> callback.operationFailed(new MetaStoreException(
                     new CursorAlreadyClosedException(name + " cursor already closed")))));
@@ -2212,9 +2591,13 @@ public class ManagedCursorImpl implements ManagedCursor {
                 .setMarkDeleteEntryId(position.getEntryId()) //
                 .setLastActive(lastActive); //
 
+        if (cursorsLedgerShared) {
+            info.setCursorsLedgerShared(true);
+        }
         info.addAllProperties(buildPropertiesMap(properties));
         if (persistIndividualDeletedMessageRanges) {
             info.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges());
+            info.addAllIndividualDeletedMessageBitmaps(buildIndividualDeletedMessageBitmaps());
             if (config.isDeletionAtBatchIndexLevelEnabled()) {
                 info.addAllBatchedEntryDeletionIndexInfo(buildBatchEntryDeletionIndexInfoList());
             }
@@ -2271,10 +2654,55 @@ public class ManagedCursorImpl implements ManagedCursor {
             callback.closeComplete(ctx);
             return;
         }
+        if (readAhead != null) {
+            readAhead.clear();
+        }
+        if (sharedCursorStateStore != null) {
+            closeSharedCursorState(callback, ctx);
+            return;
+        }
         persistPositionWhenClosing(lastMarkDeleteEntry.newPosition, lastMarkDeleteEntry.properties, callback, ctx);
         STATE_UPDATER.set(this, State.Closed);
     }
 
+    private void closeSharedCursorState(final AsyncCallbacks.CloseCallback callback, final Object ctx) {
+        // Wait for the in-flight z-node updates, so that they can't override the final one
+        CompletableFuture<Void> pendingUpdate;
+        synchronized (this) {
+            pendingUpdate = sharedCursorStateUpdate;
+        }
+        pendingUpdate.thenRun(safeRun(() -> {
+            // The shared ledger can be deleted once the cursor is closed, so the final position is always stored in
+            // the cursor z-node
+            persistPositionMetaStore(-1, lastMarkDeleteEntry.newPosition, lastMarkDeleteEntry.properties,
+                    new MetaStoreCallback<Void>() {
+                        @Override
+                        public void operationComplete(Void result, Stat stat) {
+                            log.info("[{}][{}] Closed cursor at md-position={}", ledger.getName(), name,
+                                    markDeletePosition);
+                            sharedCursorStateLedgerId = -1;
+                            sharedCursorStateStore.unregister(ManagedCursorImpl.this);
+                            callback.closeComplete(ctx);
+                        }
+
+                        @Override
+                        public void operationFailed(MetaStoreException e) {
+                            log.warn("[{}][{}] Failed to update cursor info when closing: {}", ledger.getName(), name,
+                                    e.getMessage());
+                            callback.closeFailed(e, ctx);
+                        }
+                    }, true);
+            STATE_UPDATER.set(this, State.Closed);
+        }));
+    }
+
+    @Override
+    public void pauseReadAhead() {
+        if (readAhead != null) {
+            readAhead.pause();
+        }
+    }
+
     /**
      * Internal version of seek that doesn't do the validation check.
      *
@@ -2349,6 +2777,10 @@ public class ManagedCursorImpl implements ManagedCursor {
     }
 
     void createNewMetadataLedger(final VoidCallback callback) {
+        if (sharedCursorStateStore != null) {
+            switchToSharedCursorStateStore(callback);
+            return;
+        }
         ledger.mbean.startCursorLedgerCreateOp();
 
         ledger.asyncCreateLedger(bookkeeper, config, digestType, (rc, lh, ctx) -> {
@@ -2436,7 +2868,8 @@ public class ManagedCursorImpl implements ManagedCursor {
     private List<MLDataFormats.MessageRange> buildIndividualDeletedMessageRanges() {
         lock.readLock().lock();
         try {
-            if (individualDeletedMessages.isEmpty()) {
+            if (individualDeletedMessages.isEmpty()
+                    || individualDeletedMessages instanceof RoaringBitmapLongPairRangeSet) {
                 return Collections.emptyList();
             }
 
@@ -2466,6 +2899,32 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private List<IndividualDeletedMessageBitmap> buildIndividualDeletedMessageBitmaps() {
+        if (!(individualDeletedMessages instanceof RoaringBitmapLongPairRangeSet)) {
+            return Collections.emptyList();
+        }
+
+        // The ranges in bitmaps are not limited by maxUnackedRangesToPersist, as they take a few bytes each
+        lock.readLock().lock();
+        try {
+            List<IndividualDeletedMessageBitmap> bitmaps = Lists.newArrayList();
+            int acksSerializedSize = 0;
+            for (Map.Entry<Long, ByteBuffer> bitmap : ((RoaringBitmapLongPairRangeSet<PositionImpl>)
+                    individualDeletedMessages).toSerializedBitmaps().entrySet()) {
+                IndividualDeletedMessageBitmap serialized = IndividualDeletedMessageBitmap.newBuilder()
+                        .setLedgerId(bitmap.getKey())
+                        .setEntryIds(ByteString.copyFrom(bitmap.getValue()))
+                        .build();
+                acksSerializedSize += serialized.getSerializedSize();
+                bitmaps.add(serialized);
+            }
+            this.individualDeletedMessagesSerializedSize = acksSerializedSize;
+            return bitmaps;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     private List<MLDataFormats.BatchedEntryDeletionIndexInfo> buildBatchEntryDeletionIndexInfoList() {
         if (!config.isDeletionAtBatchIndexLevelEnabled() || batchDeletedIndexes == null || batchDeletedIndexes.isEmpty()) {
             return Collections.emptyList();
@@ -2493,15 +2952,248 @@ public class ManagedCursorImpl implements ManagedCursor {
         return result;
     }
 
-    void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+    private boolean isAckStateDeltaEnabled() {
+        return config.getMaxCursorAckStateDeltaEntries() > 0 && sharedCursorStateStore == null;
+    }
+
+    private void trackAckStateDelta(PositionImpl previousPosition, PositionImpl position) {
+        if (isAckStateDeltaEnabled()) {
+            deltaIndividualDeletedMessages.addOpenClosed(previousPosition.getLedgerId(), previousPosition.getEntryId(),
+                    position.getLedgerId(), position.getEntryId());
+        }
+    }
+
+    private void trackAckStateDelta(PositionImpl batchPosition) {
+        if (isAckStateDeltaEnabled()) {
+            deltaBatchDeletedIndexes.add(PositionImpl.get(batchPosition.getLedgerId(), batchPosition.getEntryId()));
+        }
+    }
+
+    private void resetAckStateDelta() {
+        lock.writeLock().lock();
+        try {
+            deltaCursorLedger = null;
+            deltaIndividualDeletedMessages.clear();
+            deltaBatchDeletedIndexes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private PositionInfo buildPositionInfoSnapshot(MarkDeleteEntry mdEntry) {
         PositionImpl position = mdEntry.newPosition;
-        PositionInfo pi = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
+        return PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
                 .setEntryId(position.getEntryId())
                 .addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges())
+                .addAllIndividualDeletedMessageBitmaps(buildIndividualDeletedMessageBitmaps())
                 .addAllBatchedEntryDeletionIndexInfo(buildBatchEntryDeletionIndexInfoList())
                 .addAllProperties(buildPropertiesMap(mdEntry.properties)).build();
+    }
+
+    private PositionInfo buildPositionInfoDelta(MarkDeleteEntry mdEntry, int entriesSinceSnapshot) {
+        PositionInfoDelta.Builder delta = PositionInfoDelta.newBuilder()
+                .setMarkDeletePosition(NestedPositionInfo.newBuilder()
+                        .setLedgerId(mdEntry.newPosition.getLedgerId())
+                        .setEntryId(mdEntry.newPosition.getEntryId()))
+                .setEntriesSinceSnapshot(entriesSinceSnapshot);
+        deltaIndividualDeletedMessages.forEach(range -> {
+            delta.addIndividualDeletedMessages(MessageRange.newBuilder()
+                    .setLowerEndpoint(NestedPositionInfo.newBuilder()
+                            .setLedgerId(range.lowerEndpoint().getLedgerId())
+                            .setEntryId(range.lowerEndpoint().getEntryId()))
+                    .setUpperEndpoint(NestedPositionInfo.newBuilder()
+                            .setLedgerId(range.upperEndpoint().getLedgerId())
+                            .setEntryId(range.upperEndpoint().getEntryId())));
+            return true;
+        });
+        deltaIndividualDeletedMessages.clear();
+        // Batch positions are untracked before reading their state, as they can be updated without holding the lock
+        Iterator<PositionImpl> iterator = deltaBatchDeletedIndexes.iterator();
+        while (iterator.hasNext()) {
+            PositionImpl position = iterator.next();
+            iterator.remove();
+            NestedPositionInfo nestedPosition = NestedPositionInfo.newBuilder()
+                    .setLedgerId(position.getLedgerId())
+                    .setEntryId(position.getEntryId())
+                    .build();
+            BitSetRecyclable bitSet = batchDeletedIndexes != null ? batchDeletedIndexes.get(position) : null;
+            if (bitSet != null) {
+                List<Long> deleteSet = new ArrayList<>();
+                for (long word : bitSet.toLongArray()) {
+                    deleteSet.add(word);
+                }
+                delta.addBatchedEntryDeletionIndexInfo(MLDataFormats.BatchedEntryDeletionIndexInfo.newBuilder()
+                        .setPosition(nestedPosition)
+                        .addAllDeleteSet(deleteSet));
+            } else {
+                delta.addRemovedBatchedEntryDeletionIndexInfo(nestedPosition);
+            }
+        }
+        return PositionInfo.newBuilder()
+                .setVersion(POSITION_INFO_DELTA_VERSION)
+                .setDelta(delta)
+                .addAllProperties(buildPropertiesMap(mdEntry.properties)).build();
+    }
+
+    private void switchToSharedCursorStateStore(final VoidCallback callback) {
+        sharedCursorStateStore.register(this);
+        MarkDeleteEntry mdEntry = lastMarkDeleteEntry;
+        appendToSharedCursorStateStore(mdEntry)
+                .thenCompose(ledgerId -> updateSharedCursorStateLedger(ledgerId, mdEntry))
+                .whenComplete((updated, e) -> {
+                    if (e != null || !updated) {
+                        log.warn("[{}] Failed to switch cursor {} to the shared cursor state ledger", ledger.getName(),
+                                name);
+                        callback.operationFailed(e != null ? ManagedLedgerException.getManagedLedgerException(e)
+                                : new ManagedLedgerException("Failed to update cursor " + name + " metadata"));
+                        return;
+                    }
+
+                    // The recovered cursor ledger can be deleted now that the z-node doesn't point to it anymore
+                    LedgerHandle oldLedger = cursorLedger;
+                    cursorLedger = null;
+                    isCursorLedgerReadOnly = true;
+                    callback.operationComplete();
+
+                    if (oldLedger != null) {
+                        asyncDeleteLedger(oldLedger);
+                    }
+                });
+    }
+
+    private CompletableFuture<Long> appendToSharedCursorStateStore(MarkDeleteEntry mdEntry) {
+        // The updates have to be appended in the order their state was built
+        lock.writeLock().lock();
+        try {
+            return sharedCursorStateStore.append(this, buildPositionInfoSnapshot(mdEntry));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
+    private void persistPositionToSharedCursorStateStore(MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        appendToSharedCursorStateStore(mdEntry).whenComplete((ledgerId, e) -> {
+            if (e == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Updated cursor {} position {} in shared meta-ledger {}", ledger.getName(), name,
+                            mdEntry.newPosition, ledgerId);
+                }
+                updateSharedCursorStateLedger(ledgerId, mdEntry);
+                mbean.persistToLedger(true);
+                callback.operationComplete();
+                return;
+            }
 
+            log.warn("[{}] Error updating cursor {} position {} in shared meta-ledger: {}", ledger.getName(), name,
+                    mdEntry.newPosition, e.getMessage());
+            mbean.persistToLedger(false);
+            // Before giving up, try to persist the position in the metadata store
+            updateSharedCursorStateLedger(-1, mdEntry).thenAccept(updated -> {
+                if (updated) {
+                    mbean.persistToZookeeper(true);
+                    callback.operationComplete();
+                } else {
+                    mbean.persistToZookeeper(false);
+                    callback.operationFailed(ManagedLedgerException.getManagedLedgerException(e));
+                }
+            });
+        });
+    }
+
+    /**
+     * Point the cursor z-node to the shared ledger holding its last position update, or store the position in the
+     * z-node itself when ledgerId is -1. The updates to a newer ledger than the current one are chained, the others
+     * are skipped.
+     *
+     * @return a future completed with whether the z-node now points to the given ledger
+     */
+    private synchronized CompletableFuture<Boolean> updateSharedCursorStateLedger(long ledgerId,
+                                                                                 MarkDeleteEntry mdEntry) {
+        if (ledgerId >= 0 && ledgerId <= pendingSharedCursorStateLedgerId) {
+            return sharedCursorStateUpdate.thenApply(ignore -> sharedCursorStateLedgerId >= ledgerId);
+        }
+        pendingSharedCursorStateLedgerId = ledgerId;
+
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        sharedCursorStateUpdate = sharedCursorStateUpdate.thenCompose(ignore -> {
+            State state = STATE_UPDATER.get(this);
+            if (state == State.Closing || state == State.Closed) {
+                future.complete(false);
+                return future.thenApply(updated -> null);
+            }
+            persistPositionMetaStore(ledgerId, mdEntry.newPosition, mdEntry.properties,
+                    new MetaStoreCallback<Void>() {
+                        @Override
+                        public void operationComplete(Void result, Stat stat) {
+                            sharedCursorStateLedgerId = ledgerId;
+                            future.complete(true);
+                        }
+
+                        @Override
+                        public void operationFailed(MetaStoreException e) {
+                            log.warn("[{}] Failed to update cursor {} to shared ledger {}: {}", ledger.getName(),
+                                    name, ledgerId, e.getMessage());
+                            synchronized (ManagedCursorImpl.this) {
+                                // Let the next position update retry
+                                if (pendingSharedCursorStateLedgerId == ledgerId) {
+                                    pendingSharedCursorStateLedgerId = sharedCursorStateLedgerId;
+                                }
+                            }
+                            future.complete(false);
+                        }
+                    }, ledgerId < 0, ledgerId >= 0);
+            return future.thenApply(updated -> null);
+        });
+        return future;
+    }
+
+    /**
+     * Append the last position of the cursor to the current ledger of the shared cursor state store, so that the
+     * previous ledgers can be deleted.
+     */
+    CompletableFuture<Void> checkpointSharedCursorState() {
+        if (STATE_UPDATER.get(this) != State.Open) {
+            return CompletableFuture.completedFuture(null);
+        }
+        MarkDeleteEntry mdEntry = lastMarkDeleteEntry;
+        return appendToSharedCursorStateStore(mdEntry)
+                .thenCompose(ledgerId -> updateSharedCursorStateLedger(ledgerId, mdEntry))
+                .thenApply(updated -> null);
+    }
+
+    long getSharedCursorStateLedgerId() {
+        return sharedCursorStateLedgerId;
+    }
+
+    void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        if (config.getMaxCursorAckStateDeltaEntries() <= 0) {
+            addPositionInfoToLedger(lh, mdEntry, buildPositionInfoSnapshot(mdEntry), callback);
+            return;
+        }
+
+        // Each delta entry is based on the previous entry of the cursor ledger, so they have to be appended in the
+        // same order they are built. A new ledger always starts with a full snapshot
+        lock.writeLock().lock();
+        try {
+            PositionInfo pi;
+            if (lh == deltaCursorLedger && deltaEntriesSinceSnapshot < config.getMaxCursorAckStateDeltaEntries()) {
+                pi = buildPositionInfoDelta(mdEntry, ++deltaEntriesSinceSnapshot);
+            } else {
+                deltaIndividualDeletedMessages.clear();
+                deltaBatchDeletedIndexes.clear();
+                pi = buildPositionInfoSnapshot(mdEntry);
+                deltaCursorLedger = lh;
+                deltaEntriesSinceSnapshot = 0;
+            }
+            addPositionInfoToLedger(lh, mdEntry, pi, callback);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addPositionInfoToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, PositionInfo pi,
+                                         final VoidCallback callback) {
+        PositionImpl position = mdEntry.newPosition;
         if (log.isDebugEnabled()) {
             log.debug("[{}] Cursor {} Appending to ledger={} position={}", ledger.getName(), name, lh.getId(),
                     position);
@@ -2530,6 +3222,9 @@ public class ManagedCursorImpl implements ManagedCursor {
                 // If we've had a write error, the ledger will be automatically closed, we need to create a new one,
                 // in the meantime the mark-delete will be queued.
                 STATE_UPDATER.compareAndSet(ManagedCursorImpl.this, State.Open, State.NoLedger);
+                if (config.getMaxCursorAckStateDeltaEntries() > 0) {
+                    resetAckStateDelta();
+                }
 
                 mbean.persistToLedger(false);
                 // Before giving up, try to persist the position in the metadata store
@@ -2708,6 +3403,10 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private void asyncDeleteCursorLedger(int retry) {
         STATE_UPDATER.set(this, State.Closed);
+        if (sharedCursorStateStore != null) {
+            sharedCursorStateLedgerId = -1;
+            sharedCursorStateStore.unregister(this);
+        }
 
         if (cursorLedger == null || retry <= 0) {
             if (cursorLedger != null) {
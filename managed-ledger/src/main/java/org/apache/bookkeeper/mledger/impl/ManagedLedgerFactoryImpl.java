@@ -80,8 +80,8 @@ import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.zookeeper.ZooKeeperClient;
 import org.apache.pulsar.common.util.DateFormatter;
 import org.apache.pulsar.common.policies.data.EnsemblePlacementPolicyConfig;
-import org.apache.pulsar.metadata.api.MetadataStore;
 import org.apache.pulsar.metadata.api.Stat;
+import org.apache.pulsar.metadata.api.extended.MetadataStoreExtended;
 import org.apache.pulsar.metadata.impl.ZKMetadataStore;
 import org.apache.zookeeper.ZooKeeper;
 import org.slf4j.Logger;
@@ -104,13 +104,14 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
     protected final ConcurrentHashMap<String, PendingInitializeManagedLedger> pendingInitializeLedgers =
         new ConcurrentHashMap<>();
     private final EntryCacheManager entryCacheManager;
+    private final SharedCursorStateStore sharedCursorStateStore;
 
     private long lastStatTimestamp = System.nanoTime();
     private final ScheduledFuture<?> statsTask;
     private final ScheduledFuture<?> flushCursorsTask;
 
     private final long cacheEvictionTimeThresholdNanos;
-    private final MetadataStore metadataStore;
+    private final MetadataStoreExtended metadataStore;
 
     public static final int StatsPeriodSeconds = 60;
 
@@ -204,6 +205,9 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         this.statsTask = scheduledExecutor.scheduleAtFixedRate(this::refreshStats, 0, StatsPeriodSeconds, TimeUnit.SECONDS);
         this.flushCursorsTask = scheduledExecutor.scheduleAtFixedRate(this::flushCursors,
                 config.getCursorPositionFlushSeconds(), config.getCursorPositionFlushSeconds(), TimeUnit.SECONDS);
+        this.sharedCursorStateStore = config.isSharedCursorStateStoreEnabled()
+                ? new SharedCursorStateStore(bookKeeperGroupFactory.get(), metadataStore, store, scheduledExecutor,
+                        config) : null;
 
 
         this.cacheEvictionTimeThresholdNanos = TimeUnit.MILLISECONDS
@@ -289,6 +293,8 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
                 }
             }
         });
+
+        entryCacheManager.doDiskCacheExpiry();
     }
 
     /**
@@ -526,6 +532,10 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         latch.await();
         log.info("{} ledgers closed", numLedgers);
 
+        if (sharedCursorStateStore != null) {
+            sharedCursorStateStore.close();
+        }
+
         if (zookeeper != null) {
             zookeeper.close();
         }
@@ -545,7 +555,7 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         orderedExecutor.shutdownNow();
         cacheEvictionExecutor.shutdownNow();
 
-        entryCacheManager.clear();
+        entryCacheManager.close();
         try {
             metadataStore.close();
         } catch (Exception e) {
@@ -839,6 +849,10 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         return config;
     }
 
+    SharedCursorStateStore getSharedCursorStateStore() {
+        return sharedCursorStateStore;
+    }
+
     public EntryCacheManager getEntryCacheManager() {
         return entryCacheManager;
     }
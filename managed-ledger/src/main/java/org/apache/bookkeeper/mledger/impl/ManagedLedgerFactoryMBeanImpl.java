@@ -30,6 +30,8 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
     final Rate cacheHits = new Rate();
     final Rate cacheMisses = new Rate();
     final Rate cacheEvictions = new Rate();
+    final Rate diskCacheHits = new Rate();
+    final Rate diskCacheMisses = new Rate();
 
     public ManagedLedgerFactoryMBeanImpl(ManagedLedgerFactoryImpl factory) throws Exception {
         this.factory = factory;
@@ -46,6 +48,8 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         cacheHits.calculateRate(seconds);
         cacheMisses.calculateRate(seconds);
         cacheEvictions.calculateRate(seconds);
+        diskCacheHits.calculateRate(seconds);
+        diskCacheMisses.calculateRate(seconds);
     }
 
     public void recordCacheHit(long size) {
@@ -64,6 +68,14 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         cacheEvictions.recordEvent();
     }
 
+    public void recordDiskCacheHits(int count, long totalSize) {
+        diskCacheHits.recordMultipleEvents(count, totalSize);
+    }
+
+    public void recordDiskCacheMiss(int count) {
+        diskCacheMisses.recordMultipleEvents(count, 0);
+    }
+
     @Override
     public int getNumberOfManagedLedgers() {
         return factory.ledgers.size();
@@ -99,6 +111,38 @@ public class ManagedLedgerFactoryMBeanImpl implements ManagedLedgerFactoryMXBean
         return cacheMisses.getValueRate();
     }
 
+    @Override
+    public long getDiskCacheUsedSize() {
+        return factory.getEntryCacheManager().getDiskCacheSize();
+    }
+
+    @Override
+    public double getDiskCacheHitsRate() {
+        return diskCacheHits.getRate();
+    }
+
+    @Override
+    public double getDiskCacheMissesRate() {
+        return diskCacheMisses.getRate();
+    }
+
+    @Override
+    public double getDiskCacheHitsThroughput() {
+        return diskCacheHits.getValueRate();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        double hits = cacheHits.getRate();
+        double total = hits + cacheMisses.getRate();
+        return total > 0 ? hits / total : 0;
+    }
+
+    @Override
+    public String getCacheEvictionPolicy() {
+        return factory.getEntryCacheManager().getEvictionPolicy().getName();
+    }
+
     @Override
     public long getNumberOfCacheEvictions() {
         return cacheEvictions.getCount();
@@ -701,6 +701,30 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         executor.executeOrdered(name, safeRun(() -> internalAsyncAddEntry(addOperation)));
     }
 
+    @Override
+    public void asyncAddEntries(List<ByteBuf> buffers, int[] numberOfMessages, AddEntryCallback callback,
+                                List<?> ctxs) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] asyncAddEntries count={} state={}", name, buffers.size(), state);
+        }
+
+        OpAddEntry[] addOperations = new OpAddEntry[buffers.size()];
+        for (int i = 0; i < addOperations.length; i++) {
+            addOperations[i] = numberOfMessages != null
+                    ? OpAddEntry.create(this, buffers.get(i), numberOfMessages[i], callback, ctxs.get(i))
+                    : OpAddEntry.create(this, buffers.get(i), callback, ctxs.get(i));
+        }
+
+        // A single task and lock acquisition for all the entries, which keep their order
+        executor.executeOrdered(name, safeRun(() -> internalAsyncAddEntries(addOperations)));
+    }
+
+    private synchronized void internalAsyncAddEntries(OpAddEntry[] addOperations) {
+        for (OpAddEntry addOperation : addOperations) {
+            internalAsyncAddEntry(addOperation);
+        }
+    }
+
     private synchronized void internalAsyncAddEntry(OpAddEntry addOperation) {
         pendingAddEntries.add(addOperation);
         final State state = STATE_UPDATER.get(this);
@@ -1818,6 +1842,8 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             lastEntryInLedger = ledger.getLastAddConfirmed();
         }
 
+        long lastVisibleEntry = lastEntryInLedger;
+
         // can read max position entryId
         if (ledger.getId() == opReadEntry.maxPosition.getLedgerId()) {
             lastEntryInLedger = min(opReadEntry.maxPosition.getEntryId(), lastEntryInLedger);
@@ -1852,9 +1878,24 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             log.debug("[{}] Reading entries from ledger {} - first={} last={}", name, ledger.getId(), firstEntry,
                     lastEntry);
         }
+
+        CursorReadAhead readAhead = opReadEntry.cursor.readAhead;
+        if (readAhead != null && readAhead.read(ledger, firstEntry, lastEntry, lastVisibleEntry, opReadEntry)) {
+            return;
+        }
         asyncReadEntry(ledger, firstEntry, lastEntry, false, opReadEntry, opReadEntry.ctx);
     }
 
+    CursorReadAhead newCursorReadAhead(String cursorName) {
+        int readAheadBatches = factory.getConfig().getCursorReadAheadBatches();
+        return readAheadBatches > 0
+                ? new CursorReadAhead(this, cursorName, factory.getEntryCacheManager(), readAheadBatches) : null;
+    }
+
+    SharedCursorStateStore getSharedCursorStateStore() {
+        return factory != null ? factory.getSharedCursorStateStore() : null;
+    }
+
     protected void asyncReadEntry(ReadHandle ledger, PositionImpl position, ReadEntryCallback callback, Object ctx) {
         if (config.getReadEntryTimeoutSeconds() > 0) {
             // set readOpCount to uniquely validate if ReadEntryCallbackWrapper is already recycled
@@ -3608,6 +3649,14 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             callback.readFailed(createManagedLedgerException(BKException.Code.TimeoutException), readOpCount);
             LAST_READ_CALLBACK_UPDATER.compareAndSet(this, callback, null);
         }
+
+        // the reads of the cursors waiting for their read-ahead
+        cursors.forEach(cursor -> {
+            CursorReadAhead readAhead = ((ManagedCursorImpl) cursor).readAhead;
+            if (readAhead != null) {
+                readAhead.checkReadTimeout(timeoutSec);
+            }
+        });
     }
 
     @Override
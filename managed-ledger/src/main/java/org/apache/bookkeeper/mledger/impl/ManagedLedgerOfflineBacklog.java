@@ -342,7 +342,9 @@ public class ManagedLedgerOfflineBacklog {
                                         log.debug("[{}] Cursor {} meta-data read ledger id {}", managedLedgerName,
                                                 cursorName, cursorLedgerId);
                                     }
-                                    if (cursorLedgerId != -1) {
+                                    // The entries of a shared cursor ledger are not readable as a position, use
+                                    // the position of the z-node, which lags behind the last update of the cursor
+                                    if (cursorLedgerId != -1 && !info.getCursorsLedgerShared()) {
                                         bk.asyncOpenLedgerNoRecovery(cursorLedgerId, digestType, password,
                                                 cursorLedgerOpenCb, null);
                                     } else {
@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.apache.pulsar.common.util.collections.ConcurrentLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second tier of the entry cache, storing the entries evicted from the in-memory caches in memory-mapped segment files
+ * on a local disk.
+ *
+ * <p>Entries are appended to the current segment file. Once full, a new segment is started, and the oldest segments
+ * are dropped to stay within the configured size, or once older than the configured TTL. The location of each entry is
+ * kept in an in-memory index by (ledgerId, entryId), so the content of the directory is meaningless after a restart:
+ * the segment files left over by a previous run are deleted on startup.
+ *
+ * <p>Entries read from the disk cache are copied into a new buffer, segments are only unmapped once there are no more
+ * concurrent reads on them.
+ *
+ * <p>Entries spilled from the in-memory caches with {@link #putAsync(long, long, ByteBuf)} are written by a dedicated
+ * thread, so that evictions don't wait for the disk. At most a segment worth of entries is waiting to be written, the
+ * entries spilled beyond that are dropped.
+ */
+public class MappedFileEntryCache {
+
+    private static final String SEGMENT_FILE_SUFFIX = ".cache";
+
+    private final File directory;
+    private final long maxSize;
+    private final int segmentSize;
+    private final long ttlNanos;
+
+    // (ledgerId, entryId) -> (segmentId, offset << 32 | length)
+    private final ConcurrentLongLongPairHashMap index = new ConcurrentLongLongPairHashMap();
+    private final ConcurrentLongHashMap<Segment> segments = new ConcurrentLongHashMap<>(16, 1);
+    private final AtomicLong size = new AtomicLong();
+
+    private final ExecutorService writer;
+    private final AtomicLong pendingWritesSize = new AtomicLong();
+
+    // Guarded by this
+    private final ArrayDeque<Segment> segmentsByAge = new ArrayDeque<>();
+    private Segment currentSegment;
+    private long nextSegmentId = 0;
+
+    public MappedFileEntryCache(File directory, long maxSize, int segmentSize, long ttl, TimeUnit ttlUnit)
+            throws IOException {
+        checkArgument(segmentSize > 0 && maxSize >= segmentSize, "Max size %s lower than segment size %s", maxSize,
+                segmentSize);
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+        this.writer = Executors.newSingleThreadExecutor(new DefaultThreadFactory("bookkeeper-ml-disk-cache-writer"));
+
+        Files.createDirectories(directory.toPath());
+        // The index of the segments of a previous run is lost, discard them
+        File[] leftovers = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_FILE_SUFFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                Files.deleteIfExists(leftover.toPath());
+            }
+            if (leftovers.length > 0) {
+                log.info("Discarded {} entry cache segments left in {}", leftovers.length, directory);
+            }
+        }
+
+        log.info("Initialized entry disk cache of {} Mb in {}", maxSize / EntryCacheManager.MB, directory);
+    }
+
+    /**
+     * Store an entry.
+     *
+     * @return whether the entry was stored
+     */
+    public boolean put(long ledgerId, long entryId, ByteBuf data) {
+        int length = data.readableBytes();
+        if (length > segmentSize || index.containsKey(ledgerId, entryId)) {
+            return false;
+        }
+
+        synchronized (this) {
+            Segment segment = currentSegment;
+            if (segment == null || segment.writeOffset + length > segmentSize) {
+                segment = rollSegment();
+                if (segment == null) {
+                    return false;
+                }
+            }
+
+            int offset = segment.writeOffset;
+            ByteBuffer dst = segment.buffer.duplicate();
+            dst.position(offset);
+            dst.limit(offset + length);
+            data.getBytes(data.readerIndex(), dst);
+            segment.writeOffset += length;
+            segment.addKey(ledgerId, entryId);
+
+            if (!index.putIfAbsent(ledgerId, entryId, segment.id, ((long) offset << 32) | length)) {
+                // Already stored, the space is simply wasted until the segment is dropped
+                return false;
+            }
+            size.addAndGet(length);
+            return true;
+        }
+    }
+
+    /**
+     * Store an entry from the writer thread, without waiting for it to be written.
+     *
+     * @param data
+     *            the entry data, retained until it is written
+     * @return whether the entry was queued to be stored
+     */
+    public boolean putAsync(long ledgerId, long entryId, ByteBuf data) {
+        int length = data.readableBytes();
+        if (length > segmentSize || index.containsKey(ledgerId, entryId)) {
+            return false;
+        }
+        if (pendingWritesSize.addAndGet(length) > segmentSize) {
+            // The disk is not keeping up with the evictions
+            pendingWritesSize.addAndGet(-length);
+            return false;
+        }
+
+        ByteBuf retainedData = data.retainedDuplicate();
+        try {
+            writer.execute(() -> {
+                try {
+                    put(ledgerId, entryId, retainedData);
+                } catch (Throwable t) {
+                    log.warn("Failed to write entry {}:{} in the disk cache", ledgerId, entryId, t);
+                } finally {
+                    retainedData.release();
+                    pendingWritesSize.addAndGet(-length);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // The cache is closed
+            retainedData.release();
+            pendingWritesSize.addAndGet(-length);
+            return false;
+        }
+    }
+
+    /**
+     * Read an entry.
+     *
+     * @return a copy of the entry data, or null if the entry is not stored
+     */
+    public ByteBuf get(long ledgerId, long entryId) {
+        LongPair location = index.get(ledgerId, entryId);
+        if (location == null) {
+            return null;
+        }
+
+        Segment segment = segments.get(location.first);
+        if (segment == null || !segment.tryRetain()) {
+            // The segment was dropped in the meantime
+            return null;
+        }
+
+        try {
+            int offset = (int) (location.second >>> 32);
+            int length = (int) location.second;
+            ByteBuffer src = segment.buffer.duplicate();
+            src.position(offset);
+            src.limit(offset + length);
+
+            ByteBuf data = PulsarByteBufAllocator.DEFAULT.directBuffer(length, length);
+            data.writeBytes(src);
+            return data;
+        } finally {
+            segment.release();
+        }
+    }
+
+    /**
+     * Drop the segments older than the TTL.
+     */
+    public synchronized void expireSegments() {
+        long now = System.nanoTime();
+        Segment oldest;
+        while ((oldest = segmentsByAge.peekFirst()) != null && now - oldest.createdTime > ttlNanos) {
+            dropOldestSegment();
+        }
+    }
+
+    /**
+     * Drop all the segments.
+     */
+    public synchronized void clear() {
+        while (!segmentsByAge.isEmpty()) {
+            dropOldestSegment();
+        }
+    }
+
+    /**
+     * Stop the writer thread, after the pending writes, and drop all the segments.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for the pending writes of the entry disk cache in {}", directory);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clear();
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getNumberOfEntries() {
+        return index.size();
+    }
+
+    // Must be called while holding the lock
+    private Segment rollSegment() {
+        currentSegment = null;
+        expireSegments();
+        while (!segmentsByAge.isEmpty() && (long) (segmentsByAge.size() + 1) * segmentSize > maxSize) {
+            dropOldestSegment();
+        }
+
+        long segmentId = nextSegmentId++;
+        File file = new File(directory, String.format("%016x%s", segmentId, SEGMENT_FILE_SUFFIX));
+        try {
+            Segment segment = new Segment(segmentId, file, segmentSize);
+            segments.put(segmentId, segment);
+            segmentsByAge.addLast(segment);
+            currentSegment = segment;
+            return segment;
+        } catch (IOException e) {
+            log.warn("Failed to create entry cache segment {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    // Must be called while holding the lock
+    private void dropOldestSegment() {
+        Segment segment = segmentsByAge.pollFirst();
+        if (segment == currentSegment) {
+            currentSegment = null;
+        }
+        segments.remove(segment.id);
+
+        long removedSize = 0;
+        for (int i = 0; i < segment.keysCount; i += 2) {
+            long ledgerId = segment.keys[i];
+            long entryId = segment.keys[i + 1];
+            LongPair location = index.get(ledgerId, entryId);
+            if (location != null && location.first == segment.id
+                    && index.remove(ledgerId, entryId, location.first, location.second)) {
+                removedSize += (int) location.second;
+            }
+        }
+        size.addAndGet(-removedSize);
+
+        // Unmapped once the reads in progress are done
+        segment.release();
+    }
+
+    private static final class Segment extends AbstractReferenceCounted {
+        private final long id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final long createdTime = System.nanoTime();
+
+        // Guarded by the cache lock
+        private int writeOffset = 0;
+        private long[] keys = new long[256];
+        private int keysCount = 0;
+
+        Segment(long id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                // The mapping stays valid after the channel is closed
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void addKey(long ledgerId, long entryId) {
+            if (keysCount + 2 > keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[keysCount++] = ledgerId;
+            keys[keysCount++] = entryId;
+        }
+
+        boolean tryRetain() {
+            try {
+                retain();
+                return true;
+            } catch (Throwable t) {
+                // Segment was already released
+                return false;
+            }
+        }
+
+        @Override
+        protected void deallocate() {
+            PlatformDependent.freeDirectBuffer(buffer);
+            if (!file.delete()) {
+                log.warn("Failed to delete entry cache segment {}", file);
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(MappedFileEntryCache.class);
+}
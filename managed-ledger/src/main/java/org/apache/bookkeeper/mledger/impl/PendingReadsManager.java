@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deduplication of the reads in flight for the entries of a managed ledger.
+ *
+ * <p>Concurrent reads of overlapping entry ranges of a ledger, typically done by several cursors slightly behind each
+ * other in the backlog, attach to the read in flight covering them instead of each issuing its own read to the
+ * bookies. A read only partially covered by reads in flight attaches to them for the covered entries and reads the
+ * rest. Each reader gets its own {@link EntryImpl} instances, sharing the payload buffers of the entries read through
+ * reference counting.
+ */
+class PendingReadsManager {
+
+    /**
+     * Reads a range of entries from the storage.
+     */
+    @FunctionalInterface
+    interface StorageReader {
+        void readFromStorage(ReadHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx);
+    }
+
+    private final StorageReader storageReader;
+
+    // Reads in flight by ledger id and first entry, guarded by this
+    private final Map<Long, NavigableMap<Long, PendingRead>> pendingReads = new HashMap<>();
+
+    PendingReadsManager(StorageReader storageReader) {
+        this.storageReader = storageReader;
+    }
+
+    /**
+     * Read a range of entries, attaching to the reads in flight covering part or all of it.
+     *
+     * @param lh
+     *            the handle of the ledger to read from
+     * @param firstEntry
+     *            the first entry to read
+     * @param lastEntry
+     *            the last entry to read
+     * @param callback
+     *            callback completed with the entries of the range, in order
+     * @param ctx
+     *            opaque context
+     */
+    void readEntries(ReadHandle lh, long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+        final long ledgerId = lh.getId();
+        final List<PendingRead> toRead = new ArrayList<>(1);
+        final List<PendingRead> segments = new ArrayList<>(1);
+        final List<long[]> ranges = new ArrayList<>(1);
+
+        synchronized (this) {
+            NavigableMap<Long, PendingRead> ledgerReads = pendingReads.computeIfAbsent(ledgerId, k -> new TreeMap<>());
+            long position = firstEntry;
+            while (position <= lastEntry) {
+                Map.Entry<Long, PendingRead> floor = ledgerReads.floorEntry(position);
+                PendingRead pendingRead;
+                long segmentLastEntry;
+                if (floor != null && floor.getValue().lastEntry >= position) {
+                    // Attach to the read in flight covering the position
+                    pendingRead = floor.getValue();
+                    segmentLastEntry = Math.min(pendingRead.lastEntry, lastEntry);
+                } else {
+                    // Read up to the next read in flight
+                    Long next = ledgerReads.higherKey(position);
+                    segmentLastEntry = next != null ? Math.min(next - 1, lastEntry) : lastEntry;
+                    pendingRead = new PendingRead(ledgerId, position, segmentLastEntry);
+                    ledgerReads.put(position, pendingRead);
+                    toRead.add(pendingRead);
+                }
+
+                segments.add(pendingRead);
+                ranges.add(new long[] { position, segmentLastEntry });
+                position = segmentLastEntry + 1;
+            }
+
+            if (segments.size() == 1) {
+                segments.get(0).attach(firstEntry, lastEntry, callback, ctx);
+            } else {
+                CombinedRead combinedRead = new CombinedRead(segments.size(), callback, ctx);
+                for (int i = 0; i < segments.size(); i++) {
+                    long[] range = ranges.get(i);
+                    segments.get(i).attach(range[0], range[1], combinedRead, i);
+                }
+            }
+        }
+
+        if (log.isDebugEnabled() && toRead.size() < segments.size()) {
+            log.debug("Ledger {} -- Attached read of entries {}-{} to {} reads in flight", ledgerId, firstEntry,
+                    lastEntry, segments.size() - toRead.size());
+        }
+
+        for (PendingRead pendingRead : toRead) {
+            try {
+                storageReader.readFromStorage(lh, pendingRead.firstEntry, pendingRead.lastEntry, pendingRead, null);
+            } catch (Throwable t) {
+                pendingRead.readEntriesFailed(createManagedLedgerException(t), null);
+            }
+        }
+    }
+
+    synchronized int getNumberOfPendingReads() {
+        return pendingReads.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private synchronized List<ReadRequest> remove(PendingRead pendingRead) {
+        NavigableMap<Long, PendingRead> ledgerReads = pendingReads.get(pendingRead.ledgerId);
+        if (ledgerReads != null) {
+            ledgerReads.remove(pendingRead.firstEntry, pendingRead);
+            if (ledgerReads.isEmpty()) {
+                pendingReads.remove(pendingRead.ledgerId);
+            }
+        }
+        return pendingRead.requests;
+    }
+
+    private static final class ReadRequest {
+        final long firstEntry;
+        final long lastEntry;
+        final ReadEntriesCallback callback;
+        final Object ctx;
+
+        ReadRequest(long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.callback = callback;
+            this.ctx = ctx;
+        }
+    }
+
+    private final class PendingRead implements ReadEntriesCallback {
+        final long ledgerId;
+        final long firstEntry;
+        final long lastEntry;
+        // Guarded by the manager, no longer modified once the read is removed from it
+        final List<ReadRequest> requests = new ArrayList<>(1);
+
+        PendingRead(long ledgerId, long firstEntry, long lastEntry) {
+            this.ledgerId = ledgerId;
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+        }
+
+        void attach(long first, long last, ReadEntriesCallback callback, Object ctx) {
+            requests.add(new ReadRequest(first, last, callback, ctx));
+        }
+
+        @Override
+        public void readEntriesComplete(List<Entry> entries, Object ignored) {
+            List<ReadRequest> attached = remove(this);
+            if (entries.size() != lastEntry - firstEntry + 1) {
+                entries.forEach(Entry::release);
+                readEntriesFailed(new ManagedLedgerException("Could not read all the entries " + firstEntry + "-"
+                        + lastEntry + " of ledger " + ledgerId), null);
+                return;
+            }
+
+            ReadRequest single = attached.size() == 1 ? attached.get(0) : null;
+            if (single != null && single.firstEntry == firstEntry && single.lastEntry == lastEntry) {
+                // Nobody attached to the read, hand over the entries
+                single.callback.readEntriesComplete(entries, single.ctx);
+                return;
+            }
+
+            for (ReadRequest request : attached) {
+                List<Entry> requestEntries = new ArrayList<>((int) (request.lastEntry - request.firstEntry + 1));
+                for (long entryId = request.firstEntry; entryId <= request.lastEntry; entryId++) {
+                    requestEntries.add(EntryImpl.create((EntryImpl) entries.get((int) (entryId - firstEntry))));
+                }
+                try {
+                    request.callback.readEntriesComplete(requestEntries, request.ctx);
+                } catch (Throwable t) {
+                    log.warn("Ledger {} -- Failed to complete read of entries {}-{}", ledgerId, request.firstEntry,
+                            request.lastEntry, t);
+                }
+            }
+            entries.forEach(Entry::release);
+        }
+
+        @Override
+        public void readEntriesFailed(ManagedLedgerException exception, Object ignored) {
+            for (ReadRequest request : remove(this)) {
+                request.callback.readEntriesFailed(exception, request.ctx);
+            }
+        }
+    }
+
+    // Concatenates the entries of the reads of consecutive segments of a range
+    private static final class CombinedRead implements ReadEntriesCallback {
+        private final List<Entry>[] segments;
+        private final ReadEntriesCallback callback;
+        private final Object ctx;
+        private int remaining;
+        private ManagedLedgerException failure;
+
+        @SuppressWarnings("unchecked")
+        CombinedRead(int numberOfSegments, ReadEntriesCallback callback, Object ctx) {
+            this.segments = new List[numberOfSegments];
+            this.callback = callback;
+            this.ctx = ctx;
+            this.remaining = numberOfSegments;
+        }
+
+        @Override
+        public void readEntriesComplete(List<Entry> entries, Object segment) {
+            List<Entry> result = null;
+            synchronized (this) {
+                if (failure != null) {
+                    entries.forEach(Entry::release);
+                    return;
+                }
+                segments[(Integer) segment] = entries;
+                if (--remaining == 0) {
+                    result = new ArrayList<>();
+                    for (List<Entry> segmentEntries : segments) {
+                        result.addAll(segmentEntries);
+                    }
+                }
+            }
+
+            if (result != null) {
+                callback.readEntriesComplete(result, ctx);
+            }
+        }
+
+        @Override
+        public void readEntriesFailed(ManagedLedgerException exception, Object segment) {
+            synchronized (this) {
+                if (failure != null) {
+                    return;
+                }
+                failure = exception;
+                for (int i = 0; i < segments.length; i++) {
+                    if (segments[i] != null) {
+                        segments[i].forEach(Entry::release);
+                        segments[i] = null;
+                    }
+                }
+            }
+            callback.readEntriesFailed(exception, ctx);
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PendingReadsManager.class);
+}
@@ -35,8 +35,13 @@ public class PositionImpl implements Position, Comparable<PositionImpl> {
     public static final PositionImpl latest = new PositionImpl(Long.MAX_VALUE, Long.MAX_VALUE);
 
     public PositionImpl(PositionInfo pi) {
-        this.ledgerId = pi.getLedgerId();
-        this.entryId = pi.getEntryId();
+        if (pi.hasDelta()) {
+            this.ledgerId = pi.getDelta().getMarkDeletePosition().getLedgerId();
+            this.entryId = pi.getDelta().getMarkDeletePosition().getEntryId();
+        } else {
+            this.ledgerId = pi.getLedgerId();
+            this.entryId = pi.getEntryId();
+        }
     }
 
     public PositionImpl(NestedPositionInfo npi) {
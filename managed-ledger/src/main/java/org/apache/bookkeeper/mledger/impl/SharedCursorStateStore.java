@@ -0,0 +1,625 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+import static org.apache.bookkeeper.mledger.util.Errors.isNoSuchLedgerExistsException;
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.client.AsyncCallback.OpenCallback;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
+import org.apache.bookkeeper.mledger.ManagedLedgerException.MetadataNotFoundException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorPositionUpdate;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorPositionUpdates;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.metadata.api.MetadataStoreException.BadVersionException;
+import org.apache.pulsar.metadata.api.Stat;
+import org.apache.pulsar.metadata.api.extended.CreateOption;
+import org.apache.pulsar.metadata.api.extended.MetadataStoreExtended;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group-commits the position updates of the cursors of a managed ledger factory into a shared log ledger, instead
+ * of having every cursor append them to its own cursor ledger.
+ *
+ * <p>Updates are buffered and appended as a single entry when the batch is full or the flush interval expires. The
+ * metadata of a cursor points to the shared ledger holding its latest update, and the cursor is recovered from the
+ * last update for it in that ledger.
+ *
+ * <p>The store periodically checkpoints: it rolls to a new ledger, appends to it the state of every cursor still
+ * pointing to an older ledger, and deletes the ledgers no cursor points to anymore.
+ *
+ * <p>Every store registers an ephemeral z-node, and tags its ledgers with its id. The ledgers of another store are
+ * read without recovery as long as that store is registered, so that they are not fenced. Once it is gone, they are
+ * deleted by the stores that recovered cursors from them, when no cursor points to them anymore.
+ */
+class SharedCursorStateStore {
+
+    static final String STORES_PATH = "/managed-ledgers-shared-cursor-state-stores";
+
+    private static final int RECOVERY_READ_BATCH_SIZE = 1000;
+    private static final long RECOVERED_STATE_EXPIRY_SECONDS = 60;
+
+    private final String storeId = UUID.randomUUID().toString();
+    private final BookKeeper bookKeeper;
+    private final MetadataStoreExtended metadataStore;
+    private final MetaStore metaStore;
+    private final ScheduledExecutorService scheduler;
+    private final long flushIntervalMillis;
+    private final int maxBatchSize;
+    private final ScheduledFuture<?> checkpointTask;
+
+    private final Set<ManagedCursorImpl> cursors = ConcurrentHashMap.newKeySet();
+    // Position updates read from shared ledgers during the recovery of their cursors
+    private final Map<Long, CompletableFuture<SharedLedgerContent>> recoveredUpdates = new ConcurrentHashMap<>();
+    // Ledgers of other stores that cursors were recovered from, to delete once they are not used anymore
+    private final Map<Long, ForeignLedger> foreignLedgers = new ConcurrentHashMap<>();
+    private final Set<Long> reclaimingLedgers = ConcurrentHashMap.newKeySet();
+
+    // Ledgers written by this store that can still be pointed to by cursors
+    private final NavigableMap<Long, LedgerHandle> ledgers = new TreeMap<>();
+    private ManagedLedgerConfig ledgerConfig;
+    private LedgerHandle currentLedger;
+    private CompletableFuture<LedgerHandle> pendingLedgerCreation;
+    private List<PendingUpdate> pendingUpdates = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+    private boolean checkpointInProgress;
+    private boolean closed;
+
+    private static class PendingUpdate {
+        final CursorPositionUpdate update;
+        final CompletableFuture<Long> future;
+
+        PendingUpdate(CursorPositionUpdate update, CompletableFuture<Long> future) {
+            this.update = update;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The position updates read from a shared ledger, by managed ledger and cursor name.
+     */
+    private static class SharedLedgerContent {
+        final Map<Pair<String, String>, PositionInfo> updates = new HashMap<>();
+        // The id of the store that wrote the ledger, if known
+        String storeId;
+        long nextEntry;
+    }
+
+    private static class ForeignLedger {
+        final String storeId;
+        final ManagedLedgerConfig config;
+
+        ForeignLedger(String storeId, ManagedLedgerConfig config) {
+            this.storeId = storeId;
+            this.config = config;
+        }
+    }
+
+    SharedCursorStateStore(BookKeeper bookKeeper, MetadataStoreExtended metadataStore, MetaStore metaStore,
+                           ScheduledExecutorService scheduler, ManagedLedgerFactoryConfig config) {
+        this.bookKeeper = bookKeeper;
+        this.metadataStore = metadataStore;
+        this.metaStore = metaStore;
+        this.scheduler = scheduler;
+        this.flushIntervalMillis = config.getSharedCursorStateFlushIntervalMillis();
+        this.maxBatchSize = config.getSharedCursorStateMaxBatchSize();
+        this.checkpointTask = scheduler.scheduleAtFixedRate(safeRun(this::checkpoint),
+                config.getSharedCursorStateCheckpointIntervalSeconds(),
+                config.getSharedCursorStateCheckpointIntervalSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Register a cursor whose position updates are appended to this store. It must be registered before its first
+     * update, and until its metadata doesn't point to a ledger of this store anymore.
+     */
+    void register(ManagedCursorImpl cursor) {
+        cursors.add(cursor);
+    }
+
+    void unregister(ManagedCursorImpl cursor) {
+        cursors.remove(cursor);
+    }
+
+    /**
+     * Append a position update of a cursor.
+     *
+     * @return a future completed with the id of the ledger the update was persisted to
+     */
+    CompletableFuture<Long> append(ManagedCursorImpl cursor, PositionInfo positionInfo) {
+        CursorPositionUpdate update = CursorPositionUpdate.newBuilder()
+                .setManagedLedgerName(cursor.getManagedLedger().getName())
+                .setCursorName(cursor.getName())
+                .setPosition(positionInfo)
+                .build();
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new ManagedLedgerException("Shared cursor state store is closed"));
+                return future;
+            }
+            if (ledgerConfig == null) {
+                ledgerConfig = cursor.config;
+            }
+            pendingUpdates.add(new PendingUpdate(update, future));
+            if (pendingUpdates.size() >= maxBatchSize) {
+                flush();
+            } else if (flushTask == null) {
+                flushTask = scheduler.schedule(safeRun(this::flush), flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    private synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (pendingUpdates.isEmpty()) {
+            return;
+        }
+        if (currentLedger == null) {
+            // The updates are flushed once the new ledger is ready
+            rollLedger().whenComplete((lh, e) -> {
+                if (e != null) {
+                    failPendingUpdates(e);
+                } else {
+                    flush();
+                }
+            });
+            return;
+        }
+
+        List<PendingUpdate> updates = pendingUpdates;
+        pendingUpdates = new ArrayList<>();
+        CursorPositionUpdates.Builder entry = CursorPositionUpdates.newBuilder();
+        updates.forEach(pendingUpdate -> entry.addUpdates(pendingUpdate.update));
+        currentLedger.asyncAddEntry(entry.build().toByteArray(), (rc, lh, entryId, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                updates.forEach(pendingUpdate -> pendingUpdate.future.complete(lh.getId()));
+                return;
+            }
+
+            log.warn("Failed to append {} cursor position updates to shared ledger {}: {}", updates.size(),
+                    lh.getId(), BKException.getMessage(rc));
+            synchronized (SharedCursorStateStore.this) {
+                // The following updates will be appended to a new ledger
+                if (currentLedger == lh) {
+                    currentLedger = null;
+                }
+            }
+            ManagedLedgerException exception = createManagedLedgerException(rc);
+            updates.forEach(pendingUpdate -> pendingUpdate.future.completeExceptionally(exception));
+        }, null);
+    }
+
+    private synchronized void failPendingUpdates(Throwable exception) {
+        List<PendingUpdate> updates = pendingUpdates;
+        pendingUpdates = new ArrayList<>();
+        updates.forEach(pendingUpdate -> pendingUpdate.future.completeExceptionally(exception));
+    }
+
+    private synchronized CompletableFuture<LedgerHandle> rollLedger() {
+        if (pendingLedgerCreation != null) {
+            return pendingLedgerCreation;
+        }
+
+        CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+        pendingLedgerCreation = future;
+        // The store registers itself before writing, as the other stores fence its ledgers once it is gone
+        register().whenComplete((ignore, e) -> {
+            if (e != null) {
+                log.warn("Failed to register shared cursor state store {}: {}", storeId, e.getMessage());
+                synchronized (SharedCursorStateStore.this) {
+                    pendingLedgerCreation = null;
+                }
+                future.completeExceptionally(new ManagedLedgerException(FutureUtil.unwrapCompletionException(e)));
+            } else {
+                createLedger(future);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> register() {
+        return metadataStore.put(storePath(storeId), new byte[0], Optional.of(-1L), EnumSet.of(CreateOption.Ephemeral))
+                .handle((stat, e) -> {
+                    // The store is already registered
+                    if (e != null && !(FutureUtil.unwrapCompletionException(e) instanceof BadVersionException)) {
+                        throw new CompletionException(FutureUtil.unwrapCompletionException(e));
+                    }
+                    return null;
+                });
+    }
+
+    private CompletableFuture<Boolean> isRegistered(String storeId) {
+        return metadataStore.get(storePath(storeId)).thenApply(Optional::isPresent);
+    }
+
+    static String storePath(String storeId) {
+        return STORES_PATH + "/" + storeId;
+    }
+
+    private void createLedger(CompletableFuture<LedgerHandle> future) {
+        try {
+            bookKeeper.asyncCreateLedger(ledgerConfig.getMetadataEnsemblesize(),
+                    ledgerConfig.getMetadataWriteQuorumSize(), ledgerConfig.getMetadataAckQuorumSize(),
+                    BookKeeper.DigestType.fromApiDigestType(ledgerConfig.getDigestType()),
+                    ledgerConfig.getPassword(), (rc, lh, ctx) -> {
+                        synchronized (SharedCursorStateStore.this) {
+                            pendingLedgerCreation = null;
+                            if (rc == BKException.Code.OK) {
+                                log.info("Created shared cursor state ledger {}", lh.getId());
+                                ledgers.put(lh.getId(), lh);
+                                currentLedger = lh;
+                            }
+                        }
+                        if (rc == BKException.Code.OK) {
+                            future.complete(lh);
+                        } else {
+                            log.warn("Failed to create shared cursor state ledger: {}", BKException.getMessage(rc));
+                            future.completeExceptionally(createManagedLedgerException(rc));
+                        }
+                    }, null, LedgerMetadataUtils.buildMetadataForSharedCursorState(storeId));
+        } catch (Throwable t) {
+            log.error("Encountered unexpected error when creating shared cursor state ledger", t);
+            synchronized (this) {
+                pendingLedgerCreation = null;
+            }
+            future.completeExceptionally(t);
+        }
+    }
+
+    void checkpoint() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        reclaimForeignLedgers();
+
+        synchronized (this) {
+            if (closed || checkpointInProgress || currentLedger == null) {
+                return;
+            }
+            checkpointInProgress = true;
+            currentLedger = null;
+        }
+
+        rollLedger().thenCompose(lh -> {
+            // Re-append the state of the cursors that didn't move to the new ledger by themselves
+            List<CompletableFuture<Void>> futures = cursors.stream()
+                    .filter(cursor -> cursor.getSharedCursorStateLedgerId() < lh.getId())
+                    .map(ManagedCursorImpl::checkpointSharedCursorState)
+                    .collect(Collectors.toList());
+            return FutureUtil.waitForAll(futures);
+        }).whenComplete((ignore, e) -> {
+            if (e != null) {
+                log.warn("Failed to checkpoint shared cursor state: {}", e.getMessage());
+            }
+            deleteUnreferencedLedgers();
+            synchronized (SharedCursorStateStore.this) {
+                checkpointInProgress = false;
+            }
+        });
+    }
+
+    private void deleteUnreferencedLedgers() {
+        long minReferencedLedgerId = cursors.stream()
+                .mapToLong(ManagedCursorImpl::getSharedCursorStateLedgerId)
+                .filter(ledgerId -> ledgerId >= 0)
+                .min().orElse(Long.MAX_VALUE);
+        List<LedgerHandle> unreferencedLedgers;
+        synchronized (this) {
+            if (currentLedger != null) {
+                minReferencedLedgerId = Math.min(minReferencedLedgerId, currentLedger.getId());
+            }
+            Map<Long, LedgerHandle> headMap = ledgers.headMap(minReferencedLedgerId, false);
+            unreferencedLedgers = new ArrayList<>(headMap.values());
+            headMap.clear();
+        }
+
+        unreferencedLedgers.forEach(lh -> lh.asyncClose((rc, lh1, ctx) -> {
+            bookKeeper.asyncDeleteLedger(lh.getId(), (rc1, ctx1) -> {
+                if (rc1 == BKException.Code.OK) {
+                    log.info("Deleted shared cursor state ledger {}", lh.getId());
+                } else {
+                    log.warn("Failed to delete shared cursor state ledger {}: {}", lh.getId(),
+                            BKException.getMessage(rc1));
+                }
+            }, null);
+        }, null));
+    }
+
+    /**
+     * Delete the ledgers of the stores that are gone, once no cursor points to them anymore.
+     */
+    private void reclaimForeignLedgers() {
+        foreignLedgers.forEach((ledgerId, foreignLedger) -> {
+            if (!reclaimingLedgers.add(ledgerId)) {
+                return;
+            }
+            isRegistered(foreignLedger.storeId).thenCompose(registered -> {
+                if (registered) {
+                    // The store writing the ledger deletes it itself
+                    return CompletableFuture.completedFuture(false);
+                }
+                // The ledger can be fenced now that its store is gone, to read the cursors it holds updates for
+                SharedLedgerContent content = new SharedLedgerContent();
+                return readUpdates(bookKeeper, ledgerId, foreignLedger.config, true, content)
+                        .thenCompose(ignore -> isReferenced(ledgerId, content.updates.keySet()))
+                        .thenCompose(referenced -> referenced ? CompletableFuture.completedFuture(false)
+                                : deleteLedger(ledgerId).thenApply(ignore -> true));
+            }).whenComplete((deleted, e) -> {
+                reclaimingLedgers.remove(ledgerId);
+                if (e != null) {
+                    Throwable cause = FutureUtil.unwrapCompletionException(e);
+                    if (cause instanceof BKException && isNoSuchLedgerExistsException(((BKException) cause).getCode())) {
+                        // Already deleted by another store
+                        foreignLedgers.remove(ledgerId);
+                    } else {
+                        log.warn("Failed to reclaim shared cursor state ledger {}: {}", ledgerId, cause.getMessage());
+                    }
+                } else if (deleted) {
+                    log.info("Deleted shared cursor state ledger {} of store {}", ledgerId, foreignLedger.storeId);
+                    foreignLedgers.remove(ledgerId);
+                }
+            });
+        });
+    }
+
+    /**
+     * Check whether the metadata of any of the given cursors points to a shared ledger.
+     */
+    private CompletableFuture<Boolean> isReferenced(long ledgerId, Set<Pair<String, String>> cursorNames) {
+        List<CompletableFuture<Boolean>> futures = cursorNames.stream().map(cursorName -> {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            metaStore.asyncGetCursorInfo(cursorName.getLeft(), cursorName.getRight(),
+                    new MetaStoreCallback<ManagedCursorInfo>() {
+                        @Override
+                        public void operationComplete(ManagedCursorInfo info, Stat stat) {
+                            future.complete(info.getCursorsLedgerShared() && info.getCursorsLedgerId() == ledgerId);
+                        }
+
+                        @Override
+                        public void operationFailed(MetaStoreException e) {
+                            if (e instanceof MetadataNotFoundException) {
+                                // The cursor was deleted
+                                future.complete(false);
+                            } else {
+                                future.completeExceptionally(e);
+                            }
+                        }
+                    });
+            return future;
+        }).collect(Collectors.toList());
+        return FutureUtil.waitForAll(futures)
+                .thenApply(ignore -> futures.stream().anyMatch(CompletableFuture::join));
+    }
+
+    private CompletableFuture<Void> deleteLedger(long ledgerId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        bookKeeper.asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(BKException.create(rc));
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * Read the last position update of a cursor in a shared ledger. The updates of the ledger are kept for a while,
+     * as the other cursors pointing to it are usually recovered at the same time.
+     */
+    CompletableFuture<Optional<PositionInfo>> readCursorState(long ledgerId, ManagedLedgerConfig config,
+                                                              String managedLedgerName, String cursorName) {
+        CompletableFuture<SharedLedgerContent> future = new CompletableFuture<>();
+        CompletableFuture<SharedLedgerContent> existingFuture = recoveredUpdates.putIfAbsent(ledgerId, future);
+        if (existingFuture != null) {
+            future = existingFuture;
+        } else {
+            LedgerHandle ownLedger;
+            synchronized (this) {
+                ownLedger = ledgers.get(ledgerId);
+            }
+            CompletableFuture<SharedLedgerContent> readFuture = future;
+            CompletableFuture<SharedLedgerContent> contentFuture;
+            if (ownLedger != null) {
+                // Reading from the write handle, as opening the ledger would fence it
+                SharedLedgerContent content = new SharedLedgerContent();
+                CompletableFuture<SharedLedgerContent> ownFuture = new CompletableFuture<>();
+                readUpdates(ownLedger, content, ownFuture);
+                contentFuture = ownFuture;
+            } else {
+                contentFuture = readForeignLedger(ledgerId, config);
+            }
+            contentFuture.whenComplete((content, e) -> {
+                if (e != null) {
+                    recoveredUpdates.remove(ledgerId, readFuture);
+                    readFuture.completeExceptionally(e);
+                } else {
+                    scheduler.schedule(() -> recoveredUpdates.remove(ledgerId, readFuture),
+                            RECOVERED_STATE_EXPIRY_SECONDS, TimeUnit.SECONDS);
+                    readFuture.complete(content);
+                }
+            });
+        }
+        return future.thenApply(content ->
+                Optional.ofNullable(content.updates.get(Pair.of(managedLedgerName, cursorName))));
+    }
+
+    private CompletableFuture<SharedLedgerContent> readForeignLedger(long ledgerId, ManagedLedgerConfig config) {
+        SharedLedgerContent content = new SharedLedgerContent();
+        return readUpdates(bookKeeper, ledgerId, config, false, content).thenCompose(ignore -> {
+            if (content.storeId == null || content.storeId.equals(storeId)) {
+                return CompletableFuture.completedFuture(content);
+            }
+            foreignLedgers.putIfAbsent(ledgerId, new ForeignLedger(content.storeId, config));
+            return isRegistered(content.storeId).thenCompose(registered -> registered
+                    ? CompletableFuture.completedFuture(content)
+                    // The entries after the last add confirmed can only be read by recovering the ledger, which is
+                    // safe now that the store writing it is gone
+                    : readUpdates(bookKeeper, ledgerId, config, true, content));
+        });
+    }
+
+    /**
+     * Read the last position update of a cursor in a shared ledger, without a store.
+     *
+     * <p>The ledger is not recovered, as the store writing it may still be alive. An update in an entry after the
+     * last add confirmed is then missed, and the cursor recovered from an older position.
+     */
+    static CompletableFuture<Optional<PositionInfo>> readCursorState(BookKeeper bookKeeper, long ledgerId,
+                                                                     ManagedLedgerConfig config,
+                                                                     String managedLedgerName, String cursorName) {
+        return readUpdates(bookKeeper, ledgerId, config, false, new SharedLedgerContent())
+                .thenApply(content -> Optional.ofNullable(content.updates.get(Pair.of(managedLedgerName,
+                        cursorName))));
+    }
+
+    /**
+     * Read the updates of a shared ledger up to its last add confirmed entry, starting after the ones already read.
+     *
+     * @param recover whether to recover the ledger, which fences it
+     */
+    private static CompletableFuture<SharedLedgerContent> readUpdates(BookKeeper bookKeeper, long ledgerId,
+                                                                      ManagedLedgerConfig config, boolean recover,
+                                                                      SharedLedgerContent content) {
+        CompletableFuture<SharedLedgerContent> future = new CompletableFuture<>();
+        BookKeeper.DigestType digestType = BookKeeper.DigestType.fromApiDigestType(config.getDigestType());
+        OpenCallback callback = (rc, lh, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            content.storeId = LedgerMetadataUtils.getSharedCursorStateStoreId(
+                    lh.getLedgerMetadata().getCustomMetadata());
+            readUpdates(lh, content, future);
+            future.whenComplete((updates, e) -> lh.asyncClose((rc1, lh1, ctx1) -> {}, null));
+        };
+        if (recover) {
+            bookKeeper.asyncOpenLedger(ledgerId, digestType, config.getPassword(), callback, null);
+        } else {
+            bookKeeper.asyncOpenLedgerNoRecovery(ledgerId, digestType, config.getPassword(), callback, null);
+        }
+        return future;
+    }
+
+    private static void readUpdates(LedgerHandle lh, SharedLedgerContent content,
+                                    CompletableFuture<SharedLedgerContent> future) {
+        long firstEntry = content.nextEntry;
+        long lastAddConfirmed = lh.getLastAddConfirmed();
+        if (firstEntry > lastAddConfirmed) {
+            future.complete(content);
+            return;
+        }
+
+        long lastEntry = Math.min(lastAddConfirmed, firstEntry + RECOVERY_READ_BATCH_SIZE - 1);
+        lh.asyncReadEntries(firstEntry, lastEntry, (rc, lh1, entries, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            try {
+                while (entries.hasMoreElements()) {
+                    LedgerEntry entry = entries.nextElement();
+                    for (CursorPositionUpdate update : CursorPositionUpdates.parseFrom(entry.getEntry())
+                            .getUpdatesList()) {
+                        content.updates.put(Pair.of(update.getManagedLedgerName(), update.getCursorName()),
+                                update.getPosition());
+                    }
+                }
+            } catch (InvalidProtocolBufferException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            content.nextEntry = lastEntry + 1;
+            readUpdates(lh, content, future);
+        }, null);
+    }
+
+    void close() {
+        List<LedgerHandle> ownLedgers;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            checkpointTask.cancel(false);
+            ownLedgers = new ArrayList<>(ledgers.values());
+            ledgers.clear();
+            currentLedger = null;
+        }
+        failPendingUpdates(new ManagedLedgerException("Shared cursor state store is closed"));
+
+        boolean referenced = cursors.stream().anyMatch(cursor -> cursor.getSharedCursorStateLedgerId() >= 0);
+        ownLedgers.forEach(lh -> lh.asyncClose((rc, lh1, ctx) -> {
+            if (!referenced) {
+                // All the cursors were closed, and moved their state out of the shared ledgers
+                bookKeeper.asyncDeleteLedger(lh.getId(), (rc1, ctx1) -> {}, null);
+            }
+        }, null));
+
+        // Let the stores recovering cursors from the remaining ledgers delete them
+        metadataStore.delete(storePath(storeId), Optional.empty()).exceptionally(e -> null);
+    }
+
+    String getStoreId() {
+        return storeId;
+    }
+
+    synchronized int getNumberOfLedgers() {
+        return ledgers.size();
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SharedCursorStateStore.class);
+}
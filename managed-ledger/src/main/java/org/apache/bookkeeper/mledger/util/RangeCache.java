@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import org.apache.commons.lang3.tuple.Pair;
 
 /**
@@ -156,6 +157,17 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
      * @return a pair containing the number of entries evicted and their total size
      */
     public Pair<Integer, Long> evictLeastAccessedEntries(long minSize) {
+        return evictLeastAccessedEntries(minSize, null);
+    }
+
+    /**
+     *
+     * @param minSize
+     * @param evictionListener
+     *            if not null, called with each evicted value before it is released
+     * @return a pair containing the number of entries evicted and their total size
+     */
+    public Pair<Integer, Long> evictLeastAccessedEntries(long minSize, Consumer<Value> evictionListener) {
         checkArgument(minSize > 0);
 
         long removedSize = 0;
@@ -170,6 +182,9 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
             Value value = entry.getValue();
             ++removedEntries;
             removedSize += weighter.getSize(value);
+            if (evictionListener != null) {
+                evictionListener.accept(value);
+            }
             value.release();
         }
 
@@ -183,6 +198,16 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
     * @return the tota
     */
    public long evictLEntriesBeforeTimestamp(long maxTimestamp) {
+       return evictLEntriesBeforeTimestamp(maxTimestamp, null);
+   }
+
+    /**
+    *
+    * @param maxTimestamp the max timestamp of the entries to be evicted
+    * @param evictionListener if not null, called with each evicted value before it is released
+    * @return the total size of the evicted entries
+    */
+   public long evictLEntriesBeforeTimestamp(long maxTimestamp, Consumer<Value> evictionListener) {
        long removedSize = 0;
 
        while (true) {
@@ -198,6 +223,9 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
 
            Value value = entry.getValue();
            removedSize += weighter.getSize(value);
+           if (evictionListener != null) {
+               evictionListener.accept(value);
+           }
            value.release();
        }
 
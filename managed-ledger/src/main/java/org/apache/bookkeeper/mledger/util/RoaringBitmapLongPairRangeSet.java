@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.util;
+
+import com.google.common.collect.Range;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * A set comprising zero or more ranges of type {@link LongPair}, backed by one compressed
+ * <a href="https://roaringbitmap.org/">Roaring bitmap</a> of values for every unique key.
+ *
+ * <pre>
+ * Usage:
+ * a. This can be used to hold a large number of disjoint ranges, eg: individually acknowledged messages with random
+ * acknowledgments, where a {@link java.util.BitSet} or a {@link com.google.common.collect.TreeRangeSet} would use a lot
+ * of memory. Contiguous values are stored as runs and sparse values as sorted arrays.
+ * b. The bitmap of each key can be serialized in a compact form, see {@link #toSerializedBitmaps()}.
+ * c. Like {@link ConcurrentOpenLongPairRangeSet}, ranges are split at key boundaries and values must fit in an int.
+ * d. This set is not thread-safe.
+ * </pre>
+ */
+public class RoaringBitmapLongPairRangeSet<T extends Comparable<T>> implements LongPairRangeSet<T> {
+
+    private final NavigableMap<Long, RoaringBitmap> rangeBitmaps = new TreeMap<>();
+    private final LongPairConsumer<T> consumer;
+
+    // caching place-holder for cpu-optimization to avoid calculating ranges again
+    private int cachedSize = 0;
+    private boolean updatedAfterCachedForSize = true;
+
+    public RoaringBitmapLongPairRangeSet(LongPairConsumer<T> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void addOpenClosed(long lowerKey, long lowerValueOpen, long upperKey, long upperValue) {
+        long lowerValue = lowerValueOpen + 1;
+        if (lowerKey != upperKey) {
+            // (1) set lower to last in lowerRange.getKey(), only if the bitmap already exists and has values after the
+            // lower value, like ConcurrentOpenLongPairRangeSet
+            if (isValid(lowerKey, lowerValue)) {
+                RoaringBitmap bitmap = rangeBitmaps.get(lowerKey);
+                if (bitmap != null && !bitmap.isEmpty() && bitmap.last() > lowerValueOpen) {
+                    bitmap.add(lowerValue, Math.max(bitmap.last(), lowerValue) + 1);
+                }
+            }
+            // (2) set 0th-index to upper-index in upperRange.getKey()
+            if (isValid(upperKey, upperValue)) {
+                rangeBitmaps.computeIfAbsent(upperKey, k -> new RoaringBitmap()).add(0L, upperValue + 1);
+            }
+        } else if (upperValue >= lowerValue) {
+            rangeBitmaps.computeIfAbsent(lowerKey, k -> new RoaringBitmap()).add(Math.max(lowerValue, 0),
+                    upperValue + 1);
+        }
+        updatedAfterCachedForSize = true;
+    }
+
+    private boolean isValid(long key, long value) {
+        return key != LongPair.earliest.getKey() && value != LongPair.earliest.getValue()
+                && key != LongPair.latest.getKey() && value != LongPair.latest.getValue();
+    }
+
+    @Override
+    public boolean contains(long key, long value) {
+        RoaringBitmap bitmap = rangeBitmaps.get(key);
+        return bitmap != null && value >= 0 && bitmap.contains((int) value);
+    }
+
+    @Override
+    public Range<T> rangeContaining(long key, long value) {
+        if (!contains(key, value)) {
+            // if position is not part of any range then return null
+            return null;
+        }
+        RoaringBitmap bitmap = rangeBitmaps.get(key);
+        long lowerValue = bitmap.previousAbsentValue((int) value) + 1;
+        long upperValue = bitmap.nextAbsentValue((int) value) - 1;
+        return Range.closed(consumer.apply(key, lowerValue), consumer.apply(key, upperValue));
+    }
+
+    @Override
+    public void removeAtMost(long key, long value) {
+        rangeBitmaps.headMap(key, false).clear();
+        RoaringBitmap bitmap = rangeBitmaps.get(key);
+        if (bitmap != null && value >= 0) {
+            bitmap.remove(0L, value + 1);
+            if (bitmap.isEmpty()) {
+                rangeBitmaps.remove(key);
+            }
+        }
+        updatedAfterCachedForSize = true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (RoaringBitmap bitmap : rangeBitmaps.values()) {
+            if (!bitmap.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        rangeBitmaps.clear();
+        updatedAfterCachedForSize = true;
+    }
+
+    @Override
+    public Range<T> span() {
+        Range<T> first = firstRange();
+        Range<T> last = lastRange();
+        return first != null ? first.span(last) : null;
+    }
+
+    @Override
+    public List<Range<T>> asRanges() {
+        List<Range<T>> ranges = new ArrayList<>();
+        forEach((range) -> {
+            ranges.add(range);
+            return true;
+        });
+        return ranges;
+    }
+
+    @Override
+    public void forEach(RangeProcessor<T> action) {
+        forEach(action, consumer);
+    }
+
+    @Override
+    public void forEach(RangeProcessor<T> action, LongPairConsumer<? extends T> consumer) {
+        for (Map.Entry<Long, RoaringBitmap> entry : rangeBitmaps.entrySet()) {
+            long key = entry.getKey();
+            RoaringBitmap bitmap = entry.getValue();
+            long lower = bitmap.isEmpty() ? -1 : bitmap.first();
+            while (lower >= 0) {
+                long upper = bitmap.nextAbsentValue((int) lower) - 1;
+                if (!action.process(Range.openClosed(consumer.apply(key, lower - 1), consumer.apply(key, upper)))) {
+                    return;
+                }
+                lower = upper + 1 > Integer.MAX_VALUE ? -1 : bitmap.nextValue((int) (upper + 1));
+            }
+        }
+    }
+
+    @Override
+    public Range<T> firstRange() {
+        for (Map.Entry<Long, RoaringBitmap> entry : rangeBitmaps.entrySet()) {
+            RoaringBitmap bitmap = entry.getValue();
+            if (!bitmap.isEmpty()) {
+                int lower = bitmap.first();
+                long upper = bitmap.nextAbsentValue(lower) - 1;
+                return Range.openClosed(consumer.apply(entry.getKey(), lower - 1),
+                        consumer.apply(entry.getKey(), upper));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Range<T> lastRange() {
+        for (Map.Entry<Long, RoaringBitmap> entry : rangeBitmaps.descendingMap().entrySet()) {
+            RoaringBitmap bitmap = entry.getValue();
+            if (!bitmap.isEmpty()) {
+                int upper = bitmap.last();
+                long lower = bitmap.previousAbsentValue(upper);
+                return Range.openClosed(consumer.apply(entry.getKey(), lower), consumer.apply(entry.getKey(), upper));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        if (updatedAfterCachedForSize) {
+            int size = 0;
+            for (RoaringBitmap bitmap : rangeBitmaps.values()) {
+                long lower = bitmap.isEmpty() ? -1 : bitmap.first();
+                while (lower >= 0) {
+                    size++;
+                    long next = bitmap.nextAbsentValue((int) lower);
+                    lower = next > Integer.MAX_VALUE ? -1 : bitmap.nextValue((int) next);
+                }
+            }
+            cachedSize = size;
+            updatedAfterCachedForSize = false;
+        }
+        return cachedSize;
+    }
+
+    /**
+     * Returns the values of each key, as a serialized, run-length optimized, roaring bitmap.
+     *
+     * <p>The bitmaps of the set are left untouched, a copy of each one is optimized and serialized, so this is safe
+     * to call along with the other readers of the set.
+     */
+    public NavigableMap<Long, ByteBuffer> toSerializedBitmaps() {
+        NavigableMap<Long, ByteBuffer> serialized = new TreeMap<>();
+        rangeBitmaps.forEach((key, rangeBitmap) -> {
+            if (rangeBitmap.isEmpty()) {
+                return;
+            }
+            RoaringBitmap bitmap = rangeBitmap.clone();
+            bitmap.runOptimize();
+            ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+            bitmap.serialize(buffer);
+            buffer.flip();
+            serialized.put(key, buffer);
+        });
+        return serialized;
+    }
+
+    /**
+     * Adds all the values of a serialized roaring bitmap to the given key.
+     *
+     * @param key the key of the values
+     * @param serializedBitmap a bitmap serialized by {@link #toSerializedBitmaps()}
+     */
+    public void addSerializedBitmap(long key, ByteBuffer serializedBitmap) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        try {
+            bitmap.deserialize(serializedBitmap);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        RoaringBitmap current = rangeBitmaps.get(key);
+        if (current == null) {
+            rangeBitmaps.put(key, bitmap);
+        } else {
+            current.or(bitmap);
+        }
+        updatedAfterCachedForSize = true;
+    }
+
+    /**
+     * Returns an estimation of the memory used by the bitmaps.
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for (RoaringBitmap bitmap : rangeBitmaps.values()) {
+            size += bitmap.getLongSizeInBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toString = new StringBuilder("[");
+        Iterator<Range<T>> ranges = asRanges().iterator();
+        while (ranges.hasNext()) {
+            toString.append(ranges.next());
+            if (ranges.hasNext()) {
+                toString.append(",");
+            }
+        }
+        return toString.append("]").toString();
+    }
+}
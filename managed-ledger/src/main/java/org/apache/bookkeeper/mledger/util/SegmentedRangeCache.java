@@ -0,0 +1,598 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.util.ReferenceCounted;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import org.apache.bookkeeper.mledger.util.RangeCache.TimestampExtractor;
+import org.apache.bookkeeper.mledger.util.RangeCache.Weighter;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.pulsar.common.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Range cache keyed by (ledgerId, entryId), alternative to {@link RangeCache} for the entries of a managed ledger.
+ *
+ * <p>The values of each ledger are stored in segments of contiguous entry ids, each segment being an array indexed by
+ * the offset of the entry id in the segment. Since entries are appended at the end of the last ledger, the last
+ * segment of the last ledger is kept at hand: tail reads are resolved with an array access per entry and do not
+ * allocate. Eviction drops whole segments at once, and a segment is dropped as soon as its last entry is removed.
+ *
+ * <p>Values are put and removed with CAS on the segment slots. Segments are created and dropped while holding the lock
+ * of their ledger, there is no lock shared by the whole cache.
+ *
+ * @param <Value>
+ *            Cache value
+ */
+public class SegmentedRangeCache<Value extends ReferenceCounted> {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024;
+
+    private final int segmentSize;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    private final NavigableMap<Long, LedgerSegments<Value>> ledgers = new ConcurrentSkipListMap<>();
+    // Hint on the ledger being appended to, where most of the reads go
+    private volatile LedgerSegments<Value> lastLedger;
+
+    private final AtomicLong size; // Total size of values stored in cache
+    private final Weighter<Value> weighter; // Weighter object used to extract the size from values
+    private final TimestampExtractor<Value> timestampExtractor; // Extract the timestamp associated with a value
+
+    /**
+     * Construct a new SegmentedRangeCache with the default segment size.
+     *
+     * @param weighter
+     *            a custom weighter to compute the size of each stored value
+     */
+    public SegmentedRangeCache(Weighter<Value> weighter, TimestampExtractor<Value> timestampExtractor) {
+        this(DEFAULT_SEGMENT_SIZE, weighter, timestampExtractor);
+    }
+
+    /**
+     * Construct a new SegmentedRangeCache.
+     *
+     * @param segmentSize
+     *            number of entries of each segment, must be a power of 2
+     * @param weighter
+     *            a custom weighter to compute the size of each stored value
+     */
+    public SegmentedRangeCache(int segmentSize, Weighter<Value> weighter,
+            TimestampExtractor<Value> timestampExtractor) {
+        checkArgument(segmentSize > 0 && Integer.bitCount(segmentSize) == 1,
+                "Segment size must be a power of 2: %s", segmentSize);
+        this.segmentSize = segmentSize;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        this.segmentMask = segmentSize - 1;
+        this.size = new AtomicLong(0);
+        this.weighter = weighter;
+        this.timestampExtractor = timestampExtractor;
+    }
+
+    /**
+     * Insert.
+     *
+     * @param ledgerId
+     * @param entryId
+     * @param value
+     *            ref counted value with at least 1 ref to pass on the cache
+     * @return whether the entry was inserted in the cache
+     */
+    public boolean put(long ledgerId, long entryId, Value value) {
+        checkArgument(entryId >= 0);
+        Segment<Value> segment = getOrCreateSegment(ledgerId, entryId);
+        int slot = (int) (entryId & segmentMask);
+        // Count the entry before it is visible, so that a segment is never seen empty while a value is being put
+        segment.entryAdded();
+        if (!segment.slots.compareAndSet(slot, null, value)) {
+            segment.entryRemoved();
+            return false;
+        }
+
+        long valueSize = weighter.getSize(value);
+        size.addAndGet(valueSize);
+        if (segment.evicted && segment.slots.compareAndSet(slot, value, null)) {
+            // The segment was dropped concurrently and the value is still ours to take back. Otherwise the eviction
+            // already released it and accounted for it in the removed size.
+            segment.entryRemoved();
+            size.addAndGet(-valueSize);
+            return false;
+        }
+
+        segment.updateMaxTimestamp(timestampExtractor.getTimestamp(value));
+        return true;
+    }
+
+    public Value get(long ledgerId, long entryId) {
+        LedgerSegments<Value> ledger = getLedger(ledgerId);
+        if (ledger == null) {
+            return null;
+        }
+
+        Segment<Value> segment = ledger.getSegment(entryId >>> segmentShift);
+        if (segment == null) {
+            return null;
+        }
+
+        Value value = segment.slots.get((int) (entryId & segmentMask));
+        return value != null && tryRetain(value) ? value : null;
+    }
+
+    /**
+     * Get the values of a range of entries of a ledger, in order.
+     *
+     * <p>The lookup stops at the first entry missing from the cache: the values found are the ones from
+     * {@code firstEntryId} up to the missing entry.
+     *
+     * @param ledgerId
+     * @param firstEntryId
+     *            the first entry in the range
+     * @param lastEntryId
+     *            the last entry in the range (inclusive)
+     * @param values
+     *            list where the values found in cache are added, each of them retained
+     * @return the number of values added
+     */
+    public int getRange(long ledgerId, long firstEntryId, long lastEntryId, List<? super Value> values) {
+        LedgerSegments<Value> ledger = getLedger(ledgerId);
+        if (ledger == null) {
+            return 0;
+        }
+
+        int found = 0;
+        Segment<Value> segment = null;
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            long index = entryId >>> segmentShift;
+            if (segment == null || segment.index != index) {
+                segment = ledger.getSegment(index);
+                if (segment == null) {
+                    break;
+                }
+            }
+
+            Value value = segment.slots.get((int) (entryId & segmentMask));
+            if (value == null || !tryRetain(value)) {
+                break;
+            }
+            values.add(value);
+            ++found;
+        }
+
+        return found;
+    }
+
+    /**
+     *
+     * @param firstLedgerId
+     * @param firstEntryId
+     * @param lastLedgerId
+     * @param lastEntryId
+     * @param lastInclusive
+     * @return an pair of ints, containing the number of removed entries and the total size
+     */
+    public Pair<Integer, Long> removeRange(long firstLedgerId, long firstEntryId, long lastLedgerId, long lastEntryId,
+            boolean lastInclusive) {
+        Removed<Value> removed = new Removed<>(null);
+        for (LedgerSegments<Value> ledger : ledgers.subMap(firstLedgerId, true, lastLedgerId, true).values()) {
+            long fromEntryId = ledger.ledgerId == firstLedgerId ? firstEntryId : 0;
+            long toEntryId = ledger.ledgerId == lastLedgerId ? (lastInclusive ? lastEntryId + 1 : lastEntryId)
+                    : Long.MAX_VALUE;
+            if (fromEntryId < toEntryId) {
+                removeEntries(ledger, fromEntryId, toEntryId, removed);
+            }
+        }
+
+        size.addAndGet(-removed.size);
+        return Pair.of(removed.entries, removed.size);
+    }
+
+    /**
+     * Evict whole segments, starting from the oldest ones, until at least {@code minSize} is freed.
+     *
+     * @param minSize
+     * @return a pair containing the number of entries evicted and their total size
+     */
+    public Pair<Integer, Long> evictLeastAccessedEntries(long minSize) {
+        return evictLeastAccessedEntries(minSize, null);
+    }
+
+    /**
+     * Evict whole segments, starting from the oldest ones, until at least {@code minSize} is freed.
+     *
+     * @param minSize
+     * @param evictionListener
+     *            if not null, called with each evicted value before it is released
+     * @return a pair containing the number of entries evicted and their total size
+     */
+    public Pair<Integer, Long> evictLeastAccessedEntries(long minSize, Consumer<Value> evictionListener) {
+        checkArgument(minSize > 0);
+
+        Removed<Value> removed = new Removed<>(evictionListener);
+        for (LedgerSegments<Value> ledger : ledgers.values()) {
+            synchronized (ledger) {
+                for (long index = ledger.firstSegment; index <= ledger.lastSegment && removed.size < minSize;
+                        index++) {
+                    Segment<Value> segment = ledger.segments.get(index);
+                    if (segment != null) {
+                        dropSegment(ledger, segment, removed);
+                    }
+                }
+                ledger.segmentsRemoved();
+                removeLedgerIfEmpty(ledger);
+            }
+
+            if (removed.size >= minSize) {
+                break;
+            }
+        }
+
+        size.addAndGet(-removed.size);
+        return Pair.of(removed.entries, removed.size);
+    }
+
+    /**
+     *
+     * @param maxTimestamp the max timestamp of the entries to be evicted
+     * @return the total size of the evicted entries
+     */
+    public long evictLEntriesBeforeTimestamp(long maxTimestamp) {
+        return evictLEntriesBeforeTimestamp(maxTimestamp, null);
+    }
+
+    /**
+     *
+     * @param maxTimestamp the max timestamp of the entries to be evicted
+     * @param evictionListener if not null, called with each evicted value before it is released
+     * @return the total size of the evicted entries
+     */
+    public long evictLEntriesBeforeTimestamp(long maxTimestamp, Consumer<Value> evictionListener) {
+        Removed<Value> removed = new Removed<>(evictionListener);
+        boolean done = false;
+        for (LedgerSegments<Value> ledger : ledgers.values()) {
+            synchronized (ledger) {
+                for (long index = ledger.firstSegment; index <= ledger.lastSegment && !done; index++) {
+                    Segment<Value> segment = ledger.segments.get(index);
+                    if (segment == null) {
+                        continue;
+                    }
+
+                    if (segment.maxTimestamp <= maxTimestamp) {
+                        dropSegment(ledger, segment, removed);
+                    } else {
+                        // Only part of the segment is old enough, entries are added in order so stop at the first
+                        // newer entry
+                        for (int slot = 0; slot < segmentSize; slot++) {
+                            Value value = segment.slots.get(slot);
+                            if (value == null) {
+                                continue;
+                            }
+                            if (timestampExtractor.getTimestamp(value) > maxTimestamp) {
+                                break;
+                            }
+                            removeSlot(segment, slot, removed);
+                        }
+                        done = true;
+                    }
+                }
+                ledger.segmentsRemoved();
+                removeLedgerIfEmpty(ledger);
+            }
+
+            if (done) {
+                break;
+            }
+        }
+
+        size.addAndGet(-removed.size);
+        return removed.size;
+    }
+
+    /**
+     * Just for testing.
+     */
+    protected long getNumberOfSegments() {
+        long segments = 0;
+        for (LedgerSegments<Value> ledger : ledgers.values()) {
+            segments += ledger.segments.size();
+        }
+        return segments;
+    }
+
+    /**
+     * Just for testing. Getting the number of entries requires to scan all the segments.
+     */
+    protected long getNumberOfEntries() {
+        long entries = 0;
+        for (LedgerSegments<Value> ledger : ledgers.values()) {
+            for (long index = ledger.firstSegment; index <= ledger.lastSegment; index++) {
+                Segment<Value> segment = ledger.segments.get(index);
+                for (int slot = 0; segment != null && slot < segmentSize; slot++) {
+                    if (segment.slots.get(slot) != null) {
+                        ++entries;
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Remove all the entries from the cache.
+     *
+     * @return the old size
+     */
+    public long clear() {
+        Removed<Value> removed = new Removed<>(null);
+        for (LedgerSegments<Value> ledger : ledgers.values()) {
+            synchronized (ledger) {
+                for (long index = ledger.firstSegment; index <= ledger.lastSegment; index++) {
+                    Segment<Value> segment = ledger.segments.get(index);
+                    if (segment != null) {
+                        dropSegment(ledger, segment, removed);
+                    }
+                }
+                ledger.segmentsRemoved();
+                removeLedgerIfEmpty(ledger);
+            }
+        }
+
+        return size.getAndAdd(-removed.size);
+    }
+
+    private LedgerSegments<Value> getLedger(long ledgerId) {
+        LedgerSegments<Value> ledger = lastLedger;
+        if (ledger != null && ledger.ledgerId == ledgerId && !ledger.removed) {
+            return ledger;
+        }
+        return ledgers.get(ledgerId);
+    }
+
+    private Segment<Value> getOrCreateSegment(long ledgerId, long entryId) {
+        long index = entryId >>> segmentShift;
+        LedgerSegments<Value> ledger = getLedger(ledgerId);
+        if (ledger != null) {
+            Segment<Value> segment = ledger.getSegment(index);
+            if (segment != null && !segment.evicted) {
+                return segment;
+            }
+        }
+
+        while (true) {
+            if (ledger == null) {
+                ledger = ledgers.computeIfAbsent(ledgerId, LedgerSegments::new);
+            }
+
+            synchronized (ledger) {
+                if (!ledger.removed) {
+                    Segment<Value> segment = ledger.segments.get(index);
+                    if (segment == null) {
+                        segment = new Segment<>(index, segmentSize);
+                        ledger.segmentAdded(segment);
+                    }
+
+                    LedgerSegments<Value> last = lastLedger;
+                    if (last == null || last.removed || last.ledgerId <= ledgerId) {
+                        lastLedger = ledger;
+                    }
+                    return segment;
+                }
+            }
+
+            // The ledger was dropped in the meantime, it is already unmapped
+            ledger = null;
+        }
+    }
+
+    private void removeEntries(LedgerSegments<Value> ledger, long fromEntryId, long toEntryId,
+            Removed<Value> removed) {
+        synchronized (ledger) {
+            for (long index = ledger.firstSegment; index <= ledger.lastSegment; index++) {
+                Segment<Value> segment = ledger.segments.get(index);
+                if (segment == null) {
+                    continue;
+                }
+
+                long segmentFirstEntryId = index << segmentShift;
+                long segmentEndEntryId = segmentFirstEntryId + segmentSize;
+                if (segmentEndEntryId <= fromEntryId) {
+                    continue;
+                } else if (segmentFirstEntryId >= toEntryId) {
+                    break;
+                }
+
+                if (fromEntryId <= segmentFirstEntryId && segmentEndEntryId <= toEntryId) {
+                    dropSegment(ledger, segment, removed);
+                } else {
+                    long first = Math.max(fromEntryId, segmentFirstEntryId);
+                    long end = Math.min(toEntryId, segmentEndEntryId);
+                    for (long entryId = first; entryId < end; entryId++) {
+                        removeSlot(segment, (int) (entryId & segmentMask), removed);
+                    }
+                    if (segment.isEmpty()) {
+                        dropSegment(ledger, segment, removed);
+                    }
+                }
+            }
+            ledger.segmentsRemoved();
+            removeLedgerIfEmpty(ledger);
+        }
+    }
+
+    // Must be called while holding the lock of the ledger, followed by a call to segmentsRemoved()
+    private void dropSegment(LedgerSegments<Value> ledger, Segment<Value> segment, Removed<Value> removed) {
+        ledger.segments.remove(segment.index);
+        // Any put racing with the eviction will see the flag and take its value back if it is still in the slot
+        segment.evicted = true;
+        for (int slot = 0; slot < segmentSize; slot++) {
+            removeSlot(segment, slot, removed);
+        }
+    }
+
+    private void removeSlot(Segment<Value> segment, int slot, Removed<Value> removed) {
+        Value value = segment.slots.getAndSet(slot, null);
+        if (value != null) {
+            segment.entryRemoved();
+            removed.size += weighter.getSize(value);
+            ++removed.entries;
+            if (removed.evictionListener != null) {
+                removed.evictionListener.accept(value);
+            }
+            value.release();
+        }
+    }
+
+    // Must be called while holding the lock of the ledger
+    private void removeLedgerIfEmpty(LedgerSegments<Value> ledger) {
+        if (ledger.segments.isEmpty()) {
+            ledger.removed = true;
+            ledgers.remove(ledger.ledgerId, ledger);
+        }
+    }
+
+    private boolean tryRetain(Value value) {
+        try {
+            value.retain();
+            return true;
+        } catch (Throwable t) {
+            // Value was already destroyed between get() and retain()
+            return false;
+        }
+    }
+
+    /**
+     * The segments of a single ledger. Segments are only added and removed while holding the lock of this object.
+     */
+    private static final class LedgerSegments<Value> {
+        private final long ledgerId;
+        private final ConcurrentLongHashMap<Segment<Value>> segments = new ConcurrentLongHashMap<>(16, 1);
+        // Range of the indexes of the segments in the map
+        private volatile long firstSegment = Long.MAX_VALUE;
+        private volatile long lastSegment = -1;
+        // The segment with the highest index, where the entries are appended
+        private volatile Segment<Value> tail;
+        private volatile boolean removed = false;
+
+        LedgerSegments(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        Segment<Value> getSegment(long index) {
+            Segment<Value> segment = tail;
+            if (segment != null && segment.index == index) {
+                return segment;
+            }
+            return segments.get(index);
+        }
+
+        void segmentAdded(Segment<Value> segment) {
+            segments.put(segment.index, segment);
+            if (segment.index < firstSegment) {
+                firstSegment = segment.index;
+            }
+            if (segment.index > lastSegment) {
+                lastSegment = segment.index;
+                tail = segment;
+            }
+        }
+
+        void segmentsRemoved() {
+            long first = firstSegment;
+            long last = lastSegment;
+            while (first <= last && !segments.containsKey(first)) {
+                ++first;
+            }
+            while (last >= first && !segments.containsKey(last)) {
+                --last;
+            }
+
+            if (first > last) {
+                firstSegment = Long.MAX_VALUE;
+                lastSegment = -1;
+                tail = null;
+            } else {
+                firstSegment = first;
+                lastSegment = last;
+                tail = segments.get(last);
+            }
+        }
+    }
+
+    /**
+     * A segment of contiguous entries of a ledger, the entry id being {@code index * segmentSize + slot}.
+     */
+    private static final class Segment<Value> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<Segment> MAX_TIMESTAMP_UPDATER = AtomicLongFieldUpdater
+                .newUpdater(Segment.class, "maxTimestamp");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Segment> ENTRIES_UPDATER = AtomicIntegerFieldUpdater
+                .newUpdater(Segment.class, "entries");
+
+        private final long index;
+        private final AtomicReferenceArray<Value> slots;
+        private volatile long maxTimestamp = Long.MIN_VALUE;
+        private volatile boolean evicted = false;
+        // Number of values in the slots, plus the ones being put
+        private volatile int entries = 0;
+
+        Segment(long index, int segmentSize) {
+            this.index = index;
+            this.slots = new AtomicReferenceArray<>(segmentSize);
+        }
+
+        void updateMaxTimestamp(long timestamp) {
+            MAX_TIMESTAMP_UPDATER.accumulateAndGet(this, timestamp, Math::max);
+        }
+
+        void entryAdded() {
+            ENTRIES_UPDATER.incrementAndGet(this);
+        }
+
+        void entryRemoved() {
+            ENTRIES_UPDATER.decrementAndGet(this);
+        }
+
+        boolean isEmpty() {
+            return entries == 0;
+        }
+    }
+
+    private static final class Removed<Value> {
+        private final Consumer<Value> evictionListener;
+        private int entries = 0;
+        private long size = 0;
+
+        Removed(Consumer<Value> evictionListener) {
+            this.evictionListener = evictionListener;
+        }
+    }
+}
@@ -26,7 +26,9 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.io.File;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -39,8 +41,10 @@ import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.commons.io.FileUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
@@ -149,6 +153,85 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.getSize(), 7);
     }
 
+    @Test
+    public void frequencyEvictionPolicy() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(10);
+        config.setCacheEvictionWatermark(0.8);
+        config.setCacheEvictionPolicyClassName(EntryCacheFrequencyEvictionPolicy.class.getName());
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCacheFrequencyEvictionPolicy policy = (EntryCacheFrequencyEvictionPolicy) cacheManager
+                .getEvictionPolicy();
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+        EntryCache cache2 = cacheManager.getEntryCache(ml2);
+
+        // cache2 is read by a tailing reader, cache1 only by a backlogged one
+        cacheManager.recordAccess(cache2, 5, 0, false);
+        cacheManager.recordAccess(cache1, 0, 10, true);
+        assertEquals(policy.getFrequency("cache1"), 0);
+        assertEquals(policy.getFrequency("cache2"), 5);
+        assertEquals(policy.getHitRate("cache1"), 0.0);
+        assertEquals(policy.getHitRate("cache2"), 1.0);
+        assertFalse(cacheManager.shouldAdmitReadEntries(cache1, true));
+        assertTrue(cacheManager.shouldAdmitReadEntries(cache2, false));
+
+        cache2.insert(EntryImpl.create(2, 0, new byte[1]));
+        cache1.insert(EntryImpl.create(1, 0, new byte[3]));
+        cache1.insert(EntryImpl.create(1, 1, new byte[4]));
+        cache2.insert(EntryImpl.create(2, 1, new byte[2]));
+        assertEquals(cacheManager.getSize(), 10);
+
+        // Next insert triggers a cache eviction, which must free the least read cache first, even though it's not
+        // proportionally to the size of the caches
+        assertFalse(cache2.insert(EntryImpl.create(2, 2, new byte[1])));
+
+        // Wait for eviction to be completed in background
+        Thread.sleep(100);
+        assertEquals(cache1.getSize(), 4);
+        assertEquals(cache2.getSize(), 3);
+        assertEquals(cacheManager.getSize(), 7);
+        assertEquals(policy.getAdmissionFrequency(), 0);
+
+        // Below the watermark every entry is admitted
+        assertTrue(cache1.insert(EntryImpl.create(1, 2, new byte[1])));
+        assertEquals(cacheManager.getSize(), 8);
+
+        // Above the watermark only the entries of the caches read more frequently than the evicted ones are admitted
+        assertFalse(cache1.insert(EntryImpl.create(1, 3, new byte[1])));
+        assertTrue(cache2.insert(EntryImpl.create(2, 2, new byte[1])));
+        assertEquals(cacheManager.getSize(), 9);
+
+        cacheManager.mlFactoryMBean.refreshStats(1, TimeUnit.SECONDS);
+        assertEquals(cacheManager.mlFactoryMBean.getCacheEvictionPolicy(), "EntryCacheFrequencyEvictionPolicy");
+
+        cacheManager.removeEntryCache("cache1");
+        assertEquals(policy.getHitRate("cache1"), 0.0);
+        assertEquals(policy.getFrequency("cache2"), 5);
+    }
+
+    @Test
+    public void frequencyEvictionPolicyAging() {
+        EntryCacheFrequencyEvictionPolicy policy = new EntryCacheFrequencyEvictionPolicy(10);
+        EntryCache cache1 = mock(EntryCache.class);
+        when(cache1.getName()).thenReturn("cache1");
+        EntryCache cache2 = mock(EntryCache.class);
+        when(cache2.getName()).thenReturn("cache2");
+
+        policy.recordAccess(cache1, 6, 0, false);
+        policy.recordAccess(cache2, 1, 2, false);
+        assertEquals(policy.getFrequency("cache1"), 6);
+        assertEquals(policy.getFrequency("cache2"), 3);
+
+        // Reaching the sample size halves all the frequencies
+        policy.recordAccess(cache2, 1, 0, false);
+        assertEquals(policy.getFrequency("cache1"), 3);
+        assertEquals(policy.getFrequency("cache2"), 2);
+        assertEquals(policy.getHitRate("cache2"), 0.5);
+    }
+
     @Test
     public void cacheDisabled() throws Exception {
         ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
@@ -214,12 +297,19 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 0);
     }
 
-    @Test
-    public void verifyHitsMisses() throws Exception {
+    @DataProvider(name = "segmentedCache")
+    public static Object[][] segmentedCache() {
+        return new Object[][] { { false }, { true } };
+    }
+
+    @Test(dataProvider = "segmentedCache")
+    public void verifyHitsMisses(boolean segmentedCache) throws Exception {
         ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
         config.setMaxCacheSize(7 * 10);
         config.setCacheEvictionWatermark(0.8);
         config.setCacheEvictionFrequency(1);
+        config.setSegmentedEntryCache(segmentedCache);
+        config.setEntryCacheSegmentSize(4);
 
         factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
 
@@ -283,12 +373,13 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 0);
     }
 
-    @Test
-    public void verifyTimeBasedEviction() throws Exception {
+    @Test(dataProvider = "segmentedCache")
+    public void verifyTimeBasedEviction(boolean segmentedCache) throws Exception {
         ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
         config.setMaxCacheSize(1000);
         config.setCacheEvictionFrequency(100);
         config.setCacheEvictionTimeThresholdMillis(100);
+        config.setSegmentedEntryCache(segmentedCache);
 
         ManagedLedgerFactoryImpl factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
 
@@ -319,6 +410,54 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         factory.shutdown();
     }
 
+    @Test
+    public void verifyDiskCacheHits() throws Exception {
+        File diskCacheDirectory = Files.createTempDirectory("disk-cache").toFile();
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(1000);
+        config.setCacheEvictionFrequency(100);
+        config.setCacheEvictionTimeThresholdMillis(100);
+        config.setDiskCacheDirectory(diskCacheDirectory.getAbsolutePath());
+        config.setDiskCacheMaxSize(1024 * 1024);
+        config.setDiskCacheSegmentSize(64 * 1024);
+
+        ManagedLedgerFactoryImpl factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        try {
+            ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open("test");
+            ManagedCursor c1 = ledger.openCursor("c1");
+            c1.setActive();
+
+            EntryCacheManager cacheManager = factory.getEntryCacheManager();
+            for (int i = 0; i < 10; i++) {
+                ledger.addEntry(("entry-" + i).getBytes());
+            }
+
+            // Entries not yet read are moved to the disk cache by the time based eviction
+            Thread.sleep(1000);
+            assertEquals(cacheManager.getSize(), 0);
+            assertEquals(cacheManager.getDiskCacheSize(), 70);
+
+            List<Entry> entries = c1.readEntries(10);
+            assertEquals(entries.size(), 10);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(new String(entries.get(i).getData()), "entry-" + i);
+            }
+            entries.forEach(Entry::release);
+
+            cacheManager.mlFactoryMBean.refreshStats(1, TimeUnit.SECONDS);
+            assertEquals(cacheManager.mlFactoryMBean.getDiskCacheUsedSize(), 70);
+            assertEquals(cacheManager.mlFactoryMBean.getDiskCacheHitsRate(), 10.0);
+            assertEquals(cacheManager.mlFactoryMBean.getDiskCacheMissesRate(), 0.0);
+            assertEquals(cacheManager.mlFactoryMBean.getCacheMissesRate(), 0.0);
+
+            c1.close();
+        } finally {
+            factory.shutdown();
+            FileUtils.deleteDirectory(diskCacheDirectory);
+        }
+    }
+
     @Test(timeOut = 5000)
     void entryCacheDisabledAsyncReadEntry() throws Exception {
         ReadHandle lh = EntryCacheTest.getLedgerHandle();
@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.testng.annotations.Test;
+
+public class EntryImplTest {
+
+    private static ByteBuf newEntryData(String partitionKey) {
+        MessageMetadata metadata = new MessageMetadata()
+                .setProducerName("producer")
+                .setSequenceId(1)
+                .setPublishTime(1)
+                .setPartitionKey(partitionKey);
+        ByteBuf payload = Unpooled.wrappedBuffer("payload".getBytes(StandardCharsets.UTF_8));
+        return Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+    }
+
+    @Test
+    public void testMessageMetadataIsParsedOnce() {
+        ByteBuf data = newEntryData("key-1");
+        EntryImpl entry = EntryImpl.create(1, 2, data);
+        data.release();
+        int readerIndex = entry.getDataBuffer().readerIndex();
+
+        MessageMetadata metadata = entry.getMessageMetadata();
+        assertEquals(metadata.getPartitionKey(), "key-1");
+        assertEquals(metadata.getProducerName(), "producer");
+        assertSame(entry.getMessageMetadata(), metadata);
+        assertEquals(entry.getDataBuffer().readerIndex(), readerIndex);
+        entry.release();
+
+        // A recycled entry doesn't return the metadata of the previous data
+        data = newEntryData("key-2");
+        entry = EntryImpl.create(1, 3, data);
+        data.release();
+        assertEquals(entry.getMessageMetadata().getPartitionKey(), "key-2");
+        assertFalse(entry.getMessageMetadata().hasNumMessagesInBatch());
+        entry.release();
+    }
+}
@@ -45,6 +45,7 @@ import org.apache.bookkeeper.mledger.ManagedCursorMXBean;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.Position;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPairConsumer;
 import org.testng.annotations.Test;
 
 public class ManagedCursorContainerTest {
@@ -255,6 +256,12 @@ public class ManagedCursorContainerTest {
             return Sets.newConcurrentHashSet();
         }
 
+        @Override
+        public int asyncReplayEntries(long[] ledgerAndEntryIds, int count, ReadEntriesCallback callback, Object ctx,
+                LongPairConsumer skippedPositions) {
+            return 0;
+        }
+
         @Override
         public List<Entry> readEntriesOrWait(int numberOfEntriesToRead)
                 throws InterruptedException, ManagedLedgerException {
@@ -296,6 +303,10 @@ public class ManagedCursorContainerTest {
         public void setInactive() {
         }
 
+        @Override
+        public void pauseReadAhead() {
+        }
+
         @Override
         public boolean isActive() {
             return true;
@@ -49,6 +49,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -2384,6 +2385,94 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         }
     }
 
+    @Test(timeOut = 20000)
+    void testAsyncReplayEntriesFromArray() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger", new ManagedLedgerConfig().setMaxEntriesPerLedger(2));
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        List<PositionImpl> positions = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            positions.add((PositionImpl) ledger.addEntry(("entry" + i).getBytes(Encoding)));
+        }
+        c1.markDelete(positions.get(0));
+        c1.delete(positions.get(3));
+
+        // positions are replayed in the given order, acknowledged ones are skipped
+        int[] toReplay = { 5, 0, 3, 1, 4 };
+        long[] ledgerAndEntryIds = new long[2 * toReplay.length + 2];
+        for (int i = 0; i < toReplay.length; i++) {
+            ledgerAndEntryIds[2 * i] = positions.get(toReplay[i]).getLedgerId();
+            ledgerAndEntryIds[2 * i + 1] = positions.get(toReplay[i]).getEntryId();
+        }
+        List<PositionImpl> skipped = new ArrayList<>();
+        CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+        int replayed = c1.asyncReplayEntries(ledgerAndEntryIds, toReplay.length, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                future.complete(entries);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null, (ledgerId, entryId) -> skipped.add(PositionImpl.get(ledgerId, entryId)));
+
+        assertEquals(replayed, 3);
+        assertEquals(skipped, Lists.newArrayList(positions.get(0), positions.get(3)));
+        List<Entry> entries = future.get();
+        assertEquals(entries.stream().map(e -> new String(e.getData(), Encoding)).collect(Collectors.toList()),
+                Lists.newArrayList("entry5", "entry1", "entry4"));
+        entries.forEach(Entry::release);
+
+        // positions requested more than once are replayed just once
+        int[] withDuplicates = { 1, 4, 1, 5, 4 };
+        long[] duplicatedIds = new long[2 * withDuplicates.length];
+        for (int i = 0; i < withDuplicates.length; i++) {
+            duplicatedIds[2 * i] = positions.get(withDuplicates[i]).getLedgerId();
+            duplicatedIds[2 * i + 1] = positions.get(withDuplicates[i]).getEntryId();
+        }
+        CompletableFuture<List<Entry>> deduplicated = new CompletableFuture<>();
+        replayed = c1.asyncReplayEntries(duplicatedIds, withDuplicates.length, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                deduplicated.complete(entries);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                deduplicated.completeExceptionally(exception);
+            }
+        }, null, (ledgerId, entryId) -> fail("Should not skip " + ledgerId + ":" + entryId));
+        assertEquals(replayed, 3);
+        entries = deduplicated.get();
+        assertEquals(entries.stream().map(e -> new String(e.getData(), Encoding)).collect(Collectors.toList()),
+                Lists.newArrayList("entry1", "entry4", "entry5"));
+        entries.forEach(Entry::release);
+
+        // reading a non-existing position fails the whole replay
+        CompletableFuture<List<Entry>> failed = new CompletableFuture<>();
+        replayed = c1.asyncReplayEntries(new long[] { positions.get(2).getLedgerId(), positions.get(2).getEntryId(),
+                100, 100 }, 2, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                failed.complete(entries);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                failed.completeExceptionally(exception);
+            }
+        }, null, (ledgerId, entryId) -> fail("Should not skip " + ledgerId + ":" + entryId));
+        assertEquals(replayed, 2);
+        try {
+            failed.get();
+            fail("Should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ManagedLedgerException);
+        }
+    }
+
     @Test(timeOut = 20000)
     void testGetLastIndividualDeletedRange() throws Exception {
         ManagedLedger ledger = factory.open("test_last_individual_deleted");
@@ -2940,6 +3029,165 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         assertEquals(entries.size(), totalAddEntries / 2);
     }
 
+    /**
+     * Verifies cursor persists individually unack ranges as bitmaps into cursor-ledger, regardless of
+     * MaxUnackedRangesToPersist, and recovers them with or without the bitmap range set
+     *
+     * @throws Exception
+     */
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceIntoLedgerAsBitmaps() throws Exception {
+        final int totalAddEntries = 100;
+        String ledgerName = "my_test_ledger_bitmap";
+        String cursorName = "c1";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setUnackedRangesBitmapEnabled(true);
+        managedLedgerConfig.setMaxUnackedRangesToPersistInZk(5);
+        managedLedgerConfig.setMaxUnackedRangesToPersist(10);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            Position p = ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding));
+            addedPositions.add(p);
+            if (i % 2 == 0) {
+                // Acknowledge alternative message to create totalEntries/2 holes
+                c1.delete(addedPositions.get(i));
+            }
+        }
+
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries / 2);
+
+        // Close ledger to persist individual-deleted positions into cursor-ledger
+        ledger.close();
+
+        // verify cursor-ledger's last entry has individual-deleted positions as a single bitmap
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<PositionInfo> positionInfo = new AtomicReference<>();
+        bkc.asyncOpenLedger(c1.getCursorLedger(), DigestType.CRC32C, "".getBytes(), (rc, lh, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                long lastEntry = lh.getLastAddConfirmed();
+                lh.asyncReadEntries(lastEntry, lastEntry, (rc1, lh1, seq, ctx1) -> {
+                    try {
+                        positionInfo.set(PositionInfo.parseFrom(seq.nextElement().getEntry()));
+                    } catch (Exception e) {
+                    }
+                    latch.countDown();
+                }, null);
+            } else {
+                latch.countDown();
+            }
+        }, null);
+
+        latch.await();
+        assertEquals(positionInfo.get().getIndividualDeletedMessagesCount(), 0);
+        assertEquals(positionInfo.get().getIndividualDeletedMessageBitmapsCount(), 1);
+
+        // Re-Open
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        // verify cursor has been recovered with all the holes
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries / 2);
+        assertEquals(c1.getTotalNonContiguousDeletedMessagesRange(), totalAddEntries / 2 - 1);
+        ledger.close();
+
+        // Re-Open without bitmaps
+        managedLedgerConfig.setUnackedRangesBitmapEnabled(false);
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), totalAddEntries / 2);
+
+        // try to read entries which should only read non-deleted positions
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), totalAddEntries / 2);
+        entries.forEach(Entry::release);
+    }
+
+    @Test(timeOut = 20000)
+    public void testAckStateDeltaPersistenceIntoLedger() throws Exception {
+        final int totalAddEntries = 40;
+        String ledgerName = "my_test_ledger_delta";
+        String cursorName = "c1";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setMaxCursorAckStateDeltaEntries(1000);
+        managedLedgerConfig.setMaxUnackedRangesToPersistInZk(5);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            addedPositions.add(ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding)));
+        }
+        for (int i = 0; i < totalAddEntries; i++) {
+            if (i % 3 != 0) {
+                c1.delete(addedPositions.get(i));
+            }
+        }
+        // Move the mark-delete position, which drops the first ranges
+        c1.delete(addedPositions.get(0));
+
+        long backlog = c1.getNumberOfEntriesInBacklog(false);
+        int nonContiguousRanges = c1.getTotalNonContiguousDeletedMessagesRange();
+        Position markDeletePosition = c1.getMarkDeletedPosition();
+        assertEquals(backlog, totalAddEntries / 3);
+
+        ledger.close();
+
+        // verify cursor-ledger's last entry only contains the changes since the previous one
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<PositionInfo> positionInfo = new AtomicReference<>();
+        bkc.asyncOpenLedger(c1.getCursorLedger(), DigestType.CRC32C, "".getBytes(), (rc, lh, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                long lastEntry = lh.getLastAddConfirmed();
+                lh.asyncReadEntries(lastEntry, lastEntry, (rc1, lh1, seq, ctx1) -> {
+                    try {
+                        positionInfo.set(PositionInfo.parseFrom(seq.nextElement().getEntry()));
+                    } catch (Exception e) {
+                    }
+                    latch.countDown();
+                }, null);
+            } else {
+                latch.countDown();
+            }
+        }, null);
+
+        latch.await();
+        assertTrue(positionInfo.get().hasDelta());
+        assertEquals(positionInfo.get().getVersion(), 2);
+        assertEquals(positionInfo.get().getIndividualDeletedMessagesCount(), 0);
+        assertTrue(positionInfo.get().getDelta().getIndividualDeletedMessagesCount() <= 1);
+        assertEquals(new PositionImpl(positionInfo.get()), markDeletePosition);
+
+        // Re-Open, replaying the delta entries
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        assertEquals(c1.getMarkDeletedPosition(), markDeletePosition);
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), backlog);
+        assertEquals(c1.getTotalNonContiguousDeletedMessagesRange(), nonContiguousRanges);
+
+        // Acknowledge some more entries, and re-open with full snapshots only
+        c1.delete(addedPositions.get(3));
+        c1.delete(addedPositions.get(9));
+        ledger.close();
+
+        managedLedgerConfig.setMaxCursorAckStateDeltaEntries(0);
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor(cursorName);
+        assertEquals(c1.getMarkDeletedPosition(), addedPositions.get(5));
+        assertEquals(c1.getNumberOfEntriesInBacklog(false), backlog - 2);
+
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), backlog - 2);
+        entries.forEach(Entry::release);
+        ledger.close();
+    }
+
     @Test
     public void testInvalidMarkDelete() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger", new ManagedLedgerConfig());
@@ -3409,6 +3657,167 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         factory1.shutdown();
     }
 
+    @Test(timeOut = 20000)
+    public void testReadAhead() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setMaxCacheSize(0);
+        factoryConfig.setCacheBackloggedReadThreshold(10);
+        factoryConfig.setCursorReadAheadBatches(3);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), factoryConfig);
+        try {
+            ManagedLedgerImpl ledger1 = (ManagedLedgerImpl) factory1.open("testReadAhead");
+            ManagedCursorImpl c1 = (ManagedCursorImpl) ledger1.openCursor("c1");
+            EntryCacheManager cacheManager = factory1.getEntryCacheManager();
+
+            for (int i = 0; i < 100; i++) {
+                ledger1.addEntry(String.format("entry-%02d", i).getBytes(Encoding));
+            }
+
+            // Read-ahead starts once the cursor reads its backlog sequentially
+            for (int i = 0; i < 3; i++) {
+                List<Entry> entries = c1.readEntries(10);
+                assertEquals(entries.size(), 10);
+                entries.forEach(Entry::release);
+            }
+            Awaitility.await().untilAsserted(() -> assertEquals(c1.readAhead.getNumberOfEntries(), 30));
+            assertEquals(cacheManager.getReadAheadSize(), 30 * 8);
+
+            // The next reads are served from the entries read ahead, which keeps going
+            for (int i = 3; i < 6; i++) {
+                List<Entry> entries = c1.readEntries(10);
+                assertEquals(entries.size(), 10);
+                for (int j = 0; j < 10; j++) {
+                    assertEquals(new String(entries.get(j).getData(), Encoding),
+                            String.format("entry-%02d", i * 10 + j));
+                }
+                entries.forEach(Entry::release);
+            }
+            Awaitility.await().untilAsserted(() -> assertEquals(c1.readAhead.getNumberOfEntries(), 30));
+
+            // A non sequential read drops the entries read ahead
+            c1.seek(new PositionImpl(c1.getReadPosition().getLedgerId(), 10));
+            List<Entry> entries = c1.readEntries(10);
+            assertEquals(new String(entries.get(0).getData(), Encoding), "entry-10");
+            entries.forEach(Entry::release);
+            assertEquals(c1.readAhead.getNumberOfEntries(), 0);
+            assertEquals(cacheManager.getReadAheadSize(), 0);
+        } finally {
+            factory1.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testReadAheadMemoryBudget() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setMaxCacheSize(0);
+        factoryConfig.setCacheBackloggedReadThreshold(10);
+        factoryConfig.setCursorReadAheadBatches(3);
+        factoryConfig.setCursorReadAheadMaxSize(100);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), factoryConfig);
+        try {
+            ManagedLedgerImpl ledger1 = (ManagedLedgerImpl) factory1.open("testReadAheadMemoryBudget");
+            ManagedCursorImpl c1 = (ManagedCursorImpl) ledger1.openCursor("c1");
+            EntryCacheManager cacheManager = factory1.getEntryCacheManager();
+
+            for (int i = 0; i < 100; i++) {
+                ledger1.addEntry(String.format("entry-%02d", i).getBytes(Encoding));
+            }
+
+            for (int i = 0; i < 3; i++) {
+                c1.readEntries(10).forEach(Entry::release);
+            }
+
+            // Only a single batch fits in the read-ahead budget
+            Awaitility.await().untilAsserted(() -> assertEquals(c1.readAhead.getNumberOfEntries(), 10));
+            assertEquals(cacheManager.getReadAheadSize(), 10 * 8);
+
+            c1.pauseReadAhead();
+            c1.close();
+            assertEquals(cacheManager.getReadAheadSize(), 0);
+        } finally {
+            factory1.shutdown();
+        }
+    }
+
+    // Start the read-ahead of the cursor with the read of its first batch stuck, and read the entries of that batch
+    private CompletableFuture<Void> readWaitingForStuckReadAhead(ManagedLedgerImpl ledger, ManagedCursorImpl cursor,
+            CompletableFuture<ManagedLedgerException> readFailure) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            ledger.addEntry(String.format("entry-%02d", i).getBytes(Encoding));
+        }
+        for (int i = 0; i < 2; i++) {
+            cursor.readEntries(10).forEach(Entry::release);
+        }
+
+        // the read-ahead batches are read before the third read of the cursor
+        CompletableFuture<Void> stuckRead = bkc.promiseAfter(0);
+        cursor.readEntries(10).forEach(Entry::release);
+        Awaitility.await().untilAsserted(() -> assertEquals(cursor.readAhead.getNumberOfEntries(), 20));
+
+        cursor.asyncReadEntries(10, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                entries.forEach(Entry::release);
+                readFailure.completeExceptionally(new AssertionError("The read should not complete"));
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                readFailure.complete(exception);
+            }
+        }, null, PositionImpl.latest);
+        return stuckRead;
+    }
+
+    @Test(timeOut = 20000)
+    public void testReadWaitingForReadAheadTimesOut() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setMaxCacheSize(0);
+        factoryConfig.setCacheBackloggedReadThreshold(10);
+        factoryConfig.setCursorReadAheadBatches(3);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), factoryConfig);
+        try {
+            ManagedLedgerImpl ledger1 = (ManagedLedgerImpl) factory1.open("testReadWaitingForReadAheadTimesOut",
+                    new ManagedLedgerConfig().setReadEntryTimeoutSeconds(1));
+            ManagedCursorImpl c1 = (ManagedCursorImpl) ledger1.openCursor("c1");
+
+            CompletableFuture<ManagedLedgerException> readFailure = new CompletableFuture<>();
+            CompletableFuture<Void> stuckRead = readWaitingForStuckReadAhead(ledger1, c1, readFailure);
+            assertEquals(readFailure.get().getMessage(), BKException.getMessage(BKException.Code.TimeoutException));
+
+            // the read-ahead completing after the timeout is discarded
+            stuckRead.complete(null);
+            Awaitility.await().untilAsserted(() ->
+                    assertEquals(factory1.getEntryCacheManager().getReadAheadSize(), 0));
+        } finally {
+            factory1.shutdown();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testReadWaitingForReadAheadFailsOnClose() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setMaxCacheSize(0);
+        factoryConfig.setCacheBackloggedReadThreshold(10);
+        factoryConfig.setCursorReadAheadBatches(3);
+        ManagedLedgerFactoryImpl factory1 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), factoryConfig);
+        try {
+            ManagedLedgerImpl ledger1 = (ManagedLedgerImpl) factory1.open("testReadWaitingForReadAheadFailsOnClose");
+            ManagedCursorImpl c1 = (ManagedCursorImpl) ledger1.openCursor("c1");
+
+            CompletableFuture<ManagedLedgerException> readFailure = new CompletableFuture<>();
+            CompletableFuture<Void> stuckRead = readWaitingForStuckReadAhead(ledger1, c1, readFailure);
+            c1.close();
+            assertTrue(readFailure.get() instanceof ManagedLedgerException.CursorAlreadyClosedException);
+
+            stuckRead.complete(null);
+            Awaitility.await().untilAsserted(() ->
+                    assertEquals(factory1.getEntryCacheManager().getReadAheadSize(), 0));
+        } finally {
+            factory1.shutdown();
+        }
+    }
+
     @Test
     public void testFlushCursorAfterIndividualDeleteInactivity() throws Exception {
         ManagedLedgerConfig config = new ManagedLedgerConfig();
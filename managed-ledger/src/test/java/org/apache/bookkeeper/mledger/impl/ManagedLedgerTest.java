@@ -37,6 +37,7 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.lang.reflect.Field;
 import java.nio.ReadOnlyBufferException;
@@ -585,6 +586,46 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         assertEquals(ledger.getTotalSize(), "dummy-entry-1".getBytes(Encoding).length);
     }
 
+    @Test(timeOut = 20000)
+    public void asyncAddEntriesWithoutError() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger", new ManagedLedgerConfig().setMaxEntriesPerLedger(4));
+        ManagedCursor cursor = ledger.openCursor("test-cursor");
+
+        final int numEntries = 10;
+        List<ByteBuf> buffers = new ArrayList<>();
+        List<Integer> ctxs = new ArrayList<>();
+        for (int i = 0; i < numEntries; i++) {
+            buffers.add(Unpooled.wrappedBuffer(("dummy-entry-" + i).getBytes(Encoding)));
+            ctxs.add(i);
+        }
+
+        // The entries are added in order, across ledger rollovers, and every callback gets its own context
+        final CountDownLatch done = new CountDownLatch(numEntries);
+        Position[] positions = new Position[numEntries];
+        ledger.asyncAddEntries(buffers, null, new AddEntryCallback() {
+            @Override
+            public void addComplete(Position position, ByteBuf entryData, Object ctx) {
+                positions[(int) ctx] = position;
+                done.countDown();
+            }
+
+            @Override
+            public void addFailed(ManagedLedgerException exception, Object ctx) {
+                fail(exception.getMessage());
+            }
+        }, ctxs);
+        buffers.forEach(ByteBuf::release);
+
+        done.await();
+        assertEquals(ledger.getNumberOfEntries(), numEntries);
+        List<Entry> entries = cursor.readEntries(numEntries);
+        assertEquals(entries.size(), numEntries);
+        for (int i = 0; i < numEntries; i++) {
+            assertEquals(entries.get(i).getPosition(), positions[i]);
+            assertEquals(new String(entries.get(i).getDataAndRelease(), Encoding), "dummy-entry-" + i);
+        }
+    }
+
     @Test(timeOut = 20000)
     public void doubleAsyncAddEntryWithoutError() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger");
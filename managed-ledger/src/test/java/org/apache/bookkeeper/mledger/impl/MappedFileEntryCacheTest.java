@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.awaitility.Awaitility;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MappedFileEntryCacheTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("disk-cache").toFile();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void cleanup() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void simple() throws Exception {
+        MappedFileEntryCache cache = new MappedFileEntryCache(directory, 1024, 64, 1, TimeUnit.HOURS);
+
+        assertTrue(cache.put(1, 0, buffer("entry-0")));
+        assertTrue(cache.put(1, 1, buffer("entry-1")));
+        assertTrue(cache.put(2, 0, buffer("entry-2")));
+        assertFalse(cache.put(1, 1, buffer("entry-1")));
+        assertEquals(cache.getSize(), 21);
+        assertEquals(cache.getNumberOfEntries(), 3);
+
+        assertEquals(read(cache, 1, 0), "entry-0");
+        assertEquals(read(cache, 1, 1), "entry-1");
+        assertEquals(read(cache, 2, 0), "entry-2");
+        assertNull(cache.get(1, 2));
+
+        cache.clear();
+        assertEquals(cache.getSize(), 0);
+        assertNull(cache.get(1, 0));
+        assertEquals(directory.list().length, 0);
+    }
+
+    @Test
+    public void sizeLimit() throws Exception {
+        MappedFileEntryCache cache = new MappedFileEntryCache(directory, 32, 16, 1, TimeUnit.HOURS);
+
+        // Two entries per segment, at most two segments
+        for (int i = 0; i < 6; i++) {
+            assertTrue(cache.put(1, i, buffer("entry-" + i)));
+        }
+
+        // The oldest segment was dropped to make room for the third one
+        assertNull(cache.get(1, 0));
+        assertNull(cache.get(1, 1));
+        for (int i = 2; i < 6; i++) {
+            assertEquals(read(cache, 1, i), "entry-" + i);
+        }
+        assertEquals(cache.getSize(), 28);
+        assertEquals(directory.list().length, 2);
+
+        // Entries larger than a segment are not stored
+        assertFalse(cache.put(1, 6, buffer("entry-larger-than-segment")));
+        cache.clear();
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        MappedFileEntryCache cache = new MappedFileEntryCache(directory, 1024, 64, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(cache.put(1, 0, buffer("entry-0")));
+        cache.expireSegments();
+        assertEquals(read(cache, 1, 0), "entry-0");
+
+        Thread.sleep(200);
+        cache.expireSegments();
+        assertNull(cache.get(1, 0));
+        assertEquals(cache.getSize(), 0);
+
+        // A new segment is started for the next entries
+        assertTrue(cache.put(1, 1, buffer("entry-1")));
+        assertEquals(read(cache, 1, 1), "entry-1");
+        cache.clear();
+    }
+
+    @Test
+    public void asyncWrites() throws Exception {
+        MappedFileEntryCache cache = new MappedFileEntryCache(directory, 1024, 64, 1, TimeUnit.HOURS);
+
+        ByteBuf entry0 = buffer("entry-0");
+        ByteBuf entry1 = buffer("entry-1");
+        assertTrue(cache.putAsync(1, 0, entry0));
+        assertTrue(cache.putAsync(1, 1, entry1));
+        assertFalse(cache.putAsync(1, 2, Unpooled.wrappedBuffer(new byte[65])));
+
+        // The buffers are retained until written
+        Awaitility.await().untilAsserted(() -> assertEquals(cache.getNumberOfEntries(), 2));
+        Awaitility.await().untilAsserted(() -> assertEquals(entry1.refCnt(), 1));
+        assertEquals(entry0.refCnt(), 1);
+        assertEquals(read(cache, 1, 0), "entry-0");
+        assertEquals(read(cache, 1, 1), "entry-1");
+
+        // Once closed, nothing is written anymore
+        cache.close();
+        ByteBuf entry2 = buffer("entry-2");
+        assertFalse(cache.putAsync(1, 2, entry2));
+        assertEquals(entry2.refCnt(), 1);
+        assertEquals(directory.list().length, 0);
+    }
+
+    @Test
+    public void discardOnRestart() throws Exception {
+        MappedFileEntryCache cache = new MappedFileEntryCache(directory, 1024, 64, 1, TimeUnit.HOURS);
+        assertTrue(cache.put(1, 0, buffer("entry-0")));
+        assertEquals(directory.list().length, 1);
+
+        // Files left by a previous run are discarded
+        cache = new MappedFileEntryCache(directory, 1024, 64, 1, TimeUnit.HOURS);
+        assertEquals(directory.list().length, 0);
+        assertNull(cache.get(1, 0));
+    }
+
+    private static ByteBuf buffer(String data) {
+        return Unpooled.wrappedBuffer(data.getBytes());
+    }
+
+    private static String read(MappedFileEntryCache cache, long ledgerId, long entryId) {
+        ByteBuf data = cache.get(ledgerId, entryId);
+        try {
+            byte[] bytes = new byte[data.readableBytes()];
+            data.readBytes(bytes);
+            return new String(bytes);
+        } finally {
+            data.release();
+        }
+    }
+}
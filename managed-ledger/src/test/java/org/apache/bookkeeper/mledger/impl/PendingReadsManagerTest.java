@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PendingReadsManagerTest {
+
+    private static final long LEDGER_ID = 3;
+
+    private final List<StorageRead> storageReads = new ArrayList<>();
+    private PendingReadsManager pendingReads;
+    private ReadHandle lh;
+
+    private static class StorageRead {
+        final long firstEntry;
+        final long lastEntry;
+        final ReadEntriesCallback callback;
+        final List<ByteBuf> buffers = new ArrayList<>();
+
+        StorageRead(long firstEntry, long lastEntry, ReadEntriesCallback callback) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.callback = callback;
+        }
+
+        void complete() {
+            List<Entry> result = new ArrayList<>();
+            for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                EntryImpl entry = EntryImpl.create(LEDGER_ID, entryId, ("entry-" + entryId).getBytes());
+                buffers.add(entry.getDataBuffer());
+                result.add(entry);
+            }
+            callback.readEntriesComplete(result, null);
+        }
+    }
+
+    private static class ReadResult implements ReadEntriesCallback {
+        final CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+
+        @Override
+        public void readEntriesComplete(List<Entry> entries, Object ctx) {
+            future.complete(entries);
+        }
+
+        @Override
+        public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+            future.completeExceptionally(exception);
+        }
+
+        List<Entry> getEntries(long firstEntry, long lastEntry) {
+            List<Entry> entries = future.getNow(null);
+            assertEquals(entries.size(), lastEntry - firstEntry + 1);
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                assertEquals(entry.getLedgerId(), LEDGER_ID);
+                assertEquals(entry.getEntryId(), firstEntry + i);
+                assertEquals(new String(entry.getData()), "entry-" + (firstEntry + i));
+            }
+            return entries;
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        storageReads.clear();
+        pendingReads = new PendingReadsManager((lh, firstEntry, lastEntry, callback, ctx) ->
+                storageReads.add(new StorageRead(firstEntry, lastEntry, callback)));
+        lh = mock(ReadHandle.class);
+        when(lh.getId()).thenReturn(LEDGER_ID);
+    }
+
+    @Test
+    public void sameRange() {
+        ReadResult read1 = new ReadResult();
+        ReadResult read2 = new ReadResult();
+        pendingReads.readEntries(lh, 0, 9, read1, null);
+        pendingReads.readEntries(lh, 0, 9, read2, null);
+
+        assertEquals(storageReads.size(), 1);
+        assertEquals(pendingReads.getNumberOfPendingReads(), 1);
+        storageReads.get(0).complete();
+        assertEquals(pendingReads.getNumberOfPendingReads(), 0);
+
+        List<Entry> entries1 = read1.getEntries(0, 9);
+        List<Entry> entries2 = read2.getEntries(0, 9);
+
+        // The payloads are shared and released with the last reader
+        ByteBuf buffer = storageReads.get(0).buffers.get(0);
+        assertSame(((EntryImpl) entries1.get(0)).getDataBuffer().unwrap(), buffer);
+        entries1.forEach(Entry::release);
+        assertEquals(buffer.refCnt(), 1);
+        entries2.forEach(Entry::release);
+        assertEquals(buffer.refCnt(), 0);
+    }
+
+    @Test
+    public void containedRange() {
+        ReadResult read1 = new ReadResult();
+        ReadResult read2 = new ReadResult();
+        pendingReads.readEntries(lh, 0, 9, read1, null);
+        pendingReads.readEntries(lh, 2, 4, read2, null);
+
+        assertEquals(storageReads.size(), 1);
+        storageReads.get(0).complete();
+        read1.getEntries(0, 9).forEach(Entry::release);
+        read2.getEntries(2, 4).forEach(Entry::release);
+    }
+
+    @Test
+    public void overlappingRanges() {
+        ReadResult read1 = new ReadResult();
+        ReadResult read2 = new ReadResult();
+        ReadResult read3 = new ReadResult();
+        pendingReads.readEntries(lh, 10, 19, read1, null);
+        pendingReads.readEntries(lh, 15, 24, read2, null);
+        pendingReads.readEntries(lh, 5, 29, read3, null);
+
+        // Only the entries not already being read are read from the storage
+        assertEquals(storageReads.size(), 4);
+        assertEquals(storageReads.get(1).firstEntry, 20);
+        assertEquals(storageReads.get(1).lastEntry, 24);
+        assertEquals(storageReads.get(2).firstEntry, 5);
+        assertEquals(storageReads.get(2).lastEntry, 9);
+        assertEquals(storageReads.get(3).firstEntry, 25);
+        assertEquals(storageReads.get(3).lastEntry, 29);
+
+        storageReads.get(1).complete();
+        storageReads.get(0).complete();
+        read1.getEntries(10, 19).forEach(Entry::release);
+        read2.getEntries(15, 24).forEach(Entry::release);
+        assertNull(read3.future.getNow(null));
+
+        storageReads.get(3).complete();
+        storageReads.get(2).complete();
+        read3.getEntries(5, 29).forEach(Entry::release);
+        assertEquals(pendingReads.getNumberOfPendingReads(), 0);
+    }
+
+    @Test
+    public void failedRead() {
+        ReadResult read1 = new ReadResult();
+        ReadResult read2 = new ReadResult();
+        pendingReads.readEntries(lh, 0, 9, read1, null);
+        pendingReads.readEntries(lh, 5, 14, read2, null);
+        assertEquals(storageReads.size(), 2);
+
+        storageReads.get(1).complete();
+        ManagedLedgerException exception = new ManagedLedgerException("read failed");
+        storageReads.get(0).callback.readEntriesFailed(exception, null);
+
+        assertEquals(read1.future.isCompletedExceptionally(), true);
+        assertEquals(read2.future.isCompletedExceptionally(), true);
+        assertEquals(storageReads.get(1).buffers.get(0).refCnt(), 0);
+        assertEquals(pendingReads.getNumberOfPendingReads(), 0);
+
+        // New reads are no longer attached to the failed read
+        pendingReads.readEntries(lh, 0, 9, new ReadResult(), null);
+        assertEquals(storageReads.size(), 3);
+    }
+}
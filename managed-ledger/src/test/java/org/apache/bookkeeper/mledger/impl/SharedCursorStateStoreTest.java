@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.MetaStore.MetaStoreCallback;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.apache.pulsar.metadata.api.Stat;
+import org.awaitility.Awaitility;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class SharedCursorStateStoreTest extends MockedBookKeeperTestCase {
+
+    private static final int NUM_CURSORS = 10;
+    private static final int NUM_ENTRIES = 20;
+
+    @DataProvider(name = "recoverWithSharedStore")
+    public static Object[][] recoverWithSharedStore() {
+        return new Object[][] { { true }, { false } };
+    }
+
+    private ManagedLedgerFactoryImpl newFactory(boolean sharedCursorStateStoreEnabled) throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setSharedCursorStateStoreEnabled(sharedCursorStateStoreEnabled);
+        config.setSharedCursorStateMaxBatchSize(4);
+        return new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+    }
+
+    private static ManagedCursorInfo getCursorInfo(ManagedLedgerImpl ledger, String cursorName) throws Exception {
+        CompletableFuture<ManagedCursorInfo> future = new CompletableFuture<>();
+        ledger.getStore().asyncGetCursorInfo(ledger.getName(), cursorName, new MetaStoreCallback<ManagedCursorInfo>() {
+            @Override
+            public void operationComplete(ManagedCursorInfo info, Stat stat) {
+                future.complete(info);
+            }
+
+            @Override
+            public void operationFailed(MetaStoreException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future.get();
+    }
+
+    private List<Position> markDeleteCursors(ManagedLedgerImpl ledger) throws Exception {
+        List<ManagedCursor> cursors = new ArrayList<>();
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            cursors.add(ledger.openCursor("c" + i));
+        }
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            positions.add(ledger.addEntry(("entry-" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            ManagedCursor cursor = cursors.get(i);
+            // Leave a hole after the mark-delete position, to check the individually deleted messages too
+            cursor.delete(positions.get(i + 2));
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            cursor.asyncMarkDelete(positions.get(i), new MarkDeleteCallback() {
+                @Override
+                public void markDeleteComplete(Object ctx) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+                    future.completeExceptionally(exception);
+                }
+            }, null);
+            futures.add(future);
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get();
+        }
+        return positions;
+    }
+
+    private void verifyCursors(ManagedLedgerImpl ledger, List<Position> positions) throws Exception {
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c" + i);
+            assertEquals(cursor.getMarkDeletedPosition(), positions.get(i));
+            assertTrue(cursor.isMessageDeleted((PositionImpl) positions.get(i + 2)));
+            assertFalse(cursor.isMessageDeleted((PositionImpl) positions.get(i + 1)));
+            assertEquals(cursor.getNumberOfEntriesInBacklog(false), NUM_ENTRIES - i - 2);
+        }
+    }
+
+    @Test(timeOut = 20000, dataProvider = "recoverWithSharedStore")
+    public void testRecoverFromSharedLedger(boolean recoverWithSharedStore) throws Exception {
+        ManagedLedgerFactoryImpl factory1 = newFactory(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory1.open("my_test_ledger");
+        List<Position> positions = markDeleteCursors(ledger);
+
+        // All the cursors point to the single ledger of the store, which was written by batches
+        SharedCursorStateStore store = factory1.getSharedCursorStateStore();
+        assertEquals(store.getNumberOfLedgers(), 1);
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            ManagedCursorImpl cursor = (ManagedCursorImpl) ledger.openCursor("c" + i);
+            Awaitility.await().until(() -> cursor.getSharedCursorStateLedgerId() >= 0);
+            ManagedCursorInfo info = getCursorInfo(ledger, "c" + i);
+            assertTrue(info.getCursorsLedgerShared());
+            assertEquals(info.getCursorsLedgerId(), cursor.getSharedCursorStateLedgerId());
+            assertEquals(cursor.getCursorLedger(), -1);
+        }
+
+        // Reopen the managed ledger without closing it
+        ManagedLedgerFactoryImpl factory2 = newFactory(recoverWithSharedStore);
+        ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger");
+        verifyCursors(ledger, positions);
+        factory2.shutdown();
+        factory1.shutdown();
+    }
+
+    @Test(timeOut = 20000)
+    public void testCheckpoint() throws Exception {
+        ManagedLedgerFactoryImpl factory1 = newFactory(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory1.open("my_test_ledger");
+        List<Position> positions = markDeleteCursors(ledger);
+
+        SharedCursorStateStore store = factory1.getSharedCursorStateStore();
+        ManagedCursorImpl c0 = (ManagedCursorImpl) ledger.openCursor("c0");
+        Awaitility.await().until(() -> c0.getSharedCursorStateLedgerId() >= 0);
+        long firstLedgerId = c0.getSharedCursorStateLedgerId();
+
+        // The idle cursors are moved to the new ledger, and the previous one is deleted
+        store.checkpoint();
+        Awaitility.await().until(() -> store.getNumberOfLedgers() == 1
+                && c0.getSharedCursorStateLedgerId() > firstLedgerId);
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            assertEquals(getCursorInfo(ledger, "c" + i).getCursorsLedgerId(), c0.getSharedCursorStateLedgerId());
+        }
+
+        ManagedLedgerFactoryImpl factory2 = newFactory(false);
+        verifyCursors((ManagedLedgerImpl) factory2.open("my_test_ledger"), positions);
+        factory2.shutdown();
+        factory1.shutdown();
+    }
+
+    @Test(timeOut = 20000)
+    public void testCloseStoresPositionInMetaStore() throws Exception {
+        ManagedLedgerFactoryImpl factory1 = newFactory(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory1.open("my_test_ledger");
+        List<Position> positions = markDeleteCursors(ledger);
+        ledger.close();
+
+        ledger = (ManagedLedgerImpl) factory1.open("my_test_ledger");
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            assertEquals(getCursorInfo(ledger, "c" + i).getCursorsLedgerId(), -1);
+        }
+        verifyCursors(ledger, positions);
+        factory1.shutdown();
+    }
+
+    @Test(timeOut = 20000)
+    public void testReclaimLedgerOfClosedStore() throws Exception {
+        ManagedLedgerFactoryImpl factory1 = newFactory(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory1.open("my_test_ledger");
+        List<Position> positions = markDeleteCursors(ledger);
+        ManagedCursorImpl c0 = (ManagedCursorImpl) ledger.openCursor("c0");
+        Awaitility.await().until(() -> c0.getSharedCursorStateLedgerId() >= 0);
+        long sharedLedgerId = c0.getSharedCursorStateLedgerId();
+
+        // The cursors are recovered from the ledger of the first store, and then stored in the meta store
+        ManagedLedgerFactoryImpl factory2 = newFactory(true);
+        ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger");
+        verifyCursors(ledger, positions);
+        ledger.close();
+        ledger = (ManagedLedgerImpl) factory2.open("my_test_ledger");
+        for (int i = 0; i < NUM_CURSORS; i++) {
+            assertEquals(getCursorInfo(ledger, "c" + i).getCursorsLedgerId(), -1);
+        }
+
+        // The ledger is not deleted while the first store is alive
+        SharedCursorStateStore store1 = factory1.getSharedCursorStateStore();
+        SharedCursorStateStore store2 = factory2.getSharedCursorStateStore();
+        store2.checkpoint();
+        Thread.sleep(100);
+        assertTrue(bkc.getLedgers().contains(sharedLedgerId));
+
+        // The first store is gone, as if its broker crashed
+        bkc.getZkHandle().delete(SharedCursorStateStore.storePath(store1.getStoreId()), -1);
+        store2.checkpoint();
+        Awaitility.await().until(() -> !bkc.getLedgers().contains(sharedLedgerId));
+
+        factory2.shutdown();
+        factory1.shutdown();
+    }
+}
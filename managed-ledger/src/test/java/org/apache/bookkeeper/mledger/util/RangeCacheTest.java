@@ -27,6 +27,7 @@ import static org.testng.Assert.fail;
 import com.google.common.collect.Lists;
 import io.netty.util.AbstractReferenceCounted;
 import io.netty.util.ReferenceCounted;
+import java.util.List;
 import org.apache.commons.lang3.tuple.Pair;
 import org.testng.annotations.Test;
 
@@ -191,6 +192,29 @@ public class RangeCacheTest {
         assertEquals(cache.getNumberOfEntries(), 0);
     }
 
+    @Test
+    public void evictionListener() {
+        RangeCache<Integer, RefString> cache = new RangeCache<>(value -> value.s.length(), value -> value.s.length());
+
+        cache.put(0, new RefString("zero"));
+        cache.put(1, new RefString("one"));
+        cache.put(2, new RefString("two"));
+        cache.put(3, new RefString("three"));
+
+        List<String> evicted = Lists.newArrayList();
+        assertEquals(cache.evictLeastAccessedEntries(5, value -> evicted.add(value.s)), Pair.of(2, (long) 7));
+        assertEquals(evicted, Lists.newArrayList("zero", "one"));
+
+        evicted.clear();
+        assertEquals(cache.evictLEntriesBeforeTimestamp(3, value -> evicted.add(value.s)), 3);
+        assertEquals(evicted, Lists.newArrayList("two"));
+
+        // Removed entries are not notified
+        evicted.clear();
+        cache.clear();
+        assertTrue(evicted.isEmpty());
+    }
+
     @Test
     public void eviction() {
         RangeCache<Integer, RefString> cache = new RangeCache<>(value -> value.s.length(), x -> 0);
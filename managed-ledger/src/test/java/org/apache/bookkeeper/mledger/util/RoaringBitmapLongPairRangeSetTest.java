@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Range;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPair;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
+import org.testng.annotations.Test;
+
+public class RoaringBitmapLongPairRangeSetTest {
+
+    static final LongPairConsumer<LongPair> consumer = (key, value) -> new LongPair(key, value);
+
+    @Test
+    public void testAddForSameKey() {
+        RoaringBitmapLongPairRangeSet<LongPair> set = new RoaringBitmapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, -1, 0, 5);
+        set.addOpenClosed(0, 7, 0, 8);
+        set.addOpenClosed(0, 8, 0, 10);
+        set.addOpenClosed(0, 97, 0, 99);
+        set.addOpenClosed(0, 101, 0, 106);
+
+        List<Range<LongPair>> ranges = set.asRanges();
+        assertEquals(ranges.size(), 4);
+        assertEquals(set.size(), 4);
+        assertEquals(ranges.get(0), Range.openClosed(new LongPair(0, -1), new LongPair(0, 5)));
+        assertEquals(ranges.get(1), Range.openClosed(new LongPair(0, 7), new LongPair(0, 10)));
+        assertEquals(ranges.get(2), Range.openClosed(new LongPair(0, 97), new LongPair(0, 99)));
+        assertEquals(ranges.get(3), Range.openClosed(new LongPair(0, 101), new LongPair(0, 106)));
+
+        assertEquals(set.firstRange(), ranges.get(0));
+        assertEquals(set.lastRange(), ranges.get(3));
+        assertEquals(set.span(), Range.openClosed(new LongPair(0, -1), new LongPair(0, 106)));
+        assertEquals(set.rangeContaining(0, 9), Range.closed(new LongPair(0, 8), new LongPair(0, 10)));
+        assertNull(set.rangeContaining(0, 11));
+        assertTrue(set.contains(0, 98));
+        assertFalse(set.contains(0, 100));
+        assertFalse(set.contains(1, 98));
+    }
+
+    @Test
+    public void testAddForDifferentKey() {
+        RoaringBitmapLongPairRangeSet<LongPair> set = new RoaringBitmapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 98, 0, 99);
+        set.addOpenClosed(0, 100, 1, 5);
+        set.addOpenClosed(1, 10, 1, 15);
+        set.addOpenClosed(1, 20, 2, 10);
+
+        List<Range<LongPair>> ranges = set.asRanges();
+        assertEquals(ranges.size(), 4);
+        assertEquals(ranges.get(0), Range.openClosed(new LongPair(0, 98), new LongPair(0, 99)));
+        assertEquals(ranges.get(1), Range.openClosed(new LongPair(1, -1), new LongPair(1, 5)));
+        assertEquals(ranges.get(2), Range.openClosed(new LongPair(1, 10), new LongPair(1, 15)));
+        assertEquals(ranges.get(3), Range.openClosed(new LongPair(2, -1), new LongPair(2, 10)));
+    }
+
+    @Test
+    public void testRemoveAtMost() {
+        RoaringBitmapLongPairRangeSet<LongPair> set = new RoaringBitmapLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 10, 0, 20);
+        set.addOpenClosed(1, 10, 1, 20);
+        set.addOpenClosed(1, 30, 1, 40);
+        set.addOpenClosed(2, 10, 2, 20);
+
+        set.removeAtMost(1, 15);
+        List<Range<LongPair>> ranges = set.asRanges();
+        assertEquals(ranges.size(), 3);
+        assertEquals(ranges.get(0), Range.openClosed(new LongPair(1, 15), new LongPair(1, 20)));
+        assertEquals(ranges.get(1), Range.openClosed(new LongPair(1, 30), new LongPair(1, 40)));
+        assertEquals(ranges.get(2), Range.openClosed(new LongPair(2, 10), new LongPair(2, 20)));
+
+        set.removeAtMost(2, 30);
+        assertTrue(set.isEmpty());
+        assertEquals(set.size(), 0);
+        assertNull(set.firstRange());
+        assertNull(set.lastRange());
+    }
+
+    @Test
+    public void testCompareWithOpenRangeSet() {
+        RoaringBitmapLongPairRangeSet<LongPair> set = new RoaringBitmapLongPairRangeSet<>(consumer);
+        ConcurrentOpenLongPairRangeSet<LongPair> expected = new ConcurrentOpenLongPairRangeSet<>(consumer);
+        Random random = new Random(1);
+
+        for (int i = 0; i < 10_000; i++) {
+            long key = random.nextInt(5);
+            long lower = random.nextInt(10_000) - 1;
+            long upper = lower + 1 + random.nextInt(10);
+            set.addOpenClosed(key, lower, key, upper);
+            expected.addOpenClosed(key, lower, key, upper);
+        }
+        assertEquals(set.asRanges(), expected.asRanges());
+        assertEquals(set.size(), expected.size());
+        assertEquals(set.firstRange(), expected.firstRange());
+        assertEquals(set.lastRange(), expected.lastRange());
+
+        for (int i = 0; i < 1_000; i++) {
+            long key = random.nextInt(5);
+            long value = random.nextInt(10_000);
+            assertEquals(set.contains(key, value), expected.contains(key, value));
+            assertEquals(set.rangeContaining(key, value), expected.rangeContaining(key, value));
+        }
+
+        set.removeAtMost(2, 5_000);
+        expected.removeAtMost(2, 5_000);
+        assertEquals(set.asRanges(), expected.asRanges());
+    }
+
+    @Test
+    public void testSerializedBitmaps() {
+        RoaringBitmapLongPairRangeSet<LongPair> set = new RoaringBitmapLongPairRangeSet<>(consumer);
+
+        // 1M holes over 2 ledgers
+        for (int i = 0; i < 1_000_000; i++) {
+            set.addOpenClosed(i % 2, 2L * i - 1, i % 2, 2L * i);
+        }
+        assertEquals(set.size(), 1_000_000);
+
+        NavigableMap<Long, ByteBuffer> bitmaps = set.toSerializedBitmaps();
+        assertEquals(bitmaps.size(), 2);
+        int serializedSize = bitmaps.values().stream().mapToInt(ByteBuffer::remaining).sum();
+        assertTrue(serializedSize < 1024 * 1024, "Serialized size: " + serializedSize);
+
+        RoaringBitmapLongPairRangeSet<LongPair> recovered = new RoaringBitmapLongPairRangeSet<>(consumer);
+        bitmaps.forEach(recovered::addSerializedBitmap);
+        assertEquals(recovered.size(), set.size());
+        assertEquals(recovered.asRanges(), set.asRanges());
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.google.common.collect.Lists;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.tuple.Pair;
+import org.testng.annotations.Test;
+
+public class SegmentedRangeCacheTest {
+
+    private static final long LEDGER_ID = 3;
+
+    class RefString extends AbstractReferenceCounted implements ReferenceCounted {
+        final String s;
+
+        RefString(String s) {
+            super();
+            this.s = s;
+            setRefCnt(1);
+        }
+
+        @Override
+        protected void deallocate() {
+            // no-op
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof RefString) {
+                return this.s.equals(((RefString) obj).s);
+            } else if (obj instanceof String) {
+                return this.s.equals((String) obj);
+            }
+
+            return false;
+        }
+    }
+
+    private SegmentedRangeCache<RefString> newCache() {
+        // Small segments, so that the tests cross the segment boundaries
+        return new SegmentedRangeCache<>(4, value -> 1, value -> 0);
+    }
+
+    @Test
+    public void simple() {
+        SegmentedRangeCache<RefString> cache = newCache();
+
+        cache.put(LEDGER_ID, 0, new RefString("0"));
+        cache.put(LEDGER_ID, 1, new RefString("1"));
+
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getNumberOfEntries(), 2);
+
+        RefString s = cache.get(LEDGER_ID, 0);
+        assertEquals(s.s, "0");
+        assertEquals(s.refCnt(), 2);
+        s.release();
+
+        assertNull(cache.get(LEDGER_ID, 2));
+        assertNull(cache.get(LEDGER_ID + 1, 0));
+
+        cache.put(LEDGER_ID, 2, new RefString("2"));
+        cache.put(LEDGER_ID, 8, new RefString("8"));
+        cache.put(LEDGER_ID, 11, new RefString("11"));
+
+        assertEquals(cache.getSize(), 5);
+        assertEquals(cache.getNumberOfEntries(), 5);
+
+        cache.removeRange(LEDGER_ID, 1, LEDGER_ID, 5, true);
+        assertEquals(cache.getSize(), 3);
+        assertEquals(cache.getNumberOfEntries(), 3);
+
+        cache.removeRange(LEDGER_ID, 2, LEDGER_ID, 8, false);
+        assertEquals(cache.getSize(), 3);
+        assertEquals(cache.getNumberOfEntries(), 3);
+
+        cache.removeRange(LEDGER_ID, 0, LEDGER_ID, 100, false);
+        assertEquals(cache.getSize(), 0);
+        assertEquals(cache.getNumberOfEntries(), 0);
+
+        cache.removeRange(LEDGER_ID, 0, LEDGER_ID, 100, false);
+        assertEquals(cache.getSize(), 0);
+        assertEquals(cache.getNumberOfEntries(), 0);
+    }
+
+    @Test
+    public void invalidSegmentSize() {
+        try {
+            new SegmentedRangeCache<RefString>(3, value -> 1, value -> 0);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void customWeighter() {
+        SegmentedRangeCache<RefString> cache = new SegmentedRangeCache<>(4, value -> value.s.length(), x -> 0);
+
+        cache.put(LEDGER_ID, 0, new RefString("zero"));
+        cache.put(LEDGER_ID, 1, new RefString("one"));
+
+        assertEquals(cache.getSize(), 7);
+        assertEquals(cache.getNumberOfEntries(), 2);
+    }
+
+    @Test
+    public void customTimeExtraction() {
+        SegmentedRangeCache<RefString> cache = new SegmentedRangeCache<>(2, value -> value.s.length(),
+                x -> x.s.length());
+
+        cache.put(LEDGER_ID, 1, new RefString("1"));
+        cache.put(LEDGER_ID, 2, new RefString("22"));
+        cache.put(LEDGER_ID, 3, new RefString("333"));
+        cache.put(LEDGER_ID, 4, new RefString("4444"));
+
+        assertEquals(cache.getSize(), 10);
+        assertEquals(cache.getNumberOfEntries(), 4);
+
+        long evictedSize = cache.evictLEntriesBeforeTimestamp(3);
+        assertEquals(evictedSize, 6);
+
+        assertEquals(cache.getSize(), 4);
+        assertEquals(cache.getNumberOfEntries(), 1);
+        assertEquals(cache.get(LEDGER_ID, 4).s, "4444");
+    }
+
+    @Test
+    public void doubleInsert() {
+        SegmentedRangeCache<RefString> cache = newCache();
+
+        RefString s0 = new RefString("zero");
+        assertEquals(s0.refCnt(), 1);
+        assertTrue(cache.put(LEDGER_ID, 0, s0));
+        assertEquals(s0.refCnt(), 1);
+
+        cache.put(LEDGER_ID, 1, new RefString("one"));
+
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getNumberOfEntries(), 2);
+        RefString s = cache.get(LEDGER_ID, 1);
+        assertEquals(s.s, "one");
+        assertEquals(s.refCnt(), 2);
+
+        RefString s1 = new RefString("uno");
+        assertEquals(s1.refCnt(), 1);
+        assertFalse(cache.put(LEDGER_ID, 1, s1));
+        assertEquals(s1.refCnt(), 1);
+        s1.release();
+
+        // Should not have been overridden in cache
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getNumberOfEntries(), 2);
+        assertEquals(cache.get(LEDGER_ID, 1).s, "one");
+    }
+
+    @Test
+    public void getRange() {
+        SegmentedRangeCache<RefString> cache = newCache();
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(LEDGER_ID, i, new RefString(Integer.toString(i)));
+        }
+
+        List<RefString> values = new ArrayList<>();
+        assertEquals(cache.getRange(LEDGER_ID, 2, 6, values), 5);
+        assertEquals(values, Lists.newArrayList(new RefString("2"), new RefString("3"), new RefString("4"),
+                new RefString("5"), new RefString("6")));
+        values.forEach(value -> assertEquals(value.refCnt(), 2));
+        values.forEach(RefString::release);
+
+        // The lookup stops at the first missing entry
+        cache.removeRange(LEDGER_ID, 5, LEDGER_ID, 5, true);
+        values.clear();
+        assertEquals(cache.getRange(LEDGER_ID, 2, 8, values), 3);
+        assertEquals(values, Lists.newArrayList(new RefString("2"), new RefString("3"), new RefString("4")));
+        values.forEach(RefString::release);
+
+        values.clear();
+        assertEquals(cache.getRange(LEDGER_ID + 1, 0, 8, values), 0);
+        assertTrue(values.isEmpty());
+
+        cache.clear();
+        assertEquals(cache.getSize(), 0);
+        assertEquals(cache.getNumberOfEntries(), 0);
+    }
+
+    @Test
+    public void multipleLedgers() {
+        SegmentedRangeCache<RefString> cache = newCache();
+
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            for (int i = 0; i < 6; i++) {
+                cache.put(ledgerId, i, new RefString(ledgerId + ":" + i));
+            }
+        }
+        assertEquals(cache.getSize(), 18);
+
+        // Remove all the entries before 2:3
+        assertEquals(cache.removeRange(-1, 0, 2, 3, false), Pair.of(9, (long) 9));
+        assertNull(cache.get(1, 5));
+        assertNull(cache.get(2, 2));
+        assertEquals(cache.get(2, 3).s, "2:3");
+        assertEquals(cache.getSize(), 9);
+
+        // Remove a whole ledger
+        assertEquals(cache.removeRange(3, 0, 4, 0, false), Pair.of(6, (long) 6));
+        assertNull(cache.get(3, 0));
+        assertEquals(cache.getNumberOfEntries(), 3);
+
+        // A removed ledger can be cached again
+        assertTrue(cache.put(1, 0, new RefString("1:0")));
+        assertEquals(cache.get(1, 0).s, "1:0");
+        assertEquals(cache.getSize(), 4);
+    }
+
+    @Test
+    public void evictionListener() {
+        SegmentedRangeCache<RefString> cache = new SegmentedRangeCache<>(2, value -> value.s.length(),
+                value -> value.s.length());
+
+        cache.put(LEDGER_ID, 0, new RefString("zero"));
+        cache.put(LEDGER_ID, 1, new RefString("one"));
+        cache.put(LEDGER_ID, 2, new RefString("two"));
+        cache.put(LEDGER_ID, 3, new RefString("three"));
+
+        List<String> evicted = new ArrayList<>();
+        assertEquals(cache.evictLeastAccessedEntries(3, value -> evicted.add(value.s)), Pair.of(2, (long) 7));
+        assertEquals(evicted, Lists.newArrayList("zero", "one"));
+
+        evicted.clear();
+        assertEquals(cache.evictLEntriesBeforeTimestamp(3, value -> evicted.add(value.s)), 3);
+        assertEquals(evicted, Lists.newArrayList("two"));
+
+        // Removed entries are not notified
+        evicted.clear();
+        cache.clear();
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    public void eviction() {
+        SegmentedRangeCache<RefString> cache = new SegmentedRangeCache<>(2, value -> value.s.length(), x -> 0);
+
+        cache.put(LEDGER_ID, 0, new RefString("zero"));
+        cache.put(LEDGER_ID, 1, new RefString("one"));
+        cache.put(LEDGER_ID, 2, new RefString("two"));
+        cache.put(LEDGER_ID, 3, new RefString("three"));
+
+        // This should remove the first segment: 0, 1 whose combined size is 7
+        assertEquals(cache.evictLeastAccessedEntries(5), Pair.of(2, (long) 7));
+
+        assertEquals(cache.getNumberOfEntries(), 2);
+        assertEquals(cache.getSize(), 8);
+        assertNull(cache.get(LEDGER_ID, 0));
+        assertNull(cache.get(LEDGER_ID, 1));
+        assertEquals(cache.get(LEDGER_ID, 2).s, "two");
+        assertEquals(cache.get(LEDGER_ID, 3).s, "three");
+
+        assertEquals(cache.evictLeastAccessedEntries(100), Pair.of(2, (long) 8));
+        assertEquals(cache.getNumberOfEntries(), 0);
+        assertEquals(cache.getSize(), 0);
+        assertNull(cache.get(LEDGER_ID, 2));
+        assertNull(cache.get(LEDGER_ID, 3));
+
+        try {
+            cache.evictLeastAccessedEntries(0);
+            fail("should throw exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void removeRangeDropsEmptiedSegments() {
+        SegmentedRangeCache<RefString> cache = newCache();
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(LEDGER_ID, i, new RefString(Integer.toString(i)));
+        }
+        assertEquals(cache.getNumberOfSegments(), 3);
+
+        // Entries 0-2 leave the first segment with entry 3 only, the last one of the segment empties it
+        cache.removeRange(LEDGER_ID, 0, LEDGER_ID, 2, true);
+        assertEquals(cache.getNumberOfSegments(), 3);
+        cache.removeRange(LEDGER_ID, 3, LEDGER_ID, 3, true);
+        assertEquals(cache.getNumberOfSegments(), 2);
+
+        // Removing the entries of a segment one by one drops it too
+        for (int i = 4; i < 8; i++) {
+            cache.removeRange(LEDGER_ID, i, LEDGER_ID, i, true);
+        }
+        assertEquals(cache.getNumberOfSegments(), 1);
+        assertEquals(cache.getNumberOfEntries(), 2);
+        assertEquals(cache.getSize(), 2);
+
+        // A put after the drop creates the segment again
+        assertTrue(cache.put(LEDGER_ID, 5, new RefString("5")));
+        assertEquals(cache.getNumberOfSegments(), 2);
+        assertEquals(cache.get(LEDGER_ID, 5).s, "5");
+    }
+
+    @Test
+    public void evictionReleasesValues() {
+        SegmentedRangeCache<RefString> cache = newCache();
+
+        List<RefString> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            RefString value = new RefString(Integer.toString(i));
+            value.retain();
+            values.add(value);
+            cache.put(LEDGER_ID, i, value);
+        }
+
+        assertEquals(cache.clear(), 10);
+        assertEquals(cache.getSize(), 0);
+        values.forEach(value -> assertEquals(value.refCnt(), 1));
+
+        // Appending after the clear creates new segments
+        assertTrue(cache.put(LEDGER_ID, 10, new RefString("10")));
+        assertEquals(cache.get(LEDGER_ID, 10).s, "10");
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the broker dispatch path of an entry read from the managed ledger: the metadata is looked at by the
+ * Key_Shared consumer selection and the entry filtering, then the entry is framed as a message command.
+ *
+ * <p>{@code reparseMetadata} parses the metadata at every step, as done with
+ * {@link Commands#peekMessageMetadata}, while {@code cachedMetadata} parses it once with
+ * {@link EntryImpl#getMessageMetadata}. Run with {@code -prof gc} to compare the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EntryDispatchBenchmark {
+
+    @Param({"100", "1024", "10240"})
+    private int payloadSize;
+
+    private ByteBuf data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MessageMetadata metadata = new MessageMetadata()
+                .setProducerName("microbench-producer")
+                .setSequenceId(1)
+                .setPublishTime(System.currentTimeMillis())
+                .setPartitionKey("key")
+                .setNumMessagesInBatch(1);
+        ByteBuf payload = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize).writeZero(payloadSize);
+        data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        payload.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        data.release();
+    }
+
+    @Benchmark
+    public int reparseMetadata() {
+        EntryImpl entry = EntryImpl.create(1, 1, data);
+        byte[] stickyKey = Commands.peekStickyKey(entry.getDataBuffer(), "topic", "subscription");
+        MessageMetadata metadata = Commands.peekMessageMetadata(entry.getDataBuffer(), "subscription", -1);
+        return stickyKey.length + metadata.getNumMessagesInBatch() + dispatch(entry);
+    }
+
+    @Benchmark
+    public int cachedMetadata() {
+        EntryImpl entry = EntryImpl.create(1, 1, data);
+        byte[] stickyKey = Commands.resolveStickyKey(entry.getMessageMetadata());
+        MessageMetadata metadata = entry.getMessageMetadata();
+        return stickyKey.length + metadata.getNumMessagesInBatch() + dispatch(entry);
+    }
+
+    private static int dispatch(EntryImpl entry) {
+        // The command only references the entry data, which is written to the channel without being copied
+        ByteBuf metadataAndPayload = entry.getDataBuffer().retainedDuplicate();
+        ByteBufPair cmd = Commands.newMessage(1, entry.getLedgerId(), entry.getEntryId(), 0, 0,
+                metadataAndPayload, null);
+        entry.release();
+        int size = cmd.readableBytes();
+        cmd.release();
+        return size;
+    }
+}
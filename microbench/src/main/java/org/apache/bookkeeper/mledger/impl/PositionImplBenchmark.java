@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the {@link PositionImpl} comparisons that back every ordered structure of the managed ledger (entry
+ * cache keys, cursor container, individually deleted messages).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PositionImplBenchmark {
+
+    private static final int POSITIONS = 1024;
+
+    private PositionImpl[] positions;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        positions = new PositionImpl[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            // Few ledgers and many entries, so that both fields take part in the comparison
+            positions[i] = new PositionImpl(random.nextInt(4), random.nextInt(100_000));
+        }
+    }
+
+    private PositionImpl next() {
+        index = (index + 1) & (POSITIONS - 1);
+        return positions[index];
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return next().compareTo(next());
+    }
+
+    @Benchmark
+    public boolean equalsTo() {
+        return next().equals(next());
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return next().hashCode();
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link RangeCache#getRange} and {@link SegmentedRangeCache#getRange}, which serve every read of a
+ * tailing cursor from the entry cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RangeCacheBenchmark {
+
+    private static final long LEDGER_ID = 1;
+    private static final int CACHED_ENTRIES = 10_000;
+
+    @Param({"1", "10", "100"})
+    private int readBatchSize;
+
+    private RangeCache<PositionImpl, EntryImpl> cache;
+    private SegmentedRangeCache<EntryImpl> segmentedCache;
+    private final List<EntryImpl> segmentedEntries = new ArrayList<>();
+    private long firstEntryId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cache = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+        segmentedCache = new SegmentedRangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+        byte[] data = new byte[128];
+        for (int i = 0; i < CACHED_ENTRIES; i++) {
+            EntryImpl entry = EntryImpl.create(LEDGER_ID, i, data);
+            cache.put(entry.getPosition(), entry);
+            segmentedCache.put(LEDGER_ID, i, (EntryImpl) entry.retain());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        cache.clear();
+        segmentedCache.clear();
+    }
+
+    @Benchmark
+    public int getRange() {
+        long first = firstEntryId;
+        long last = nextRange(first);
+
+        Collection<EntryImpl> entries = cache.getRange(PositionImpl.get(LEDGER_ID, first),
+                PositionImpl.get(LEDGER_ID, last));
+        int size = 0;
+        for (EntryImpl entry : entries) {
+            size += entry.getLength();
+            entry.release();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int getRangeSegmented() {
+        long first = firstEntryId;
+        long last = nextRange(first);
+
+        segmentedEntries.clear();
+        segmentedCache.getRange(LEDGER_ID, first, last, segmentedEntries);
+        int size = 0;
+        for (int i = 0; i < segmentedEntries.size(); i++) {
+            EntryImpl entry = segmentedEntries.get(i);
+            size += entry.getLength();
+            entry.release();
+        }
+        return size;
+    }
+
+    private long nextRange(long first) {
+        long last = first + readBatchSize - 1;
+        firstEntryId = last + 1 >= CACHED_ENTRIES ? 0 : last + 1;
+        return last;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the Key_Shared consumer selection by key hash, with the sorted map based selectors and the slot array
+ * one. Run with {@code -prof gc} to compare the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StickyKeyConsumerSelectorBenchmark {
+
+    private static final int HASHES = 1024;
+
+    @Param({"10", "100", "1000"})
+    private int consumers;
+
+    @Param({"consistentHashing", "hashRangeAutoSplit", "consistentHashingSlotArray"})
+    private String selectorType;
+
+    private StickyKeyConsumerSelector selector;
+    private final int[] hashes = new int[HASHES];
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        switch (selectorType) {
+        case "consistentHashing":
+            selector = new ConsistentHashingStickyKeyConsumerSelector(100);
+            break;
+        case "hashRangeAutoSplit":
+            selector = new HashRangeAutoSplitStickyKeyConsumerSelector();
+            break;
+        case "consistentHashingSlotArray":
+            selector = new ConsistentHashingSlotArrayStickyKeyConsumerSelector(100);
+            break;
+        default:
+            throw new IllegalArgumentException(selectorType);
+        }
+        for (int i = 0; i < consumers; i++) {
+            Consumer consumer = mock(Consumer.class);
+            doReturn("consumer-" + i).when(consumer).consumerName();
+            selector.addConsumer(consumer);
+        }
+        Random random = new Random(0);
+        for (int i = 0; i < HASHES; i++) {
+            hashes[i] = StickyKeyConsumerSelector.makeStickyKeyHash(("key-" + random.nextLong()).getBytes());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(HASHES)
+    public void select(Blackhole blackhole) {
+        for (int hash : hashes) {
+            blackhole.consume(selector.select(hash));
+        }
+    }
+}
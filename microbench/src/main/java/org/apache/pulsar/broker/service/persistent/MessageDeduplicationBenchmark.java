@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.Topic.PublishContext;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the deduplication check done by the broker for every published message, with one producer per thread
+ * publishing on the same topic.
+ *
+ * <p>{@code synchronizedMaps} tracks the sequence ids in maps keyed by producer name, updated under the monitor of
+ * the map, as {@link MessageDeduplication} used to do. {@code producerSequenceIds} goes through
+ * {@link MessageDeduplication#isDuplicate}, with the sequence ids of the producer carried by the publish context.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageDeduplicationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class TopicState {
+        final ConcurrentOpenHashMap<String, Long> highestSequencedPushed = new ConcurrentOpenHashMap<>(16, 1);
+        final ConcurrentOpenHashMap<String, Long> highestSequencedPersisted = new ConcurrentOpenHashMap<>(16, 1);
+        final AtomicInteger producerIds = new AtomicInteger();
+        MessageDeduplication messageDeduplication;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            PulsarService pulsar = mock(PulsarService.class);
+            doReturn(new ServiceConfiguration()).when(pulsar).getConfiguration();
+            messageDeduplication = new MessageDeduplication(pulsar, mock(PersistentTopic.class),
+                    mock(ManagedLedger.class));
+            Field status = MessageDeduplication.class.getDeclaredField("status");
+            status.setAccessible(true);
+            status.set(messageDeduplication, MessageDeduplication.Status.Enabled);
+        }
+
+        MessageDeduplication.MessageDupStatus isDuplicate(String producerName, long sequenceId) {
+            synchronized (highestSequencedPushed) {
+                Long lastSequenceIdPushed = highestSequencedPushed.get(producerName);
+                if (lastSequenceIdPushed != null && sequenceId <= lastSequenceIdPushed) {
+                    Long lastSequenceIdPersisted = highestSequencedPersisted.get(producerName);
+                    if (lastSequenceIdPersisted != null && sequenceId <= lastSequenceIdPersisted) {
+                        return MessageDeduplication.MessageDupStatus.Dup;
+                    } else {
+                        return MessageDeduplication.MessageDupStatus.Unknown;
+                    }
+                }
+                highestSequencedPushed.put(producerName, sequenceId);
+            }
+            return MessageDeduplication.MessageDupStatus.NotDup;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState implements PublishContext {
+        String producerName;
+        long sequenceId;
+        MessageDeduplication.ProducerSequenceIds producerSequenceIds;
+
+        @Setup(Level.Trial)
+        public void setup(TopicState topic) {
+            producerName = "microbench-producer-" + topic.producerIds.incrementAndGet();
+            producerSequenceIds = topic.messageDeduplication.producerAdded(producerName);
+        }
+
+        @Override
+        public String getProducerName() {
+            return producerName;
+        }
+
+        @Override
+        public long getSequenceId() {
+            return sequenceId;
+        }
+
+        @Override
+        public MessageDeduplication.ProducerSequenceIds getProducerSequenceIds() {
+            return producerSequenceIds;
+        }
+
+        @Override
+        public void setProducerSequenceIds(MessageDeduplication.ProducerSequenceIds producerSequenceIds) {
+            this.producerSequenceIds = producerSequenceIds;
+        }
+
+        @Override
+        public void completed(Exception e, long ledgerId, long entryId) {
+        }
+    }
+
+    @Benchmark
+    public MessageDeduplication.MessageDupStatus synchronizedMaps(TopicState topic, ProducerState producer) {
+        return topic.isDuplicate(producer.producerName, ++producer.sequenceId);
+    }
+
+    @Benchmark
+    public MessageDeduplication.MessageDupStatus producerSequenceIds(TopicState topic, ProducerState producer) {
+        ++producer.sequenceId;
+        return topic.messageDeduplication.isDuplicate(producer, null);
+    }
+}
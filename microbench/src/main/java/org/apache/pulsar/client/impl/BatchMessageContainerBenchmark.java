@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.impl.ProducerImpl.OpSendMsg;
+import org.apache.pulsar.client.impl.conf.ProducerConfigurationData;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Benchmark of {@link BatchMessageContainerImpl}: adding {@code batchSize} messages and building the
+ * {@link OpSendMsg} of the batch, as {@link ProducerImpl#batchMessageAndSend} does.
+ *
+ * <p>The producer is a stub which only forwards the encryption and the send command creation, these two calls are
+ * made once per batch and do not weigh on the per-message cost. It is not a mock, so that the allocations reported
+ * by {@code -prof gc} are the ones of the container.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BatchMessageContainerBenchmark {
+
+    @Param({"10", "100", "400"})
+    private int batchSize;
+
+    @Param({"100", "1024", "10240"})
+    private int messageSize;
+
+    @Param({"NONE", "LZ4"})
+    private CompressionType compressionType;
+
+    private BatchMessageContainerImpl container;
+    private MessageImpl<?>[] messages;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ProducerConfigurationData conf = new ProducerConfigurationData();
+        conf.setCompressionType(compressionType);
+        conf.setBatchingMaxMessages(batchSize);
+        conf.setBatchingMaxBytes(Integer.MAX_VALUE);
+
+        // the producer constructor needs a client and a connection, skip it
+        StubProducer producer = new ObjenesisStd().newInstance(StubProducer.class);
+        producer.stubConf = conf;
+
+        container = new BatchMessageContainerImpl();
+        container.setProducer(producer);
+
+        byte[] payload = new byte[messageSize];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i % 64 + 'A');
+        }
+        messages = new MessageImpl<?>[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            MessageMetadata metadata = new MessageMetadata()
+                    .setProducerName("microbench-producer")
+                    .setSequenceId(i)
+                    .setPublishTime(System.currentTimeMillis());
+            messages[i] = MessageImpl.create(metadata, ByteBuffer.wrap(payload), Schema.BYTES);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        for (MessageImpl<?> msg : messages) {
+            msg.recycle();
+        }
+    }
+
+    @Benchmark
+    public int addAndCreateOpSendMsg() throws Exception {
+        for (MessageImpl<?> msg : messages) {
+            container.add(msg, null);
+        }
+        OpSendMsg op = container.createOpSendMsg();
+        container.clear();
+
+        int size = op.cmd.readableBytes();
+        op.cmd.release();
+        op.recycle();
+
+        // The batch container moves the reader index of the payloads it serializes
+        for (MessageImpl<?> msg : messages) {
+            ByteBuf payload = msg.getDataBuffer();
+            payload.resetReaderIndex();
+        }
+        return size;
+    }
+
+    static class StubProducer extends ProducerImpl<byte[]> {
+        private ProducerConfigurationData stubConf;
+
+        private StubProducer() {
+            super(null, null, null, null, 0, null, null);
+        }
+
+        @Override
+        public ProducerConfigurationData getConfiguration() {
+            return stubConf;
+        }
+
+        @Override
+        public String getTopic() {
+            return "persistent://prop/ns/microbench";
+        }
+
+        @Override
+        public String getProducerName() {
+            return "microbench-producer";
+        }
+
+        @Override
+        protected ByteBuf encryptMessage(MessageMetadata msgMetadata, ByteBuf compressedPayload) {
+            return compressedPayload;
+        }
+
+        @Override
+        protected ByteBufPair sendMessage(long producerId, long lowestSequenceId, long highestSequenceId,
+                int numMessages, MessageMetadata msgMetadata, ByteBuf compressedPayload) {
+            return Commands.newSend(producerId, lowestSequenceId, highestSequenceId, numMessages, ChecksumType.Crc32c,
+                    msgMetadata, compressedPayload);
+        }
+    }
+}
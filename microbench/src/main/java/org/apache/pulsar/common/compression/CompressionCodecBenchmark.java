@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.api.proto.CompressionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the compression codecs on the kinds of buffers they get in practice.
+ *
+ * <ul>
+ * <li><code>direct</code>: the client compresses batches built in pooled direct buffers and decompresses the payloads
+ * received from the broker</li>
+ * <li><code>composite</code>: the broker decompresses entries read from bookies, which are usually composite
+ * buffers, when compacting a topic and when Pulsar SQL parses messages</li>
+ * <li><code>heap</code>: applications and tools that hand over heap buffers</li>
+ * </ul>
+ *
+ * <p><code>ZLIB_HEAP</code> is {@link CompressionCodecZLib}, which copies into heap arrays, while <code>ZLIB</code>
+ * is the codec picked by {@link CompressionCodecProvider}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompressionCodecBenchmark {
+
+    @Param({"LZ4", "ZLIB", "ZLIB_HEAP", "ZSTD", "SNAPPY"})
+    private String codecName;
+
+    @Param({"heap", "direct", "composite"})
+    private String bufferType;
+
+    @Param({"1024", "65536"})
+    private int payloadSize;
+
+    private CompressionCodec codec;
+    private ByteBuf uncompressed;
+    private ByteBuf compressed;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        codec = "ZLIB_HEAP".equals(codecName)
+                ? new CompressionCodecZLib()
+                : CompressionCodecProvider.getCompressionCodec(CompressionType.valueOf(codecName));
+
+        // text-like content, with a compression ratio close to the one of typical JSON payloads
+        String[] words = {"pulsar", "topic", "message", "\"id\":", "\"value\":", "broker", "bookie", "ledger",
+                "12", "345", "6789", "true", "false", "null", "{", "}", ",", ":"};
+        Random random = new Random(1);
+        byte[] data = new byte[payloadSize];
+        int i = 0;
+        while (i < payloadSize) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            for (int j = 0; j < word.length && i < payloadSize; j++) {
+                data[i++] = word[j];
+            }
+        }
+
+        uncompressed = wrap(data);
+        ByteBuf encoded = codec.encode(Unpooled.wrappedBuffer(data));
+        byte[] compressedData = new byte[encoded.readableBytes()];
+        encoded.readBytes(compressedData);
+        encoded.release();
+        compressed = wrap(compressedData);
+    }
+
+    private ByteBuf wrap(byte[] data) {
+        switch (bufferType) {
+        case "heap":
+            return Unpooled.buffer(data.length).writeBytes(data);
+        case "direct":
+            return Unpooled.directBuffer(data.length).writeBytes(data);
+        default:
+            int half = data.length / 2;
+            CompositeByteBuf composite = Unpooled.compositeBuffer();
+            composite.addComponent(true, Unpooled.directBuffer(half).writeBytes(data, 0, half));
+            composite.addComponent(true, Unpooled.directBuffer(data.length - half)
+                    .writeBytes(data, half, data.length - half));
+            return composite;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        uncompressed.release();
+        compressed.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuf result = codec.encode(uncompressed);
+        int size = result.readableBytes();
+        result.release();
+        return size;
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        ByteBuf result = codec.decode(compressed, payloadSize);
+        int size = result.readableBytes();
+        result.release();
+        return size;
+    }
+}
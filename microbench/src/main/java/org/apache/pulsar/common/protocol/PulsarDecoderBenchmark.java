@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.api.proto.CommandAck;
+import org.apache.pulsar.common.api.proto.CommandAck.AckType;
+import org.apache.pulsar.common.api.proto.CommandFlow;
+import org.apache.pulsar.common.api.proto.CommandMessage;
+import org.apache.pulsar.common.api.proto.CommandSend;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the command parsing done by {@link PulsarDecoder#channelRead} for the commands that dominate the
+ * traffic of a busy connection.
+ *
+ * <p>Every frame is serialized once and fed again to the decoder on each invocation, so the measured cost (and the
+ * allocation rate reported by the gc profiler) is the one of the decoder alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PulsarDecoderBenchmark {
+
+    private BenchmarkDecoder decoder;
+
+    private ByteBuf sendFrame;
+    private ByteBuf messageFrame;
+    private ByteBuf ackFrame;
+    private ByteBuf flowFrame;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        decoder = new BenchmarkDecoder();
+
+        MessageMetadata metadata = new MessageMetadata()
+                .setProducerName("microbench-producer")
+                .setSequenceId(1)
+                .setPublishTime(System.currentTimeMillis());
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[128]);
+
+        sendFrame = toFrame(ByteBufPair.coalesce(Commands.newSend(1, 1, 1, ChecksumType.Crc32c, metadata,
+                payload.retainedDuplicate())));
+        ByteBuf metadataAndPayload = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        messageFrame = toFrame(ByteBufPair.coalesce(Commands.newMessage(1, 10, 20, -1, 0, metadataAndPayload,
+                null)));
+        ackFrame = toFrame(Commands.newAck(1, 10, 20, null, AckType.Individual, null, Collections.emptyMap(), -1));
+        flowFrame = toFrame(Commands.newFlow(1, 1000));
+    }
+
+    /**
+     * The frame decoder in front of {@link PulsarDecoder} strips the total size field, do the same here and keep the
+     * result in an unpooled direct buffer.
+     */
+    private static ByteBuf toFrame(ByteBuf serialized) {
+        serialized.skipBytes(4);
+        ByteBuf frame = Unpooled.directBuffer(serialized.readableBytes()).writeBytes(serialized);
+        serialized.release();
+        return frame;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        sendFrame.release();
+        messageFrame.release();
+        ackFrame.release();
+        flowFrame.release();
+    }
+
+    @Benchmark
+    public long send() throws Exception {
+        return decode(sendFrame);
+    }
+
+    @Benchmark
+    public long message() throws Exception {
+        return decode(messageFrame);
+    }
+
+    @Benchmark
+    public long ack() throws Exception {
+        return decode(ackFrame);
+    }
+
+    @Benchmark
+    public long flow() throws Exception {
+        return decode(flowFrame);
+    }
+
+    private long decode(ByteBuf frame) throws Exception {
+        // The decoder releases the buffer once the command is handled
+        frame.retain();
+        frame.readerIndex(0);
+        decoder.channelRead(null, frame);
+        return decoder.sink;
+    }
+
+    private static final class BenchmarkDecoder extends PulsarDecoder {
+        // Fed with the parsed fields so that the JIT cannot drop the parsing
+        private long sink;
+
+        @Override
+        protected void messageReceived() {
+            // no-op
+        }
+
+        @Override
+        protected void handleSend(CommandSend send, ByteBuf headersAndPayload) {
+            sink += send.getSequenceId() + (Commands.hasChecksum(headersAndPayload) ? 1 : 0);
+        }
+
+        @Override
+        protected void handleMessage(CommandMessage cmdMessage, ByteBuf headersAndPayload) {
+            sink += cmdMessage.getMessageId().getEntryId() + (Commands.hasChecksum(headersAndPayload) ? 1 : 0);
+        }
+
+        @Override
+        protected void handleAck(CommandAck ack) {
+            sink += ack.getMessageIdAt(0).getEntryId();
+        }
+
+        @Override
+        protected void handleFlow(CommandFlow flow) {
+            sink += flow.getMessagePermits();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link ConcurrentLongPairSet}, the open hash set of (ledgerId, entryId) pairs used to track the
+ * messages to redeliver.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrentLongPairSetBenchmark {
+
+    private static final long LEDGER_ID = 1234;
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private ConcurrentLongPairSet set;
+    private long entryId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        set = new ConcurrentLongPairSet(size);
+        for (int i = 0; i < size; i++) {
+            set.add(LEDGER_ID, i);
+        }
+    }
+
+    private long nextEntryId() {
+        if (++entryId == size) {
+            entryId = 0;
+        }
+        return entryId;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.contains(LEDGER_ID, nextEntryId());
+    }
+
+    @Benchmark
+    public boolean containsMissing() {
+        return set.contains(LEDGER_ID + 1, nextEntryId());
+    }
+
+    @Benchmark
+    public boolean removeAndAdd() {
+        long id = nextEntryId();
+        set.remove(LEDGER_ID, id);
+        return set.add(LEDGER_ID, id);
+    }
+}
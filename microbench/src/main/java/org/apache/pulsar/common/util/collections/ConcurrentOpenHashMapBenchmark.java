@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link ConcurrentOpenHashMap}, used by the broker for the topic, producer and consumer registries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrentOpenHashMapBenchmark {
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    private ConcurrentOpenHashMap<String, Long> map;
+    private String[] keys;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = new ConcurrentOpenHashMap<>(size);
+        keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "persistent://prop/ns/topic-" + i;
+            map.put(keys[i], (long) i);
+        }
+    }
+
+    private String nextKey() {
+        if (++index == size) {
+            index = 0;
+        }
+        return keys[index];
+    }
+
+    @Benchmark
+    public Long get() {
+        return map.get(nextKey());
+    }
+
+    @Benchmark
+    public Long putIfAbsentExisting() {
+        return map.putIfAbsent(nextKey(), 0L);
+    }
+
+    @Benchmark
+    public Long removeAndPut() {
+        String key = nextKey();
+        Long value = map.remove(key);
+        map.put(key, value);
+        return value;
+    }
+}
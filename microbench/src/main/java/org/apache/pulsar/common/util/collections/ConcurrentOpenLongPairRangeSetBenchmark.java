@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import com.google.common.collect.Range;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of {@link ConcurrentOpenLongPairRangeSet}, the structure behind the individually deleted messages of a
+ * cursor. The set is filled with the sparse pattern produced by a Shared subscription acking every other entry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConcurrentOpenLongPairRangeSetBenchmark {
+
+    private static final int LEDGERS = 4;
+
+    @Param({"1000", "100000"})
+    private int entriesPerLedger;
+
+    private ConcurrentOpenLongPairRangeSet<LongPair> set;
+    private long ledgerId;
+    private long entryId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        set = new ConcurrentOpenLongPairRangeSet<>(4096, LongPair::new);
+        for (long ledger = 0; ledger < LEDGERS; ledger++) {
+            for (long entry = 0; entry < entriesPerLedger; entry += 2) {
+                set.addOpenClosed(ledger, entry - 1, ledger, entry);
+            }
+        }
+    }
+
+    private void next() {
+        entryId += 2;
+        if (entryId >= entriesPerLedger) {
+            entryId = 0;
+            ledgerId = (ledgerId + 1) % LEDGERS;
+        }
+    }
+
+    @Benchmark
+    public boolean contains() {
+        next();
+        return set.contains(ledgerId, entryId);
+    }
+
+    @Benchmark
+    public boolean addOpenClosed() {
+        next();
+        // Acknowledge the hole next to an existing range and restore it, as a cursor filling its ack holes would do
+        set.addOpenClosed(ledgerId, entryId, ledgerId, entryId + 1);
+        set.remove(Range.openClosed(new LongPair(ledgerId, entryId), new LongPair(ledgerId, entryId + 1)));
+        return set.isEmpty();
+    }
+
+    @Benchmark
+    public LongPair firstRangeLowerEndpoint() {
+        return set.firstRange().lowerEndpoint();
+    }
+}
@@ -231,6 +231,20 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + " affecting the accuracy of the delivery time compared to the scheduled time. Default is 1 second.")
     private long delayedDeliveryTickTimeMillis = 1000;
 
+    @FieldContext(category = CATEGORY_SERVER, doc = "Number of delayed messages after which the bucket based delayed"
+            + " delivery tracker seals its mutable bucket and stores it, only keeping in memory the messages about to"
+            + " be delivered. Used by the BucketDelayedDeliveryTrackerFactory.")
+    private int delayedDeliveryMinIndexCountPerBucket = 50000;
+
+    @FieldContext(category = CATEGORY_SERVER, doc = "Max number of delayed messages in a segment of a bucket of the"
+            + " bucket based delayed delivery tracker. Used by the BucketDelayedDeliveryTrackerFactory.")
+    private int delayedDeliveryMaxIndexesPerBucketSnapshotSegment = 5000;
+
+    @FieldContext(category = CATEGORY_SERVER, doc = "Max time slot covered by a segment of a bucket of the bucket based"
+            + " delayed delivery tracker. A segment is loaded in memory when its time slot is about to start."
+            + " Used by the BucketDelayedDeliveryTrackerFactory.")
+    private long delayedDeliveryMaxTimeStepPerBucketSnapshotSegmentSeconds = 300;
+
     @FieldContext(category = CATEGORY_SERVER, doc = "Whether to enable the acknowledge of batch local index")
     private boolean acknowledgmentAtBatchIndexLevelEnabled = false;
 
@@ -373,6 +387,19 @@ public class ServiceConfiguration implements PulsarConfiguration {
                 + "requests in memory. Default: 1000"
     )
     private int maxPendingPublishRequestsPerConnection = 1000;
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Enable aggregating the consecutive sends of a producer on a persistent topic, received in a single"
+                + " read from the connection, into a single managed ledger append. Each message is still written"
+                + " as its own entry and gets its own receipt. Default: false"
+    )
+    private boolean aggregatePipelinedSendsEnabled = false;
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Max number of sends of a producer aggregated into a single managed ledger append, when"
+                + " aggregatePipelinedSendsEnabled is set. Default: 1000"
+    )
+    private int aggregatePipelinedSendsMaxMessages = 1000;
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "How frequently to proactively check and purge expired messages"
@@ -428,6 +455,19 @@ public class ServiceConfiguration implements PulsarConfiguration {
                 + "The higher the number, the more equal the assignment of keys to consumers")
     private int subscriptionKeySharedConsistentHashingReplicaPoints = 100;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "On KeyShared subscriptions using consistent hashing, compile the hash ring into an array of 65536"
+                + " slots, so that selecting the consumer of a key is a single array lookup. It uses an array of"
+                + " 65536 references per subscription")
+    private boolean subscriptionKeySharedConsistentHashingUseSlotArray = false;
+
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "On KeyShared subscriptions, send the messages to the consumers after releasing the dispatcher lock,"
+                + " so that acks and flow requests are not blocked while writing to the consumer connections")
+    private boolean subscriptionKeySharedSendMessagesOutsideDispatcherLock = false;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "Set the default behavior for message deduplication in the broker.\n\n"
@@ -469,6 +509,25 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + " relative to a disconnected producer. Default is 6 hours.")
     private int brokerDeduplicationProducerInactivityTimeoutMinutes = 360;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Whether to also store the dedup info snapshots in a ledger dedicated to them, and recover them from"
+            + " it rather than from the properties of the dedup cursor.\n\n"
+            + "The ledger holds compact records, a full snapshot followed by deltas with only the producers whose"
+            + " sequence id changed, so that the recovery time doesn't grow with the number of producers. The"
+            + " snapshots are still stored in the cursor properties, from which the topics recover when the ledger"
+            + " can't be read or when disabling it later"
+    )
+    private boolean brokerDeduplicationSnapshotLedgerEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Maximum number of dedup info snapshot deltas written after a full snapshot, when"
+            + " `brokerDeduplicationSnapshotLedgerEnabled` is true. It bounds the number of records read to recover"
+            + " the dedup info of a topic"
+    )
+    private int brokerDeduplicationSnapshotLedgerMaxDeltas = 100;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "When a namespace is created without specifying the number of bundle, this"
@@ -686,6 +745,24 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int dispatcherMaxRoundRobinBatchSize = 20;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Dispatch messages of a shared subscription on a thread picked for that subscription instead of the"
+            + " managed ledger thread of the topic. The entries read are still shared through the managed ledger"
+            + " cache, but filtering and sending them to the consumers of different subscriptions of the same topic"
+            + " can use several cores."
+    )
+    private boolean dispatcherDispatchMessagesInSubscriptionThread = false;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Messages up to this size (in bytes), dispatched together to the same consumer, are copied into a"
+            + " single buffer and written to the connection at once instead of one write per message. It saves the"
+            + " per-message cost of the network pipeline for topics with many small unbatched messages. The"
+            + " consumers receive the same commands as without it. 0 disables it. Default: 0"
+    )
+    private int dispatcherCoalesceSmallMessagesMaxBytes = 0;
+
     @FieldContext(
          dynamic = true,
          category = CATEGORY_SERVER,
@@ -1319,6 +1396,43 @@ public class ServiceConfiguration implements PulsarConfiguration {
         doc = "Threshold to which bring down the cache level when eviction is triggered"
     )
     private double managedLedgerCacheEvictionWatermark = 0.9f;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Class name of the policy choosing which entries are admitted in and evicted from the managed ledger"
+            + " cache. EntryCacheDefaultEvictionPolicy evicts from the largest caches proportionally to their size."
+            + " EntryCacheFrequencyEvictionPolicy evicts from the least read caches first and, when the cache is"
+            + " above the eviction watermark, only admits the entries of frequently read topics"
+    )
+    private String managedLedgerCacheEvictionPolicyClassName =
+            "org.apache.bookkeeper.mledger.impl.EntryCacheDefaultEvictionPolicy";
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Directory on a local disk where the entries evicted from the managed ledger cache are kept, so that"
+            + " catching up readers can read them without going to the bookies. The disk cache is disabled when not"
+            + " set. The content of the directory is discarded when the broker starts"
+    )
+    private String managedLedgerDiskCacheDirectory = null;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Maximum amount of disk space used by the managed ledger disk cache"
+    )
+    private int managedLedgerDiskCacheSizeMB = 1024;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Maximum time entries stay in the managed ledger disk cache"
+    )
+    private long managedLedgerDiskCacheTtlSeconds = 600;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Number of batches read ahead by the cursors reading their backlog sequentially, while the dispatcher"
+            + " delivers the current one. Read-ahead is disabled when set to 0"
+    )
+    private int managedLedgerCursorReadAheadBatches = 0;
+    @FieldContext(
+        category = CATEGORY_STORAGE_ML,
+        doc = "Maximum amount of memory used by the entries read ahead by all the cursors"
+    )
+    private int managedLedgerCursorReadAheadMaxSizeMB = 64;
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "Configure the cache eviction frequency for the managed ledger cache. Default is 100/s")
     private double managedLedgerCacheEvictionFrequency = 100.0;
@@ -1435,6 +1549,47 @@ public class ServiceConfiguration implements PulsarConfiguration {
             doc = "Use Open Range-Set to cache unacked messages (it is memory efficient but it can take more cpu)"
         )
     private boolean managedLedgerUnackedRangesOpenCacheSetEnabled = true;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Use compressed bitmaps to cache unacked messages, and persist them as bitmaps in the cursor"
+                + " ledger. Millions of unacked ranges then fit in a few MB and the number of persisted ranges is not"
+                + " limited by managedLedgerMaxUnackedRangesToPersist. Takes precedence over"
+                + " managedLedgerUnackedRangesOpenCacheSetEnabled"
+        )
+    private boolean managedLedgerUnackedRangesBitmapEnabled = false;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Max number of delta entries, only containing the acknowledgement changes since the previous entry,"
+                + " written to a cursor ledger between two full snapshots of the cursor acknowledgement state."
+                + " 0 means that every entry is a full snapshot. Cursor ledgers containing delta entries can't be"
+                + " recovered by brokers that don't support them"
+        )
+    private int managedLedgerMaxCursorAckStateDeltaEntries = 0;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Whether to group-commit the position updates of all the cursors of the broker into a shared log"
+                + " ledger, instead of having every cursor write them to its own cursor ledger. The cursors point to"
+                + " the shared ledger holding their last update, and can't be recovered by brokers that don't support"
+                + " shared cursor ledgers"
+        )
+    private boolean managedLedgerSharedCursorStateStoreEnabled = false;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Max time in milliseconds the cursor position updates wait for other updates before being appended"
+                + " to the shared cursor ledger"
+        )
+    private long managedLedgerSharedCursorStateFlushIntervalMillis = 10;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Max number of cursor position updates appended to the shared cursor ledger in a single entry"
+        )
+    private int managedLedgerSharedCursorStateMaxBatchSize = 1000;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "How frequently the shared cursor ledger is rolled over, re-appending the position of the cursors"
+                + " that still point to the previous ledgers so that these can be deleted"
+        )
+    private int managedLedgerSharedCursorStateCheckpointIntervalSeconds = 3600;
     @FieldContext(
         dynamic = true,
         category = CATEGORY_STORAGE_ML,
@@ -34,6 +34,7 @@ import org.apache.bookkeeper.stats.NullStatsProvider;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.StatsProvider;
 import org.apache.commons.configuration.Configuration;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.broker.stats.prometheus.metrics.PrometheusMetricsProvider;
 import org.apache.pulsar.broker.storage.ManagedLedgerStorage;
 import org.apache.pulsar.common.policies.data.EnsemblePlacementPolicyConfig;
@@ -56,6 +57,24 @@ public class ManagedLedgerClientFactory implements ManagedLedgerStorage {
         ManagedLedgerFactoryConfig managedLedgerFactoryConfig = new ManagedLedgerFactoryConfig();
         managedLedgerFactoryConfig.setMaxCacheSize(conf.getManagedLedgerCacheSizeMB() * 1024L * 1024L);
         managedLedgerFactoryConfig.setCacheEvictionWatermark(conf.getManagedLedgerCacheEvictionWatermark());
+        managedLedgerFactoryConfig.setCacheEvictionPolicyClassName(conf.getManagedLedgerCacheEvictionPolicyClassName());
+        managedLedgerFactoryConfig.setCacheBackloggedReadThreshold(conf.getManagedLedgerCursorBackloggedThreshold());
+        if (StringUtils.isNotBlank(conf.getManagedLedgerDiskCacheDirectory())) {
+            managedLedgerFactoryConfig.setDiskCacheDirectory(conf.getManagedLedgerDiskCacheDirectory());
+            managedLedgerFactoryConfig.setDiskCacheMaxSize(conf.getManagedLedgerDiskCacheSizeMB() * 1024L * 1024L);
+            managedLedgerFactoryConfig.setDiskCacheTtlSeconds(conf.getManagedLedgerDiskCacheTtlSeconds());
+        }
+        managedLedgerFactoryConfig.setCursorReadAheadBatches(conf.getManagedLedgerCursorReadAheadBatches());
+        managedLedgerFactoryConfig.setCursorReadAheadMaxSize(
+                conf.getManagedLedgerCursorReadAheadMaxSizeMB() * 1024L * 1024L);
+        managedLedgerFactoryConfig.setSharedCursorStateStoreEnabled(
+                conf.isManagedLedgerSharedCursorStateStoreEnabled());
+        managedLedgerFactoryConfig.setSharedCursorStateFlushIntervalMillis(
+                conf.getManagedLedgerSharedCursorStateFlushIntervalMillis());
+        managedLedgerFactoryConfig.setSharedCursorStateMaxBatchSize(
+                conf.getManagedLedgerSharedCursorStateMaxBatchSize());
+        managedLedgerFactoryConfig.setSharedCursorStateCheckpointIntervalSeconds(
+                conf.getManagedLedgerSharedCursorStateCheckpointIntervalSeconds());
         managedLedgerFactoryConfig.setNumManagedLedgerWorkerThreads(conf.getManagedLedgerNumWorkerThreads());
         managedLedgerFactoryConfig.setNumManagedLedgerSchedulerThreads(conf.getManagedLedgerNumSchedulerThreads());
         managedLedgerFactoryConfig.setCacheEvictionFrequency(conf.getManagedLedgerCacheEvictionFrequency());
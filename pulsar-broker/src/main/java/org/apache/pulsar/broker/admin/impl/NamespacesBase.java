@@ -2345,6 +2345,20 @@ public abstract class NamespacesBase extends AdminResource {
                 "subscriptionTypesEnabled");
     }
 
+    protected Set<Integer> internalGetCompressionDictionaryIds() {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.COMPRESSION_DICTIONARY, PolicyOperation.READ);
+        return getNamespacePolicies(namespaceName).compression_dictionary_ids;
+    }
+
+    protected void internalSetCompressionDictionaryIds(Set<Integer> compressionDictionaryIds) {
+        validateNamespacePolicyOperation(namespaceName, PolicyName.COMPRESSION_DICTIONARY, PolicyOperation.WRITE);
+        validatePoliciesReadOnlyAccess();
+        mutatePolicy((policies) -> {
+                    policies.compression_dictionary_ids = new HashSet<>(compressionDictionaryIds);
+                    return policies;
+                }, (policies) -> policies.compression_dictionary_ids,
+                "compressionDictionaryIds");
+    }
 
     private <T> void mutatePolicy(Function<Policies, Policies> policyTransformation,
                                   Function<Policies, T> getter,
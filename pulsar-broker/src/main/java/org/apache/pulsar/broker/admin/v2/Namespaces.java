@@ -1493,6 +1493,33 @@ public class Namespaces extends NamespacesBase {
         internalSetSubscriptionTypesEnabled(subscriptionTypesEnabled);
     }
 
+    @GET
+    @Path("/{tenant}/{namespace}/compressionDictionaryIds")
+    @ApiOperation(value = "Get the ids of the Zstd dictionaries producers can compress messages with")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace doesn't exist") })
+    public Set<Integer> getCompressionDictionaryIds(
+            @PathParam("tenant") String tenant,
+            @PathParam("namespace") String namespace) {
+        validateNamespaceName(tenant, namespace);
+        return internalGetCompressionDictionaryIds();
+    }
+
+    @POST
+    @Path("/{tenant}/{namespace}/compressionDictionaryIds")
+    @ApiOperation(value = "Set the ids of the Zstd dictionaries producers can compress messages with")
+    @ApiResponses(value = { @ApiResponse(code = 403, message = "Don't have admin permission"),
+            @ApiResponse(code = 404, message = "Namespace doesn't exist"),
+            @ApiResponse(code = 409, message = "Concurrent modification") })
+    public void setCompressionDictionaryIds(
+            @PathParam("tenant") String tenant,
+            @PathParam("namespace") String namespace,
+            @ApiParam(value = "Ids of the dictionaries", required = true)
+                    Set<Integer> compressionDictionaryIds) {
+        validateNamespaceName(tenant, namespace);
+        internalSetCompressionDictionaryIds(compressionDictionaryIds);
+    }
+
 
     @GET
     @Path("/{tenant}/{namespace}/schemaValidationEnforced")
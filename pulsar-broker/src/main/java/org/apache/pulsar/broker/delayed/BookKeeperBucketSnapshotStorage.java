@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.UpdatePropertiesCallback;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Stores each bucket in a BookKeeper ledger. The ids of the ledgers of a subscription are kept in the properties of
+ * the managed ledger of the topic.
+ */
+@Slf4j
+class BookKeeperBucketSnapshotStorage implements BucketSnapshotStorage {
+
+    static final String BUCKET_IDS_PROPERTY_PREFIX = "pulsar.delayed-delivery.buckets.";
+
+    private static final Map<String, byte[]> LEDGER_METADATA = ImmutableMap.of(
+            "application", "pulsar".getBytes(UTF_8),
+            "component", "delayed-delivery-bucket".getBytes(UTF_8));
+
+    private final ManagedLedger managedLedger;
+    private final BookKeeper bookKeeper;
+    private final String bucketIdsProperty;
+
+    // Ledgers opened for reading, by id
+    private final Map<Long, CompletableFuture<LedgerHandle>> openLedgers = new ConcurrentHashMap<>();
+
+    BookKeeperBucketSnapshotStorage(ManagedLedger managedLedger, BookKeeper bookKeeper, String cursorName) {
+        this.managedLedger = managedLedger;
+        this.bookKeeper = bookKeeper;
+        this.bucketIdsProperty = BUCKET_IDS_PROPERTY_PREFIX + cursorName;
+    }
+
+    @Override
+    public List<Long> getBucketIds() {
+        String bucketIds = managedLedger.getProperties().get(bucketIdsProperty);
+        if (StringUtils.isEmpty(bucketIds)) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>();
+        for (String id : bucketIds.split(",")) {
+            ids.add(Long.parseLong(id));
+        }
+        return ids;
+    }
+
+    @Override
+    public CompletableFuture<Void> setBucketIds(List<Long> bucketIds) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        UpdatePropertiesCallback callback = new UpdatePropertiesCallback() {
+            @Override
+            public void updatePropertiesComplete(Map<String, String> properties, Object ctx) {
+                future.complete(null);
+            }
+
+            @Override
+            public void updatePropertiesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        };
+        if (bucketIds.isEmpty()) {
+            managedLedger.asyncDeleteProperty(bucketIdsProperty, callback, null);
+        } else {
+            managedLedger.asyncSetProperty(bucketIdsProperty,
+                    bucketIds.stream().map(String::valueOf).collect(Collectors.joining(",")), callback, null);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Long> createBucket(ByteBuf metadata, List<ByteBuf> segments) {
+        ManagedLedgerConfig config = managedLedger.getConfig();
+        Map<String, byte[]> ledgerMetadata = new HashMap<>(LEDGER_METADATA);
+        ledgerMetadata.put("pulsar/managed-ledger", managedLedger.getName().getBytes(UTF_8));
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        bookKeeper.asyncCreateLedger(config.getEnsembleSize(), config.getWriteQuorumSize(),
+                config.getAckQuorumSize(), BookKeeper.DigestType.fromApiDigestType(config.getDigestType()),
+                config.getPassword(), (rc, lh, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        metadata.release();
+                        segments.forEach(ByteBuf::release);
+                        future.completeExceptionally(BKException.create(rc));
+                        return;
+                    }
+
+                    // The entries are added in order, the last callback completes after all the others
+                    List<ByteBuf> entries = new ArrayList<>(segments.size() + 1);
+                    entries.add(metadata);
+                    entries.addAll(segments);
+                    CompletableFuture<Void> lastAdd = null;
+                    for (ByteBuf entry : entries) {
+                        CompletableFuture<Void> add = new CompletableFuture<>();
+                        lh.asyncAddEntry(entry, (addRc, handle, entryId, addCtx) -> {
+                            if (addRc != BKException.Code.OK) {
+                                add.completeExceptionally(BKException.create(addRc));
+                            } else {
+                                add.complete(null);
+                            }
+                        }, null);
+                        lastAdd = lastAdd == null ? add : lastAdd.thenCombine(add, (a, b) -> null);
+                    }
+
+                    lastAdd.whenComplete((ignore, ex) -> lh.asyncClose((closeRc, closedLh, closeCtx) -> {
+                        if (ex == null && closeRc == BKException.Code.OK) {
+                            future.complete(lh.getId());
+                        } else {
+                            future.completeExceptionally(ex != null ? ex : BKException.create(closeRc));
+                            deleteBucket(lh.getId());
+                        }
+                    }, null));
+                }, null, ledgerMetadata);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<ByteBuf> readBucketEntry(long bucketId, long entryId) {
+        return openLedger(bucketId).thenCompose(lh -> {
+            CompletableFuture<ByteBuf> future = new CompletableFuture<>();
+            lh.asyncReadEntries(entryId, entryId, (rc, handle, entries, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    future.completeExceptionally(BKException.create(rc));
+                } else {
+                    LedgerEntry entry = entries.nextElement();
+                    future.complete(entry.getEntryBuffer());
+                }
+            }, null);
+            return future;
+        });
+    }
+
+    private CompletableFuture<LedgerHandle> openLedger(long bucketId) {
+        return openLedgers.computeIfAbsent(bucketId, id -> {
+            ManagedLedgerConfig config = managedLedger.getConfig();
+            CompletableFuture<LedgerHandle> future = new CompletableFuture<>();
+            bookKeeper.asyncOpenLedgerNoRecovery(id, BookKeeper.DigestType.fromApiDigestType(config.getDigestType()),
+                    config.getPassword(), (rc, lh, ctx) -> {
+                        if (rc != BKException.Code.OK) {
+                            openLedgers.remove(id, future);
+                            future.completeExceptionally(BKException.create(rc));
+                        } else {
+                            future.complete(lh);
+                        }
+                    }, null);
+            return future;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBucket(long bucketId) {
+        CompletableFuture<LedgerHandle> openLedger = openLedgers.remove(bucketId);
+        if (openLedger != null) {
+            openLedger.thenAccept(lh -> lh.asyncClose((rc, closedLh, ctx) -> {}, null));
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        bookKeeper.asyncDeleteLedger(bucketId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException
+                    && rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                log.warn("[{}] Failed to delete delayed delivery bucket {}: {}", bucketIdsProperty, bucketId,
+                        BKException.getMessage(rc));
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    @Override
+    public void close() {
+        openLedgers.values().forEach(openLedger ->
+                openLedger.thenAccept(lh -> lh.asyncClose((rc, closedLh, ctx) -> {}, null)));
+        openLedgers.clear();
+    }
+}
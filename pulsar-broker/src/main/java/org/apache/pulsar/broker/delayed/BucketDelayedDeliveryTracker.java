@@ -0,0 +1,709 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
+
+/**
+ * Delayed delivery tracker that keeps in memory only the delayed messages about to be delivered.
+ *
+ * <p>The messages are first added to a mutable bucket. Once it holds enough messages, the bucket is sealed: its
+ * indexes are sorted by delivery time, split in segments covering consecutive time slots, and stored. The segments of
+ * the immutable buckets are then loaded in a shared queue when their time slot comes near.
+ *
+ * <p>After a restart, the immutable buckets are found in the storage, and the messages they already index are not
+ * tracked again when the dispatcher reads them.
+ */
+@Slf4j
+public class BucketDelayedDeliveryTracker implements DelayedDeliveryTracker, TimerTask {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    // Each index is composed of the delivery time, the ledger id and the entry id of the message
+    private static final int INDEX_SIZE = 3;
+
+    // Number of attempts to read the metadata of a bucket while recovering
+    private static final int RECOVERY_READ_ATTEMPTS = 3;
+
+    /**
+     * A sealed bucket. Its segments are sorted by delivery time: all the indexes of a segment are delivered no sooner
+     * than the ones of the previous segment.
+     */
+    static final class ImmutableBucket {
+        // Id of the bucket in the storage, or -1 while it's not stored
+        long bucketId = -1;
+        // Range of the positions of the indexed messages
+        final long startLedgerId;
+        final long startEntryId;
+        final long endLedgerId;
+        final long endEntryId;
+        final long[] segmentMinDeliveryAt;
+        final int[] segmentSizes;
+        final long maxDeliveryAt;
+        // Segments kept in memory until the bucket is stored
+        long[][] segments;
+        // Next segment to load in the shared queue
+        int nextSegment = 0;
+        boolean loading = false;
+        boolean deleted = false;
+
+        ImmutableBucket(long startLedgerId, long startEntryId, long endLedgerId, long endEntryId,
+                        long[] segmentMinDeliveryAt, int[] segmentSizes, long maxDeliveryAt) {
+            this.startLedgerId = startLedgerId;
+            this.startEntryId = startEntryId;
+            this.endLedgerId = endLedgerId;
+            this.endEntryId = endEntryId;
+            this.segmentMinDeliveryAt = segmentMinDeliveryAt;
+            this.segmentSizes = segmentSizes;
+            this.maxDeliveryAt = maxDeliveryAt;
+        }
+
+        boolean contains(long ledgerId, long entryId) {
+            return compare(ledgerId, entryId, startLedgerId, startEntryId) >= 0
+                    && compare(ledgerId, entryId, endLedgerId, endEntryId) <= 0;
+        }
+
+        boolean isFullyLoaded() {
+            return nextSegment == segmentSizes.length;
+        }
+    }
+
+    private final PersistentDispatcherMultipleConsumers dispatcher;
+
+    // Reference to the shared (per-broker) timer for delayed delivery
+    private final Timer timer;
+
+    // Current timeout or null if not set
+    private Timeout timeout;
+
+    // Timestamp at which the timeout is currently set
+    private long currentTimeoutTarget;
+
+    private long tickTimeMillis;
+
+    private final Clock clock;
+
+    private final BucketSnapshotStorage storage;
+
+    private final int minIndexCountPerBucket;
+    private final int maxIndexesPerSegment;
+    private final long segmentTimeStepMillis;
+
+    // Messages added since the last bucket was sealed, and the range of their positions
+    private final TripleLongPriorityQueue mutableBucket = new TripleLongPriorityQueue();
+    private long mutableStartLedgerId = -1;
+    private long mutableStartEntryId = -1;
+    private long mutableEndLedgerId = -1;
+    private long mutableEndEntryId = -1;
+
+    // Loaded segments of the immutable buckets
+    private final TripleLongPriorityQueue sharedBucketQueue = new TripleLongPriorityQueue();
+
+    private final List<ImmutableBucket> immutableBuckets = new ArrayList<>();
+
+    // Number of indexes of the segments not loaded yet
+    private long numberOfUnloadedIndexes = 0;
+
+    // Messages added while recovering the immutable buckets from the storage
+    private boolean recovering = false;
+    private final TripleLongPriorityQueue pendingRecovery = new TripleLongPriorityQueue();
+
+    private CompletableFuture<Void> bucketIdsUpdate = CompletableFuture.completedFuture(null);
+
+    private boolean closed = false;
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis,
+                                 BucketSnapshotStorage storage, int minIndexCountPerBucket,
+                                 int maxIndexesPerSegment, long segmentTimeStepMillis) {
+        this(dispatcher, timer, tickTimeMillis, Clock.systemUTC(), storage, minIndexCountPerBucket,
+                maxIndexesPerSegment, segmentTimeStepMillis);
+    }
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis,
+                                 Clock clock, BucketSnapshotStorage storage, int minIndexCountPerBucket,
+                                 int maxIndexesPerSegment, long segmentTimeStepMillis) {
+        this.dispatcher = dispatcher;
+        this.timer = timer;
+        this.tickTimeMillis = tickTimeMillis;
+        this.clock = clock;
+        this.storage = storage;
+        this.minIndexCountPerBucket = minIndexCountPerBucket;
+        this.maxIndexesPerSegment = maxIndexesPerSegment;
+        this.segmentTimeStepMillis = segmentTimeStepMillis;
+        recover();
+    }
+
+    private void recover() {
+        List<Long> bucketIds = storage.getBucketIds();
+        if (bucketIds.isEmpty()) {
+            return;
+        }
+
+        log.info("[{}] Recovering {} delayed delivery buckets", dispatcher.getName(), bucketIds.size());
+        recovering = true;
+        // A bucket that can't be read is completed with null, without failing the recovery of the other ones
+        List<CompletableFuture<ImmutableBucket>> futures = bucketIds.stream()
+                .map(bucketId -> recoverBucket(bucketId, 1)).collect(Collectors.toList());
+
+        FutureUtil.waitForAll(futures).thenRun(() -> {
+            synchronized (dispatcher) {
+                if (closed) {
+                    return;
+                }
+                recovering = false;
+                List<Long> failedBucketIds = new ArrayList<>();
+                for (int i = 0; i < futures.size(); i++) {
+                    ImmutableBucket bucket = futures.get(i).join();
+                    if (bucket != null) {
+                        addImmutableBucket(bucket);
+                    } else {
+                        failedBucketIds.add(bucketIds.get(i));
+                    }
+                }
+                if (!failedBucketIds.isEmpty()) {
+                    // The messages of the failed buckets are tracked again when the dispatcher reads them
+                    log.warn("[{}] Failed to recover the delayed delivery buckets {}, tracking their messages again",
+                            dispatcher.getName(), failedBucketIds);
+                    updateBucketIds().thenRun(() -> failedBucketIds.forEach(storage::deleteBucket));
+                }
+
+                while (!pendingRecovery.isEmpty()) {
+                    addIndex(pendingRecovery.peekN1(), pendingRecovery.peekN2(), pendingRecovery.peekN3());
+                    pendingRecovery.pop();
+                }
+                updateTimer();
+            }
+        });
+    }
+
+    private CompletableFuture<ImmutableBucket> recoverBucket(long bucketId, int attempt) {
+        return storage.readBucketEntry(bucketId, 0).thenApply(metadata -> {
+            try {
+                return decodeMetadata(bucketId, metadata);
+            } finally {
+                metadata.release();
+            }
+        }).handle((bucket, ex) -> {
+            if (ex == null) {
+                return CompletableFuture.completedFuture(bucket);
+            }
+            log.warn("[{}] Failed to read delayed delivery bucket {} (attempt {}): {}", dispatcher.getName(),
+                    bucketId, attempt, ex.getMessage());
+            return attempt < RECOVERY_READ_ATTEMPTS
+                    ? recoverBucket(bucketId, attempt + 1)
+                    : CompletableFuture.<ImmutableBucket>completedFuture(null);
+        }).thenCompose(future -> future);
+    }
+
+    @Override
+    public boolean addMessage(long ledgerId, long entryId, long deliveryAt) {
+        long now = clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Add message {}:{} -- Delivery in {} ms ", dispatcher.getName(), ledgerId, entryId,
+                    deliveryAt - now);
+        }
+        if (deliveryAt < (now + tickTimeMillis)) {
+            // It's already about time to deliver this message, see InMemoryDelayedDeliveryTracker
+            return false;
+        }
+
+        if (recovering) {
+            pendingRecovery.add(deliveryAt, ledgerId, entryId);
+            return true;
+        }
+
+        addIndex(deliveryAt, ledgerId, entryId);
+        updateTimer();
+        return true;
+    }
+
+    private void addIndex(long deliveryAt, long ledgerId, long entryId) {
+        for (ImmutableBucket bucket : immutableBuckets) {
+            if (bucket.contains(ledgerId, entryId)) {
+                // The message is read again, after a restart or a rewind of the cursor, and is already indexed
+                return;
+            }
+        }
+
+        mutableBucket.add(deliveryAt, ledgerId, entryId);
+        if (mutableStartLedgerId == -1
+                || compare(ledgerId, entryId, mutableStartLedgerId, mutableStartEntryId) < 0) {
+            mutableStartLedgerId = ledgerId;
+            mutableStartEntryId = entryId;
+        }
+        if (mutableEndLedgerId == -1 || compare(ledgerId, entryId, mutableEndLedgerId, mutableEndEntryId) > 0) {
+            mutableEndLedgerId = ledgerId;
+            mutableEndEntryId = entryId;
+        }
+
+        if (mutableBucket.size() >= minIndexCountPerBucket) {
+            sealMutableBucket();
+        }
+    }
+
+    private void sealMutableBucket() {
+        // The mutable bucket is drained in delivery time order
+        List<long[]> segments = new ArrayList<>();
+        long[] segment = null;
+        int segmentSize = 0;
+        long segmentStart = 0;
+        long maxDeliveryAt = 0;
+        while (!mutableBucket.isEmpty()) {
+            long deliveryAt = mutableBucket.peekN1();
+            if (segment == null || segmentSize == maxIndexesPerSegment
+                    || deliveryAt >= segmentStart + segmentTimeStepMillis) {
+                if (segment != null) {
+                    segments.add(Arrays.copyOf(segment, segmentSize * INDEX_SIZE));
+                }
+                segment = new long[Math.min(mutableBucket.size(), maxIndexesPerSegment) * INDEX_SIZE];
+                segmentSize = 0;
+                segmentStart = deliveryAt;
+            }
+            segment[segmentSize * INDEX_SIZE] = deliveryAt;
+            segment[segmentSize * INDEX_SIZE + 1] = mutableBucket.peekN2();
+            segment[segmentSize * INDEX_SIZE + 2] = mutableBucket.peekN3();
+            segmentSize++;
+            maxDeliveryAt = deliveryAt;
+            mutableBucket.pop();
+        }
+        segments.add(Arrays.copyOf(segment, segmentSize * INDEX_SIZE));
+
+        long[] segmentMinDeliveryAt = new long[segments.size()];
+        int[] segmentSizes = new int[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            segmentMinDeliveryAt[i] = segments.get(i)[0];
+            segmentSizes[i] = segments.get(i).length / INDEX_SIZE;
+        }
+        ImmutableBucket bucket = new ImmutableBucket(mutableStartLedgerId, mutableStartEntryId, mutableEndLedgerId,
+                mutableEndEntryId, segmentMinDeliveryAt, segmentSizes, maxDeliveryAt);
+        bucket.segments = segments.toArray(new long[0][]);
+        mutableStartLedgerId = mutableStartEntryId = mutableEndLedgerId = mutableEndEntryId = -1;
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Sealing delayed delivery bucket of {} messages in {} segments", dispatcher.getName(),
+                    Arrays.stream(segmentSizes).sum(), segmentSizes.length);
+        }
+        ByteBuf metadata = encodeMetadata(bucket);
+        List<ByteBuf> encodedSegments = segments.stream()
+                .map(BucketDelayedDeliveryTracker::encodeSegment).collect(Collectors.toList());
+        addImmutableBucket(bucket);
+
+        storage.createBucket(metadata, encodedSegments).whenComplete((bucketId, ex) -> {
+            synchronized (dispatcher) {
+                if (ex != null) {
+                    // The bucket stays in memory, its messages are tracked again after a restart
+                    log.warn("[{}] Failed to store delayed delivery bucket: {}", dispatcher.getName(),
+                            ex.getMessage());
+                    return;
+                }
+                bucket.bucketId = bucketId;
+                bucket.segments = null;
+                if (bucket.deleted || closed) {
+                    if (bucket.deleted) {
+                        storage.deleteBucket(bucketId);
+                    }
+                    return;
+                }
+                updateBucketIds();
+            }
+        });
+    }
+
+    private void addImmutableBucket(ImmutableBucket bucket) {
+        immutableBuckets.add(bucket);
+        for (int i = bucket.nextSegment; i < bucket.segmentSizes.length; i++) {
+            numberOfUnloadedIndexes += bucket.segmentSizes[i];
+        }
+    }
+
+    /**
+     * Load the segments whose time slot is about to start.
+     */
+    private void loadDueSegments() {
+        long loadCutoffTime = clock.millis() + 2 * tickTimeMillis;
+        for (ImmutableBucket bucket : immutableBuckets) {
+            while (!bucket.isFullyLoaded() && !bucket.loading
+                    && bucket.segmentMinDeliveryAt[bucket.nextSegment] <= loadCutoffTime) {
+                loadNextSegment(bucket);
+            }
+        }
+    }
+
+    private void loadNextSegment(ImmutableBucket bucket) {
+        int segmentIndex = bucket.nextSegment;
+        if (bucket.segments != null) {
+            addSegment(bucket, bucket.segments[segmentIndex]);
+            bucket.segments[segmentIndex] = null;
+            return;
+        }
+
+        bucket.loading = true;
+        storage.readBucketEntry(bucket.bucketId, segmentIndex + 1).whenComplete((segment, ex) -> {
+            synchronized (dispatcher) {
+                bucket.loading = false;
+                try {
+                    if (ex != null) {
+                        // Retried with the next update of the timer
+                        log.warn("[{}] Failed to load segment {} of delayed delivery bucket {}: {}",
+                                dispatcher.getName(), segmentIndex, bucket.bucketId, ex.getMessage());
+                        return;
+                    }
+                    if (closed || bucket.deleted || bucket.nextSegment != segmentIndex) {
+                        return;
+                    }
+                    addSegment(bucket, decodeSegment(segment));
+                } finally {
+                    if (segment != null) {
+                        segment.release();
+                    }
+                }
+
+                // The loaded messages can be already due, let the dispatcher read them
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                currentTimeoutTarget = clock.millis();
+                timeout = timer.newTimeout(this, 0, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void addSegment(ImmutableBucket bucket, long[] segment) {
+        for (int i = 0; i < segment.length; i += INDEX_SIZE) {
+            sharedBucketQueue.add(segment[i], segment[i + 1], segment[i + 2]);
+        }
+        numberOfUnloadedIndexes -= bucket.segmentSizes[bucket.nextSegment];
+        bucket.nextSegment++;
+    }
+
+    /**
+     * The messages delivered at or after this time can't be delivered yet, since a segment starting before is not
+     * loaded.
+     */
+    private long nextSegmentBarrier() {
+        long barrier = Long.MAX_VALUE;
+        for (ImmutableBucket bucket : immutableBuckets) {
+            if (!bucket.isFullyLoaded()) {
+                barrier = Math.min(barrier, bucket.segmentMinDeliveryAt[bucket.nextSegment]);
+            }
+        }
+        return barrier;
+    }
+
+    private TripleLongPriorityQueue nextQueue() {
+        if (mutableBucket.isEmpty()) {
+            return sharedBucketQueue.isEmpty() ? null : sharedBucketQueue;
+        } else if (sharedBucketQueue.isEmpty()) {
+            return mutableBucket;
+        }
+        return mutableBucket.peekN1() <= sharedBucketQueue.peekN1() ? mutableBucket : sharedBucketQueue;
+    }
+
+    /**
+     * Return true if there's at least a message that is scheduled to be delivered already.
+     */
+    @Override
+    public boolean hasMessageAvailable() {
+        long now = clock.millis();
+        for (ImmutableBucket bucket : immutableBuckets) {
+            if (!bucket.isFullyLoaded() && !bucket.loading && bucket.segmentMinDeliveryAt[bucket.nextSegment] <= now) {
+                // The segment is loaded when getting the scheduled messages
+                return true;
+            }
+        }
+        TripleLongPriorityQueue queue = nextQueue();
+        if (queue == null) {
+            return false;
+        }
+        long timestamp = queue.peekN1();
+        return timestamp <= now && timestamp <= nextSegmentBarrier();
+    }
+
+    /**
+     * Get a set of position of messages that have already reached.
+     */
+    @Override
+    public Set<PositionImpl> getScheduledMessages(int maxMessages) {
+        int n = maxMessages;
+        Set<PositionImpl> positions = new TreeSet<>();
+        // Pick all the messages that will be ready within the tick time period, see InMemoryDelayedDeliveryTracker
+        long cutoffTime = clock.millis() + tickTimeMillis;
+
+        loadDueSegments();
+        long barrier = nextSegmentBarrier();
+        while (n > 0) {
+            TripleLongPriorityQueue queue = nextQueue();
+            if (queue == null) {
+                break;
+            }
+            long timestamp = queue.peekN1();
+            if (timestamp > cutoffTime || timestamp > barrier) {
+                break;
+            }
+
+            positions.add(new PositionImpl(queue.peekN2(), queue.peekN3()));
+            queue.pop();
+            --n;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Get scheduled messages - found {}", dispatcher.getName(), positions.size());
+        }
+        deleteDeliveredBuckets();
+        updateTimer();
+        return positions;
+    }
+
+    private void deleteDeliveredBuckets() {
+        List<ImmutableBucket> deletedBuckets = new ArrayList<>();
+        Iterator<ImmutableBucket> iterator = immutableBuckets.iterator();
+        while (iterator.hasNext()) {
+            ImmutableBucket bucket = iterator.next();
+            // All the messages of the bucket are delivered once the shared queue only holds later messages
+            if (bucket.isFullyLoaded() && !bucket.loading
+                    && (sharedBucketQueue.isEmpty() || sharedBucketQueue.peekN1() > bucket.maxDeliveryAt)) {
+                iterator.remove();
+                bucket.deleted = true;
+                deletedBuckets.add(bucket);
+            }
+        }
+        deleteBuckets(deletedBuckets);
+    }
+
+    private void deleteBuckets(List<ImmutableBucket> deletedBuckets) {
+        if (deletedBuckets.stream().allMatch(bucket -> bucket.bucketId == -1)) {
+            // The buckets still being stored are deleted once stored
+            return;
+        }
+        // Deleted from the storage once no longer referenced
+        updateBucketIds().thenRun(() -> deletedBuckets.stream()
+                .filter(bucket -> bucket.bucketId != -1)
+                .forEach(bucket -> storage.deleteBucket(bucket.bucketId)));
+    }
+
+    private CompletableFuture<Void> updateBucketIds() {
+        List<Long> bucketIds = immutableBuckets.stream()
+                .filter(bucket -> bucket.bucketId != -1)
+                .map(bucket -> bucket.bucketId)
+                .collect(Collectors.toList());
+        bucketIdsUpdate = bucketIdsUpdate.exceptionally(ex -> null)
+                .thenCompose(ignore -> storage.setBucketIds(bucketIds))
+                .whenComplete((ignore, ex) -> {
+                    if (ex != null) {
+                        log.warn("[{}] Failed to update the delayed delivery buckets: {}", dispatcher.getName(),
+                                ex.getMessage());
+                    }
+                });
+        return bucketIdsUpdate;
+    }
+
+    @Override
+    public void resetTickTime(long tickTime) {
+        if (this.tickTimeMillis != tickTime){
+            this.tickTimeMillis = tickTime;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (dispatcher) {
+            mutableBucket.clear();
+            mutableStartLedgerId = mutableStartEntryId = mutableEndLedgerId = mutableEndEntryId = -1;
+            sharedBucketQueue.clear();
+            pendingRecovery.clear();
+            List<ImmutableBucket> deletedBuckets = new ArrayList<>(immutableBuckets);
+            deletedBuckets.forEach(bucket -> bucket.deleted = true);
+            immutableBuckets.clear();
+            numberOfUnloadedIndexes = 0;
+            deleteBuckets(deletedBuckets);
+        }
+    }
+
+    @Override
+    public long getNumberOfDelayedMessages() {
+        return mutableBucket.size() + sharedBucketQueue.size() + pendingRecovery.size() + numberOfUnloadedIndexes;
+    }
+
+    private void updateTimer() {
+        loadDueSegments();
+
+        long timestamp = Long.MAX_VALUE;
+        TripleLongPriorityQueue queue = nextQueue();
+        if (queue != null) {
+            timestamp = queue.peekN1();
+        }
+        for (ImmutableBucket bucket : immutableBuckets) {
+            if (!bucket.isFullyLoaded() && !bucket.loading) {
+                // Wake up in time to load the segment
+                timestamp = Math.min(timestamp, bucket.segmentMinDeliveryAt[bucket.nextSegment] - 2 * tickTimeMillis);
+            }
+        }
+
+        if (timestamp == Long.MAX_VALUE) {
+            if (timeout != null) {
+                currentTimeoutTarget = -1;
+                timeout.cancel();
+                timeout = null;
+            }
+            return;
+        }
+
+        if (timestamp == currentTimeoutTarget) {
+            // The timer is already set to the correct target time
+            return;
+        }
+
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        long delayMillis = timestamp - clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Start timer in {} millis", dispatcher.getName(), delayMillis);
+        }
+
+        if (delayMillis < 0) {
+            // There are messages that are already ready to be delivered, the dispatcher gets them when the consumers
+            // catch up
+            return;
+        }
+
+        currentTimeoutTarget = timestamp;
+        timeout = timer.newTimeout(this, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Timer triggered", dispatcher.getName());
+        }
+        if (timeout.isCancelled()) {
+            return;
+        }
+
+        synchronized (dispatcher) {
+            if (closed) {
+                return;
+            }
+            currentTimeoutTarget = -1;
+            this.timeout = null;
+            updateTimer();
+            dispatcher.readMoreEntries();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (dispatcher) {
+            closed = true;
+            mutableBucket.close();
+            sharedBucketQueue.close();
+            pendingRecovery.close();
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            storage.close();
+        }
+    }
+
+    private static int compare(long ledgerId1, long entryId1, long ledgerId2, long entryId2) {
+        int result = Long.compare(ledgerId1, ledgerId2);
+        return result != 0 ? result : Long.compare(entryId1, entryId2);
+    }
+
+    /*
+     * Metadata layout: version (byte), range of the positions (4 longs), number of segments (int), then for every
+     * segment its min delivery time (long) and its number of indexes (int), and the max delivery time (long).
+     * Segment layout: the delivery time, ledger id and entry id (longs) of every index.
+     */
+
+    static ByteBuf encodeMetadata(ImmutableBucket bucket) {
+        int numberOfSegments = bucket.segmentSizes.length;
+        ByteBuf metadata = PooledByteBufAllocator.DEFAULT.buffer(45 + numberOfSegments * 12);
+        metadata.writeByte(FORMAT_VERSION);
+        metadata.writeLong(bucket.startLedgerId);
+        metadata.writeLong(bucket.startEntryId);
+        metadata.writeLong(bucket.endLedgerId);
+        metadata.writeLong(bucket.endEntryId);
+        metadata.writeInt(numberOfSegments);
+        for (int i = 0; i < numberOfSegments; i++) {
+            metadata.writeLong(bucket.segmentMinDeliveryAt[i]);
+            metadata.writeInt(bucket.segmentSizes[i]);
+        }
+        metadata.writeLong(bucket.maxDeliveryAt);
+        return metadata;
+    }
+
+    static ImmutableBucket decodeMetadata(long bucketId, ByteBuf metadata) {
+        byte version = metadata.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown delayed delivery bucket format version " + version);
+        }
+        long startLedgerId = metadata.readLong();
+        long startEntryId = metadata.readLong();
+        long endLedgerId = metadata.readLong();
+        long endEntryId = metadata.readLong();
+        int numberOfSegments = metadata.readInt();
+        long[] segmentMinDeliveryAt = new long[numberOfSegments];
+        int[] segmentSizes = new int[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            segmentMinDeliveryAt[i] = metadata.readLong();
+            segmentSizes[i] = metadata.readInt();
+        }
+        ImmutableBucket bucket = new ImmutableBucket(startLedgerId, startEntryId, endLedgerId, endEntryId,
+                segmentMinDeliveryAt, segmentSizes, metadata.readLong());
+        bucket.bucketId = bucketId;
+        return bucket;
+    }
+
+    static ByteBuf encodeSegment(long[] segment) {
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.buffer(segment.length * Long.BYTES);
+        for (long value : segment) {
+            buffer.writeLong(value);
+        }
+        return buffer;
+    }
+
+    static long[] decodeSegment(ByteBuf buffer) {
+        long[] segment = new long[buffer.readableBytes() / Long.BYTES];
+        for (int i = 0; i < segment.length; i++) {
+            segment[i] = buffer.readLong();
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.buffer.ByteBuf;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of the immutable buckets of a {@link BucketDelayedDeliveryTracker}.
+ *
+ * <p>A bucket is stored as a sequence of entries: the first one holds the metadata of the bucket and each of the
+ * following ones holds a segment of delayed indexes.
+ */
+interface BucketSnapshotStorage {
+
+    /**
+     * @return the ids of the buckets stored for the subscription, as set by the last {@link #setBucketIds(List)}
+     */
+    List<Long> getBucketIds();
+
+    /**
+     * Record the ids of the buckets stored for the subscription, so that they're found after a restart.
+     */
+    CompletableFuture<Void> setBucketIds(List<Long> bucketIds);
+
+    /**
+     * Store a bucket. The storage takes the ownership of the buffers.
+     *
+     * @return the id of the new bucket
+     */
+    CompletableFuture<Long> createBucket(ByteBuf metadata, List<ByteBuf> segments);
+
+    /**
+     * Read an entry of a bucket, 0 being its metadata and 1 to n its segments.
+     */
+    CompletableFuture<ByteBuf> readBucketEntry(long bucketId, long entryId);
+
+    CompletableFuture<Void> deleteBucket(long bucketId);
+
+    void close();
+}
@@ -50,6 +50,9 @@ public class InMemoryDelayedDeliveryTracker implements DelayedDeliveryTracker, T
 
     private final Clock clock;
 
+    // Ledger and entry ids of the scheduled messages, reused across calls
+    private long[] scheduledPositions = new long[0];
+
     InMemoryDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis) {
         this(dispatcher, timer, tickTimeMillis, Clock.systemUTC());
     }
@@ -96,7 +99,6 @@ public class InMemoryDelayedDeliveryTracker implements DelayedDeliveryTracker, T
      */
     @Override
     public Set<PositionImpl> getScheduledMessages(int maxMessages) {
-        int n = maxMessages;
         Set<PositionImpl> positions = new TreeSet<>();
         long now = clock.millis();
         // Pick all the messages that will be ready within the tick time period.
@@ -104,18 +106,12 @@ public class InMemoryDelayedDeliveryTracker implements DelayedDeliveryTracker, T
         // very short delay
         long cutoffTime = now + tickTimeMillis;
 
-        while (n > 0 && !priorityQueue.isEmpty()) {
-            long timestamp = priorityQueue.peekN1();
-            if (timestamp > cutoffTime) {
-                break;
-            }
-
-            long ledgerId = priorityQueue.peekN2();
-            long entryId = priorityQueue.peekN3();
-            positions.add(new PositionImpl(ledgerId, entryId));
-
-            priorityQueue.pop();
-            --n;
+        if (scheduledPositions.length < 2 * maxMessages) {
+            scheduledPositions = new long[2 * maxMessages];
+        }
+        int n = priorityQueue.pop(cutoffTime, maxMessages, scheduledPositions);
+        for (int i = 0; i < n; i++) {
+            positions.add(new PositionImpl(scheduledPositions[2 * i], scheduledPositions[2 * i + 1]));
         }
 
         if (log.isDebugEnabled()) {
@@ -25,6 +25,7 @@ import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.broker.intercept.BrokerInterceptor;
@@ -79,7 +80,7 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
 
             ByteBuf metadataAndPayload = entry.getDataBuffer();
 
-            MessageMetadata msgMetadata = Commands.peekMessageMetadata(metadataAndPayload, subscription.toString(), -1);
+            MessageMetadata msgMetadata = peekMessageMetadata(entry);
 
             if (!isReplayRead && msgMetadata != null
                     && msgMetadata.hasTxnidMostBits() && msgMetadata.hasTxnidLeastBits()) {
@@ -169,6 +170,44 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         return Commands.peekStickyKey(metadataAndPayload, subscription.getTopicName(), subscription.getName());
     }
 
+    protected byte[] peekStickyKey(Entry entry) {
+        MessageMetadata metadata = entry instanceof EntryImpl ? peekMessageMetadata(entry) : null;
+        return metadata != null ? Commands.resolveStickyKey(metadata) : peekStickyKey(entry.getDataBuffer());
+    }
+
+    /**
+     * Get the hash of the sticky key of an entry. The hash of the entries read from the managed ledger is computed
+     * only once, and cached on the entry until it is released.
+     */
+    protected int getStickyKeyHash(Entry entry) {
+        if (!(entry instanceof EntryImpl)) {
+            return StickyKeyConsumerSelector.makeStickyKeyHash(peekStickyKey(entry));
+        }
+        EntryImpl entryImpl = (EntryImpl) entry;
+        if (!entryImpl.hasStickyKeyHash()) {
+            entryImpl.setStickyKeyHash(StickyKeyConsumerSelector.makeStickyKeyHash(peekStickyKey(entry)));
+        }
+        return entryImpl.getStickyKeyHash();
+    }
+
+    /**
+     * Get the message metadata of an entry. The metadata of the entries read from the managed ledger is parsed only
+     * once, and shared by all the steps of the dispatching until the entry is released.
+     *
+     * @return the message metadata, or null if it can't be parsed
+     */
+    protected MessageMetadata peekMessageMetadata(Entry entry) {
+        if (!(entry instanceof EntryImpl)) {
+            return Commands.peekMessageMetadata(entry.getDataBuffer(), subscription.toString(), -1);
+        }
+        try {
+            return ((EntryImpl) entry).getMessageMetadata();
+        } catch (Throwable t) {
+            log.error("[{}] Failed to parse message metadata of entry {}", subscription, entry.getPosition(), t);
+            return null;
+        }
+    }
+
     protected void addMessageToReplay(long ledgerId, long entryId) {
         // No-op
     }
@@ -22,10 +22,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.bookkeeper.mledger.impl.ManagedLedgerMBeanImpl.ENTRY_LATENCY_BUCKETS_USEC;
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 import com.google.common.base.MoreObjects;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -90,6 +92,8 @@ public abstract class AbstractTopic implements Topic {
 
     // Whether messages published must be encrypted or not in this topic
     protected volatile boolean isEncryptionRequired = false;
+    // Ids of the Zstd dictionaries producers can compress messages with in this topic
+    protected volatile Set<Integer> compressionDictionaryIds = Collections.emptySet();
     protected volatile SchemaCompatibilityStrategy schemaCompatibilityStrategy =
             SchemaCompatibilityStrategy.FULL;
     protected volatile boolean isAllowAutoUpdateSchema = true;
@@ -263,6 +267,12 @@ public abstract class AbstractTopic implements Topic {
         return isEncryptionRequired;
     }
 
+    @Override
+    public boolean isCompressionDictionaryAllowed(int dictionaryId) {
+        Set<Integer> dictionaryIds = compressionDictionaryIds;
+        return dictionaryIds != null && dictionaryIds.contains(dictionaryId);
+    }
+
     @Override
     public boolean getSchemaValidationEnforced() {
         return schemaValidationEnforced;
@@ -1286,6 +1286,10 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             managedLedgerConfig.setMetadataEnsembleSize(serviceConfig.getManagedLedgerDefaultEnsembleSize());
             managedLedgerConfig.setUnackedRangesOpenCacheSetEnabled(
                     serviceConfig.isManagedLedgerUnackedRangesOpenCacheSetEnabled());
+            managedLedgerConfig.setUnackedRangesBitmapEnabled(
+                    serviceConfig.isManagedLedgerUnackedRangesBitmapEnabled());
+            managedLedgerConfig.setMaxCursorAckStateDeltaEntries(
+                    serviceConfig.getManagedLedgerMaxCursorAckStateDeltaEntries());
             managedLedgerConfig.setMetadataWriteQuorumSize(serviceConfig.getManagedLedgerDefaultWriteQuorum());
             managedLedgerConfig.setMetadataAckQuorumSize(serviceConfig.getManagedLedgerDefaultAckQuorum());
             managedLedgerConfig
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerAssignException;
+
+/**
+ * This is a consumer selector based on consistent hashing over a fixed number of slots.
+ *
+ * Like {@link ConsistentHashingStickyKeyConsumerSelector}, every consumer is given multiple points on a hash ring,
+ * determined by the hash of its name, and a key is served by the consumer of the first point following the key
+ * hash. Here the ring only has {@code rangeSize} slots, and it is compiled into an immutable array mapping each slot
+ * to its consumer every time a consumer is added or removed.
+ *
+ * Selecting a consumer is then a single array lookup of {@code hash % rangeSize}, without locking nor allocating,
+ * at the cost of an array of {@code rangeSize} references per selector.
+ */
+public class ConsistentHashingSlotArrayStickyKeyConsumerSelector implements StickyKeyConsumerSelector {
+
+    private final int rangeSize;
+    private final int numberOfPoints;
+
+    // Slot of each point of the ring, with the consumers of the point sorted by name
+    private final NavigableMap<Integer, List<Consumer>> hashRing = new TreeMap<>();
+
+    // Consumer of every slot, or null if there are no consumers
+    private volatile Consumer[] slotConsumers;
+
+    public ConsistentHashingSlotArrayStickyKeyConsumerSelector(int numberOfPoints) {
+        this(numberOfPoints, DEFAULT_RANGE_SIZE);
+    }
+
+    public ConsistentHashingSlotArrayStickyKeyConsumerSelector(int numberOfPoints, int rangeSize) {
+        if (rangeSize < 2) {
+            throw new IllegalArgumentException("range size must greater than 2");
+        }
+        if (numberOfPoints < 1) {
+            throw new IllegalArgumentException("number of points must be positive");
+        }
+        this.rangeSize = rangeSize;
+        this.numberOfPoints = numberOfPoints;
+    }
+
+    @Override
+    public synchronized void addConsumer(Consumer consumer) throws ConsumerAssignException {
+        for (int i = 0; i < numberOfPoints; i++) {
+            List<Consumer> consumers = hashRing.computeIfAbsent(pointOf(consumer, i), k -> new ArrayList<>(1));
+            if (!consumers.contains(consumer)) {
+                consumers.add(consumer);
+                consumers.sort(Comparator.comparing(Consumer::consumerName, String::compareTo));
+            }
+        }
+        slotConsumers = compileSlots();
+    }
+
+    @Override
+    public synchronized void removeConsumer(Consumer consumer) {
+        for (int i = 0; i < numberOfPoints; i++) {
+            int point = pointOf(consumer, i);
+            List<Consumer> consumers = hashRing.get(point);
+            if (consumers != null) {
+                consumers.removeIf(c -> c.consumerName().equals(consumer.consumerName()));
+                if (consumers.isEmpty()) {
+                    hashRing.remove(point);
+                }
+            }
+        }
+        slotConsumers = compileSlots();
+    }
+
+    @Override
+    public Consumer select(int hash) {
+        Consumer[] slotConsumers = this.slotConsumers;
+        return slotConsumers != null ? slotConsumers[hash % rangeSize] : null;
+    }
+
+    @Override
+    public synchronized Map<String, List<String>> getConsumerKeyHashRanges() {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        Consumer[] slotConsumers = this.slotConsumers;
+        if (slotConsumers == null) {
+            return result;
+        }
+        int start = 0;
+        for (int slot = 1; slot <= rangeSize; slot++) {
+            if (slot == rangeSize || slotConsumers[slot] != slotConsumers[start]) {
+                result.computeIfAbsent(slotConsumers[start].consumerName(), key -> new ArrayList<>())
+                        .add("[" + start + ", " + (slot - 1) + "]");
+                start = slot;
+            }
+        }
+        return result;
+    }
+
+    private int pointOf(Consumer consumer, int index) {
+        return StickyKeyConsumerSelector.makeStickyKeyHash((consumer.consumerName() + index).getBytes()) % rangeSize;
+    }
+
+    private Consumer[] compileSlots() {
+        if (hashRing.isEmpty()) {
+            return null;
+        }
+        Consumer[] slots = new Consumer[rangeSize];
+        // the slots from a point (excluded) to the next one (included) are served by the next point, the slots
+        // after the last point wrap around to the first one
+        int start = 0;
+        for (Map.Entry<Integer, List<Consumer>> point : hashRing.entrySet()) {
+            fillSlots(slots, start, point.getKey(), point.getValue());
+            start = point.getKey() + 1;
+        }
+        fillSlots(slots, start, rangeSize - 1, hashRing.firstEntry().getValue());
+        return slots;
+    }
+
+    private static void fillSlots(Consumer[] slots, int from, int to, List<Consumer> consumers) {
+        for (int slot = from; slot <= to; slot++) {
+            slots[slot] = consumers.get(slot % consumers.size());
+        }
+    }
+}
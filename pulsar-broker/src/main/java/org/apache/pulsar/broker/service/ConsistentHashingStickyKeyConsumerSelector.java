@@ -20,6 +20,7 @@ package org.apache.pulsar.broker.service;
 
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
@@ -45,6 +46,9 @@ public class ConsistentHashingStickyKeyConsumerSelector implements StickyKeyCons
     // Consistent-Hash ring
     private final NavigableMap<Integer, List<Consumer>> hashRing;
 
+    // Flat copy of the hash ring, rebuilt on every change, used by select() without locking
+    private volatile HashRingSnapshot hashRingSnapshot = HashRingSnapshot.EMPTY;
+
     private final int numberOfPoints;
 
     public ConsistentHashingStickyKeyConsumerSelector(int numberOfPoints) {
@@ -52,6 +56,49 @@ public class ConsistentHashingStickyKeyConsumerSelector implements StickyKeyCons
         this.numberOfPoints = numberOfPoints;
     }
 
+    /**
+     * The points of the hash ring, sorted, and the consumers of each point.
+     */
+    private static final class HashRingSnapshot {
+        static final HashRingSnapshot EMPTY = new HashRingSnapshot(new int[0], new Consumer[0][]);
+
+        private final int[] hashes;
+        private final Consumer[][] consumers;
+
+        private HashRingSnapshot(int[] hashes, Consumer[][] consumers) {
+            this.hashes = hashes;
+            this.consumers = consumers;
+        }
+
+        static HashRingSnapshot of(NavigableMap<Integer, List<Consumer>> hashRing) {
+            int[] hashes = new int[hashRing.size()];
+            Consumer[][] consumers = new Consumer[hashRing.size()][];
+            int i = 0;
+            for (Map.Entry<Integer, List<Consumer>> entry : hashRing.entrySet()) {
+                hashes[i] = entry.getKey();
+                consumers[i] = entry.getValue().toArray(new Consumer[0]);
+                i++;
+            }
+            return new HashRingSnapshot(hashes, consumers);
+        }
+
+        Consumer select(int hash) {
+            if (hashes.length == 0) {
+                return null;
+            }
+            int idx = Arrays.binarySearch(hashes, hash);
+            if (idx < 0) {
+                // not a point of the ring: use the next one, wrapping around
+                idx = -idx - 1;
+                if (idx == hashes.length) {
+                    idx = 0;
+                }
+            }
+            Consumer[] pointConsumers = consumers[idx];
+            return pointConsumers[hash % pointConsumers.length];
+        }
+    }
+
     @Override
     public void addConsumer(Consumer consumer) throws ConsumerAssignException {
         rwLock.writeLock().lock();
@@ -73,6 +120,7 @@ public class ConsistentHashingStickyKeyConsumerSelector implements StickyKeyCons
                     }
                 });
             }
+            hashRingSnapshot = HashRingSnapshot.of(hashRing);
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -98,33 +146,15 @@ public class ConsistentHashingStickyKeyConsumerSelector implements StickyKeyCons
                     }
                 });
             }
+            hashRingSnapshot = HashRingSnapshot.of(hashRing);
         } finally {
             rwLock.writeLock().unlock();
         }
     }
 
     @Override
-    public Consumer select(byte[] stickyKey) {
-        int hash = Murmur3_32Hash.getInstance().makeHash(stickyKey);
-
-        rwLock.readLock().lock();
-        try {
-            if (hashRing.isEmpty()) {
-                return null;
-            }
-
-            List<Consumer> consumerList;
-            Map.Entry<Integer, List<Consumer>> ceilingEntry = hashRing.ceilingEntry(hash);
-            if (ceilingEntry != null) {
-                consumerList =  ceilingEntry.getValue();
-            } else {
-                consumerList = hashRing.firstEntry().getValue();
-            }
-
-            return consumerList.get(hash % consumerList.size());
-        } finally {
-            rwLock.readLock().unlock();
-        }
+    public Consumer select(int hash) {
+        return hashRingSnapshot.select(hash);
     }
 
     @Override
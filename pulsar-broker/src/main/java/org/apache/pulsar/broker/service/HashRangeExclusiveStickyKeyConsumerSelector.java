@@ -26,7 +26,6 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import org.apache.pulsar.common.api.proto.IntRange;
 import org.apache.pulsar.common.api.proto.KeySharedMeta;
-import org.apache.pulsar.common.util.Murmur3_32Hash;
 
 /**
  * This is a sticky-key consumer selector based user provided range.
@@ -65,11 +64,6 @@ public class HashRangeExclusiveStickyKeyConsumerSelector implements StickyKeyCon
         rangeMap.entrySet().removeIf(entry -> entry.getValue().equals(consumer));
     }
 
-    @Override
-    public Consumer select(byte[] stickyKey) {
-        return select(Murmur3_32Hash.getInstance().makeHash(stickyKey));
-    }
-
     @Override
     public Map<String, List<String>> getConsumerKeyHashRanges() {
         Map<String, List<String>> result = new HashMap<>();
@@ -88,7 +82,8 @@ public class HashRangeExclusiveStickyKeyConsumerSelector implements StickyKeyCon
         return result;
     }
 
-    Consumer select(int hash) {
+    @Override
+    public Consumer select(int hash) {
         if (rangeMap.size() > 0) {
             int slot = hash % rangeSize;
             Map.Entry<Integer, Consumer> ceilingEntry = rangeMap.ceilingEntry(slot);
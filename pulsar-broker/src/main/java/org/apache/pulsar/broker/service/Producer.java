@@ -28,7 +28,9 @@ import com.google.common.base.MoreObjects;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -40,6 +42,7 @@ import org.apache.pulsar.broker.service.BrokerServiceException.TopicClosedExcept
 import org.apache.pulsar.broker.service.BrokerServiceException.TopicTerminatedException;
 import org.apache.pulsar.broker.service.Topic.PublishContext;
 import org.apache.pulsar.broker.service.nonpersistent.NonPersistentTopic;
+import org.apache.pulsar.broker.service.persistent.MessageDeduplication;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
 import org.apache.pulsar.client.api.transaction.TxnID;
 import org.apache.pulsar.common.api.proto.MessageMetadata;
@@ -92,6 +95,14 @@ public class Producer {
 
     private final SchemaVersion schemaVersion;
 
+    // Deduplication state of the producer, resolved once by the topic when the producer is added
+    private volatile MessageDeduplication.ProducerSequenceIds producerSequenceIds;
+
+    // Messages held back by the connection, to be published on the topic together. Only accessed from the
+    // connection thread
+    private final List<ByteBuf> deferredPublishBuffers = new ArrayList<>();
+    private final List<PublishContext> deferredPublishContexts = new ArrayList<>();
+
     public Producer(Topic topic, TransportCnx cnx, long producerId, String producerName, String appId,
             boolean isEncrypted, Map<String, String> metadata, SchemaVersion schemaVersion, long epoch,
             boolean userProvidedProducerName,
@@ -153,13 +164,28 @@ public class Producer {
 
     public void publishMessage(long producerId, long sequenceId, ByteBuf headersAndPayload, long batchSize,
             boolean isChunked) {
+        publishMessage(producerId, sequenceId, headersAndPayload, batchSize, isChunked, false);
+    }
+
+    /**
+     * Publish a message, optionally deferring it until {@link #flushDeferredPublishes()} is called, so that
+     * consecutive messages are handed to the topic together.
+     */
+    public void publishMessage(long producerId, long sequenceId, ByteBuf headersAndPayload, long batchSize,
+            boolean isChunked, boolean deferred) {
         if (checkAndStartPublish(producerId, sequenceId, headersAndPayload, batchSize)) {
-            publishMessageToTopic(headersAndPayload, sequenceId, batchSize, isChunked);
+            publishMessageToTopic(headersAndPayload, sequenceId, batchSize, isChunked, deferred);
         }
     }
 
     public void publishMessage(long producerId, long lowestSequenceId, long highestSequenceId,
             ByteBuf headersAndPayload, long batchSize, boolean isChunked) {
+        publishMessage(producerId, lowestSequenceId, highestSequenceId, headersAndPayload, batchSize, isChunked,
+                false);
+    }
+
+    public void publishMessage(long producerId, long lowestSequenceId, long highestSequenceId,
+            ByteBuf headersAndPayload, long batchSize, boolean isChunked, boolean deferred) {
         if (lowestSequenceId > highestSequenceId) {
             cnx.execute(() -> {
                 cnx.getCommandSender().sendSendError(producerId, highestSequenceId, ServerError.MetadataError,
@@ -169,7 +195,8 @@ public class Producer {
             return;
         }
         if (checkAndStartPublish(producerId, highestSequenceId, headersAndPayload, batchSize)) {
-            publishMessageToTopic(headersAndPayload, lowestSequenceId, highestSequenceId, batchSize, isChunked);
+            publishMessageToTopic(headersAndPayload, lowestSequenceId, highestSequenceId, batchSize, isChunked,
+                    deferred);
         }
     }
 
@@ -214,19 +241,54 @@ public class Producer {
         return true;
     }
 
-    private void publishMessageToTopic(ByteBuf headersAndPayload, long sequenceId, long batchSize, boolean isChunked) {
-        topic.publishMessage(headersAndPayload,
+    private void publishMessageToTopic(ByteBuf headersAndPayload, long sequenceId, long batchSize, boolean isChunked,
+                                       boolean deferred) {
+        publishMessageToTopic(headersAndPayload,
                 MessagePublishContext.get(this, sequenceId, msgIn,
                         headersAndPayload.readableBytes(), batchSize,
-                        isChunked, System.nanoTime()));
+                        isChunked, System.nanoTime()), deferred);
     }
 
     private void publishMessageToTopic(ByteBuf headersAndPayload, long lowestSequenceId, long highestSequenceId,
-                                       long batchSize, boolean isChunked) {
-        topic.publishMessage(headersAndPayload,
+                                       long batchSize, boolean isChunked, boolean deferred) {
+        publishMessageToTopic(headersAndPayload,
                 MessagePublishContext.get(this, lowestSequenceId,
                         highestSequenceId, msgIn, headersAndPayload.readableBytes(), batchSize,
-                        isChunked, System.nanoTime()));
+                        isChunked, System.nanoTime()), deferred);
+    }
+
+    private void publishMessageToTopic(ByteBuf headersAndPayload, PublishContext publishContext, boolean deferred) {
+        if (deferred) {
+            // The buffer is released by the connection once the command is processed
+            deferredPublishBuffers.add(headersAndPayload.retain());
+            deferredPublishContexts.add(publishContext);
+        } else {
+            topic.publishMessage(headersAndPayload, publishContext);
+        }
+    }
+
+    public void setProducerSequenceIds(MessageDeduplication.ProducerSequenceIds producerSequenceIds) {
+        this.producerSequenceIds = producerSequenceIds;
+    }
+
+    public int getDeferredPublishCount() {
+        return deferredPublishBuffers.size();
+    }
+
+    /**
+     * Publish the messages deferred so far on the topic, in a single call.
+     */
+    public void flushDeferredPublishes() {
+        if (deferredPublishBuffers.isEmpty()) {
+            return;
+        }
+        try {
+            topic.publishMessages(deferredPublishBuffers, deferredPublishContexts);
+        } finally {
+            deferredPublishBuffers.forEach(ByteBuf::release);
+            deferredPublishBuffers.clear();
+            deferredPublishContexts.clear();
+        }
     }
 
     private boolean verifyChecksum(ByteBuf headersAndPayload) {
@@ -467,6 +529,16 @@ public class Producer {
             return batchSize;
         }
 
+        @Override
+        public MessageDeduplication.ProducerSequenceIds getProducerSequenceIds() {
+            return producer.producerSequenceIds;
+        }
+
+        @Override
+        public void setProducerSequenceIds(MessageDeduplication.ProducerSequenceIds producerSequenceIds) {
+            producer.producerSequenceIds = producerSequenceIds;
+        }
+
         private final Handle<MessagePublishContext> recyclerHandle;
 
         private MessagePublishContext(Handle<MessagePublishContext> recyclerHandle) {
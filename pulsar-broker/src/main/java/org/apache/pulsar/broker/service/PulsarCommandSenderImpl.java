@@ -32,6 +32,7 @@ import org.apache.pulsar.common.api.proto.BaseCommand;
 import org.apache.pulsar.common.api.proto.CommandLookupTopicResponse;
 import org.apache.pulsar.common.api.proto.ProtocolVersion;
 import org.apache.pulsar.common.api.proto.ServerError;
+import org.apache.pulsar.common.protocol.ByteBufPair;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.protocol.schema.SchemaVersion;
 import org.apache.pulsar.common.schema.SchemaInfo;
@@ -39,6 +40,9 @@ import org.apache.pulsar.common.schema.SchemaInfo;
 @Slf4j
 public class PulsarCommandSenderImpl implements PulsarCommandSender {
 
+    // Max size of a buffer holding several small messages coalesced into a single write
+    static final int MAX_COALESCED_WRITE_BYTES = 64 * 1024;
+
     private final BrokerInterceptor interceptor;
     private final ServerCnx cnx;
 
@@ -221,6 +225,8 @@ public class PulsarCommandSenderImpl implements PulsarCommandSender {
         final ChannelHandlerContext ctx = cnx.ctx();
         final ChannelPromise writePromise = ctx.newPromise();
         ctx.channel().eventLoop().execute(() -> {
+            final int coalesceMaxBytes = cnx.getCoalesceSmallMessagesMaxBytes();
+            ByteBuf coalesced = null;
             for (int i = 0; i < entries.size(); i++) {
                 Entry entry = entries.get(i);
                 if (entry == null) {
@@ -261,14 +267,41 @@ public class PulsarCommandSenderImpl implements PulsarCommandSender {
                     redeliveryCount = redeliveryTracker.incrementAndGetRedeliveryCount(position);
                 }
 
-                ctx.write(
-                        cnx.newMessageAndIntercept(consumerId, entry.getLedgerId(), entry.getEntryId(), partitionIdx,
-                                redeliveryCount, metadataAndPayload,
-                                batchIndexesAcks == null ? null : batchIndexesAcks.getAckSet(i), topicName),
-                        ctx.voidPromise());
+                ByteBufPair command = cnx.newMessageAndIntercept(consumerId, entry.getLedgerId(),
+                        entry.getEntryId(), partitionIdx, redeliveryCount, metadataAndPayload,
+                        batchIndexesAcks == null ? null : batchIndexesAcks.getAckSet(i), topicName);
+                int commandSize = command.readableBytes();
+                if (commandSize <= coalesceMaxBytes) {
+                    // copy the small message next to the previous ones, they'll go through the pipeline as one buffer
+                    if (coalesced != null && coalesced.maxWritableBytes() < commandSize) {
+                        ctx.write(coalesced, ctx.voidPromise());
+                        coalesced = null;
+                    }
+                    if (coalesced == null) {
+                        coalesced = ctx.alloc().directBuffer(
+                                Math.min(commandSize * (entries.size() - i), MAX_COALESCED_WRITE_BYTES),
+                                MAX_COALESCED_WRITE_BYTES);
+                    }
+                    coalesced.writeBytes(command.getFirst(), command.getFirst().readerIndex(),
+                            command.getFirst().readableBytes());
+                    coalesced.writeBytes(command.getSecond(), command.getSecond().readerIndex(),
+                            command.getSecond().readableBytes());
+                    command.release();
+                } else {
+                    if (coalesced != null) {
+                        // keep the order of the messages
+                        ctx.write(coalesced, ctx.voidPromise());
+                        coalesced = null;
+                    }
+                    ctx.write(command, ctx.voidPromise());
+                }
                 entry.release();
             }
 
+            if (coalesced != null) {
+                ctx.write(coalesced, ctx.voidPromise());
+            }
+
             // Use an empty write here so that we can just tie the flush with the write promise for last entry
             ctx.writeAndFlush(Unpooled.EMPTY_BUFFER, writePromise);
             batchSizes.recyle();
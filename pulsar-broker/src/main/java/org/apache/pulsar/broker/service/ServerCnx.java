@@ -163,6 +163,11 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
     private String clientVersion = null;
     private int nonPersistentPendingMessages = 0;
     private final int maxNonPersistentPendingMessages;
+    // Consecutive sends of the same producer, within a single read from the socket, are published on the topic
+    // together
+    private final boolean aggregatePipelinedSendsEnabled;
+    private final int aggregatePipelinedSendsMaxMessages;
+    private Producer producerWithDeferredPublishes = null;
     private String originalPrincipal = null;
     private Set<String> proxyRoles;
     private boolean authenticateOriginalAuthData;
@@ -170,6 +175,7 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
     private String authMethod = "none";
     private final int maxMessageSize;
     private boolean preciseDispatcherFlowControl;
+    private final int coalesceSmallMessagesMaxBytes;
 
     private boolean preciseTopicPublishRateLimitingEnable;
     private boolean encryptionRequireOnProducer;
@@ -210,8 +216,12 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         this.maxPendingSendRequests = pulsar.getConfiguration().getMaxPendingPublishRequestsPerConnection();
         this.resumeReadsThreshold = maxPendingSendRequests / 2;
         this.preciseDispatcherFlowControl = pulsar.getConfiguration().isPreciseDispatcherFlowControl();
+        this.coalesceSmallMessagesMaxBytes = Math.min(pulsar.getConfiguration()
+                .getDispatcherCoalesceSmallMessagesMaxBytes(), PulsarCommandSenderImpl.MAX_COALESCED_WRITE_BYTES);
         this.preciseTopicPublishRateLimitingEnable = pulsar.getConfiguration().isPreciseTopicPublishRateLimiterEnable();
         this.encryptionRequireOnProducer = pulsar.getConfiguration().isEncryptionRequireOnProducer();
+        this.aggregatePipelinedSendsEnabled = pulsar.getConfiguration().isAggregatePipelinedSendsEnabled();
+        this.aggregatePipelinedSendsMaxMessages = pulsar.getConfiguration().getAggregatePipelinedSendsMaxMessages();
     }
 
     @Override
@@ -227,6 +237,7 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         super.channelInactive(ctx);
         isActive = false;
         log.info("Closed connection from {}", remoteAddress);
+        flushDeferredPublishes();
         BrokerInterceptor brokerInterceptor = getBrokerService().getInterceptor();
         if (brokerInterceptor != null) {
             brokerInterceptor.onConnectionClosed(this);
@@ -255,6 +266,13 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         });
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        // Nothing else has been received in this read, publish the sends held back so far
+        flushDeferredPublishes();
+        super.channelReadComplete(ctx);
+    }
+
     @Override
     public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
         if (log.isDebugEnabled()) {
@@ -1055,6 +1073,8 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         final long epoch = cmdProducer.getEpoch();
         final boolean userProvidedProducerName = cmdProducer.isUserProvidedProducerName();
         final boolean isEncrypted = cmdProducer.isEncrypted();
+        final Integer compressionDictionaryId = cmdProducer.hasCompressionDictionaryId()
+                ? cmdProducer.getCompressionDictionaryId() : null;
         final Map<String, String> metadata = CommandUtils.metadataFromCommand(cmdProducer);
         final SchemaData schema = cmdProducer.hasSchema() ? getSchema(cmdProducer.getSchema()) : null;
 
@@ -1154,6 +1174,17 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
                                 return;
                             }
 
+                            // Check whether the consumers can get the dictionary the producer compresses with
+                            if (compressionDictionaryId != null
+                                    && !topic.isCompressionDictionaryAllowed(compressionDictionaryId)) {
+                                String msg = String.format("Compression dictionary %d is not registered in %s",
+                                        Integer.toUnsignedLong(compressionDictionaryId), topicName);
+                                log.warn("[{}] {}", remoteAddress, msg);
+                                commandSender.sendErrorResponse(requestId, ServerError.NotAllowedError, msg);
+                                producers.remove(producerId, producerFuture);
+                                return;
+                            }
+
                             disableTcpNoDelayIfNeeded(topicName.toString(), producerName);
 
                             CompletableFuture<SchemaVersion> schemaVersionFuture = tryAddSchema(topic, schema);
@@ -1278,6 +1309,13 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
             printSendCommandDebug(send, headersAndPayload);
         }
 
+        final boolean isTxnSend = send.hasTxnidMostBits() && send.hasTxnidLeastBits();
+        final boolean deferred = aggregatePipelinedSendsEnabled && !producer.isNonPersistentTopic() && !isTxnSend;
+        if (producerWithDeferredPublishes != null && (producerWithDeferredPublishes != producer || !deferred)) {
+            // Keep the publish order of the messages held back so far
+            flushDeferredPublishes();
+        }
+
         if (producer.isNonPersistentTopic()) {
             // avoid processing non-persist message if reached max concurrent-message limit
             if (nonPersistentPendingMessages > maxNonPersistentPendingMessages) {
@@ -1296,7 +1334,7 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
 
         startSendOperation(producer, headersAndPayload.readableBytes(), send.getNumMessages());
 
-        if (send.hasTxnidMostBits() && send.hasTxnidLeastBits()) {
+        if (isTxnSend) {
             TxnID txnID = new TxnID(send.getTxnidMostBits(), send.getTxnidLeastBits());
             producer.publishTxnMessage(txnID, producer.getProducerId(), send.getSequenceId(),
                     send.getHighestSequenceId(), headersAndPayload, send.getNumMessages(), send.isIsChunk());
@@ -1306,10 +1344,27 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         // Persist the message
         if (send.hasHighestSequenceId() && send.getSequenceId() <= send.getHighestSequenceId()) {
             producer.publishMessage(send.getProducerId(), send.getSequenceId(), send.getHighestSequenceId(),
-                    headersAndPayload, send.getNumMessages(), send.isIsChunk());
+                    headersAndPayload, send.getNumMessages(), send.isIsChunk(), deferred);
         } else {
             producer.publishMessage(send.getProducerId(), send.getSequenceId(), headersAndPayload,
-                    send.getNumMessages(), send.isIsChunk());
+                    send.getNumMessages(), send.isIsChunk(), deferred);
+        }
+
+        if (deferred && producer.getDeferredPublishCount() > 0) {
+            producerWithDeferredPublishes = producer;
+            // While reads are throttled, the end of the current read might not be notified until they resume
+            if (producer.getDeferredPublishCount() >= aggregatePipelinedSendsMaxMessages
+                    || !ctx.channel().config().isAutoRead()) {
+                flushDeferredPublishes();
+            }
+        }
+    }
+
+    private void flushDeferredPublishes() {
+        if (producerWithDeferredPublishes != null) {
+            Producer producer = producerWithDeferredPublishes;
+            producerWithDeferredPublishes = null;
+            producer.flushDeferredPublishes();
         }
     }
 
@@ -1475,6 +1530,7 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
 
         final long producerId = closeProducer.getProducerId();
         final long requestId = closeProducer.getRequestId();
+        flushDeferredPublishes();
 
         CompletableFuture<Producer> producerFuture = producers.get(producerId);
         if (producerFuture == null) {
@@ -2127,6 +2183,10 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
     public void disableCnxAutoRead() {
         if (ctx != null && ctx.channel().config().isAutoRead()) {
             ctx.channel().config().setAutoRead(false);
+            if (aggregatePipelinedSendsEnabled) {
+                // The end of the current read might not be notified until reads are resumed
+                ctx.executor().execute(this::flushDeferredPublishes);
+            }
         }
     }
 
@@ -2288,6 +2348,10 @@ public class ServerCnx extends PulsarHandler implements TransportCnx {
         return preciseDispatcherFlowControl;
     }
 
+    public int getCoalesceSmallMessagesMaxBytes() {
+        return coalesceSmallMessagesMaxBytes;
+    }
+
     public AuthenticationState getAuthState() {
         return authState;
     }
@@ -21,6 +21,7 @@ package org.apache.pulsar.broker.service;
 import java.util.List;
 import java.util.Map;
 import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerAssignException;
+import org.apache.pulsar.common.util.Murmur3_32Hash;
 
 public interface StickyKeyConsumerSelector {
 
@@ -45,7 +46,27 @@ public interface StickyKeyConsumerSelector {
      * @param stickyKey sticky key
      * @return consumer
      */
-    Consumer select(byte[] stickyKey);
+    default Consumer select(byte[] stickyKey) {
+        return select(makeStickyKeyHash(stickyKey));
+    }
+
+    /**
+     * Select a consumer by the hash of the sticky key.
+     *
+     * @param hash hash of the sticky key, as returned by {@link #makeStickyKeyHash(byte[])}
+     * @return consumer
+     */
+    Consumer select(int hash);
+
+    /**
+     * Compute the hash of a sticky key, used to select its consumer.
+     *
+     * @param stickyKey sticky key
+     * @return the non-negative hash of the key
+     */
+    static int makeStickyKeyHash(byte[] stickyKey) {
+        return Murmur3_32Hash.getInstance().makeHash(stickyKey);
+    }
 
     /**
      * Get key hash ranges handled by each consumer.
@@ -19,12 +19,14 @@
 package org.apache.pulsar.broker.service;
 
 import io.netty.buffer.ByteBuf;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.pulsar.broker.service.persistent.DispatchRateLimiter;
+import org.apache.pulsar.broker.service.persistent.MessageDeduplication;
 import org.apache.pulsar.broker.stats.ClusterReplicationMetrics;
 import org.apache.pulsar.broker.stats.NamespaceStats;
 import org.apache.pulsar.client.api.MessageId;
@@ -94,10 +96,33 @@ public interface Topic {
         default long getNumberOfMessages() {
             return  1L;
         }
+
+        default MessageDeduplication.ProducerSequenceIds getProducerSequenceIds() {
+            return null;
+        }
+
+        default void setProducerSequenceIds(MessageDeduplication.ProducerSequenceIds producerSequenceIds) {
+        }
     }
 
     void publishMessage(ByteBuf headersAndPayload, PublishContext callback);
 
+    /**
+     * Publish a sequence of messages, in order, with the same outcome as calling
+     * {@link #publishMessage(ByteBuf, PublishContext)} for each of them. The lists are only accessed for the
+     * duration of the call.
+     *
+     * @param headersAndPayloads
+     *            the messages to publish
+     * @param publishContexts
+     *            the context of each message, at the same index
+     */
+    default void publishMessages(List<ByteBuf> headersAndPayloads, List<PublishContext> publishContexts) {
+        for (int i = 0; i < headersAndPayloads.size(); i++) {
+            publishMessage(headersAndPayloads.get(i), publishContexts.get(i));
+        }
+    }
+
     /**
      * Tries to add a producer to the topic. Several validations will be performed.
      *
@@ -180,6 +205,11 @@ public interface Topic {
 
     boolean isEncryptionRequired();
 
+    /**
+     * Whether producers are allowed to compress messages with the Zstd dictionary of the given id.
+     */
+    boolean isCompressionDictionaryAllowed(int dictionaryId);
+
     boolean getSchemaValidationEnforced();
 
     boolean isReplicated();
@@ -33,6 +33,7 @@ import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.ServerMetadataException;
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionBusyException;
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionFencedException;
+import org.apache.pulsar.broker.service.ConsistentHashingSlotArrayStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.ConsistentHashingStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
@@ -147,7 +148,11 @@ public class NonPersistentSubscription implements Subscription {
                         default:
                             StickyKeyConsumerSelector selector;
                             ServiceConfiguration conf = topic.getBrokerService().getPulsar().getConfiguration();
-                            if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
+                            if (conf.isSubscriptionKeySharedUseConsistentHashing()
+                                    && conf.isSubscriptionKeySharedConsistentHashingUseSlotArray()) {
+                                selector = new ConsistentHashingSlotArrayStickyKeyConsumerSelector(
+                                        conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
+                            } else if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
                                 selector = new ConsistentHashingStickyKeyConsumerSelector(
                                         conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
                             } else {
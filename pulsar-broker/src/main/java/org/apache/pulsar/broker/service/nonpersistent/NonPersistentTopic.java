@@ -137,6 +137,7 @@ public class NonPersistentTopic extends AbstractTopic implements Topic {
                     .get(AdminResource.path(POLICIES, TopicName.get(topic).getNamespace()))
                     .orElseThrow(() -> new KeeperException.NoNodeException());
             isEncryptionRequired = policies.encryption_required;
+            compressionDictionaryIds = policies.compression_dictionary_ids;
             isAllowAutoUpdateSchema = policies.is_allow_auto_update_schema;
             if (policies.inactive_topic_policies != null) {
                 inactiveTopicPolicies = policies.inactive_topic_policies;
@@ -905,6 +906,7 @@ public class NonPersistentTopic extends AbstractTopic implements Topic {
                     data.encryption_required);
         }
         isEncryptionRequired = data.encryption_required;
+        compressionDictionaryIds = data.compression_dictionary_ids;
         setSchemaCompatibilityStrategy(data);
         isAllowAutoUpdateSchema = data.is_allow_auto_update_schema;
         schemaValidationEnforced = data.schema_validation_enforced;
@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.UpdatePropertiesCallback;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the deduplication snapshots of a topic as compact binary records, in a ledger dedicated to them whose id is
+ * kept in the properties of the managed ledger of the topic.
+ *
+ * <p>The first record of a ledger is a full snapshot, with the sequence ids of all the producers. The following ones
+ * are deltas, with only the producers whose sequence id changed, or that were purged, since the previous record.
+ * After a given number of deltas, the next full snapshot is written to a new ledger and the previous ledger is
+ * deleted. Recovering a snapshot therefore reads a bounded number of records, regardless of the number of producers
+ * and of the size of the topic.
+ *
+ * <p>Writes are not thread-safe, the caller must not start a write before the previous one completed.
+ */
+class DeduplicationSnapshotStore {
+
+    static final String SNAPSHOT_LEDGER_PROPERTY = "pulsar.deduplication.snapshot.ledger";
+
+    // Sequence id of a producer in a delta, when the producer was purged
+    static final long REMOVED_SEQUENCE_ID = Long.MIN_VALUE;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final Map<String, byte[]> LEDGER_METADATA = ImmutableMap.of(
+            "application", "pulsar".getBytes(UTF_8),
+            "component", "deduplication-snapshot".getBytes(UTF_8));
+
+    /**
+     * The highest persisted sequence id of the producers, as of a position of the topic.
+     */
+    static class Snapshot {
+        final PositionImpl position;
+        final Map<String, Long> sequenceIds;
+
+        Snapshot(PositionImpl position, Map<String, Long> sequenceIds) {
+            this.position = position;
+            this.sequenceIds = sequenceIds;
+        }
+    }
+
+    private final String topicName;
+    private final ManagedLedger managedLedger;
+    private final BookKeeper bookKeeper;
+    private final int maxDeltasPerLedger;
+
+    // Ledger holding the records written by this store, null until the first full snapshot is written
+    private volatile LedgerHandle currentLedger;
+    private int deltasInCurrentLedger = 0;
+    // Forces the next snapshot to be full, after a write failed
+    private boolean fullSnapshotRequired = false;
+    // Ledger read during the recovery, deleted once this store has written its own ledger
+    private long recoveredLedgerId = -1;
+
+    DeduplicationSnapshotStore(String topicName, ManagedLedger managedLedger, BookKeeper bookKeeper,
+                               int maxDeltasPerLedger) {
+        this.topicName = topicName;
+        this.managedLedger = managedLedger;
+        this.bookKeeper = bookKeeper;
+        this.maxDeltasPerLedger = maxDeltasPerLedger;
+    }
+
+    /**
+     * Read the latest snapshot, merging the full snapshot with the deltas that follow it.
+     *
+     * @return a future completed with the snapshot, or with null if no snapshot was stored
+     */
+    CompletableFuture<Snapshot> recover() {
+        String ledgerIdProperty = managedLedger.getProperties().get(SNAPSHOT_LEDGER_PROPERTY);
+        if (ledgerIdProperty == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        long ledgerId = Long.parseLong(ledgerIdProperty);
+        ManagedLedgerConfig config = managedLedger.getConfig();
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        // Opening with recovery fences the ledger, in case the previous owner of the topic is still writing to it
+        bookKeeper.asyncOpenLedger(ledgerId, BookKeeper.DigestType.fromApiDigestType(config.getDigestType()),
+                config.getPassword(), (rc, lh, ctx) -> {
+                    if (rc == BKException.Code.NoSuchLedgerExistsException
+                            || rc == BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                        log.warn("[{}] Deduplication snapshot ledger {} does not exist", topicName, ledgerId);
+                        future.complete(null);
+                        return;
+                    } else if (rc != BKException.Code.OK) {
+                        future.completeExceptionally(BKException.create(rc));
+                        return;
+                    }
+
+                    recoveredLedgerId = ledgerId;
+                    long lastEntryId = lh.getLastAddConfirmed();
+                    if (lastEntryId < 0) {
+                        lh.asyncClose((closeRc, closedLh, closeCtx) -> {}, null);
+                        future.complete(null);
+                        return;
+                    }
+
+                    lh.asyncReadEntries(0, lastEntryId, (readRc, readLh, entries, readCtx) -> {
+                        try {
+                            if (readRc != BKException.Code.OK) {
+                                future.completeExceptionally(BKException.create(readRc));
+                            } else {
+                                future.complete(readSnapshot(entries));
+                            }
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        } finally {
+                            lh.asyncClose((closeRc, closedLh, closeCtx) -> {}, null);
+                        }
+                    }, null);
+                }, null);
+        return future;
+    }
+
+    private static Snapshot readSnapshot(Enumeration<LedgerEntry> entries) {
+        Map<String, Long> sequenceIds = new HashMap<>();
+        PositionImpl position = null;
+        while (entries.hasMoreElements()) {
+            ByteBuf record = entries.nextElement().getEntryBuffer();
+            try {
+                position = readRecord(record, sequenceIds);
+            } finally {
+                record.release();
+            }
+        }
+        return new Snapshot(position, sequenceIds);
+    }
+
+    /**
+     * Whether the next snapshot has to include the sequence ids of all the producers.
+     */
+    boolean isFullSnapshotRequired() {
+        return currentLedger == null || fullSnapshotRequired || deltasInCurrentLedger >= maxDeltasPerLedger;
+    }
+
+    /**
+     * Write a snapshot. A full snapshot rolls the ledger, a delta is appended to the current one.
+     */
+    CompletableFuture<Void> write(PositionImpl position, Map<String, Long> sequenceIds, boolean fullSnapshot) {
+        ByteBuf record = newRecord(position, sequenceIds);
+        CompletableFuture<Void> future = fullSnapshot
+                ? writeFullSnapshot(record)
+                : append(currentLedger, record).thenRun(() -> deltasInCurrentLedger++);
+        return future.whenComplete((ignore, ex) -> {
+            if (ex != null) {
+                log.warn("[{}] Failed to write deduplication snapshot at {}: {}", topicName, position,
+                        ex.getMessage());
+                fullSnapshotRequired = true;
+            }
+        });
+    }
+
+    private CompletableFuture<Void> writeFullSnapshot(ByteBuf record) {
+        ManagedLedgerConfig config = managedLedger.getConfig();
+        CompletableFuture<LedgerHandle> createFuture = new CompletableFuture<>();
+        Map<String, byte[]> metadata = new HashMap<>(LEDGER_METADATA);
+        metadata.put("pulsar/managed-ledger", managedLedger.getName().getBytes(UTF_8));
+        bookKeeper.asyncCreateLedger(config.getEnsembleSize(), config.getWriteQuorumSize(),
+                config.getAckQuorumSize(), BookKeeper.DigestType.fromApiDigestType(config.getDigestType()),
+                config.getPassword(), (rc, lh, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        createFuture.completeExceptionally(BKException.create(rc));
+                    } else {
+                        createFuture.complete(lh);
+                    }
+                }, null, metadata);
+
+        return createFuture.whenComplete((lh, ex) -> {
+            if (ex != null) {
+                record.release();
+            }
+        }).thenCompose(lh -> append(lh, record)
+                .thenCompose(ignore -> setSnapshotLedgerProperty(lh.getId()))
+                .whenComplete((ignore, ex) -> {
+                    if (ex != null) {
+                        closeAndDelete(lh, "new");
+                    }
+                }).thenRun(() -> {
+                    LedgerHandle previousLedger = currentLedger;
+                    currentLedger = lh;
+                    deltasInCurrentLedger = 0;
+                    fullSnapshotRequired = false;
+                    if (previousLedger != null) {
+                        closeAndDelete(previousLedger, "previous");
+                    } else if (recoveredLedgerId != -1) {
+                        delete(recoveredLedgerId);
+                        recoveredLedgerId = -1;
+                    }
+                }));
+    }
+
+    private static CompletableFuture<Void> append(LedgerHandle lh, ByteBuf record) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        // The ledger handle takes the ownership of the record
+        lh.asyncAddEntry(record, (rc, handle, entryId, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                future.complete(null);
+            }
+        }, null);
+        return future;
+    }
+
+    private CompletableFuture<Void> setSnapshotLedgerProperty(long ledgerId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        managedLedger.asyncSetProperty(SNAPSHOT_LEDGER_PROPERTY, Long.toString(ledgerId),
+                new UpdatePropertiesCallback() {
+                    @Override
+                    public void updatePropertiesComplete(Map<String, String> properties, Object ctx) {
+                        future.complete(null);
+                    }
+
+                    @Override
+                    public void updatePropertiesFailed(ManagedLedgerException exception, Object ctx) {
+                        future.completeExceptionally(exception);
+                    }
+                }, null);
+        return future;
+    }
+
+    /**
+     * Delete the ledgers holding the snapshots, once deduplication is disabled or the topic is deleted.
+     *
+     * @param removeProperty whether to also remove the reference to the ledger from the managed ledger properties,
+     *                       which is not needed when the managed ledger is deleted too
+     */
+    void delete(boolean removeProperty) {
+        LedgerHandle lh = currentLedger;
+        currentLedger = null;
+        if (lh != null) {
+            closeAndDelete(lh, "current");
+        }
+        // The ledger referenced from the properties can be a ledger recovered or written by a previous owner
+        String ledgerIdProperty = managedLedger.getProperties().get(SNAPSHOT_LEDGER_PROPERTY);
+        Set<Long> otherLedgerIds = new HashSet<>();
+        if (ledgerIdProperty != null) {
+            otherLedgerIds.add(Long.parseLong(ledgerIdProperty));
+        }
+        if (recoveredLedgerId != -1) {
+            otherLedgerIds.add(recoveredLedgerId);
+            recoveredLedgerId = -1;
+        }
+        if (lh != null) {
+            otherLedgerIds.remove(lh.getId());
+        }
+        otherLedgerIds.forEach(this::delete);
+        if (removeProperty && ledgerIdProperty != null) {
+            managedLedger.asyncDeleteProperty(SNAPSHOT_LEDGER_PROPERTY, new UpdatePropertiesCallback() {
+                @Override
+                public void updatePropertiesComplete(Map<String, String> properties, Object ctx) {
+                }
+
+                @Override
+                public void updatePropertiesFailed(ManagedLedgerException exception, Object ctx) {
+                    log.warn("[{}] Failed to remove the deduplication snapshot ledger property: {}", topicName,
+                            exception.getMessage());
+                }
+            }, null);
+        }
+    }
+
+    void close() {
+        LedgerHandle lh = currentLedger;
+        currentLedger = null;
+        if (lh != null) {
+            lh.asyncClose((rc, closedLh, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    log.warn("[{}] Failed to close deduplication snapshot ledger {}: {}", topicName, lh.getId(),
+                            BKException.getMessage(rc));
+                }
+            }, null);
+        }
+    }
+
+    private void closeAndDelete(LedgerHandle lh, String kind) {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Deleting {} deduplication snapshot ledger {}", topicName, kind, lh.getId());
+        }
+        lh.asyncClose((rc, closedLh, ctx) -> delete(lh.getId()), null);
+    }
+
+    private void delete(long ledgerId) {
+        bookKeeper.asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException
+                    && rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                log.warn("[{}] Failed to delete deduplication snapshot ledger {}: {}", topicName, ledgerId,
+                        BKException.getMessage(rc));
+            }
+        }, null);
+    }
+
+    /*
+     * Record layout: version (byte), ledger id and entry id of the position (longs), number of producers (int), then
+     * for every producer the length of its name (int), its UTF-8 name and its sequence id (long), REMOVED_SEQUENCE_ID
+     * for a purged producer.
+     */
+
+    static ByteBuf newRecord(PositionImpl position, Map<String, Long> sequenceIds) {
+        ByteBuf record = PooledByteBufAllocator.DEFAULT.buffer(21 + sequenceIds.size() * 32);
+        record.writeByte(FORMAT_VERSION);
+        record.writeLong(position.getLedgerId());
+        record.writeLong(position.getEntryId());
+        record.writeInt(sequenceIds.size());
+        sequenceIds.forEach((producerName, sequenceId) -> {
+            int lengthIndex = record.writerIndex();
+            record.writeInt(0);
+            int length = record.writeCharSequence(producerName, UTF_8);
+            record.setInt(lengthIndex, length);
+            record.writeLong(sequenceId);
+        });
+        return record;
+    }
+
+    /**
+     * Apply a record on the sequence ids.
+     *
+     * @return the position of the record
+     */
+    static PositionImpl readRecord(ByteBuf record, Map<String, Long> sequenceIds) {
+        byte version = record.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown deduplication snapshot format version " + version);
+        }
+        PositionImpl position = PositionImpl.get(record.readLong(), record.readLong());
+        int numberOfProducers = record.readInt();
+        for (int i = 0; i < numberOfProducers; i++) {
+            int length = record.readInt();
+            String producerName = record.readCharSequence(length, UTF_8).toString();
+            long sequenceId = record.readLong();
+            if (sequenceId == REMOVED_SEQUENCE_ID) {
+                sequenceIds.remove(producerName);
+            } else {
+                sequenceIds.put(producerName, sequenceId);
+            }
+        }
+        return position;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DeduplicationSnapshotStore.class);
+}
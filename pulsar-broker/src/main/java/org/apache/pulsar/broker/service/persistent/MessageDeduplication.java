@@ -21,14 +21,18 @@ package org.apache.pulsar.broker.service.persistent;
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 import com.google.common.annotations.VisibleForTesting;
 import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCursorCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.MarkDeleteCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenCursorCallback;
@@ -37,6 +41,7 @@ import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedger;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.PulsarService;
 import org.apache.pulsar.broker.admin.AdminResource;
@@ -98,17 +103,40 @@ public class MessageDeduplication {
     }
 
 
-    private volatile Status status;
+    /**
+     * The highest sequence ids of a producer. The pushed one is updated before the messages are persisted, the
+     * persisted one after.
+     *
+     * <p>A producer resolves its instance once, when it's added to the topic, and the publish contexts carry it, so
+     * that the publish path neither hashes the producer name nor takes a lock.
+     */
+    public static final class ProducerSequenceIds {
+        private static final AtomicLongFieldUpdater<ProducerSequenceIds> HIGHEST_SEQUENCED_PUSHED_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(ProducerSequenceIds.class, "highestSequencedPushed");
+        private static final AtomicLongFieldUpdater<ProducerSequenceIds> INACTIVE_SINCE_TIMESTAMP_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(ProducerSequenceIds.class, "inactiveSinceTimestamp");
+
+        private volatile long highestSequencedPushed = NOT_SET;
+        private volatile long highestSequencedPersisted = NOT_SET;
+        // Time at which the producer disconnected, 0 while it's connected, or PURGED once the purge claimed them
+        private volatile long inactiveSinceTimestamp = 0;
+        // Set once these sequence ids are no longer tracked by the topic, the producer needs to resolve them again
+        private volatile boolean removed = false;
+        // Sequence id last written to the snapshot store, only accessed while taking a snapshot
+        private long snapshotSequenceId = NOT_SET;
+    }
 
-    // Map that contains the highest sequenceId that have been sent by each producers. The map will be updated before
-    // the messages are persisted
-    @VisibleForTesting
-    final ConcurrentOpenHashMap<String, Long> highestSequencedPushed = new ConcurrentOpenHashMap<>(16, 1);
+    // Marks a sequence id that was never received for a producer
+    private static final long NOT_SET = Long.MIN_VALUE;
 
-    // Map that contains the highest sequenceId that have been persistent by each producers. The map will be updated
-    // after the messages are persisted
-    @VisibleForTesting
-    final ConcurrentOpenHashMap<String, Long> highestSequencedPersisted = new ConcurrentOpenHashMap<>(16, 1);
+    // Marks the sequence ids of an inactive producer that are being purged, they can't be reused by the producer
+    private static final long PURGED = -1;
+
+    private volatile Status status;
+
+    // Map that contains the sequence ids of each producer
+    private final ConcurrentOpenHashMap<String, ProducerSequenceIds> producerSequenceIds =
+            new ConcurrentOpenHashMap<>(16, 1);
 
     // Number of persisted entries after which to store a snapshot of the sequence ids map
     private final int snapshotInterval;
@@ -122,11 +150,20 @@ public class MessageDeduplication {
     // Max number of producer for which to persist the sequence id information
     private final int maxNumberOfProducers;
 
-    // Map used to track the inactive producer along with the timestamp of their last activity
-    private final Map<String, Long> inactiveProducers = new HashMap<>();
-
     private final String replicatorPrefix;
 
+    // Store of the snapshots recovered in place of the cursor properties, null if not enabled
+    private final DeduplicationSnapshotStore snapshotStore;
+
+    // Producers purged since the last snapshot written to the snapshot store
+    private final Set<String> purgedProducers = ConcurrentHashMap.newKeySet();
+
+    // Whether a snapshot is being written to the snapshot store
+    private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+
+    // Time spent by the last recovery of the sequence ids
+    private volatile long recoveryDurationMs = 0L;
+
     public MessageDeduplication(PulsarService pulsar, PersistentTopic topic, ManagedLedger managedLedger) {
         this.pulsar = pulsar;
         this.topic = topic;
@@ -136,20 +173,61 @@ public class MessageDeduplication {
         this.maxNumberOfProducers = pulsar.getConfiguration().getBrokerDeduplicationMaxNumberOfProducers();
         this.snapshotCounter = 0;
         this.replicatorPrefix = pulsar.getConfiguration().getReplicatorPrefix();
+        this.snapshotStore = pulsar.getConfiguration().isBrokerDeduplicationSnapshotLedgerEnabled()
+                ? new DeduplicationSnapshotStore(topic.getName(), managedLedger, pulsar.getBookKeeperClient(),
+                        pulsar.getConfiguration().getBrokerDeduplicationSnapshotLedgerMaxDeltas())
+                : null;
     }
 
     private CompletableFuture<Void> recoverSequenceIdsMap() {
-        // Load the sequence ids from the snapshot in the cursor properties
-        managedCursor.getProperties().forEach((k, v) -> {
-            highestSequencedPushed.put(k, v);
-            highestSequencedPersisted.put(k, v);
+        long recoveryStartNanos = System.nanoTime();
+        CompletableFuture<Void> snapshotLoaded;
+        if (snapshotStore != null) {
+            snapshotLoaded = snapshotStore.recover().exceptionally(ex -> {
+                // The cursor properties hold the snapshot too, only the entries since an older one are replayed
+                log.warn("[{}] Failed to recover deduplication snapshot from the snapshot ledger, recovering from the"
+                        + " cursor properties: {}", topic.getName(), ex.getMessage());
+                return null;
+            }).thenAccept(this::loadSnapshot);
+        } else {
+            loadSnapshot(null);
+            snapshotLoaded = CompletableFuture.completedFuture(null);
+        }
+
+        return snapshotLoaded.thenCompose(ignore -> {
+            // Replay all the entries and apply all the sequence ids updates
+            log.info("[{}] Replaying {} entries for deduplication", topic.getName(),
+                    managedCursor.getNumberOfEntries());
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            replayCursor(future);
+            return future;
+        }).thenRun(() -> {
+            recoveryDurationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recoveryStartNanos);
+            log.info("[{}] Recovered deduplication state in {} ms", topic.getName(), recoveryDurationMs);
         });
+    }
+
+    private void loadSnapshot(DeduplicationSnapshotStore.Snapshot snapshot) {
+        PositionImpl markDeletedPosition = (PositionImpl) managedCursor.getMarkDeletedPosition();
+        Map<String, Long> sequenceIdsSnapshot;
+        if (snapshot != null && snapshot.position.compareTo(markDeletedPosition) >= 0) {
+            // The snapshot store can be ahead of the cursor, if the mark-delete failed after storing a snapshot
+            sequenceIdsSnapshot = snapshot.sequenceIds;
+            if (snapshot.position.compareTo(markDeletedPosition) > 0) {
+                managedCursor.seek(managedLedger instanceof ManagedLedgerImpl
+                        ? ((ManagedLedgerImpl) managedLedger).getNextValidPosition(snapshot.position)
+                        : snapshot.position.getNext());
+            }
+        } else {
+            // Load the sequence ids from the snapshot in the cursor properties
+            sequenceIdsSnapshot = managedCursor.getProperties();
+        }
 
-        // Replay all the entries and apply all the sequence ids updates
-        log.info("[{}] Replaying {} entries for deduplication", topic.getName(), managedCursor.getNumberOfEntries());
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        replayCursor(future);
-        return future;
+        sequenceIdsSnapshot.forEach((k, v) -> {
+            ProducerSequenceIds sequenceIds = getProducerSequenceIds(k);
+            sequenceIds.highestSequencedPushed = v;
+            sequenceIds.highestSequencedPersisted = v;
+        });
     }
 
     /**
@@ -169,8 +247,9 @@ public class MessageDeduplication {
 
                     String producerName = md.getProducerName();
                     long sequenceId = Math.max(md.getHighestSequenceId(), md.getSequenceId());
-                    highestSequencedPushed.put(producerName, sequenceId);
-                    highestSequencedPersisted.put(producerName, sequenceId);
+                    ProducerSequenceIds sequenceIds = getProducerSequenceIds(producerName);
+                    sequenceIds.highestSequencedPushed = sequenceId;
+                    sequenceIds.highestSequencedPersisted = sequenceId;
 
                     entry.release();
                 }
@@ -214,6 +293,7 @@ public class MessageDeduplication {
                                 @Override
                                 public void deleteCursorComplete(Object ctx) {
                                     status = Status.Disabled;
+                                    deleteSnapshotStore();
                                     log.info("[{}] Deleted deduplication cursor", topic.getName());
                                 }
 
@@ -221,6 +301,7 @@ public class MessageDeduplication {
                                 public void deleteCursorFailed(ManagedLedgerException exception, Object ctx) {
                                     if (exception instanceof ManagedLedgerException.CursorNotFoundException) {
                                         status = Status.Disabled;
+                                        deleteSnapshotStore();
                                     } else {
                                 log.error("[{}] Deleted deduplication cursor error", topic.getName(), exception);
                             }
@@ -239,8 +320,8 @@ public class MessageDeduplication {
                                 public void deleteCursorComplete(Object ctx) {
                                     status = Status.Disabled;
                                     managedCursor = null;
-                                    highestSequencedPushed.clear();
-                                    highestSequencedPersisted.clear();
+                                    clearProducerSequenceIds();
+                                    deleteSnapshotStore();
                                     future.complete(null);
                                     log.info("[{}] Disabled deduplication", topic.getName());
                                 }
@@ -251,8 +332,8 @@ public class MessageDeduplication {
                                     if (exception instanceof ManagedLedgerException.CursorNotFoundException) {
                                         status = Status.Disabled;
                                         managedCursor = null;
-                                        highestSequencedPushed.clear();
-                                        highestSequencedPersisted.clear();
+                                        clearProducerSequenceIds();
+                                        deleteSnapshotStore();
                                         future.complete(null);
                                     } else {
                                         log.warn("[{}] Failed to disable deduplication: {}", topic.getName(),
@@ -320,6 +401,7 @@ public class MessageDeduplication {
         String producerName = publishContext.getProducerName();
         long sequenceId = publishContext.getSequenceId();
         long highestSequenceId = Math.max(publishContext.getHighestSequenceId(), sequenceId);
+        ProducerSequenceIds sequenceIds;
         if (producerName.startsWith(replicatorPrefix)) {
             // Message is coming from replication, we need to use the original producer name and sequence id
             // for the purpose of deduplication and not rely on the "replicator" name.
@@ -332,13 +414,16 @@ public class MessageDeduplication {
             publishContext.setOriginalSequenceId(sequenceId);
             publishContext.setOriginalHighestSequenceId(highestSequenceId);
             headersAndPayload.readerIndex(readerIndex);
+            sequenceIds = getProducerSequenceIds(producerName);
+        } else {
+            sequenceIds = getProducerSequenceIds(publishContext, producerName);
         }
 
-        // Synchronize the get() and subsequent put() on the map. This would only be relevant if the producer
-        // disconnects and re-connects very quickly. At that point the call can be coming from a different thread
-        synchronized (highestSequencedPushed) {
-            Long lastSequenceIdPushed = highestSequencedPushed.get(producerName);
-            if (lastSequenceIdPushed != null && sequenceId <= lastSequenceIdPushed) {
+        // Compare and set the highest sequence id pushed. This would only be relevant if the producer disconnects
+        // and re-connects very quickly. At that point the call can be coming from a different thread
+        while (true) {
+            long lastSequenceIdPushed = sequenceIds.highestSequencedPushed;
+            if (lastSequenceIdPushed != NOT_SET && sequenceId <= lastSequenceIdPushed) {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Message identified as duplicated producer={} seq-id={} -- highest-seq-id={}",
                             topic.getName(), producerName, sequenceId, lastSequenceIdPushed);
@@ -350,16 +435,18 @@ public class MessageDeduplication {
                 // If current message's seq id is between lastSequenceIdPersisted and
                 // lastSequenceIdPushed, then we cannot be sure whether the message is a dup or not
                 // we should return an error to the producer for the latter case so that it can retry at a future time
-                Long lastSequenceIdPersisted = highestSequencedPersisted.get(producerName);
-                if (lastSequenceIdPersisted != null && sequenceId <= lastSequenceIdPersisted) {
+                long lastSequenceIdPersisted = sequenceIds.highestSequencedPersisted;
+                if (lastSequenceIdPersisted != NOT_SET && sequenceId <= lastSequenceIdPersisted) {
                     return MessageDupStatus.Dup;
                 } else {
                     return MessageDupStatus.Unknown;
                 }
             }
-            highestSequencedPushed.put(producerName, highestSequenceId);
+            if (ProducerSequenceIds.HIGHEST_SEQUENCED_PUSHED_UPDATER.compareAndSet(sequenceIds, lastSequenceIdPushed,
+                    highestSequenceId)) {
+                return MessageDupStatus.NotDup;
+            }
         }
-        return MessageDupStatus.NotDup;
     }
 
     /**
@@ -370,17 +457,19 @@ public class MessageDeduplication {
             return;
         }
 
-        String producerName = publishContext.getProducerName();
         long sequenceId = publishContext.getSequenceId();
         long highestSequenceId = publishContext.getHighestSequenceId();
+        ProducerSequenceIds sequenceIds;
         if (publishContext.getOriginalProducerName() != null) {
             // In case of replicated messages, this will be different from the current replicator producer name
-            producerName = publishContext.getOriginalProducerName();
+            sequenceIds = getProducerSequenceIds(publishContext.getOriginalProducerName());
             sequenceId = publishContext.getOriginalSequenceId();
             highestSequenceId = publishContext.getOriginalHighestSequenceId();
+        } else {
+            sequenceIds = getProducerSequenceIds(publishContext, publishContext.getProducerName());
         }
 
-        highestSequencedPersisted.put(producerName, Math.max(highestSequenceId, sequenceId));
+        sequenceIds.highestSequencedPersisted = Math.max(highestSequenceId, sequenceId);
         if (++snapshotCounter >= snapshotInterval) {
             snapshotCounter = 0;
             takeSnapshot(position);
@@ -392,10 +481,8 @@ public class MessageDeduplication {
             return;
         }
 
-        highestSequencedPushed.clear();
-        for (String producer : highestSequencedPersisted.keys()) {
-            highestSequencedPushed.put(producer, highestSequencedPersisted.get(producer));
-        }
+        producerSequenceIds.forEach((producerName, sequenceIds) ->
+                sequenceIds.highestSequencedPushed = sequenceIds.highestSequencedPersisted);
     }
 
     private void takeSnapshot(PositionImpl position) {
@@ -403,13 +490,21 @@ public class MessageDeduplication {
             log.debug("[{}] Taking snapshot of sequence ids map", topic.getName());
         }
         Map<String, Long> snapshot = new TreeMap<>();
-        highestSequencedPersisted.forEach((producerName, sequenceId) -> {
-            if (snapshot.size() < maxNumberOfProducers) {
+        producerSequenceIds.forEach((producerName, sequenceIds) -> {
+            long sequenceId = sequenceIds.highestSequencedPersisted;
+            if (sequenceId != NOT_SET && snapshot.size() < maxNumberOfProducers) {
                 snapshot.put(producerName, sequenceId);
             }
         });
+        if (snapshotStore != null) {
+            takeSnapshotInStore(position, snapshot);
+            return;
+        }
+        markDelete(managedCursor, position, snapshot);
+    }
 
-        managedCursor.asyncMarkDelete(position, snapshot, new MarkDeleteCallback() {
+    private void markDelete(ManagedCursor cursor, PositionImpl position, Map<String, Long> snapshot) {
+        cursor.asyncMarkDelete(position, snapshot, new MarkDeleteCallback() {
             @Override
             public void markDeleteComplete(Object ctx) {
                 if (log.isDebugEnabled()) {
@@ -425,6 +520,83 @@ public class MessageDeduplication {
         }, null);
     }
 
+    private void takeSnapshotInStore(PositionImpl position, Map<String, Long> snapshot) {
+        if (!snapshotInProgress.compareAndSet(false, true)) {
+            // The next snapshot will cover this position
+            return;
+        }
+
+        // A delta only contains the producers whose sequence id changed, or that were purged, since the previous
+        // snapshot
+        boolean fullSnapshot = snapshotStore.isFullSnapshotRequired();
+        Map<String, Long> record = new HashMap<>();
+        snapshot.forEach((producerName, sequenceId) -> {
+            ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+            if (fullSnapshot || sequenceIds == null || sequenceId != sequenceIds.snapshotSequenceId) {
+                record.put(producerName, sequenceId);
+            }
+        });
+        List<String> purged = new ArrayList<>(purgedProducers);
+        purgedProducers.removeAll(purged);
+        if (!fullSnapshot) {
+            purged.forEach(producerName -> record.putIfAbsent(producerName,
+                    DeduplicationSnapshotStore.REMOVED_SEQUENCE_ID));
+        }
+
+        snapshotStore.write(position, record, fullSnapshot).thenRun(() -> {
+            snapshot.forEach((producerName, sequenceId) -> {
+                ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+                if (sequenceIds != null) {
+                    sequenceIds.snapshotSequenceId = sequenceId;
+                }
+            });
+            lastSnapshotTimestamp = System.currentTimeMillis();
+            snapshotInProgress.set(false);
+
+            // The entries before the snapshot no longer need to be replayed. The snapshot is kept in the cursor
+            // properties too, for the recovery not to depend on the snapshot store.
+            ManagedCursor cursor = managedCursor;
+            if (cursor != null) {
+                markDelete(cursor, position, snapshot);
+            }
+        }).exceptionally(ex -> {
+            // The next snapshot is a full one, which doesn't need the purged producers
+            snapshotInProgress.set(false);
+            return null;
+        });
+    }
+
+    private void deleteSnapshotStore() {
+        if (snapshotStore != null) {
+            snapshotStore.delete(true);
+        }
+    }
+
+    /**
+     * Topic will call this method when it's closed.
+     */
+    public void close() {
+        if (snapshotStore != null) {
+            snapshotStore.close();
+        }
+    }
+
+    /**
+     * Topic will call this method when it's deleted, along with its managed ledger.
+     */
+    public void delete() {
+        if (snapshotStore != null) {
+            snapshotStore.delete(false);
+        }
+    }
+
+    /**
+     * @return the time spent by the last recovery of the sequence ids of the producers, in milliseconds
+     */
+    public long getRecoveryDurationMs() {
+        return recoveryDurationMs;
+    }
+
     private CompletableFuture<Boolean> isDeduplicationEnabled() {
         TopicName name = TopicName.get(topic.getName());
         //Topic level setting has higher priority than namespace level
@@ -445,46 +617,138 @@ public class MessageDeduplication {
 
     /**
      * Topic will call this method whenever a producer connects.
+     *
+     * @return the sequence ids of the producer, to be carried by its publish contexts, or null if deduplication is
+     *         not enabled, in which case they are resolved on the first publish
      */
-    public synchronized void producerAdded(String producerName) {
-        // Producer is no-longer inactive
-        inactiveProducers.remove(producerName);
+    public ProducerSequenceIds producerAdded(String producerName) {
+        while (true) {
+            ProducerSequenceIds sequenceIds = isEnabled()
+                    ? getProducerSequenceIds(producerName) : producerSequenceIds.get(producerName);
+            if (sequenceIds == null) {
+                return null;
+            }
+            long inactiveSinceTimestamp = sequenceIds.inactiveSinceTimestamp;
+            if (inactiveSinceTimestamp == PURGED) {
+                // Lost the race with the purge, make sure they are removed and resolve them again
+                removeProducerSequenceIds(producerName, sequenceIds);
+                continue;
+            }
+            // Producer is no-longer inactive
+            if (ProducerSequenceIds.INACTIVE_SINCE_TIMESTAMP_UPDATER.compareAndSet(sequenceIds,
+                    inactiveSinceTimestamp, 0)) {
+                return sequenceIds;
+            }
+        }
     }
 
     /**
      * Topic will call this method whenever a producer disconnects.
      */
-    public synchronized void producerRemoved(String producerName) {
-        // Producer is no-longer active
-        inactiveProducers.put(producerName, System.currentTimeMillis());
+    public void producerRemoved(String producerName) {
+        ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+        if (sequenceIds == null) {
+            return;
+        }
+        long inactiveSinceTimestamp;
+        do {
+            inactiveSinceTimestamp = sequenceIds.inactiveSinceTimestamp;
+            if (inactiveSinceTimestamp == PURGED) {
+                return;
+            }
+            // Producer is no-longer active
+        } while (!ProducerSequenceIds.INACTIVE_SINCE_TIMESTAMP_UPDATER.compareAndSet(sequenceIds,
+                inactiveSinceTimestamp, System.currentTimeMillis()));
     }
 
     /**
      * Remove from hash maps all the producers that were inactive for more than the configured amount of time.
      */
-    public synchronized void purgeInactiveProducers() {
+    public void purgeInactiveProducers() {
         long minimumActiveTimestamp = System.currentTimeMillis() - TimeUnit.MINUTES
                 .toMillis(pulsar.getConfiguration().getBrokerDeduplicationProducerInactivityTimeoutMinutes());
 
-        Iterator<java.util.Map.Entry<String, Long>> mapIterator = inactiveProducers.entrySet().iterator();
-        while (mapIterator.hasNext()) {
-            java.util.Map.Entry<String, Long> entry = mapIterator.next();
-            String producerName = entry.getKey();
-            long lastActiveTimestamp = entry.getValue();
-
-            mapIterator.remove();
-
-            if (lastActiveTimestamp < minimumActiveTimestamp) {
+        for (String producerName : producerSequenceIds.keys()) {
+            ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+            if (sequenceIds == null) {
+                continue;
+            }
+            long inactiveSinceTimestamp = sequenceIds.inactiveSinceTimestamp;
+            // The producer may connect again meanwhile, the sequence ids are only removed if it didn't
+            if (inactiveSinceTimestamp != 0 && inactiveSinceTimestamp != PURGED
+                    && inactiveSinceTimestamp < minimumActiveTimestamp
+                    && ProducerSequenceIds.INACTIVE_SINCE_TIMESTAMP_UPDATER.compareAndSet(sequenceIds,
+                            inactiveSinceTimestamp, PURGED)) {
                 log.info("[{}] Purging dedup information for producer {}", topic.getName(), producerName);
-                highestSequencedPushed.remove(producerName);
-                highestSequencedPersisted.remove(producerName);
+                removeProducerSequenceIds(producerName, sequenceIds);
+                if (snapshotStore != null) {
+                    purgedProducers.add(producerName);
+                }
             }
         }
     }
 
     public long getLastPublishedSequenceId(String producerName) {
-        Long sequenceId = highestSequencedPushed.get(producerName);
-        return sequenceId != null ? sequenceId : -1;
+        ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+        long sequenceId = sequenceIds != null ? sequenceIds.highestSequencedPushed : NOT_SET;
+        return sequenceId != NOT_SET ? sequenceId : -1;
+    }
+
+    private ProducerSequenceIds getProducerSequenceIds(String producerName) {
+        return producerSequenceIds.computeIfAbsent(producerName, name -> new ProducerSequenceIds());
+    }
+
+    private ProducerSequenceIds getProducerSequenceIds(PublishContext publishContext, String producerName) {
+        ProducerSequenceIds sequenceIds = publishContext.getProducerSequenceIds();
+        if (sequenceIds == null || sequenceIds.removed) {
+            sequenceIds = getProducerSequenceIds(producerName);
+            publishContext.setProducerSequenceIds(sequenceIds);
+        }
+        return sequenceIds;
+    }
+
+    private void removeProducerSequenceIds(String producerName, ProducerSequenceIds sequenceIds) {
+        if (producerSequenceIds.remove(producerName, sequenceIds)) {
+            sequenceIds.removed = true;
+        }
+    }
+
+    private void clearProducerSequenceIds() {
+        for (String producerName : producerSequenceIds.keys()) {
+            ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+            if (sequenceIds != null) {
+                removeProducerSequenceIds(producerName, sequenceIds);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    Long getHighestSequencedPushed(String producerName) {
+        ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+        return sequenceIds != null && sequenceIds.highestSequencedPushed != NOT_SET
+                ? sequenceIds.highestSequencedPushed : null;
+    }
+
+    @VisibleForTesting
+    void setHighestSequencedPushed(String producerName, long sequenceId) {
+        getProducerSequenceIds(producerName).highestSequencedPushed = sequenceId;
+    }
+
+    @VisibleForTesting
+    Long getHighestSequencedPersisted(String producerName) {
+        ProducerSequenceIds sequenceIds = producerSequenceIds.get(producerName);
+        return sequenceIds != null && sequenceIds.highestSequencedPersisted != NOT_SET
+                ? sequenceIds.highestSequencedPersisted : null;
+    }
+
+    @VisibleForTesting
+    void setHighestSequencedPersisted(String producerName, long sequenceId) {
+        getProducerSequenceIds(producerName).highestSequencedPersisted = sequenceId;
+    }
+
+    @VisibleForTesting
+    long getNumberOfTrackedProducers() {
+        return producerSequenceIds.size();
     }
 
     public void takeSnapshot() {
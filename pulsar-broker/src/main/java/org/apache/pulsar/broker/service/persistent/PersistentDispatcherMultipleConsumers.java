@@ -18,17 +18,19 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
+import static org.apache.bookkeeper.mledger.util.SafeRun.safeRun;
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 import static org.apache.pulsar.broker.service.persistent.PersistentTopic.MESSAGE_RATE_BACKOFF_MS;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
@@ -37,7 +39,6 @@ import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.NoMoreEntriesToReadException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.TooManyRequestsException;
-import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.admin.AdminResource;
@@ -64,6 +65,7 @@ import org.apache.pulsar.common.policies.data.DispatchRate;
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.policies.data.TopicPolicies;
 import org.apache.pulsar.common.util.Codec;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPairConsumer;
 import org.apache.pulsar.common.util.collections.ConcurrentSortedLongPairSet;
 import org.apache.pulsar.common.util.collections.LongPairSet;
 import org.slf4j.Logger;
@@ -81,6 +83,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
     private CompletableFuture<Void> closeFuture = null;
     protected LongPairSet messagesToRedeliver = new ConcurrentSortedLongPairSet(128, 2);
+    private final LongPairConsumer removeFromMessagesToRedeliver =
+            (ledgerId, entryId) -> messagesToRedeliver.remove(ledgerId, entryId);
+    protected static final long[] NO_MESSAGES_TO_REPLAY = new long[0];
     protected final RedeliveryTracker redeliveryTracker;
 
     private Optional<DelayedDeliveryTracker> delayedDeliveryTracker = Optional.empty();
@@ -111,6 +116,12 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
     protected final ServiceConfiguration serviceConfig;
     protected Optional<DispatchRateLimiter> dispatchRateLimiter = Optional.empty();
 
+    // Thread this subscription is pinned to when dispatching in the subscription thread, null otherwise
+    private final Executor dispatchMessagesThread;
+    // Set while a batch of read entries is queued on the subscription thread. No other read is issued meanwhile,
+    // otherwise the positions still to be replayed could be read (and sent) twice
+    private volatile boolean sendInProgress = false;
+
     protected enum ReadType {
         Normal, Replay
     }
@@ -127,6 +138,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 ? new InMemoryRedeliveryTracker()
                 : RedeliveryTrackerDisabled.REDELIVERY_TRACKER_DISABLED;
         this.readBatchSize = serviceConfig.getDispatcherMaxReadBatchSize();
+        this.dispatchMessagesThread = serviceConfig.isDispatcherDispatchMessagesInSubscriptionThread()
+                ? topic.getBrokerService().getTopicOrderedExecutor().chooseThread(name)
+                : null;
         this.initializeDispatchRateLimiterIfNeeded(Optional.empty());
     }
 
@@ -243,6 +257,10 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
     }
 
     public void readMoreEntries() {
+        if (sendInProgress) {
+            // the subscription thread will read more entries once it has sent the previous batch
+            return;
+        }
         // totalAvailablePermits may be updated by other threads
         int currentTotalAvailablePermits = totalAvailablePermits;
         if (currentTotalAvailablePermits > 0 && isAtleastOneConsumerAvailable()) {
@@ -253,24 +271,20 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 return;
             }
 
-            Set<PositionImpl> messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
+            long[] messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
 
-            if (!messagesToReplayNow.isEmpty()) {
+            if (messagesToReplayNow.length > 0) {
                 if (log.isDebugEnabled()) {
-                    log.debug("[{}] Schedule replay of {} messages for {} consumers", name, messagesToReplayNow.size(),
-                            consumerList.size());
+                    log.debug("[{}] Schedule replay of {} messages for {} consumers", name,
+                            messagesToReplayNow.length / 2, consumerList.size());
                 }
 
                 havePendingReplayRead = true;
-                Set<? extends Position> deletedMessages = topic.isDelayedDeliveryEnabled()
-                        ? asyncReplayEntriesInOrder(messagesToReplayNow) : asyncReplayEntries(messagesToReplayNow);
-                // clear already acked positions from replay bucket
-
-                deletedMessages.forEach(position -> messagesToRedeliver.remove(((PositionImpl) position).getLedgerId(),
-                        ((PositionImpl) position).getEntryId()));
+                // already acked positions are cleared from the replay bucket while scheduling the replay
+                int replayedMessages = asyncReplayEntries(messagesToReplayNow);
                 // if all the entries are acked-entries and cleared up from messagesToRedeliver, try to read
                 // next entries as readCompletedEntries-callback was never called
-                if ((messagesToReplayNow.size() - deletedMessages.size()) == 0) {
+                if (replayedMessages == 0) {
                     havePendingReplayRead = false;
                     readMoreEntries();
                 }
@@ -293,6 +307,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Consumer buffer is full, pause reading", name);
             }
+            cursor.pauseReadAhead();
         }
     }
 
@@ -374,12 +389,14 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return Math.max(messagesToRead, 1);
     }
 
-    protected Set<? extends Position> asyncReplayEntries(Set<? extends Position> positions) {
-        return cursor.asyncReplayEntries(positions, this, ReadType.Replay);
-    }
-
-    protected Set<? extends Position> asyncReplayEntriesInOrder(Set<? extends Position> positions) {
-        return cursor.asyncReplayEntries(positions, this, ReadType.Replay, true);
+    /**
+     * Replays the given positions, in order, and removes the ones already acknowledged from the replay bucket.
+     *
+     * @return the number of positions being replayed
+     */
+    protected int asyncReplayEntries(long[] ledgerAndEntryIds) {
+        return cursor.asyncReplayEntries(ledgerAndEntryIds, ledgerAndEntryIds.length / 2, this, ReadType.Replay,
+                removeFromMessagesToRedeliver);
     }
 
     @Override
@@ -487,6 +504,19 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             log.debug("[{}] Distributing {} messages to {} consumers", name, entries.size(), consumerList.size());
         }
 
+        if (dispatchMessagesThread != null) {
+            // the managed ledger callback thread is shared by all the subscriptions of the topic: only hand the
+            // entries over to the thread of this subscription, which filters and sends them to the consumers
+            sendInProgress = true;
+            dispatchMessagesThread.execute(safeRun(() -> sendMessagesToConsumersInSubscriptionThread(readType,
+                    entries)));
+        } else {
+            sendMessagesToConsumers(readType, entries);
+        }
+    }
+
+    protected synchronized void sendMessagesToConsumersInSubscriptionThread(ReadType readType, List<Entry> entries) {
+        sendInProgress = false;
         sendMessagesToConsumers(readType, entries);
     }
 
@@ -821,15 +851,28 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         }
     }
 
-    protected synchronized Set<PositionImpl> getMessagesToReplayNow(int maxMessagesToRead) {
+    /**
+     * Returns the positions to replay now, sorted, as pairs of ledger id and entry id.
+     */
+    protected synchronized long[] getMessagesToReplayNow(int maxMessagesToRead) {
         if (!messagesToRedeliver.isEmpty()) {
-            return messagesToRedeliver.items(maxMessagesToRead,
-                    (ledgerId, entryId) -> new PositionImpl(ledgerId, entryId));
+            // size the array for the messages actually waiting, a copy is only needed if some got acked meanwhile
+            int messagesToReplay = (int) Math.min(messagesToRedeliver.size(), maxMessagesToRead);
+            long[] ledgerAndEntryIds = new long[2 * messagesToReplay];
+            int count = messagesToRedeliver.items(messagesToReplay, ledgerAndEntryIds);
+            return count < messagesToReplay ? Arrays.copyOf(ledgerAndEntryIds, 2 * count) : ledgerAndEntryIds;
         } else if (delayedDeliveryTracker.isPresent() && delayedDeliveryTracker.get().hasMessageAvailable()) {
             delayedDeliveryTracker.get().resetTickTime(topic.getDelayedDeliveryTickTimeMillis());
-            return delayedDeliveryTracker.get().getScheduledMessages(maxMessagesToRead);
+            Set<PositionImpl> scheduledMessages = delayedDeliveryTracker.get().getScheduledMessages(maxMessagesToRead);
+            long[] ledgerAndEntryIds = new long[2 * scheduledMessages.size()];
+            int i = 0;
+            for (PositionImpl position : scheduledMessages) {
+                ledgerAndEntryIds[i++] = position.getLedgerId();
+                ledgerAndEntryIds[i++] = position.getEntryId();
+            }
+            return ledgerAndEntryIds;
         } else {
-            return Collections.emptySet();
+            return NO_MESSAGES_TO_REPLAY;
         }
     }
 
@@ -859,5 +902,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return topic;
     }
 
+    public ManagedCursor getCursor() {
+        return cursor;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(PersistentDispatcherMultipleConsumers.class);
 }
@@ -18,24 +18,25 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
-import io.netty.util.concurrent.FastThreadLocal;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
-import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.mledger.util.SafeRun;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.service.BrokerServiceException;
+import org.apache.pulsar.broker.service.ConsistentHashingSlotArrayStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.ConsistentHashingStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.EntryBatchIndexesAcks;
@@ -67,6 +68,18 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
     private final Set<Consumer> stuckConsumers;
     private final Set<Consumer> nextStuckConsumers;
 
+    // Entries grouped by consumer, only used while holding the dispatcher monitor
+    private final Map<Consumer, List<Entry>> groupedEntries = new LinkedHashMap<>();
+
+    // Whether the messages are sent to their consumers outside of the dispatcher monitor
+    private final boolean sendMessagesOutsideLock;
+    // Messages waiting to be sent to their consumers, outside of the dispatcher monitor
+    private final Queue<PendingMessages> pendingMessages = new ConcurrentLinkedQueue<>();
+    private static final AtomicIntegerFieldUpdater<PersistentStickyKeyDispatcherMultipleConsumers>
+            PENDING_MESSAGES_SENDERS_UPDATER = AtomicIntegerFieldUpdater
+            .newUpdater(PersistentStickyKeyDispatcherMultipleConsumers.class, "pendingMessagesSenders");
+    private volatile int pendingMessagesSenders = 0;
+
     PersistentStickyKeyDispatcherMultipleConsumers(PersistentTopic topic, ManagedCursor cursor,
             Subscription subscription, ServiceConfiguration conf, KeySharedMeta ksm) {
         super(topic, cursor, subscription);
@@ -75,10 +88,15 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         this.recentlyJoinedConsumers = allowOutOfOrderDelivery ? null : new LinkedHashMap<>();
         this.stuckConsumers = new HashSet<>();
         this.nextStuckConsumers = new HashSet<>();
+        this.sendMessagesOutsideLock = conf.isSubscriptionKeySharedSendMessagesOutsideDispatcherLock();
 
         switch (ksm.getKeySharedMode()) {
         case AUTO_SPLIT:
-            if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
+            if (conf.isSubscriptionKeySharedUseConsistentHashing()
+                    && conf.isSubscriptionKeySharedConsistentHashingUseSlotArray()) {
+                selector = new ConsistentHashingSlotArrayStickyKeyConsumerSelector(
+                        conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
+            } else if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
                 selector = new ConsistentHashingStickyKeyConsumerSelector(
                         conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
             } else {
@@ -133,13 +151,18 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         }
     }
 
-    private static final FastThreadLocal<Map<Consumer, List<Entry>>> localGroupedEntries =
-            new FastThreadLocal<Map<Consumer, List<Entry>>>() {
-                @Override
-                protected Map<Consumer, List<Entry>> initialValue() throws Exception {
-                    return new HashMap<>();
-                }
-            };
+    @Override
+    public void readEntriesComplete(List<Entry> entries, Object ctx) {
+        super.readEntriesComplete(entries, ctx);
+        // the entries were grouped by consumer while holding the dispatcher monitor, now send them without it
+        sendPendingMessages(true);
+    }
+
+    @Override
+    protected void sendMessagesToConsumersInSubscriptionThread(ReadType readType, List<Entry> entries) {
+        super.sendMessagesToConsumersInSubscriptionThread(readType, entries);
+        sendPendingMessages(true);
+    }
 
     @Override
     protected void sendMessagesToConsumers(ReadType readType, List<Entry> entries) {
@@ -161,11 +184,11 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
 
         nextStuckConsumers.clear();
 
-        final Map<Consumer, List<Entry>> groupedEntries = localGroupedEntries.get();
+        final Map<Consumer, List<Entry>> groupedEntries = this.groupedEntries;
         groupedEntries.clear();
 
         for (Entry entry : entries) {
-            Consumer c = selector.select(peekStickyKey(entry.getDataBuffer()));
+            Consumer c = selector.select(getStickyKeyHash(entry));
             groupedEntries.computeIfAbsent(c, k -> new ArrayList<>()).add(entry);
         }
 
@@ -210,14 +233,14 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
                 filterEntriesForConsumer(entriesWithSameKey, batchSizes, sendMessageInfo, batchIndexesAcks, cursor,
                         readType == ReadType.Replay);
 
-                consumer.sendMessages(entriesWithSameKey, batchSizes, batchIndexesAcks,
-                        sendMessageInfo.getTotalMessages(),
-                        sendMessageInfo.getTotalBytes(), sendMessageInfo.getTotalChunkedMessages(),
-                        getRedeliveryTracker()).addListener(future -> {
-                    if (future.isSuccess() && keyNumbers.decrementAndGet() == 0) {
-                        readMoreEntries();
-                    }
-                });
+                PendingMessages messages = new PendingMessages(consumer, entriesWithSameKey, batchSizes,
+                        batchIndexesAcks, sendMessageInfo.getTotalMessages(), sendMessageInfo.getTotalBytes(),
+                        sendMessageInfo.getTotalChunkedMessages(), keyNumbers);
+                if (sendMessagesOutsideLock) {
+                    pendingMessages.add(messages);
+                } else {
+                    messages.send();
+                }
 
                 TOTAL_AVAILABLE_PERMITS_UPDATER.getAndAdd(this,
                         -(sendMessageInfo.getTotalMessages() - batchIndexesAcks.getTotalAckedIndexCount()));
@@ -225,6 +248,7 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
                 totalBytesSent += sendMessageInfo.getTotalBytes();
             }
         }
+        groupedEntries.clear();
 
         // acquire message-dispatch permits for already delivered messages
         if (serviceConfig.isDispatchThrottlingOnNonBacklogConsumerEnabled() || !cursor.isActive()) {
@@ -261,6 +285,102 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
             // stuckConsumers for avoid stopping dispatch.
             readMoreEntries();
         }
+
+        if (!Thread.holdsLock(this)) {
+            sendPendingMessages(false);
+        }
+    }
+
+    /**
+     * Send the messages grouped by {@link #sendMessagesToConsumers(ReadType, List)} to their consumers, in the order
+     * they were grouped. Only one thread sends at a time, any other one just leaves its messages to it.
+     *
+     * @param dispatchIfLocked if the dispatcher monitor is still held by the caller, send the messages from the
+     *                         ordered executor thread of the dispatcher rather than not at all
+     */
+    private void sendPendingMessages(boolean dispatchIfLocked) {
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        if (Thread.holdsLock(this)) {
+            if (dispatchIfLocked) {
+                topic.getBrokerService().getTopicOrderedExecutor().executeOrdered(name,
+                        SafeRun.safeRun(() -> sendPendingMessages(false)));
+            }
+            return;
+        }
+        if (PENDING_MESSAGES_SENDERS_UPDATER.getAndIncrement(this) != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            PendingMessages messages;
+            while ((messages = pendingMessages.poll()) != null) {
+                try {
+                    messages.send();
+                } catch (Throwable t) {
+                    log.error("[{}] Failed to send messages to consumer {}", name, messages.consumer, t);
+                }
+            }
+            missed = PENDING_MESSAGES_SENDERS_UPDATER.addAndGet(this, -missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Called after sending messages to a consumer which may have been removed meanwhile. The removal has already
+     * scheduled the redelivery of the consumer pending acks, except of the ones added by this last send.
+     */
+    private synchronized void redeliverPendingAcksOfRemovedConsumer(Consumer consumer) {
+        if (consumerList.isEmpty() || consumer.getPendingAcks() == null) {
+            // the cursor is rewound when a consumer connects again
+            return;
+        }
+        consumer.getPendingAcks().forEach((ledgerId, entryId, batchSize, none) -> {
+            messagesToRedeliver.add(ledgerId, entryId);
+            getRedeliveryTracker().addIfAbsent(PositionImpl.get(ledgerId, entryId));
+        });
+        readMoreEntries();
+    }
+
+    /**
+     * Messages grouped for a consumer while holding the dispatcher monitor, waiting to be sent to it.
+     */
+    private final class PendingMessages {
+        private final Consumer consumer;
+        private final List<Entry> entries;
+        private final EntryBatchSizes batchSizes;
+        private final EntryBatchIndexesAcks batchIndexesAcks;
+        private final int totalMessages;
+        private final long totalBytes;
+        private final long totalChunkedMessages;
+        private final AtomicInteger keyNumbers;
+
+        PendingMessages(Consumer consumer, List<Entry> entries, EntryBatchSizes batchSizes,
+                        EntryBatchIndexesAcks batchIndexesAcks, int totalMessages, long totalBytes,
+                        long totalChunkedMessages, AtomicInteger keyNumbers) {
+            this.consumer = consumer;
+            this.entries = entries;
+            this.batchSizes = batchSizes;
+            this.batchIndexesAcks = batchIndexesAcks;
+            this.totalMessages = totalMessages;
+            this.totalBytes = totalBytes;
+            this.totalChunkedMessages = totalChunkedMessages;
+            this.keyNumbers = keyNumbers;
+        }
+
+        void send() {
+            consumer.sendMessages(entries, batchSizes, batchIndexesAcks, totalMessages, totalBytes,
+                    totalChunkedMessages, getRedeliveryTracker()).addListener(future -> {
+                if (future.isSuccess() && keyNumbers.decrementAndGet() == 0) {
+                    readMoreEntries();
+                }
+            });
+            // sendMessages() adds the entries to the pending acks of the consumer first, so either the consumer
+            // removal sees them, or the consumer is not part of the dispatcher anymore here
+            if (!consumerSet.contains(consumer)) {
+                redeliverPendingAcksOfRemovedConsumer(consumer);
+            }
+        }
     }
 
     private int getRestrictedMaxEntriesForConsumer(Consumer consumer, List<Entry> entries,
@@ -352,13 +472,13 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         return hasConsumerRemovedFromTheRecentJoinedConsumers;
     }
 
-    protected synchronized Set<PositionImpl> getMessagesToReplayNow(int maxMessagesToRead) {
+    protected synchronized long[] getMessagesToReplayNow(int maxMessagesToRead) {
         if (isDispatcherStuckOnReplays) {
             // If we're stuck on replay, we want to move forward reading on the topic (until the overall max-unacked
             // messages kicks in), instead of keep replaying the same old messages, since the consumer that these
             // messages are routing to might be busy at the moment
             this.isDispatcherStuckOnReplays = false;
-            return Collections.emptySet();
+            return NO_MESSAGES_TO_REPLAY;
         } else {
             return super.getMessagesToReplayNow(maxMessagesToRead);
         }
@@ -369,11 +489,6 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         return SubType.Key_Shared;
     }
 
-    @Override
-    protected Set<? extends Position> asyncReplayEntries(Set<? extends Position> positions) {
-        return cursor.asyncReplayEntries(positions, this, ReadType.Replay, true);
-    }
-
     public LinkedHashMap<Consumer, PositionImpl> getRecentlyJoinedConsumers() {
         return recentlyJoinedConsumers;
     }
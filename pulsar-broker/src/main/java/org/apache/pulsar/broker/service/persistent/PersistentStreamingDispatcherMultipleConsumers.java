@@ -19,12 +19,10 @@
 package org.apache.pulsar.broker.service.persistent;
 
 import com.google.common.collect.Lists;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
-import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
@@ -146,24 +144,20 @@ public class PersistentStreamingDispatcherMultipleConsumers extends PersistentDi
                 return;
             }
 
-            Set<PositionImpl> messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
+            long[] messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
 
-            if (!messagesToReplayNow.isEmpty()) {
+            if (messagesToReplayNow.length > 0) {
                 if (log.isDebugEnabled()) {
-                    log.debug("[{}] Schedule replay of {} messages for {} consumers", name, messagesToReplayNow.size(),
-                            consumerList.size());
+                    log.debug("[{}] Schedule replay of {} messages for {} consumers", name,
+                            messagesToReplayNow.length / 2, consumerList.size());
                 }
 
                 havePendingReplayRead = true;
-                Set<? extends Position> deletedMessages = topic.isDelayedDeliveryEnabled()
-                        ? asyncReplayEntriesInOrder(messagesToReplayNow) : asyncReplayEntries(messagesToReplayNow);
-                // clear already acked positions from replay bucket
-
-                deletedMessages.forEach(position -> messagesToRedeliver.remove(((PositionImpl) position).getLedgerId(),
-                        ((PositionImpl) position).getEntryId()));
+                // already acked positions are cleared from the replay bucket while scheduling the replay
+                int replayedMessages = asyncReplayEntries(messagesToReplayNow);
                 // if all the entries are acked-entries and cleared up from messagesToRedeliver, try to read
                 // next entries as readCompletedEntries-callback was never called
-                if ((messagesToReplayNow.size() - deletedMessages.size()) == 0) {
+                if (replayedMessages == 0) {
                     havePendingReplayRead = false;
                     readMoreEntries();
                 }
@@ -132,7 +132,7 @@ public class PersistentStreamingDispatcherSingleActiveConsumer extends Persisten
         Consumer currentConsumer = ACTIVE_CONSUMER_UPDATER.get(this);
 
         if (isKeyHashRangeFiltered) {
-            byte[] key = peekStickyKey(entry.getDataBuffer());
+            byte[] key = peekStickyKey(entry);
             Consumer consumer = stickyKeyConsumerSelector.select(key);
             // Skip the entry if it's not for current active consumer.
             if (consumer == null || currentConsumer != consumer) {
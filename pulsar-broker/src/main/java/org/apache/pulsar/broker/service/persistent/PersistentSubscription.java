@@ -839,6 +839,10 @@ public class PersistentSubscription implements Subscription {
         // cursor close handles pending delete (ack) operations
         closeSubscriptionFuture.thenCompose(v -> topic.unsubscribe(subName)).thenAccept(v -> {
             synchronized (this) {
+                if (dispatcher != null) {
+                    // Release the delayed messages tracked out of memory
+                    dispatcher.clearDelayedMessages();
+                }
                 (dispatcher != null ? dispatcher.close() : CompletableFuture.completedFuture(null)).thenRun(() -> {
                     log.info("[{}][{}] Successfully deleted subscription", topicName, subName);
                     deleteFuture.complete(null);
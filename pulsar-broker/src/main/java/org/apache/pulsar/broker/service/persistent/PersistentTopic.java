@@ -273,6 +273,7 @@ public class PersistentTopic extends AbstractTopic
                     .get(AdminResource.path(POLICIES, TopicName.get(topic).getNamespace()))
                     .orElseThrow(() -> new KeeperException.NoNodeException());
             this.isEncryptionRequired = policies.encryption_required;
+            this.compressionDictionaryIds = policies.compression_dictionary_ids;
 
             setSchemaCompatibilityStrategy(policies);
             isAllowAutoUpdateSchema = policies.is_allow_auto_update_schema;
@@ -394,6 +395,55 @@ public class PersistentTopic extends AbstractTopic
         }
     }
 
+    @Override
+    public void publishMessages(List<ByteBuf> headersAndPayloads, List<PublishContext> publishContexts) {
+        final int numMessages = headersAndPayloads.size();
+        pendingWriteOps.addAndGet(numMessages);
+        if (isFenced) {
+            for (PublishContext publishContext : publishContexts) {
+                publishContext.completed(new TopicFencedException("fenced"), -1, -1);
+                decrementPendingWriteOpsAndCheck();
+            }
+            return;
+        }
+
+        // The dedup checks are done in publish order, before any of the messages is handed to the managed ledger
+        List<ByteBuf> entries = new ArrayList<>(numMessages);
+        List<PublishContext> entryContexts = new ArrayList<>(numMessages);
+        int[] numberOfMessages = brokerService.isBrokerEntryMetadataEnabled() ? new int[numMessages] : null;
+        for (int i = 0; i < numMessages; i++) {
+            ByteBuf headersAndPayload = headersAndPayloads.get(i);
+            PublishContext publishContext = publishContexts.get(i);
+            if (isExceedMaximumMessageSize(headersAndPayload.readableBytes())) {
+                publishContext.completed(new NotAllowedException("Exceed maximum message size"), -1, -1);
+                decrementPendingWriteOpsAndCheck();
+                continue;
+            }
+
+            switch (messageDeduplication.isDuplicate(publishContext, headersAndPayload)) {
+                case NotDup:
+                    if (numberOfMessages != null) {
+                        numberOfMessages[entries.size()] = (int) publishContext.getNumberOfMessages();
+                    }
+                    entries.add(headersAndPayload);
+                    entryContexts.add(publishContext);
+                    break;
+                case Dup:
+                    // Immediately acknowledge duplicated message
+                    publishContext.completed(null, -1, -1);
+                    decrementPendingWriteOpsAndCheck();
+                    break;
+                default:
+                    publishContext.completed(new MessageDeduplication.MessageDupUnknownException(), -1, -1);
+                    decrementPendingWriteOpsAndCheck();
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            ledger.asyncAddEntries(entries, numberOfMessages, this, entryContexts);
+        }
+    }
+
     private void asyncAddEntry(ByteBuf headersAndPayload, PublishContext publishContext) {
         if (brokerService.isBrokerEntryMetadataEnabled()) {
             ledger.asyncAddEntry(headersAndPayload,
@@ -512,7 +562,7 @@ public class PersistentTopic extends AbstractTopic
     public CompletableFuture<Optional<Long>> addProducer(Producer producer,
             CompletableFuture<Void> producerQueuedFuture) {
         return super.addProducer(producer, producerQueuedFuture).thenApply(topicEpoch -> {
-            messageDeduplication.producerAdded(producer.getProducerName());
+            producer.setProducerSequenceIds(messageDeduplication.producerAdded(producer.getProducerName()));
 
             // Start replication producers if not already
             startReplProducers();
@@ -1034,6 +1084,8 @@ public class PersistentTopic extends AbstractTopic
                                 public void deleteLedgerComplete(Object ctx) {
                                     brokerService.removeTopicFromCache(topic);
 
+                                    messageDeduplication.delete();
+
                                     dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
 
                                     subscribeRateLimiter.ifPresent(SubscribeRateLimiter::close);
@@ -1125,6 +1177,8 @@ public class PersistentTopic extends AbstractTopic
 
                     replicatedSubscriptionsController.ifPresent(ReplicatedSubscriptionsController::close);
 
+                    messageDeduplication.close();
+
                     dispatchRateLimiter.ifPresent(DispatchRateLimiter::close);
 
                     subscribeRateLimiter.ifPresent(SubscribeRateLimiter::close);
@@ -1139,6 +1193,7 @@ public class PersistentTopic extends AbstractTopic
                 public void closeFailed(ManagedLedgerException exception, Object ctx) {
                     log.error("[{}] Failed to close managed ledger, proceeding anyway.", topic, exception);
                     brokerService.removeTopicFromCache(topic);
+                    messageDeduplication.close();
                     closeFuture.complete(null);
                 }
             }, null);
@@ -2123,6 +2178,7 @@ public class PersistentTopic extends AbstractTopic
                     data.encryption_required);
         }
         isEncryptionRequired = data.encryption_required;
+        compressionDictionaryIds = data.compression_dictionary_ids;
 
         setSchemaCompatibilityStrategy(data);
         isAllowAutoUpdateSchema = data.is_allow_auto_update_schema;
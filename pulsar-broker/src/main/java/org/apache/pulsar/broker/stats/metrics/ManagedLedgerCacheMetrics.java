@@ -23,6 +23,7 @@ import io.netty.buffer.PoolArenaMetric;
 import io.netty.buffer.PoolChunkListMetric;
 import io.netty.buffer.PoolChunkMetric;
 import io.netty.buffer.PooledByteBufAllocator;
+import java.util.Collections;
 import java.util.List;
 import org.apache.bookkeeper.mledger.ManagedLedgerFactoryMXBean;
 import org.apache.bookkeeper.mledger.impl.EntryCacheImpl;
@@ -53,6 +54,10 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_misses_rate", mlCacheStats.getCacheMissesRate());
         m.put("brk_ml_cache_hits_throughput", mlCacheStats.getCacheHitsThroughput());
         m.put("brk_ml_cache_misses_throughput", mlCacheStats.getCacheMissesThroughput());
+        m.put("brk_ml_disk_cache_used_size", mlCacheStats.getDiskCacheUsedSize());
+        m.put("brk_ml_disk_cache_hits_rate", mlCacheStats.getDiskCacheHitsRate());
+        m.put("brk_ml_disk_cache_misses_rate", mlCacheStats.getDiskCacheMissesRate());
+        m.put("brk_ml_disk_cache_hits_throughput", mlCacheStats.getDiskCacheHitsThroughput());
 
         PooledByteBufAllocator allocator = EntryCacheImpl.ALLOCATOR;
         long activeAllocations = 0;
@@ -89,8 +94,14 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_pool_active_allocations_normal", activeAllocationsNormal);
         m.put("brk_ml_cache_pool_active_allocations_huge", activeAllocationsHuge);
 
+        // The hit ratio is reported along with the eviction policy that produced it
+        Metrics policyMetrics = createMetrics(Collections.singletonMap("policy",
+                mlCacheStats.getCacheEvictionPolicy()));
+        policyMetrics.put("brk_ml_cache_hit_ratio", mlCacheStats.getCacheHitRatio());
+
         metrics.clear();
         metrics.add(m);
+        metrics.add(policyMetrics);
         return metrics;
 
     }
@@ -98,6 +98,8 @@ public class NamespaceStatsAggregator {
             stats.backlogSize = ml.getEstimatedBacklogSize();
             stats.offloadedStorageUsed = ml.getOffloadedSize();
             stats.backlogQuotaLimit = topic.getBacklogQuota().getLimit();
+            stats.deduplicationRecoveryDurationMs =
+                    ((PersistentTopic) topic).getMessageDeduplication().getRecoveryDurationMs();
 
             stats.storageWriteLatencyBuckets.addAll(mlStats.getInternalAddEntryLatencyBuckets());
             stats.storageWriteLatencyBuckets.refresh();
@@ -46,6 +46,8 @@ class TopicStats {
 
     long backlogQuotaLimit;
 
+    long deduplicationRecoveryDurationMs;
+
     StatsBuckets storageWriteLatencyBuckets = new StatsBuckets(ManagedLedgerMBeanImpl.ENTRY_LATENCY_BUCKETS_USEC);
     StatsBuckets storageLedgerWriteLatencyBuckets = new StatsBuckets(ManagedLedgerMBeanImpl.ENTRY_LATENCY_BUCKETS_USEC);
     StatsBuckets entrySizeBuckets = new StatsBuckets(ManagedLedgerMBeanImpl.ENTRY_SIZE_BUCKETS_BYTES);
@@ -80,6 +82,7 @@ class TopicStats {
         backlogSize = 0;
         offloadedStorageUsed = 0;
         backlogQuotaLimit = 0;
+        deduplicationRecoveryDurationMs = 0;
 
         replicationStats.clear();
         subscriptionStats.clear();
@@ -109,6 +112,8 @@ class TopicStats {
         metric(stream, cluster, namespace, topic, "pulsar_storage_backlog_size", stats.backlogSize);
         metric(stream, cluster, namespace, topic, "pulsar_storage_offloaded_size", stats.offloadedStorageUsed);
         metric(stream, cluster, namespace, topic, "pulsar_storage_backlog_quota_limit", stats.backlogQuotaLimit);
+        metric(stream, cluster, namespace, topic, "pulsar_deduplication_recovery_duration_ms",
+                stats.deduplicationRecoveryDurationMs);
 
         long[] latencyBuckets = stats.storageWriteLatencyBuckets.getBuckets();
         metric(stream, cluster, namespace, topic, "pulsar_storage_write_latency_le_0_5", latencyBuckets[0]);
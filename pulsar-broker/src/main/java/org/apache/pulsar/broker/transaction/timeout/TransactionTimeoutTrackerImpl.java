@@ -42,6 +42,9 @@ public class TransactionTimeoutTrackerImpl implements TransactionTimeoutTracker,
     private final Clock clock;
     private Timeout currentTimeout;
     private final static long INITIAL_TIMEOUT = 1L;
+    private static final int TIMED_OUT_BATCH_SIZE = 128;
+    // Coordinator and sequence ids of the timed out transactions
+    private final long[] timedOutTransactions = new long[2 * TIMED_OUT_BATCH_SIZE];
     // The timeout may wait time longer than the new transaction timeout time, so we should cancel the current timeout
     // and create a timeout wait time is the new transaction timeout time.
     private long nowTaskTimeoutTime = INITIAL_TIMEOUT;
@@ -102,20 +105,23 @@ public class TransactionTimeoutTrackerImpl implements TransactionTimeoutTracker,
     @Override
     public void run(Timeout timeout) {
         synchronized (this){
-            while (!priorityQueue.isEmpty()){
-                long timeoutTime = priorityQueue.peekN1();
-                long nowTime = clock.millis();
-                if (timeoutTime < nowTime){
-                    transactionMetadataStoreService.endTransactionForTimeout(new TxnID(priorityQueue.peekN2(),
-                            priorityQueue.peekN3()));
-                } else {
-                    currentTimeout = timer
-                            .newTimeout(this,
-                                    timeoutTime - clock.millis(), TimeUnit.MILLISECONDS);
-                    nowTaskTimeoutTime = nowTime + timeoutTime;
-                    break;
+            long nowTime = clock.millis();
+            int timedOut;
+            do {
+                // Remove the timed out transactions in batches
+                timedOut = priorityQueue.pop(nowTime - 1, TIMED_OUT_BATCH_SIZE, timedOutTransactions);
+                for (int i = 0; i < timedOut; i++) {
+                    transactionMetadataStoreService.endTransactionForTimeout(
+                            new TxnID(timedOutTransactions[2 * i], timedOutTransactions[2 * i + 1]));
                 }
-                priorityQueue.pop();
+            } while (timedOut == TIMED_OUT_BATCH_SIZE);
+
+            if (!priorityQueue.isEmpty()) {
+                long timeoutTime = priorityQueue.peekN1();
+                currentTimeout = timer
+                        .newTimeout(this,
+                                timeoutTime - clock.millis(), TimeUnit.MILLISECONDS);
+                nowTaskTimeoutTime = nowTime + timeoutTime;
             }
         }
     }
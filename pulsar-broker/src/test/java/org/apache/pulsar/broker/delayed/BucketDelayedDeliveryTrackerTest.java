@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Timer;
+
+import java.time.Clock;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Cleanup;
+
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BucketDelayedDeliveryTrackerTest {
+
+    /**
+     * Keeps the buckets in memory and counts the segments read.
+     */
+    private static class MockBucketSnapshotStorage implements BucketSnapshotStorage {
+        private final Map<Long, List<ByteBuf>> buckets = new TreeMap<>();
+        private List<Long> bucketIds = Collections.emptyList();
+        // Number of reads of a bucket to fail
+        private final Map<Long, Integer> failedReads = new HashMap<>();
+        private long nextBucketId = 0;
+        private int segmentsRead = 0;
+
+        @Override
+        public List<Long> getBucketIds() {
+            return bucketIds;
+        }
+
+        @Override
+        public CompletableFuture<Void> setBucketIds(List<Long> bucketIds) {
+            this.bucketIds = new ArrayList<>(bucketIds);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Long> createBucket(ByteBuf metadata, List<ByteBuf> segments) {
+            List<ByteBuf> entries = new ArrayList<>();
+            entries.add(metadata);
+            entries.addAll(segments);
+            buckets.put(nextBucketId, entries);
+            return CompletableFuture.completedFuture(nextBucketId++);
+        }
+
+        @Override
+        public CompletableFuture<ByteBuf> readBucketEntry(long bucketId, long entryId) {
+            if (entryId > 0) {
+                segmentsRead++;
+            }
+            if (failedReads.getOrDefault(bucketId, 0) > 0) {
+                failedReads.merge(bucketId, -1, Integer::sum);
+                return FutureUtil.failedFuture(new IOException("Failed to read bucket " + bucketId));
+            }
+            return CompletableFuture.completedFuture(buckets.get(bucketId).get((int) entryId).retainedDuplicate());
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteBucket(long bucketId) {
+            buckets.remove(bucketId).forEach(ByteBuf::release);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private PersistentDispatcherMultipleConsumers dispatcher;
+    private Timer timer;
+    private AtomicLong clockTime;
+    private Clock clock;
+    private MockBucketSnapshotStorage storage;
+
+    @BeforeMethod
+    public void setup() {
+        dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        timer = mock(Timer.class);
+        clockTime = new AtomicLong();
+        clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+        storage = new MockBucketSnapshotStorage();
+    }
+
+    @Test
+    public void test() throws Exception {
+        // Buckets of 10 messages, in segments of 4 messages
+        @Cleanup
+        BucketDelayedDeliveryTracker tracker =
+                new BucketDelayedDeliveryTracker(dispatcher, timer, 1, clock, storage, 10, 4, 1000);
+
+        for (int i = 1; i <= 9; i++) {
+            assertTrue(tracker.addMessage(i, i, i * 100));
+        }
+        assertTrue(storage.getBucketIds().isEmpty());
+
+        assertTrue(tracker.addMessage(10, 10, 1000));
+        assertEquals(storage.getBucketIds(), Collections.singletonList(0L));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 10);
+        assertTrue(tracker.addMessage(11, 11, 150));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 11);
+
+        // Only the first segment is loaded
+        clockTime.set(200);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getScheduledMessages(10),
+                positions(1, 11, 2));
+        assertEquals(storage.segmentsRead, 1);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 8);
+
+        clockTime.set(1000);
+        assertEquals(tracker.getScheduledMessages(10), positions(3, 4, 5, 6, 7, 8, 9, 10));
+        assertEquals(storage.segmentsRead, 3);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+
+        // The bucket is deleted once delivered
+        assertTrue(storage.getBucketIds().isEmpty());
+        assertTrue(storage.buckets.isEmpty());
+        assertFalse(tracker.hasMessageAvailable());
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        BucketDelayedDeliveryTracker tracker =
+                new BucketDelayedDeliveryTracker(dispatcher, timer, 1, clock, storage, 5, 4, 1000);
+        for (int i = 1; i <= 7; i++) {
+            assertTrue(tracker.addMessage(i, i, i * 100));
+        }
+        tracker.close();
+
+        // The messages are read again by the dispatcher of the new owner of the topic
+        @Cleanup
+        BucketDelayedDeliveryTracker recoveredTracker =
+                new BucketDelayedDeliveryTracker(dispatcher, timer, 1, clock, storage, 5, 4, 1000);
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 5);
+        for (int i = 1; i <= 7; i++) {
+            assertTrue(recoveredTracker.addMessage(i, i, i * 100));
+        }
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 7);
+
+        clockTime.set(1000);
+        assertEquals(recoveredTracker.getScheduledMessages(10), positions(1, 2, 3, 4, 5, 6, 7));
+        assertTrue(storage.getBucketIds().isEmpty());
+    }
+
+    @Test
+    public void testRecoveryWithFailedBucket() throws Exception {
+        BucketDelayedDeliveryTracker tracker =
+                new BucketDelayedDeliveryTracker(dispatcher, timer, 1, clock, storage, 5, 4, 1000);
+        for (int i = 1; i <= 15; i++) {
+            assertTrue(tracker.addMessage(i, i, i * 100));
+        }
+        tracker.close();
+        assertEquals(storage.getBucketIds(), Arrays.asList(0L, 1L, 2L));
+
+        // The first bucket is read on the second attempt, the second one can't be read
+        storage.failedReads.put(0L, 1);
+        storage.failedReads.put(1L, Integer.MAX_VALUE);
+        @Cleanup
+        BucketDelayedDeliveryTracker recoveredTracker =
+                new BucketDelayedDeliveryTracker(dispatcher, timer, 1, clock, storage, 5, 4, 1000);
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 10);
+        assertEquals(storage.getBucketIds(), Arrays.asList(0L, 2L));
+        assertEquals(storage.buckets.keySet(), new TreeSet<>(Arrays.asList(0L, 2L)));
+
+        // The messages of the failed bucket are tracked again when the dispatcher reads them
+        for (int i = 1; i <= 15; i++) {
+            assertTrue(recoveredTracker.addMessage(i, i, i * 100));
+        }
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 15);
+        clockTime.set(1500);
+        assertEquals(recoveredTracker.getScheduledMessages(20),
+                positions(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        @Cleanup
+        BucketDelayedDeliveryTracker tracker =
+                new BucketDelayedDeliveryTracker(dispatcher, timer, 1, clock, storage, 5, 4, 1000);
+        for (int i = 1; i <= 12; i++) {
+            assertTrue(tracker.addMessage(i, i, i * 100));
+        }
+        assertEquals(storage.getBucketIds().size(), 2);
+        assertEquals(tracker.getNumberOfDelayedMessages(), 12);
+
+        tracker.clear();
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertTrue(storage.getBucketIds().isEmpty());
+        assertTrue(storage.buckets.isEmpty());
+    }
+
+    private static Set<PositionImpl> positions(long... ids) {
+        Set<PositionImpl> positions = new TreeSet<>();
+        for (long id : ids) {
+            positions.add(new PositionImpl(id, id));
+        }
+        return positions;
+    }
+}
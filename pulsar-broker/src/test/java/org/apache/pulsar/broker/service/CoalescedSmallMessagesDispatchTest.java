@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.broker.BrokerTestUtil;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CoalescedSmallMessagesDispatchTest extends ProducerConsumerBase {
+
+    private static final int COALESCE_MAX_BYTES = 1024;
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        conf.setDispatcherCoalesceSmallMessagesMaxBytes(COALESCE_MAX_BYTES);
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @Override
+    @AfterClass(alwaysRun = true)
+    public void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @DataProvider(name = "subscriptionTypes")
+    public Object[][] subscriptionTypes() {
+        return new Object[][] { { SubscriptionType.Exclusive }, { SubscriptionType.Shared } };
+    }
+
+    private static byte[] payload(int i) {
+        // mostly small messages, with a few bigger than the coalescing limit in between
+        byte[] payload = new byte[i % 10 == 0 ? COALESCE_MAX_BYTES * 3 : 1 + i % 100];
+        Arrays.fill(payload, (byte) i);
+        return payload;
+    }
+
+    @Test(dataProvider = "subscriptionTypes")
+    public void testSmallAndLargeMessages(SubscriptionType subscriptionType) throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/coalesced-dispatch");
+        final int numMessages = 1000;
+
+        @Cleanup
+        Consumer<byte[]> consumer = pulsarClient.newConsumer()
+                .topic(topic)
+                .subscriptionName("sub")
+                .subscriptionType(subscriptionType)
+                .subscribe();
+
+        @Cleanup
+        Producer<byte[]> producer = pulsarClient.newProducer()
+                .topic(topic)
+                .enableBatching(false)
+                .create();
+        MessageIdImpl[] messageIds = new MessageIdImpl[numMessages];
+        for (int i = 0; i < numMessages; i++) {
+            messageIds[i] = (MessageIdImpl) producer.send(payload(i));
+        }
+
+        for (int i = 0; i < numMessages; i++) {
+            Message<byte[]> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(msg.getMessageId(), messageIds[i]);
+            assertEquals(msg.getData(), payload(i));
+            consumer.acknowledge(msg);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerAssignException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConsistentHashingSlotArrayStickyKeyConsumerSelectorTest {
+
+    private static Consumer newConsumer(String name) {
+        Consumer consumer = mock(Consumer.class);
+        when(consumer.consumerName()).thenReturn(name);
+        return consumer;
+    }
+
+    @Test
+    public void testConsumerSelect() throws ConsumerAssignException {
+        ConsistentHashingSlotArrayStickyKeyConsumerSelector selector =
+                new ConsistentHashingSlotArrayStickyKeyConsumerSelector(100);
+        byte[] key = "anyKey".getBytes();
+        Assert.assertNull(selector.select(key));
+
+        Consumer consumer1 = newConsumer("c1");
+        selector.addConsumer(consumer1);
+        Assert.assertEquals(selector.select(key), consumer1);
+
+        List<Consumer> consumers = new ArrayList<>();
+        consumers.add(consumer1);
+        for (int i = 2; i <= 4; i++) {
+            Consumer consumer = newConsumer("c" + i);
+            consumers.add(consumer);
+            selector.addConsumer(consumer);
+        }
+
+        // keys are evenly spread, and only the keys of a removed consumer move to other consumers
+        final int n = 10000;
+        Random random = new Random(0);
+        int[] hashes = new int[n];
+        Consumer[] selected = new Consumer[n];
+        Map<Consumer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            hashes[i] = random.nextInt(Integer.MAX_VALUE);
+            selected[i] = selector.select(hashes[i]);
+            counts.merge(selected[i], 1, Integer::sum);
+        }
+        Assert.assertEquals(counts.keySet().size(), consumers.size());
+        for (int count : counts.values()) {
+            Assert.assertTrue(count > n / consumers.size() * 0.6, "unbalanced " + counts);
+        }
+
+        Consumer removed = consumers.get(2);
+        selector.removeConsumer(removed);
+        for (int i = 0; i < n; i++) {
+            Consumer consumer = selector.select(hashes[i]);
+            Assert.assertNotEquals(consumer, removed);
+            if (selected[i] != removed) {
+                Assert.assertEquals(consumer, selected[i]);
+            }
+        }
+
+        for (Consumer consumer : consumers) {
+            selector.removeConsumer(consumer);
+        }
+        Assert.assertNull(selector.select(key));
+    }
+
+    @Test
+    public void testGetConsumerKeyHashRanges() throws ConsumerAssignException {
+        ConsistentHashingSlotArrayStickyKeyConsumerSelector selector =
+                new ConsistentHashingSlotArrayStickyKeyConsumerSelector(3, 64);
+        Assert.assertTrue(selector.getConsumerKeyHashRanges().isEmpty());
+        selector.addConsumer(newConsumer("consumer1"));
+        selector.addConsumer(newConsumer("consumer2"));
+
+        // the ranges cover all the slots, and each slot is served by the consumer its range is reported for
+        boolean[] covered = new boolean[64];
+        for (Map.Entry<String, List<String>> entry : selector.getConsumerKeyHashRanges().entrySet()) {
+            for (String range : entry.getValue()) {
+                String[] bounds = range.substring(1, range.length() - 1).split(", ");
+                for (int slot = Integer.parseInt(bounds[0]); slot <= Integer.parseInt(bounds[1]); slot++) {
+                    Assert.assertFalse(covered[slot]);
+                    covered[slot] = true;
+                    Assert.assertEquals(selector.select(slot).consumerName(), entry.getKey());
+                }
+            }
+        }
+        for (boolean slotCovered : covered) {
+            Assert.assertTrue(slotCovered);
+        }
+    }
+}
@@ -21,11 +21,14 @@ package org.apache.pulsar.broker.service;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -36,6 +39,31 @@ import org.testng.annotations.Test;
 
 public class ConsistentHashingStickyKeyConsumerSelectorTest {
 
+    @Test
+    public void testSelectByHashMatchesHashRing() throws ConsumerAssignException {
+        ConsistentHashingStickyKeyConsumerSelector selector = new ConsistentHashingStickyKeyConsumerSelector(20);
+        Assert.assertNull(selector.select(0));
+        List<Consumer> consumers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Consumer consumer = mock(Consumer.class);
+            when(consumer.consumerName()).thenReturn("c" + i);
+            consumers.add(consumer);
+            selector.addConsumer(consumer);
+        }
+        selector.removeConsumer(consumers.get(2));
+
+        Random random = new Random(0);
+        TreeMap<Integer, List<Consumer>> hashRing = new TreeMap<>(selector.getRangeConsumer());
+        for (int i = 0; i < 10000; i++) {
+            int hash = i < 2 ? (i == 0 ? 0 : Integer.MAX_VALUE) : random.nextInt(Integer.MAX_VALUE);
+            Map.Entry<Integer, List<Consumer>> point = hashRing.ceilingEntry(hash);
+            List<Consumer> pointConsumers = point != null ? point.getValue() : hashRing.firstEntry().getValue();
+            Assert.assertEquals(selector.select(hash), pointConsumers.get(hash % pointConsumers.size()));
+        }
+        byte[] key = "key".getBytes();
+        Assert.assertEquals(selector.select(key), selector.select(StickyKeyConsumerSelector.makeStickyKeyHash(key)));
+    }
+
     @Test
     public void testConsumerSelect() throws ConsumerAssignException {
 
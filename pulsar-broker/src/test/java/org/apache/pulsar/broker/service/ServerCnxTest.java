@@ -22,12 +22,16 @@ import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.createMo
 import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.createMockZooKeeper;
 import static org.apache.pulsar.broker.cache.ConfigurationCacheService.POLICIES;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.matches;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
@@ -651,6 +655,39 @@ public class ServerCnxTest {
         channel.finish();
     }
 
+    @Test(timeOut = 30000)
+    public void testAggregatedPipelinedSends() throws Exception {
+        svcConfig.setAggregatePipelinedSendsEnabled(true);
+        resetChannel();
+        setChannelConnected();
+
+        ByteBuf clientCommand = Commands.newProducer(successTopicName, 1 /* producer id */, 1 /* request id */,
+                "prod-name", Collections.emptyMap());
+        channel.writeInbound(clientCommand);
+        assertTrue(getResponse() instanceof CommandProducerSuccess);
+
+        // Both sends are received in a single read
+        ByteBuf[] sends = new ByteBuf[2];
+        for (int i = 0; i < sends.length; i++) {
+            MessageMetadata messageMetadata = new MessageMetadata()
+                    .setPublishTime(System.currentTimeMillis())
+                    .setProducerName("prod-name")
+                    .setSequenceId(i);
+            sends[i] = ByteBufPair.coalesce(Commands.newSend(1, i, 1, ChecksumType.None, messageMetadata,
+                    Unpooled.buffer(1024)));
+        }
+        channel.writeInbound(Unpooled.wrappedBuffer(sends));
+
+        // One append for both messages, with a receipt for each of them
+        verify(ledgerMock, times(1)).asyncAddEntries(anyList(), any(), any(AddEntryCallback.class), anyList());
+        for (int i = 0; i < sends.length; i++) {
+            Object response = getResponse();
+            assertTrue(response instanceof CommandSendReceipt);
+            assertEquals(((CommandSendReceipt) response).getSequenceId(), i);
+        }
+        channel.finish();
+    }
+
     @Test(timeOut = 30000)
     public void testUseSameProducerName() throws Exception {
         resetChannel();
@@ -1538,6 +1575,7 @@ public class ServerCnxTest {
                 return null;
             }
         }).when(ledgerMock).asyncAddEntry(any(ByteBuf.class), any(AddEntryCallback.class), any());
+        doCallRealMethod().when(ledgerMock).asyncAddEntries(anyList(), any(), any(AddEntryCallback.class), anyList());
 
         doAnswer(new Answer<Object>() {
             @Override
@@ -80,13 +80,13 @@ public class MessageDuplicationTest {
         MessageDeduplication.MessageDupStatus status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         assertEquals(status, MessageDeduplication.MessageDupStatus.NotDup);
 
-        Long lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        Long lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 0);
 
         status = messageDeduplication.isDuplicate(publishContext2, byteBuf2);
         assertEquals(status, MessageDeduplication.MessageDupStatus.NotDup);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName2);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName2);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
 
@@ -94,7 +94,7 @@ public class MessageDuplicationTest {
         publishContext1 = getPublishContext(producerName1, 1);
         status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         assertEquals(status, MessageDeduplication.MessageDupStatus.NotDup);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
 
@@ -102,7 +102,7 @@ public class MessageDuplicationTest {
         publishContext1 = getPublishContext(producerName1, 5);
         status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         assertEquals(status, MessageDeduplication.MessageDupStatus.NotDup);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
 
@@ -111,37 +111,37 @@ public class MessageDuplicationTest {
         status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         // should expect unknown because highestSequencePersisted is empty
         assertEquals(status, MessageDeduplication.MessageDupStatus.Unknown);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
 
         // update highest sequence persisted
-        messageDeduplication.highestSequencedPersisted.put(producerName1, 0L);
+        messageDeduplication.setHighestSequencedPersisted(producerName1, 0L);
 
         byteBuf1 = getMessage(producerName1, 0);
         publishContext1 = getPublishContext(producerName1, 0);
         status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         // now that highestSequencedPersisted, message with seqId of zero can be classified as a dup
         assertEquals(status, MessageDeduplication.MessageDupStatus.Dup);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
 
         // update highest sequence persisted
-        messageDeduplication.highestSequencedPushed.put(producerName1, 0L);
-        messageDeduplication.highestSequencedPersisted.put(producerName1, 0L);
+        messageDeduplication.setHighestSequencedPushed(producerName1, 0L);
+        messageDeduplication.setHighestSequencedPersisted(producerName1, 0L);
         byteBuf1 = getMessage(producerName1, 0);
         publishContext1 = getPublishContext(producerName1, 1, 5);
         status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         assertEquals(status, MessageDeduplication.MessageDupStatus.NotDup);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertNotNull(lastSequenceIdPushed);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
 
         publishContext1 = getPublishContext(producerName1, 4, 8);
         status = messageDeduplication.isDuplicate(publishContext1, byteBuf1);
         assertEquals(status, MessageDeduplication.MessageDupStatus.Unknown);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertNotNull(lastSequenceIdPushed);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
     }
@@ -191,20 +191,20 @@ public class MessageDuplicationTest {
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         persistentTopic.addComplete(new PositionImpl(0, 1), null, publishContext1);
         verify(managedLedger, times(1)).asyncAddEntry(any(ByteBuf.class), any(), any());
-        Long lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        Long lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 0);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 0);
 
         persistentTopic.publishMessage(byteBuf2, publishContext2);
         persistentTopic.addComplete(new PositionImpl(0, 2), null, publishContext2);
         verify(managedLedger, times(2)).asyncAddEntry(any(ByteBuf.class), any(), any());
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName2);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName2);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName2);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName2);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
 
@@ -213,10 +213,10 @@ public class MessageDuplicationTest {
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         persistentTopic.addComplete(new PositionImpl(0, 3), null, publishContext1);
         verify(managedLedger, times(3)).asyncAddEntry(any(ByteBuf.class), any(), any());
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
 
@@ -225,10 +225,10 @@ public class MessageDuplicationTest {
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         persistentTopic.addComplete(new PositionImpl(0, 4), null, publishContext1);
         verify(managedLedger, times(4)).asyncAddEntry(any(ByteBuf.class), any(), any());
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
 
@@ -237,7 +237,7 @@ public class MessageDuplicationTest {
         publishContext1 = getPublishContext(producerName1, 0);
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         verify(managedLedger, times(4)).asyncAddEntry(any(ByteBuf.class), any(), any());
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
         verify(publishContext1, times(1)).completed(eq(null), eq(-1L), eq(-1L));
@@ -248,10 +248,10 @@ public class MessageDuplicationTest {
         // don't complete message
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         verify(managedLedger, times(5)).asyncAddEntry(any(ByteBuf.class), any(), any());
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 6);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 5);
 
@@ -273,15 +273,14 @@ public class MessageDuplicationTest {
 
         persistentTopic.addFailed(new ManagedLedgerException("test"), publishContext1);
         // check highestSequencedPushed is reset
-        assertEquals(messageDeduplication.highestSequencedPushed.size(), 2);
-        assertEquals(messageDeduplication.highestSequencedPersisted.size(), 2);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        assertEquals(messageDeduplication.getNumberOfTrackedProducers(), 2);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertEquals(lastSequenceIdPushed.longValue(), 6);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName1);
         assertEquals(lastSequenceIdPushed.longValue(), 6);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName2);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName2);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName2);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName2);
         assertEquals(lastSequenceIdPushed.longValue(), 1);
         verify(messageDeduplication, times(1)).resetHighestSequenceIdPushed();
 
@@ -291,7 +290,7 @@ public class MessageDuplicationTest {
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         verify(managedLedger, times(6)).asyncAddEntry(any(ByteBuf.class), any(), any());
         verify(publishContext1, times(1)).completed(eq(null), eq(-1L), eq(-1L));
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 6);
 
@@ -301,15 +300,87 @@ public class MessageDuplicationTest {
         persistentTopic.publishMessage(byteBuf1, publishContext1);
         verify(managedLedger, times(7)).asyncAddEntry(any(ByteBuf.class), any(), any());
         persistentTopic.addComplete(new PositionImpl(0, 5), null, publishContext1);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPushed.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPushed(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 8);
-        lastSequenceIdPushed = messageDeduplication.highestSequencedPersisted.get(producerName1);
+        lastSequenceIdPushed = messageDeduplication.getHighestSequencedPersisted(producerName1);
         assertTrue(lastSequenceIdPushed != null);
         assertEquals(lastSequenceIdPushed.longValue(), 8);
 
     }
 
+    @Test
+    public void testProducerSequenceIdsResolvedAgainAfterPurge() throws Exception {
+        PulsarService pulsarService = mock(PulsarService.class);
+        ServiceConfiguration serviceConfiguration = new ServiceConfiguration();
+        serviceConfiguration.setBrokerDeduplicationEntriesInterval(BROKER_DEDUPLICATION_ENTRIES_INTERVAL);
+        serviceConfiguration.setBrokerDeduplicationMaxNumberOfProducers(BROKER_DEDUPLICATION_MAX_NUMBER_PRODUCERS);
+        serviceConfiguration.setBrokerDeduplicationProducerInactivityTimeoutMinutes(0);
+        serviceConfiguration.setReplicatorPrefix(REPLICATOR_PREFIX);
+
+        doReturn(serviceConfiguration).when(pulsarService).getConfiguration();
+        MessageDeduplication messageDeduplication = spy(new MessageDeduplication(pulsarService,
+                mock(PersistentTopic.class), mock(ManagedLedger.class)));
+        doReturn(true).when(messageDeduplication).isEnabled();
+
+        String producerName = "producer1";
+        MessageDeduplication.ProducerSequenceIds[] producerSequenceIds =
+                new MessageDeduplication.ProducerSequenceIds[] {messageDeduplication.producerAdded(producerName)};
+        assertNotNull(producerSequenceIds[0]);
+        Topic.PublishContext publishContext = spy(new Topic.PublishContext() {
+            @Override
+            public String getProducerName() {
+                return producerName;
+            }
+
+            @Override
+            public long getSequenceId() {
+                return 0;
+            }
+
+            @Override
+            public MessageDeduplication.ProducerSequenceIds getProducerSequenceIds() {
+                return producerSequenceIds[0];
+            }
+
+            @Override
+            public void setProducerSequenceIds(MessageDeduplication.ProducerSequenceIds sequenceIds) {
+                producerSequenceIds[0] = sequenceIds;
+            }
+
+            @Override
+            public void completed(Exception e, long ledgerId, long entryId) {
+            }
+        });
+
+        // The sequence ids carried by the context are used as is
+        MessageDeduplication.ProducerSequenceIds resolved = producerSequenceIds[0];
+        assertEquals(messageDeduplication.isDuplicate(publishContext, getMessage(producerName, 0)),
+                MessageDeduplication.MessageDupStatus.NotDup);
+        assertEquals(messageDeduplication.getHighestSequencedPushed(producerName).longValue(), 0);
+        verify(publishContext, times(0)).setProducerSequenceIds(any());
+
+        // A producer that connected again is not purged, even if it was inactive for long enough before
+        messageDeduplication.producerRemoved(producerName);
+        Thread.sleep(10);
+        assertTrue(messageDeduplication.producerAdded(producerName) == resolved);
+        messageDeduplication.purgeInactiveProducers();
+        assertEquals(messageDeduplication.getNumberOfTrackedProducers(), 1);
+        assertEquals(messageDeduplication.getHighestSequencedPushed(producerName).longValue(), 0);
+
+        // Once purged, the producer starts from scratch with new sequence ids
+        messageDeduplication.producerRemoved(producerName);
+        Thread.sleep(10);
+        messageDeduplication.purgeInactiveProducers();
+        assertEquals(messageDeduplication.getNumberOfTrackedProducers(), 0);
+
+        assertEquals(messageDeduplication.isDuplicate(publishContext, getMessage(producerName, 0)),
+                MessageDeduplication.MessageDupStatus.NotDup);
+        assertNotNull(producerSequenceIds[0]);
+        assertTrue(producerSequenceIds[0] != resolved);
+        assertEquals(messageDeduplication.getNumberOfTrackedProducers(), 1);
+    }
+
     public ByteBuf getMessage(String producerName, long seqId) {
         MessageMetadata messageMetadata = new MessageMetadata()
                 .setProducerName(producerName)
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.broker.BrokerTestUtil;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class PersistentDispatcherSubscriptionThreadTest extends ProducerConsumerBase {
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        conf.setDispatcherDispatchMessagesInSubscriptionThread(true);
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @Override
+    @AfterClass(alwaysRun = true)
+    public void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @DataProvider(name = "subscriptionTypes")
+    public Object[][] subscriptionTypes() {
+        return new Object[][] { { SubscriptionType.Shared }, { SubscriptionType.Key_Shared } };
+    }
+
+    @Test(dataProvider = "subscriptionTypes")
+    public void testDispatchToManySubscriptions(SubscriptionType subscriptionType) throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/subscription-thread");
+        final int numSubscriptions = 8;
+        final int numMessages = 500;
+
+        List<Consumer<Integer>> consumers = new ArrayList<>();
+        for (int i = 0; i < numSubscriptions; i++) {
+            consumers.add(pulsarClient.newConsumer(Schema.INT32)
+                    .topic(topic)
+                    .subscriptionName("sub-" + i)
+                    .subscriptionType(subscriptionType)
+                    .receiverQueueSize(10)
+                    .subscribe());
+        }
+
+        @Cleanup
+        Producer<Integer> producer = pulsarClient.newProducer(Schema.INT32)
+                .topic(topic)
+                .enableBatching(false)
+                .create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.newMessage().key("key-" + (i % 10)).value(i).sendAsync();
+        }
+        producer.flush();
+
+        // every subscription gets the whole topic, in order, from its own dispatch thread
+        for (Consumer<Integer> consumer : consumers) {
+            for (int i = 0; i < numMessages; i++) {
+                Message<Integer> msg = consumer.receive(10, TimeUnit.SECONDS);
+                assertNotNull(msg);
+                assertEquals(msg.getValue().intValue(), i);
+                consumer.acknowledge(msg);
+            }
+            assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+            consumer.close();
+        }
+    }
+
+    @Test(dataProvider = "subscriptionTypes")
+    public void testRedeliveryInSubscriptionThread(SubscriptionType subscriptionType) throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/subscription-thread");
+        final int numMessages = 100;
+
+        @Cleanup
+        Consumer<Integer> consumer = pulsarClient.newConsumer(Schema.INT32)
+                .topic(topic)
+                .subscriptionName("sub")
+                .subscriptionType(subscriptionType)
+                .subscribe();
+
+        @Cleanup
+        Producer<Integer> producer = pulsarClient.newProducer(Schema.INT32)
+                .topic(topic)
+                .enableBatching(false)
+                .create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.newMessage().key("key-" + (i % 10)).value(i).send();
+        }
+
+        // receive everything without acknowledging, then ask for all of it again
+        Set<Integer> received = new HashSet<>();
+        for (int i = 0; i < numMessages; i++) {
+            Message<Integer> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            received.add(msg.getValue());
+        }
+        assertEquals(received.size(), numMessages);
+
+        consumer.redeliverUnacknowledgedMessages();
+
+        received.clear();
+        for (int i = 0; i < numMessages; i++) {
+            Message<Integer> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            received.add(msg.getValue());
+            consumer.acknowledge(msg);
+        }
+        assertEquals(received.size(), numMessages);
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+    }
+}
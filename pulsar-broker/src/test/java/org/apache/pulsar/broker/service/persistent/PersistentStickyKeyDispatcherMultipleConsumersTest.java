@@ -45,6 +45,7 @@ import org.testng.annotations.Test;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -53,6 +54,7 @@ import static org.apache.pulsar.common.protocol.Commands.serializeMetadataAndPay
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 @PrepareForTest({ DispatchRateLimiter.class })
@@ -169,6 +171,44 @@ public class PersistentStickyKeyDispatcherMultipleConsumersTest {
         Assert.assertEquals(allTotalMessagesCaptor.get(0).intValue(), 5);
     }
 
+    @Test
+    public void testSendMessagesHoldingDispatcherMonitorByDefault() throws Exception {
+        assertEquals(sendMessagesAndCheckMonitor(), Collections.singletonList(true));
+    }
+
+    @Test
+    public void testSendMessagesWithoutHoldingDispatcherMonitor() throws Exception {
+        doReturn(true).when(configMock).isSubscriptionKeySharedSendMessagesOutsideDispatcherLock();
+        persistentDispatcher = new PersistentStickyKeyDispatcherMultipleConsumers(
+                topicMock, cursorMock, subscriptionMock, configMock,
+                new KeySharedMeta().setKeySharedMode(KeySharedMode.AUTO_SPLIT));
+        assertEquals(sendMessagesAndCheckMonitor(), Collections.singletonList(false));
+    }
+
+    private List<Boolean> sendMessagesAndCheckMonitor() throws Exception {
+        persistentDispatcher.addConsumer(consumerMock);
+        persistentDispatcher.consumerFlow(consumerMock, 1000);
+
+        List<Boolean> sentWhileHoldingMonitor = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            sentWhileHoldingMonitor.add(Thread.holdsLock(persistentDispatcher));
+            return channelMock;
+        }).when(consumerMock).sendMessages(anyList(), any(EntryBatchSizes.class), any(EntryBatchIndexesAcks.class),
+                anyInt(), anyLong(), anyLong(), any(RedeliveryTracker.class));
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            entries.add(EntryImpl.create(1, i, createMessage("message" + i, i, "key" + i)));
+        }
+        persistentDispatcher.readEntriesComplete(entries, PersistentStickyKeyDispatcherMultipleConsumers.ReadType.Normal);
+
+        // the key hashes are cached on the entries, and all the keys go to the single consumer in one send
+        for (Entry entry : entries) {
+            assertTrue(((EntryImpl) entry).hasStickyKeyHash());
+        }
+        return sentWhileHoldingMonitor;
+    }
+
     @Test(timeOut = 10000)
     public void testSendMessage() {
         KeySharedMeta keySharedMeta = new KeySharedMeta().setKeySharedMode(KeySharedMode.STICKY);
@@ -28,9 +28,11 @@ import lombok.Cleanup;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.service.Topic;
+import org.apache.pulsar.client.api.Consumer;
 import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.ProducerConsumerBase;
 import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SubscriptionInitialPosition;
 import org.apache.pulsar.common.naming.TopicName;
 import org.junit.Assert;
 import org.testng.annotations.AfterMethod;
@@ -183,8 +185,7 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
                 fail("should not fail");
             }
             assertEquals(messageDeduplication.getLastPublishedSequenceId(producerName), -1);
-            assertEquals(messageDeduplication.highestSequencedPersisted.size(), 0);
-            assertEquals(messageDeduplication.highestSequencedPushed.size(), 0);
+            assertEquals(messageDeduplication.getNumberOfTrackedProducers(), 0);
         }).get();
     }
 
@@ -194,12 +195,12 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
             if (ex != null) {
                 fail("should not fail");
             }
-            assertNotNull(messageDeduplication.highestSequencedPersisted);
-            assertNotNull(messageDeduplication.highestSequencedPushed);
+            assertNotNull(messageDeduplication.getHighestSequencedPersisted(producerName));
+            assertNotNull(messageDeduplication.getHighestSequencedPushed(producerName));
             long seqId = messageDeduplication.getLastPublishedSequenceId(producerName);
             assertEquals(seqId, maxSeq);
-            assertEquals(messageDeduplication.highestSequencedPersisted.get(producerName).longValue(), maxSeq);
-            assertEquals(messageDeduplication.highestSequencedPushed.get(producerName).longValue(), maxSeq);
+            assertEquals(messageDeduplication.getHighestSequencedPersisted(producerName).longValue(), maxSeq);
+            assertEquals(messageDeduplication.getHighestSequencedPushed(producerName).longValue(), maxSeq);
         }).get();
     }
 
@@ -251,7 +252,7 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
         }
         countDownLatch.await();
         PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicIfExists(topicName).get().get();
-        long seqId = persistentTopic.getMessageDeduplication().highestSequencedPersisted.get(producerName);
+        long seqId = persistentTopic.getMessageDeduplication().getHighestSequencedPersisted(producerName);
         PositionImpl position = (PositionImpl) persistentTopic.getMessageDeduplication().getManagedCursor()
                 .getManagedLedger().getLastConfirmedEntry();
         assertEquals(seqId, msgNum - 1);
@@ -356,7 +357,7 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
         }
         countDownLatch.await();
         PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicIfExists(topicName).get().get();
-        long seqId = persistentTopic.getMessageDeduplication().highestSequencedPersisted.get(producerName);
+        long seqId = persistentTopic.getMessageDeduplication().getHighestSequencedPersisted(producerName);
         PositionImpl position = (PositionImpl) persistentTopic.getMessageDeduplication().getManagedCursor().getManagedLedger().getLastConfirmedEntry();
         assertEquals(seqId, msgNum - 1);
         assertEquals(position.getEntryId(), msgNum - 1);
@@ -390,6 +391,104 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
 
     }
 
+    @Test(timeOut = 30000)
+    public void testDuplicationSnapshotLedger() throws Exception {
+        resetConfig();
+        conf.setBrokerDeduplicationEnabled(true);
+        conf.setBrokerDeduplicationSnapshotLedgerEnabled(true);
+        conf.setBrokerDeduplicationSnapshotLedgerMaxDeltas(2);
+        conf.setBrokerDeduplicationEntriesInterval(10);
+        super.internalCleanup();
+        super.internalSetup();
+        super.producerBaseSetup();
+
+        final String topicName = testTopic + UUID.randomUUID().toString();
+        final int msgNum = 53;
+        for (String producerName : new String[] {"producer-1", "producer-2"}) {
+            @Cleanup
+            Producer<String> producer = pulsarClient.newProducer(Schema.STRING).topic(topicName)
+                    .enableBatching(false).producerName(producerName).create();
+            for (int i = 0; i < msgNum; i++) {
+                producer.send("msg-" + i);
+            }
+        }
+
+        PersistentTopic persistentTopic =
+                (PersistentTopic) pulsar.getBrokerService().getTopicIfExists(topicName).get().get();
+        ManagedCursor managedCursor = persistentTopic.getMessageDeduplication().getManagedCursor();
+        Awaitility.await().untilAsserted(() ->
+                assertEquals(((PositionImpl) managedCursor.getMarkDeletedPosition()).getEntryId(), 2 * 50 - 1));
+        // The snapshots are still stored in the cursor
+        assertEquals(managedCursor.getProperties().get("producer-2").longValue(), msgNum - 7);
+        String snapshotLedgerId = persistentTopic.getManagedLedger().getProperties()
+                .get(DeduplicationSnapshotStore.SNAPSHOT_LEDGER_PROPERTY);
+        assertNotNull(snapshotLedgerId);
+
+        // The sequence ids are recovered from the snapshot ledger and from the 6 entries published after it
+        admin.topics().unload(topicName);
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING).topic(topicName)
+                .enableBatching(false).producerName("producer-1").create();
+        assertEquals(producer.getLastSequenceId(), msgNum - 1);
+        PersistentTopic reloadedTopic =
+                (PersistentTopic) pulsar.getBrokerService().getTopicIfExists(topicName).get().get();
+        MessageDeduplication messageDeduplication = reloadedTopic.getMessageDeduplication();
+        assertEquals(messageDeduplication.getHighestSequencedPersisted("producer-1").longValue(), msgNum - 1);
+        assertEquals(messageDeduplication.getHighestSequencedPersisted("producer-2").longValue(), msgNum - 1);
+        assertTrue(messageDeduplication.getRecoveryDurationMs() >= 0);
+
+        // The ledger of the previous owner is replaced once the new owner takes a full snapshot
+        for (int i = 0; i < 10; i++) {
+            producer.send("msg-" + i);
+        }
+        Awaitility.await().untilAsserted(() -> assertNotEquals(reloadedTopic.getManagedLedger().getProperties()
+                .get(DeduplicationSnapshotStore.SNAPSHOT_LEDGER_PROPERTY), snapshotLedgerId));
+    }
+
+    @Test(timeOut = 30000)
+    public void testDisableDuplicationSnapshotLedger() throws Exception {
+        resetConfig();
+        conf.setBrokerDeduplicationEnabled(true);
+        conf.setBrokerDeduplicationSnapshotLedgerEnabled(true);
+        conf.setBrokerDeduplicationEntriesInterval(10);
+        super.internalCleanup();
+        super.internalSetup();
+        super.producerBaseSetup();
+
+        final String topicName = testTopic + UUID.randomUUID().toString();
+        final int msgNum = 50;
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING).topic(topicName)
+                .enableBatching(false).producerName("producer-1").create();
+        for (int i = 0; i < msgNum; i++) {
+            producer.newMessage().value("msg-" + i).sequenceId(i).send();
+        }
+        producer.close();
+        PersistentTopic persistentTopic =
+                (PersistentTopic) pulsar.getBrokerService().getTopicIfExists(topicName).get().get();
+        ManagedCursor managedCursor = persistentTopic.getMessageDeduplication().getManagedCursor();
+        Awaitility.await().untilAsserted(() ->
+                assertEquals(((PositionImpl) managedCursor.getMarkDeletedPosition()).getEntryId(), msgNum - 1));
+
+        // The topic is recovered from the cursor properties once the snapshot ledger is disabled
+        conf.setBrokerDeduplicationSnapshotLedgerEnabled(false);
+        admin.topics().unload(topicName);
+        @Cleanup
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING).topic(topicName)
+                .subscriptionName("sub").subscriptionInitialPosition(SubscriptionInitialPosition.Earliest)
+                .subscribe();
+        @Cleanup
+        Producer<String> producer2 = pulsarClient.newProducer(Schema.STRING).topic(topicName)
+                .enableBatching(false).producerName("producer-1").create();
+        assertEquals(producer2.getLastSequenceId(), msgNum - 1);
+        producer2.newMessage().value("duplicate").sequenceId(msgNum - 1).send();
+        producer2.newMessage().value("msg-" + msgNum).sequenceId(msgNum).send();
+
+        for (int i = 0; i <= msgNum; i++) {
+            assertEquals(consumer.receive().getValue(), "msg-" + i);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+    }
+
     @Test(timeOut = 30000)
     public void testNamespacePolicyApi() throws Exception {
         Integer interval = admin.namespaces().getDeduplicationSnapshotInterval(myNamespace);
@@ -435,7 +534,7 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
         }
         countDownLatch.await();
         PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicIfExists(topicName).get().get();
-        long seqId = persistentTopic.getMessageDeduplication().highestSequencedPersisted.get(producerName);
+        long seqId = persistentTopic.getMessageDeduplication().getHighestSequencedPersisted(producerName);
         PositionImpl position = (PositionImpl) persistentTopic.getMessageDeduplication().getManagedCursor()
                 .getManagedLedger().getLastConfirmedEntry();
         assertEquals(seqId, msgNum - 1);
@@ -491,7 +590,7 @@ public class TopicDuplicationTest extends ProducerConsumerBase {
         ManagedCursor managedCursor = persistentTopic.getMessageDeduplication().getManagedCursor();
         PositionImpl markDeletedPosition = (PositionImpl) managedCursor.getMarkDeletedPosition();
 
-        long seqId = persistentTopic.getMessageDeduplication().highestSequencedPersisted.get(producerName);
+        long seqId = persistentTopic.getMessageDeduplication().getHighestSequencedPersisted(producerName);
         PositionImpl position = (PositionImpl) persistentTopic.getMessageDeduplication().getManagedCursor()
                 .getManagedLedger().getLastConfirmedEntry();
         assertEquals(seqId, msgNum - 1);
@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.broker.BrokerTestUtil;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.awaitility.Awaitility;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ConsumerPayloadProcessingTest extends ProducerConsumerBase {
+
+    private PulsarClient payloadProcessingClient;
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        super.internalSetup();
+        super.producerBaseSetup();
+        payloadProcessingClient = PulsarClient.builder()
+                .serviceUrl(lookupUrl.toString())
+                .payloadProcessingThreads(4)
+                .build();
+    }
+
+    @Override
+    @AfterClass(alwaysRun = true)
+    public void cleanup() throws Exception {
+        if (payloadProcessingClient != null) {
+            payloadProcessingClient.close();
+        }
+        super.internalCleanup();
+    }
+
+    @DataProvider(name = "compressionAndBatching")
+    public Object[][] compressionAndBatching() {
+        return new Object[][] {
+                { CompressionType.NONE, false },
+                { CompressionType.NONE, true },
+                { CompressionType.LZ4, false },
+                { CompressionType.LZ4, true },
+                { CompressionType.ZSTD, true },
+                { CompressionType.ZLIB, true },
+        };
+    }
+
+    @Test(dataProvider = "compressionAndBatching", timeOut = 60000)
+    public void testMessagesAreReceivedInOrder(CompressionType compressionType, boolean batching) throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/payload-processing");
+        final int numMessages = 2000;
+
+        @Cleanup
+        Consumer<String> consumer = payloadProcessingClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .receiverQueueSize(100)
+                .subscribe();
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .blockIfQueueFull(true)
+                .compressionType(compressionType)
+                .enableBatching(batching)
+                .batchingMaxMessages(20)
+                .create();
+
+        for (int i = 0; i < numMessages; i++) {
+            producer.sendAsync("message-" + i);
+        }
+        producer.flush();
+
+        for (int i = 0; i < numMessages; i++) {
+            Message<String> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(msg.getValue(), "message-" + i);
+            consumer.acknowledge(msg);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeOut = 60000)
+    public void testListenerReceivesMessagesInOrder() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/payload-processing");
+        final int numMessages = 1000;
+
+        CountDownLatch received = new CountDownLatch(numMessages);
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<String> outOfOrder = new AtomicReference<>();
+        @Cleanup
+        Consumer<String> consumer = payloadProcessingClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .subscriptionType(SubscriptionType.Key_Shared)
+                .messageListener((c, msg) -> {
+                    String expected = "message-" + next.getAndIncrement();
+                    if (!expected.equals(msg.getValue())) {
+                        outOfOrder.compareAndSet(null, msg.getValue() + " instead of " + expected);
+                    }
+                    c.acknowledgeAsync(msg);
+                    received.countDown();
+                })
+                .subscribe();
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .blockIfQueueFull(true)
+                .compressionType(CompressionType.LZ4)
+                .batchingMaxMessages(10)
+                .create();
+
+        for (int i = 0; i < numMessages; i++) {
+            producer.newMessage().key("key").value("message-" + i).sendAsync();
+        }
+        producer.flush();
+
+        received.await();
+        assertNull(outOfOrder.get());
+    }
+
+    /**
+     * Hold up the payload processing threads while the received messages are dropped by {@code action}, the broker
+     * must then deliver each message exactly once.
+     */
+    private void testMessagesInFlightAreDropped(Consumer<String> consumer, String topic, Callable<Void> action)
+            throws Exception {
+        final int numMessages = 100;
+        ExecutorService payloadProcessingExecutor =
+                ((PulsarClientImpl) payloadProcessingClient).payloadProcessingExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            payloadProcessingExecutor.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        try {
+            @Cleanup
+            Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                    .topic(topic)
+                    .compressionType(CompressionType.LZ4)
+                    .batchingMaxMessages(5)
+                    .create();
+            for (int i = 0; i < numMessages; i++) {
+                producer.sendAsync("message-" + i);
+            }
+            producer.flush();
+
+            // the first messages are now waiting for the payload processing threads
+            Awaitility.await().untilAsserted(() -> assertTrue(
+                    admin.topics().getStats(topic).subscriptions.get("sub").msgOutCounter > 0));
+            action.call();
+        } finally {
+            blocked.countDown();
+        }
+
+        for (int i = 0; i < numMessages; i++) {
+            Message<String> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(msg.getValue(), "message-" + i);
+        }
+        assertNull(consumer.receive(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeOut = 60000)
+    public void testSeekDropsMessagesInFlight() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/payload-processing");
+
+        @Cleanup
+        Consumer<String> consumer = payloadProcessingClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .receiverQueueSize(10)
+                .subscribe();
+        testMessagesInFlightAreDropped(consumer, topic, () -> {
+            consumer.seek(MessageId.earliest);
+            return null;
+        });
+    }
+
+    @Test(timeOut = 60000)
+    public void testRedeliveryDropsMessagesInFlight() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/payload-processing");
+
+        @Cleanup
+        Consumer<String> consumer = payloadProcessingClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .receiverQueueSize(10)
+                .subscribe();
+        testMessagesInFlightAreDropped(consumer, topic, () -> {
+            consumer.redeliverUnacknowledgedMessages();
+            return null;
+        });
+    }
+
+    @Test(timeOut = 60000)
+    public void testReconnectDropsMessagesInFlight() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/payload-processing");
+
+        @Cleanup
+        Consumer<String> consumer = payloadProcessingClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .receiverQueueSize(10)
+                .subscribe();
+        testMessagesInFlightAreDropped(consumer, topic, () -> {
+            admin.topics().unload(topic);
+            Awaitility.await().untilAsserted(() -> assertEquals(
+                    admin.topics().getStats(topic).subscriptions.get("sub").consumers.size(), 1));
+            return null;
+        });
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.broker.BrokerTestUtil;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ProducerLockFreeSendPipelineTest extends ProducerConsumerBase {
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @Override
+    @AfterClass(alwaysRun = true)
+    public void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @DataProvider(name = "batching")
+    public Object[][] batching() {
+        return new Object[][] { { true }, { false } };
+    }
+
+    @Test(dataProvider = "batching", timeOut = 60000)
+    public void testConcurrentSendsKeepOrderOfEachThread(boolean batching) throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/lock-free-send");
+        final int numThreads = 4;
+        final int messagesPerThread = 500;
+
+        @Cleanup
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .subscribe();
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .enableBatching(batching)
+                .enableLockFreeSendPipeline(true)
+                .blockIfQueueFull(true)
+                .maxPendingMessages(100)
+                .create();
+
+        @Cleanup("shutdownNow")
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        List<Future<List<CompletableFuture<MessageId>>>> results = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            results.add(executor.submit(() -> {
+                barrier.await();
+                List<CompletableFuture<MessageId>> futures = new ArrayList<>();
+                for (int i = 0; i < messagesPerThread; i++) {
+                    futures.add(producer.sendAsync(thread + "-" + i));
+                }
+                return futures;
+            }));
+        }
+        List<CompletableFuture<MessageId>> futures = new ArrayList<>();
+        for (Future<List<CompletableFuture<MessageId>>> result : results) {
+            futures.addAll(result.get());
+        }
+        producer.flush();
+        FutureUtil.waitForAll(futures).get();
+
+        int[] nextOfThread = new int[numThreads];
+        long lastSequenceId = -1;
+        for (int i = 0; i < numThreads * messagesPerThread; i++) {
+            Message<String> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            String[] parts = msg.getValue().split("-");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(Integer.parseInt(parts[1]), nextOfThread[thread]++);
+            assertTrue(msg.getSequenceId() > lastSequenceId);
+            lastSequenceId = msg.getSequenceId();
+            consumer.acknowledge(msg);
+        }
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeOut = 30000)
+    public void testSyncSendDoesNotWaitForBatchTimer() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/lock-free-send");
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .enableLockFreeSendPipeline(true)
+                .batchingMaxPublishDelay(1, TimeUnit.HOURS)
+                .create();
+
+        // the flush of the batch is queued after the message, so the send completes right away
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(producer.send("message-" + i));
+        }
+        producer.sendAsync("last");
+        producer.flush();
+        assertEquals(producer.getLastSequenceId(), 10);
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.expectThrows;
+
+import com.google.common.collect.Sets;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.broker.BrokerTestUtil;
+import org.apache.pulsar.client.api.BatcherBuilder;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ZstdDictionaryCompressionTest extends ProducerConsumerBase {
+
+    private byte[] dictionary;
+    private byte[] otherDictionary;
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        super.internalSetup();
+        super.producerBaseSetup();
+        dictionary = CompressionCodecZstdDictionary.trainDictionary(samples(2000, 0), 4096);
+        otherDictionary = CompressionCodecZstdDictionary.trainDictionary(samples(2000, 50_000), 2048);
+        admin.namespaces().setCompressionDictionaryIds("my-property/my-ns", Sets.newHashSet(
+                CompressionCodecZstdDictionary.getDictionaryId(dictionary),
+                CompressionCodecZstdDictionary.getDictionaryId(otherDictionary)));
+    }
+
+    @Override
+    @AfterClass(alwaysRun = true)
+    public void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    private static List<byte[]> samples(int count, int offset) {
+        List<byte[]> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            samples.add(message(offset + i).getBytes(StandardCharsets.UTF_8));
+        }
+        return samples;
+    }
+
+    private static String message(int id) {
+        return "{\"id\":" + id + ",\"user\":\"user-" + (id % 97) + "\",\"type\":\"page_view\","
+                + "\"url\":\"https://pulsar.apache.org/docs/en/" + (id % 13) + "/concepts-messaging\"}";
+    }
+
+    @DataProvider(name = "batcher")
+    public Object[][] batcher() {
+        return new Object[][] { { null }, { BatcherBuilder.DEFAULT }, { BatcherBuilder.KEY_BASED } };
+    }
+
+    @Test(dataProvider = "batcher", timeOut = 30000)
+    public void testProduceConsume(BatcherBuilder batcher) throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/zstd-dictionary");
+        final int numMessages = 100;
+
+        @Cleanup
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .compressionDictionary(otherDictionary)
+                .compressionDictionary(dictionary)
+                .subscribe();
+
+        ProducerBuilderImpl<String> builder = (ProducerBuilderImpl<String>) pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .compressionType(CompressionType.ZSTD)
+                .compressionDictionary(dictionary);
+        if (batcher == null) {
+            builder.enableBatching(false);
+        } else {
+            builder.batcherBuilder(batcher).batchingMaxPublishDelay(1, TimeUnit.HOURS)
+                    .batchingMaxMessages(10);
+        }
+        @Cleanup
+        Producer<String> producer = builder.create();
+
+        for (int i = 0; i < numMessages; i++) {
+            producer.newMessage().key("key-" + (i % 3)).value(message(i)).sendAsync();
+        }
+        producer.flush();
+
+        List<String> received = new ArrayList<>();
+        for (int i = 0; i < numMessages; i++) {
+            Message<String> msg = consumer.receive(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(((MessageImpl<?>) msg).getMessageBuilder().getCompressionDictionaryId(),
+                    CompressionCodecZstdDictionary.getDictionaryId(dictionary));
+            received.add(msg.getValue());
+            consumer.acknowledge(msg);
+        }
+        received.sort(null);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < numMessages; i++) {
+            expected.add(message(i));
+        }
+        expected.sort(null);
+        assertEquals(received, expected);
+    }
+
+    @Test(timeOut = 30000)
+    public void testConsumerWithoutDictionaryKeepsMessages() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/zstd-dictionary");
+
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .compressionDictionary(otherDictionary)
+                .subscribe();
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .enableBatching(false)
+                .compressionType(CompressionType.ZSTD)
+                .compressionDictionary(dictionary)
+                .create();
+        producer.send(message(0));
+
+        @Cleanup
+        Producer<String> plainProducer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .enableBatching(false)
+                .compressionType(CompressionType.ZSTD)
+                .create();
+        plainProducer.send(message(1));
+
+        // the first message can't be decompressed and is skipped, without being acknowledged
+        Message<String> msg = consumer.receive(5, TimeUnit.SECONDS);
+        assertNotNull(msg);
+        assertEquals(msg.getValue(), message(1));
+        consumer.acknowledge(msg);
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+        consumer.close();
+
+        // it is delivered once the consumer is given the dictionary
+        @Cleanup
+        Consumer<String> consumerWithDictionary = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName("sub")
+                .compressionDictionary(dictionary)
+                .subscribe();
+        msg = consumerWithDictionary.receive(5, TimeUnit.SECONDS);
+        assertNotNull(msg);
+        assertEquals(msg.getValue(), message(0));
+    }
+
+    @Test(timeOut = 30000)
+    public void testUnregisteredDictionaryIsRejected() throws Exception {
+        final String topic = BrokerTestUtil.newUniqueName("persistent://my-property/my-ns/zstd-dictionary");
+        byte[] unregisteredDictionary = CompressionCodecZstdDictionary.trainDictionary(samples(2000, 100_000), 2048);
+
+        expectThrows(PulsarClientException.NotAllowedException.class, () -> pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .compressionType(CompressionType.ZSTD)
+                .compressionDictionary(unregisteredDictionary)
+                .create());
+    }
+
+    @Test
+    public void testDictionaryRequiresZstd() {
+        expectThrows(IllegalArgumentException.class, () -> pulsarClient.newProducer()
+                .topic("persistent://my-property/my-ns/zstd-dictionary-lz4")
+                .compressionType(CompressionType.LZ4)
+                .compressionDictionary(dictionary)
+                .create());
+        expectThrows(IllegalArgumentException.class, () -> pulsarClient.newConsumer()
+                .compressionDictionary("not a dictionary".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -1373,6 +1373,69 @@ public interface Namespaces {
      */
     CompletableFuture<Set<SubscriptionType>> getSubscriptionTypesEnabledAsync(String namespace);
 
+    /**
+     * Sets the ids of the Zstd dictionaries the producers are allowed to compress messages with, in a namespace.
+     * <p/>
+     * A producer configured with a compression dictionary is rejected if the id of its dictionary is not in the set.
+     * <p/>
+     * Request example:
+     *
+     * <pre>
+     * <code>[ 1719263582, 2044389077 ]</code>
+     * </pre>
+     *
+     * @param namespace
+     *            Namespace name
+     * @param compressionDictionaryIds
+     *            ids of the dictionaries, an empty set rejects all the producers using a dictionary
+     *
+     * @throws NotAuthorizedException
+     *             Don't have admin permission
+     * @throws NotFoundException
+     *             Namespace does not exist
+     * @throws PulsarAdminException
+     *             Unexpected error
+     */
+    void setCompressionDictionaryIds(String namespace, Set<Integer> compressionDictionaryIds)
+            throws PulsarAdminException;
+
+    /**
+     * Sets the ids of the Zstd dictionaries the producers are allowed to compress messages with, in a namespace,
+     * asynchronously.
+     *
+     * @param namespace
+     *            Namespace name
+     * @param compressionDictionaryIds
+     *            ids of the dictionaries, an empty set rejects all the producers using a dictionary
+     */
+    CompletableFuture<Void> setCompressionDictionaryIdsAsync(String namespace, Set<Integer> compressionDictionaryIds);
+
+    /**
+     * Get the ids of the Zstd dictionaries the producers are allowed to compress messages with, in a namespace.
+     *
+     * @param namespace
+     *            Namespace name
+     * @return the ids of the dictionaries
+     *
+     * @throws NotAuthorizedException
+     *             Don't have admin permission
+     * @throws NotFoundException
+     *             Namespace does not exist
+     * @throws PulsarAdminException
+     *             Unexpected error
+     */
+    Set<Integer> getCompressionDictionaryIds(String namespace) throws PulsarAdminException;
+
+    /**
+     * Get the ids of the Zstd dictionaries the producers are allowed to compress messages with, in a namespace,
+     * asynchronously.
+     *
+     * @param namespace
+     *            Namespace name
+     * @return the future of the ids of the dictionaries
+     */
+    CompletableFuture<Set<Integer>> getCompressionDictionaryIdsAsync(String namespace);
+
     /**
      * Removes the autoSubscriptionCreation policy for a given namespace.
      * <p/>
@@ -1075,6 +1075,64 @@ public class NamespacesImpl extends BaseResource implements Namespaces {
         return future;
     }
 
+    @Override
+    public void setCompressionDictionaryIds(String namespace, Set<Integer> compressionDictionaryIds)
+            throws PulsarAdminException {
+        try {
+            setCompressionDictionaryIdsAsync(namespace, compressionDictionaryIds)
+                    .get(this.readTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (PulsarAdminException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PulsarAdminException(e);
+        } catch (TimeoutException e) {
+            throw new PulsarAdminException.TimeoutException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> setCompressionDictionaryIdsAsync(String namespace,
+                                                                    Set<Integer> compressionDictionaryIds) {
+        NamespaceName ns = NamespaceName.get(namespace);
+        WebTarget path = namespacePath(ns, "compressionDictionaryIds");
+        return asyncPostRequest(path, Entity.entity(compressionDictionaryIds, MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public Set<Integer> getCompressionDictionaryIds(String namespace) throws PulsarAdminException {
+        try {
+            return getCompressionDictionaryIdsAsync(namespace).get(this.readTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (PulsarAdminException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PulsarAdminException(e);
+        } catch (TimeoutException e) {
+            throw new PulsarAdminException.TimeoutException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Set<Integer>> getCompressionDictionaryIdsAsync(String namespace) {
+        NamespaceName ns = NamespaceName.get(namespace);
+        WebTarget path = namespacePath(ns, "compressionDictionaryIds");
+        final CompletableFuture<Set<Integer>> future = new CompletableFuture<>();
+        asyncGetRequest(path,
+                new InvocationCallback<Set<Integer>>() {
+                    @Override
+                    public void completed(Set<Integer> compressionDictionaryIds) {
+                        future.complete(compressionDictionaryIds);
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        future.completeExceptionally(getApiException(throwable.getCause()));
+                    }
+                });
+        return future;
+    }
+
     @Override
     public void removeAutoSubscriptionCreation(String namespace) throws PulsarAdminException {
         try {
@@ -236,6 +236,22 @@ public interface ClientBuilder extends Cloneable {
      */
     ClientBuilder listenerThreads(int numListenerThreads);
 
+    /**
+     * Set the number of threads used to decompress the messages received by consumers and readers, and to split
+     * their batches <i>(default: 0)</i>.
+     *
+     * <p>By default this work is done on the IO thread of the connection, which limits the consumption of heavily
+     * compressed topics to one core per connection. With a pool of payload processing threads, the messages of a
+     * consumer are processed in parallel and still delivered to the application in the order they were received.
+     * Encrypted and chunked messages are always processed in order.
+     *
+     * @param numPayloadProcessingThreads the number of payload processing threads, or 0 to process the payloads on
+     *            the IO threads
+     * @return the client builder instance
+     * @since 2.8.0
+     */
+    ClientBuilder payloadProcessingThreads(int numPayloadProcessingThreads);
+
     /**
      * Sets the max number of connection that the client library will open to a single broker.
      *
@@ -322,6 +322,24 @@ public interface ConsumerBuilder<T> extends Cloneable {
      */
     ConsumerBuilder<T> cryptoFailureAction(ConsumerCryptoFailureAction action);
 
+    /**
+     * Add a Zstandard dictionary used to decompress the messages that were compressed with it.
+     *
+     * <p>Messages carry the id of the dictionary they were compressed with (see
+     * {@link ProducerBuilder#compressionDictionary(byte[])}). This method can be called several times, for instance
+     * to keep reading older messages while producers move on to a newly trained dictionary. Messages compressed with
+     * an unknown dictionary are neither delivered nor acknowledged: they are redelivered after the ack timeout, if
+     * set, or when the consumer reconnects.
+     *
+     * <p>The <code>com.github.luben:zstd-jni</code> library needs to be available on the classpath.
+     *
+     * @param dictionary
+     *            the content of the Zstandard dictionary
+     * @return the consumer builder instance
+     * @since 2.8.0
+     */
+    ConsumerBuilder<T> compressionDictionary(byte[] dictionary);
+
     /**
      * Sets the size of the consumer receive queue.
      *
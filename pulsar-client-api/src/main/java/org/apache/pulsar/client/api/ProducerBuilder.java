@@ -289,6 +289,28 @@ public interface ProducerBuilder<T> extends Cloneable {
      */
     ProducerBuilder<T> compressionType(CompressionType compressionType);
 
+    /**
+     * Compress the messages with a pre-trained Zstandard dictionary.
+     *
+     * <p>Dictionaries considerably improve the compression ratio of small messages, which share too little content
+     * with each other to compress well on their own. The dictionary needs to be trained on payloads representative
+     * of the topic, for instance with the <code>zstd --train</code> command line tool.
+     *
+     * <p>The id of the dictionary is recorded in the metadata of each message and the consumers need to be
+     * configured with the same dictionary (see {@link ConsumerBuilder#compressionDictionary(byte[])}) to be able to
+     * read them. The compression type needs to be {@link CompressionType#ZSTD} and the
+     * <code>com.github.luben:zstd-jni</code> library needs to be available on the classpath.
+     *
+     * <p>The id of the dictionary needs to be registered in the compression dictionary ids of the namespace,
+     * otherwise the broker rejects the producer.
+     *
+     * @param dictionary
+     *            the content of the Zstandard dictionary
+     * @return the producer builder instance
+     * @since 2.8.0
+     */
+    ProducerBuilder<T> compressionDictionary(byte[] dictionary);
+
     /**
      * Set a custom message routing policy by passing an implementation of MessageRouter.
      *
@@ -576,4 +598,25 @@ public interface ProducerBuilder<T> extends Cloneable {
      * @since 2.5.0
      */
     ProducerBuilder<T> enableMultiSchema(boolean multiSchema);
+
+    /**
+     * Control whether the producer hands the messages sent by the application threads over through a lock-free
+     * queue, instead of having each of them take the producer lock to add its message to the batch or to the
+     * pending messages.
+     *
+     * <p>The queue is drained by a single task on one of the client IO threads, so many threads sending on the same
+     * producer don't contend with each other. Messages are still published in the order of the {@link Producer#send}
+     * and {@link Producer#sendAsync} calls, and {@link Producer#flush} still covers all the messages sent before it.
+     *
+     * <p>When used with {@link #blockIfQueueFull(boolean)}, the messages must not be sent from a client IO thread,
+     * such as within a send callback.
+     *
+     * <p>Disabled by default.
+     *
+     * @param lockFreeSendPipeline
+     *            indicates to enable or disable the lock-free send pipeline
+     * @return the producer builder instance
+     * @since 2.8.0
+     */
+    ProducerBuilder<T> enableLockFreeSendPipeline(boolean lockFreeSendPipeline);
 }
@@ -202,6 +202,17 @@ public interface ReaderBuilder<T> extends Cloneable {
      */
     ReaderBuilder<T> cryptoFailureAction(ConsumerCryptoFailureAction action);
 
+    /**
+     * Add a Zstandard dictionary used to decompress the messages that were compressed with it.
+     *
+     * @see ConsumerBuilder#compressionDictionary(byte[])
+     * @param dictionary
+     *            the content of the Zstandard dictionary
+     * @return the reader builder instance
+     * @since 2.8.0
+     */
+    ReaderBuilder<T> compressionDictionary(byte[] dictionary);
+
     /**
      * Sets the size of the consumer receive queue.
      *
@@ -338,6 +338,40 @@ public class CmdNamespaces extends CmdBase {
         }
     }
 
+    @Parameters(commandDescription = "Set the ids of the Zstd dictionaries producers can compress messages with,"
+            + " in a namespace")
+    private class SetCompressionDictionaryIds extends CliCommand {
+        @Parameter(description = "tenant/namespace", required = true)
+        private java.util.List<String> params;
+
+        @Parameter(names = { "--ids",
+                "-i" }, description = "Dictionary ids list (comma separated values), empty to allow none",
+                required = true)
+        private String ids;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            Set<Integer> dictionaryIds = new HashSet<>();
+            Lists.newArrayList(ids.split(",")).stream().map(String::trim).filter(s -> !s.isEmpty())
+                    .forEach(s -> dictionaryIds.add(Integer.parseUnsignedInt(s)));
+            getAdmin().namespaces().setCompressionDictionaryIds(namespace, dictionaryIds);
+        }
+    }
+
+    @Parameters(commandDescription = "Get the ids of the Zstd dictionaries producers can compress messages with,"
+            + " in a namespace")
+    private class GetCompressionDictionaryIds extends CliCommand {
+        @Parameter(description = "tenant/namespace\n", required = true)
+        private java.util.List<String> params;
+
+        @Override
+        void run() throws PulsarAdminException {
+            String namespace = validateNamespace(params);
+            print(getAdmin().namespaces().getCompressionDictionaryIds(namespace));
+        }
+    }
+
     @Parameters(commandDescription = "Set Message TTL for a namespace")
     private class SetMessageTTL extends CliCommand {
         @Parameter(description = "tenant/namespace", required = true)
@@ -2012,6 +2046,8 @@ public class CmdNamespaces extends CmdBase {
 
         jcommander.addCommand("set-subscription-types-enabled", new SetSubscriptionTypesEnabled());
         jcommander.addCommand("get-subscription-types-enabled", new GetSubscriptionTypesEnabled());
+        jcommander.addCommand("set-compression-dictionary-ids", new SetCompressionDictionaryIds());
+        jcommander.addCommand("get-compression-dictionary-ids", new GetCompressionDictionaryIds());
 
         jcommander.addCommand("get-backlog-quotas", new GetBacklogQuotaMap());
         jcommander.addCommand("set-backlog-quota", new SetBacklogQuota());
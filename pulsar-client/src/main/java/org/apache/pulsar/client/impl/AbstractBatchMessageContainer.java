@@ -23,6 +23,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.common.api.proto.CompressionType;
 import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 
 import java.io.IOException;
 import java.util.List;
@@ -35,6 +36,7 @@ public abstract class AbstractBatchMessageContainer implements BatchMessageConta
 
     protected CompressionType compressionType;
     protected CompressionCodec compressor;
+    protected int compressionDictionaryId;
     protected String topicName;
     protected String producerName;
     protected ProducerImpl producer;
@@ -95,7 +97,15 @@ public abstract class AbstractBatchMessageContainer implements BatchMessageConta
         this.producerName = producer.getProducerName();
         this.compressionType = CompressionCodecProvider
                 .convertToWireProtocol(producer.getConfiguration().getCompressionType());
-        this.compressor = CompressionCodecProvider.getCompressionCodec(compressionType);
+        byte[] compressionDictionary = producer.getConfiguration().getCompressionDictionary();
+        if (compressionDictionary != null) {
+            CompressionCodecZstdDictionary dictionaryCodec = new CompressionCodecZstdDictionary(compressionDictionary);
+            this.compressor = dictionaryCodec;
+            this.compressionDictionaryId = dictionaryCodec.getDictionaryId();
+        } else {
+            this.compressor = CompressionCodecProvider.getCompressionCodec(compressionType);
+            this.compressionDictionaryId = 0;
+        }
         this.maxNumMessagesInBatch = producer.getConfiguration().getBatchingMaxMessages();
         this.maxBytesInBatch = producer.getConfiguration().getBatchingMaxBytes();
     }
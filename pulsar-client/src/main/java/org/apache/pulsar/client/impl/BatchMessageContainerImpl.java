@@ -65,14 +65,30 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
                     numMessagesInBatch);
         }
 
+        if (batchedMessageMetadataAndPayload == null) {
+            // sized after the largest batch so far, so that it doesn't need to grow while the messages are added
+            batchedMessageMetadataAndPayload = PulsarByteBufAllocator.DEFAULT
+                    .buffer(Math.min(maxBatchSize, ClientCnx.getMaxMessageSize()));
+        }
+        // serialize the message right away, the batch is then ready to be compressed when it is closed
+        int batchWriterIndex = batchedMessageMetadataAndPayload.writerIndex();
+        int payloadReaderIndex = msg.getDataBuffer().readerIndex();
+        try {
+            Commands.serializeSingleMessageInBatchWithPayload(msg.getMessageBuilder(), msg.getDataBuffer(),
+                    batchedMessageMetadataAndPayload);
+        } catch (Throwable t) {
+            // leave the batch as it was before this message
+            batchedMessageMetadataAndPayload.writerIndex(batchWriterIndex);
+            msg.getDataBuffer().readerIndex(payloadReaderIndex);
+            throw t;
+        }
+
         if (++numMessagesInBatch == 1) {
             // some properties are common amongst the different messages in the batch, hence we just pick it up from
             // the first message
             messageMetadata.setSequenceId(msg.getSequenceId());
             lowestSequenceId = Commands.initBatchMessageMetadata(messageMetadata, msg.getMessageBuilder());
             this.firstCallback = callback;
-            batchedMessageMetadataAndPayload = PulsarByteBufAllocator.DEFAULT
-                    .buffer(Math.min(maxBatchSize, ClientCnx.getMaxMessageSize()));
             if (msg.getMessageBuilder().hasTxnidMostBits() && currentTxnidMostBits == -1) {
                 currentTxnidMostBits = msg.getMessageBuilder().getTxnidMostBits();
             }
@@ -85,7 +101,7 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
             previousCallback.addCallback(msg, callback);
         }
         previousCallback = callback;
-        currentBatchSizeBytes += msg.getDataBuffer().readableBytes();
+        currentBatchSizeBytes += msg.getDataBuffer().writerIndex() - payloadReaderIndex;
         messages.add(msg);
 
         if (lowestSequenceId == -1L) {
@@ -93,40 +109,23 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
             messageMetadata.setSequenceId(lowestSequenceId);
         }
         highestSequenceId = msg.getSequenceId();
-        ProducerImpl.LAST_SEQ_ID_PUSHED_UPDATER.getAndUpdate(producer, prev -> Math.max(prev, msg.getSequenceId()));
+        ProducerImpl.LAST_SEQ_ID_PUSHED_UPDATER.accumulateAndGet(producer, msg.getSequenceId(), Math::max);
 
         return isBatchFull();
     }
 
     private ByteBuf getCompressedBatchMetadataAndPayload() {
-        int batchWriteIndex = batchedMessageMetadataAndPayload.writerIndex();
-        int batchReadIndex = batchedMessageMetadataAndPayload.readerIndex();
-
-        for (int i = 0, n = messages.size(); i < n; i++) {
-            MessageImpl<?> msg = messages.get(i);
-            msg.getDataBuffer().markReaderIndex();
-            try {
-                batchedMessageMetadataAndPayload = Commands.serializeSingleMessageInBatchWithPayload(msg.getMessageBuilder(),
-                        msg.getDataBuffer(), batchedMessageMetadataAndPayload);
-            } catch (Throwable th) {
-                // serializing batch message can corrupt the index of message and batch-message. Reset the index so,
-                // next iteration doesn't send corrupt message to broker.
-                for (int j = 0; j <= i; j++) {
-                    MessageImpl<?> previousMsg = messages.get(j);
-                    previousMsg.getDataBuffer().resetReaderIndex();
-                }
-                batchedMessageMetadataAndPayload.writerIndex(batchWriteIndex);
-                batchedMessageMetadataAndPayload.readerIndex(batchReadIndex);
-                throw new RuntimeException(th);
-            }
-        }
-
         int uncompressedSize = batchedMessageMetadataAndPayload.readableBytes();
+        // without compression, the codec hands the batch buffer itself over
         ByteBuf compressedPayload = compressor.encode(batchedMessageMetadataAndPayload);
         batchedMessageMetadataAndPayload.release();
+        batchedMessageMetadataAndPayload = null;
         if (compressionType != CompressionType.NONE) {
             messageMetadata.setCompression(compressionType);
             messageMetadata.setUncompressedSize(uncompressedSize);
+            if (compressionDictionaryId != 0) {
+                messageMetadata.setCompressionDictionaryId(compressionDictionaryId);
+            }
         }
 
         // Update the current max batch size using the uncompressed size, which is what we need in any case to
@@ -137,7 +136,10 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
 
     @Override
     public void clear() {
-        messages = Lists.newArrayList();
+        if (!messages.isEmpty()) {
+            // the list was handed over to the OpSendMsg of the batch
+            messages = Lists.newArrayList();
+        }
         firstCallback = null;
         previousCallback = null;
         messageMetadata.clear();
@@ -145,7 +147,11 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
         currentBatchSizeBytes = 0;
         lowestSequenceId = -1L;
         highestSequenceId = -1L;
-        batchedMessageMetadataAndPayload = null;
+        if (batchedMessageMetadataAndPayload != null) {
+            // the batch was discarded
+            batchedMessageMetadataAndPayload.release();
+            batchedMessageMetadataAndPayload = null;
+        }
         currentTxnidMostBits = -1L;
         currentTxnidLeastBits = -1L;
     }
@@ -195,6 +201,8 @@ class BatchMessageContainerImpl extends AbstractBatchMessageContainer {
 
         OpSendMsg op = OpSendMsg.create(messages, cmd, messageMetadata.getSequenceId(),
                 messageMetadata.getHighestSequenceId(), firstCallback);
+        // go on with the list of a batch already sent, if the op was recycled from one
+        messages = op.takeRecycledMessagesList();
 
         op.setNumMessagesInBatch(numMessagesInBatch);
         op.setBatchSizeByte(currentBatchSizeBytes);
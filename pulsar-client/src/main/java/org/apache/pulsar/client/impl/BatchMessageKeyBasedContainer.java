@@ -70,6 +70,7 @@ class BatchMessageKeyBasedContainer extends AbstractBatchMessageContainer {
             part.addMsg(msg, callback);
             part.compressionType = compressionType;
             part.compressor = compressor;
+            part.compressionDictionaryId = compressionDictionaryId;
             part.maxBatchSize = maxBatchSize;
             part.topicName = topicName;
             part.producerName = producerName;
@@ -195,6 +196,7 @@ class BatchMessageKeyBasedContainer extends AbstractBatchMessageContainer {
         private SendCallback previousCallback = null;
         private CompressionType compressionType;
         private CompressionCodec compressor;
+        private int compressionDictionaryId;
         private int maxBatchSize;
         private String topicName;
         private String producerName;
@@ -213,6 +215,9 @@ class BatchMessageKeyBasedContainer extends AbstractBatchMessageContainer {
             if (compressionType != CompressionType.NONE) {
                 messageMetadata.setCompression(compressionType);
                 messageMetadata.setUncompressedSize(uncompressedSize);
+                if (compressionDictionaryId != 0) {
+                    messageMetadata.setCompressionDictionaryId(compressionDictionaryId);
+                }
             }
 
             // Update the current max batch size using the uncompressed size, which is what we need in any case to
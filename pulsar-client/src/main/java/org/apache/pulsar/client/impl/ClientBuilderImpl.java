@@ -155,6 +155,15 @@ public class ClientBuilderImpl implements ClientBuilder {
         return this;
     }
 
+    @Override
+    public ClientBuilder payloadProcessingThreads(int numPayloadProcessingThreads) {
+        if (numPayloadProcessingThreads < 0) {
+            throw new IllegalArgumentException("numPayloadProcessingThreads must not be negative");
+        }
+        conf.setNumPayloadProcessingThreads(numPayloadProcessingThreads);
+        return this;
+    }
+
     @Override
     public ClientBuilder connectionsPerBroker(int connectionsPerBroker) {
         conf.setConnectionsPerBroker(connectionsPerBroker);
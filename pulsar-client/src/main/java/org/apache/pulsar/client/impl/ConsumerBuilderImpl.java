@@ -54,6 +54,8 @@ import org.apache.pulsar.client.impl.DefaultCryptoKeyReader;
 import org.apache.pulsar.client.impl.conf.ConfigurationDataUtils;
 import org.apache.pulsar.client.impl.conf.ConsumerConfigurationData;
 import org.apache.pulsar.client.util.RetryMessageUtil;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.util.FutureUtil;
 
@@ -270,6 +272,15 @@ public class ConsumerBuilderImpl<T> implements ConsumerBuilder<T> {
         return this;
     }
 
+    @Override
+    public ConsumerBuilder<T> compressionDictionary(@NonNull byte[] dictionary) {
+        CompressionCodecProvider.checkZstdDictionarySupport();
+        checkArgument(CompressionCodecZstdDictionary.getDictionaryId(dictionary) != 0,
+                "Not a valid Zstd dictionary");
+        conf.getCompressionDictionaries().add(dictionary);
+        return this;
+    }
+
     @Override
     public ConsumerBuilder<T> receiverQueueSize(int receiverQueueSize) {
         checkArgument(receiverQueueSize >= 0, "receiverQueueSize needs to be >= 0");
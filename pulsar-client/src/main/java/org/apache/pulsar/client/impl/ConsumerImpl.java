@@ -32,6 +32,7 @@ import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.Timeout;
+import io.netty.util.internal.PlatformDependent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -47,6 +49,8 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
@@ -92,6 +96,7 @@ import org.apache.pulsar.common.api.proto.ProtocolVersion;
 import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
 import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.schema.SchemaInfo;
@@ -183,6 +188,28 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
 
     private final boolean createTopicIfDoesNotExist;
 
+    // codecs for the Zstd dictionaries the consumer was configured with, by dictionary id
+    private final Map<Integer, CompressionCodec> compressionDictionaries;
+
+    // when set, the received payloads are decompressed and split on this executor, see offloadMessage()
+    private final ExecutorService payloadProcessingExecutor;
+    private final Queue<OffloadedMessage> offloadedMessages;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ConsumerImpl> OFFLOADED_MESSAGES_DRAINERS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ConsumerImpl.class, "offloadedMessagesDrainers");
+    @SuppressWarnings("unused")
+    private volatile int offloadedMessagesDrainers = 0;
+    // the offloaded messages from an older epoch are dropped instead of being added to the receiver queue, see
+    // discardOffloadedMessages()
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ConsumerImpl> OFFLOADED_MESSAGES_EPOCH_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ConsumerImpl.class, "offloadedMessagesEpoch");
+    private volatile int offloadedMessagesEpoch = 0;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ConsumerImpl> OFFLOADED_MESSAGES_SUBSCRIBE_EPOCH_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ConsumerImpl.class, "offloadedMessagesSubscribeEpoch");
+    private volatile int offloadedMessagesSubscribeEpoch = 0;
+
     private final AtomicReference<ClientCnx> clientCnxUsedForConsumerRegistration = new AtomicReference<>();
 
     static <T> ConsumerImpl<T> newConsumerImpl(PulsarClientImpl client,
@@ -246,6 +273,18 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
         this.negativeAcksTracker = new NegativeAcksTracker(this, conf);
         this.resetIncludeHead = conf.isResetIncludeHead();
         this.createTopicIfDoesNotExist = createTopicIfDoesNotExist;
+        if (conf.getCompressionDictionaries().isEmpty()) {
+            this.compressionDictionaries = Collections.emptyMap();
+        } else {
+            this.compressionDictionaries = new HashMap<>();
+            for (byte[] dictionary : conf.getCompressionDictionaries()) {
+                CompressionCodecZstdDictionary codec = new CompressionCodecZstdDictionary(dictionary);
+                compressionDictionaries.put(codec.getDictionaryId(), codec);
+            }
+        }
+        // the zero queue consumer hands the messages over one at a time, there's nothing to process in parallel
+        this.payloadProcessingExecutor = conf.getReceiverQueueSize() > 0 ? client.payloadProcessingExecutor() : null;
+        this.offloadedMessages = payloadProcessingExecutor != null ? PlatformDependent.newMpscQueue() : null;
         this.maxPendingChunkedMessage = conf.getMaxPendingChuckedMessage();
         this.pendingChunkedMessageUuidQueue = new GrowableArrayBlockingQueue<>();
         this.expireTimeOfIncompleteChunkedMessageMillis = conf.getExpireTimeOfIncompleteChunkedMessageMillis();
@@ -690,7 +729,12 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
             deregisterFromClientCnx();
             client.cleanupConsumer(this);
             failPendingReceive();
-            clearReceiverQueue();
+            lock.writeLock().lock();
+            try {
+                clearReceiverQueue();
+            } finally {
+                lock.writeLock().unlock();
+            }
             return;
         }
         setClientCnx(cnx);
@@ -700,12 +744,17 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
         long requestId = client.newRequestId();
 
         int currentSize;
-        synchronized (this) {
-            currentSize = incomingMessages.size();
-            startMessageId = clearReceiverQueue();
-            if (possibleSendToDeadLetterTopicMessages != null) {
-                possibleSendToDeadLetterTopicMessages.clear();
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                currentSize = incomingMessages.size();
+                startMessageId = clearReceiverQueue();
+                if (possibleSendToDeadLetterTopicMessages != null) {
+                    possibleSendToDeadLetterTopicMessages.clear();
+                }
             }
+        } finally {
+            lock.writeLock().unlock();
         }
 
         boolean isDurable = subscriptionMode == SubscriptionMode.Durable;
@@ -812,6 +861,7 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
      * not seen by the application
      */
     private BatchMessageIdImpl clearReceiverQueue() {
+        discardOffloadedMessages(true);
         List<Message<?>> currentMessageQueue = new ArrayList<>(incomingMessages.size());
         incomingMessages.drainTo(currentMessageQueue);
         resetIncomingMessageSize();
@@ -979,23 +1029,66 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
                     messageId.getEntryId());
         }
 
+        if (payloadProcessingExecutor != null) {
+            offloadMessage(messageId, redeliveryCount, ackSet, headersAndPayload, cnx);
+        } else {
+            processMessage(messageId, redeliveryCount, ackSet, headersAndPayload, cnx, null);
+        }
+    }
+
+    /**
+     * Verify the checksum of a received message and parse its metadata.
+     *
+     * @param msgMetadata the instance to parse the metadata into, or null to use the thread local instance
+     * @return the metadata, or null if the message was discarded
+     */
+    private MessageMetadata verifyAndParseMessageMetadata(MessageIdData messageId, ByteBuf headersAndPayload,
+            ClientCnx cnx, MessageMetadata msgMetadata) {
         if (!verifyChecksum(headersAndPayload, messageId)) {
             // discard message with checksum error
             discardCorruptedMessage(messageId, cnx, ValidationError.ChecksumMismatch);
-            return;
+            return null;
         }
 
-        MessageMetadata msgMetadata;
         try {
-            msgMetadata = Commands.parseMessageMetadata(headersAndPayload);
+            if (msgMetadata == null) {
+                return Commands.parseMessageMetadata(headersAndPayload);
+            }
+            Commands.parseMessageMetadata(headersAndPayload, msgMetadata);
+            return msgMetadata;
         } catch (Throwable t) {
             discardCorruptedMessage(messageId, cnx, ValidationError.ChecksumMismatch);
-            return;
+            return null;
         }
+    }
 
-        final int numMessages = msgMetadata.getNumMessagesInBatch();
+    private boolean isChunkedMessage(MessageMetadata msgMetadata) {
         final int numChunks = msgMetadata.hasNumChunksFromMsg() ? msgMetadata.getNumChunksFromMsg() : 0;
-        final boolean isChunkedMessage = numChunks > 1 && conf.getSubscriptionType() != SubscriptionType.Shared;
+        return numChunks > 1 && conf.getSubscriptionType() != SubscriptionType.Shared;
+    }
+
+    private static boolean isBatch(MessageMetadata msgMetadata) {
+        return msgMetadata.getNumMessagesInBatch() != 1 || msgMetadata.hasNumMessagesInBatch();
+    }
+
+    /**
+     * Process a received message, possibly after its payload was already prepared by
+     * {@link #preprocessOffloadedMessage(OffloadedMessage)}.
+     */
+    private void processMessage(MessageIdData messageId, int redeliveryCount, List<Long> ackSet,
+            ByteBuf headersAndPayload, ClientCnx cnx, OffloadedMessage preprocessed) {
+        MessageMetadata msgMetadata;
+        if (preprocessed != null && preprocessed.msgMetadata != null) {
+            msgMetadata = preprocessed.msgMetadata;
+        } else {
+            msgMetadata = verifyAndParseMessageMetadata(messageId, headersAndPayload, cnx, null);
+            if (msgMetadata == null) {
+                return;
+            }
+        }
+
+        final int numMessages = msgMetadata.getNumMessagesInBatch();
+        final boolean isChunkedMessage = isChunkedMessage(msgMetadata);
 
         MessageIdImpl msgId = new MessageIdImpl(messageId.getLedgerId(), messageId.getEntryId(), getPartitionIndex());
         if (acknowledgmentsGroupingTracker.isDuplicate(msgId)) {
@@ -1008,22 +1101,31 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
             return;
         }
 
-        ByteBuf decryptedPayload = decryptPayloadIfNeeded(messageId, msgMetadata, headersAndPayload, cnx);
+        boolean isMessageUndecryptable;
+        ByteBuf uncompressedPayload;
+        if (preprocessed != null && preprocessed.uncompressedPayload != null) {
+            // the payload was not encrypted and was already uncompressed
+            isMessageUndecryptable = false;
+            uncompressedPayload = preprocessed.uncompressedPayload;
+            preprocessed.uncompressedPayload = null;
+        } else {
+            ByteBuf decryptedPayload = decryptPayloadIfNeeded(messageId, msgMetadata, headersAndPayload, cnx);
 
-        boolean isMessageUndecryptable = isMessageUndecryptable(msgMetadata);
+            isMessageUndecryptable = isMessageUndecryptable(msgMetadata);
 
-        if (decryptedPayload == null) {
-            // Message was discarded or CryptoKeyReader isn't implemented
-            return;
-        }
+            if (decryptedPayload == null) {
+                // Message was discarded or CryptoKeyReader isn't implemented
+                return;
+            }
 
-        // uncompress decryptedPayload and release decryptedPayload-ByteBuf
-        ByteBuf uncompressedPayload = (isMessageUndecryptable || isChunkedMessage) ? decryptedPayload.retain()
-                : uncompressPayloadIfNeeded(messageId, msgMetadata, decryptedPayload, cnx, true);
-        decryptedPayload.release();
-        if (uncompressedPayload == null) {
-            // Message was discarded on decompression error
-            return;
+            // uncompress decryptedPayload and release decryptedPayload-ByteBuf
+            uncompressedPayload = (isMessageUndecryptable || isChunkedMessage) ? decryptedPayload.retain()
+                    : uncompressPayloadIfNeeded(messageId, msgMetadata, decryptedPayload, cnx, true);
+            decryptedPayload.release();
+            if (uncompressedPayload == null) {
+                // Message was discarded on decompression error
+                return;
+            }
         }
 
         // if message is not decryptable then it can't be parsed as a batch-message. so, add EncyrptionCtx to message
@@ -1055,6 +1157,9 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
 
             lock.readLock().lock();
             try {
+                if (isStaleOffloadedMessage(preprocessed, cnx, numMessages)) {
+                    return;
+                }
                 // Enqueue the message so that it can be retrieved when application calls receive()
                 // if the conf.getReceiverQueueSize() is 0 then discard message if no one is waiting for it.
                 // if asyncReceive is waiting then notify callback without adding to incomingMessages queue
@@ -1073,7 +1178,9 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
             }
         } else {
             // handle batch message enqueuing; uncompressed payload has all messages in batch
-            receiveIndividualMessagesFromBatch(msgMetadata, redeliveryCount, ackSet, uncompressedPayload, messageId, cnx);
+            SplitBatch splitBatch = preprocessed != null ? preprocessed.takeSplitBatch() : null;
+            receiveIndividualMessagesFromBatch(msgMetadata, redeliveryCount, ackSet, uncompressedPayload,
+                    splitBatch, messageId, cnx, preprocessed);
 
             uncompressedPayload.release();
         }
@@ -1083,6 +1190,272 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
         }
     }
 
+    /**
+     * Hand the verification, decompression and batch splitting of a received message over to the payload processing
+     * executor.
+     *
+     * <p>The messages are queued in the order they were received. Whichever thread prepares the message at the head
+     * of the queue then processes all the prepared messages in that order, so the application still gets them in
+     * the order they were received.
+     */
+    private void offloadMessage(MessageIdData messageId, int redeliveryCount, List<Long> ackSet,
+            ByteBuf headersAndPayload, ClientCnx cnx) {
+        // the message id belongs to the command, which is reused for the next commands read from the connection
+        OffloadedMessage offloaded = new OffloadedMessage(new MessageIdData().copyFrom(messageId), redeliveryCount,
+                ackSet, headersAndPayload.retainedDuplicate(), cnx, offloadedMessagesEpoch,
+                offloadedMessagesSubscribeEpoch);
+        offloadedMessages.add(offloaded);
+        try {
+            payloadProcessingExecutor.execute(new OffloadedMessageTask(offloaded));
+        } catch (RejectedExecutionException e) {
+            // the client is shutting down: process the message as it is
+            offloaded.ready = true;
+            drainOffloadedMessages();
+        }
+    }
+
+    /**
+     * Drop the messages that are being processed on the payload processing executor, because the receiver queue is
+     * being cleared and the broker will deliver them again.
+     *
+     * @param resubscribing whether the consumer is subscribing again, which resets the permits
+     */
+    private void discardOffloadedMessages(boolean resubscribing) {
+        if (offloadedMessages == null) {
+            return;
+        }
+        if (resubscribing) {
+            OFFLOADED_MESSAGES_SUBSCRIBE_EPOCH_UPDATER.incrementAndGet(this);
+        }
+        OFFLOADED_MESSAGES_EPOCH_UPDATER.incrementAndGet(this);
+    }
+
+    /**
+     * Check, with the read lock held, that the receiver queue was not cleared since an offloaded message was received,
+     * so that it doesn't end up in the queue after it. The permits of a dropped message are given back when the
+     * consumer didn't subscribe again.
+     *
+     * @param offloaded the offloaded message being processed, or null if it was processed when received
+     * @return whether the message has to be dropped
+     */
+    private boolean isStaleOffloadedMessage(OffloadedMessage offloaded, ClientCnx cnx, int numMessages) {
+        if (offloaded == null || offloaded.epoch == offloadedMessagesEpoch) {
+            return false;
+        }
+        if (offloaded.subscribeEpoch == offloadedMessagesSubscribeEpoch) {
+            increaseAvailablePermits(cnx, numMessages);
+        }
+        return true;
+    }
+
+    private void preprocessOffloadedMessage(OffloadedMessage offloaded) {
+        ByteBuf headersAndPayload = offloaded.headersAndPayload;
+        int readerIndex = headersAndPayload.readerIndex();
+        try {
+            State state = getState();
+            if (offloaded.subscribeEpoch != offloadedMessagesSubscribeEpoch
+                    || state == State.Closing || state == State.Closed) {
+                // the message will be dropped, don't bother preparing it
+                return;
+            }
+            // the metadata is used on another thread, it can't be the thread local instance
+            MessageMetadata msgMetadata = verifyAndParseMessageMetadata(offloaded.messageId, headersAndPayload,
+                    offloaded.cnx, new MessageMetadata());
+            if (msgMetadata == null) {
+                offloaded.discarded = true;
+                return;
+            }
+            offloaded.msgMetadata = msgMetadata;
+
+            // decryption and chunks are only handled in order
+            if (msgMetadata.getEncryptionKeysCount() > 0 || isChunkedMessage(msgMetadata)) {
+                return;
+            }
+            ByteBuf uncompressedPayload = uncompressPayloadIfNeeded(offloaded.messageId, msgMetadata,
+                    headersAndPayload, offloaded.cnx, true);
+            if (uncompressedPayload == null) {
+                offloaded.discarded = true;
+                return;
+            }
+            offloaded.uncompressedPayload = uncompressedPayload;
+
+            if (isBatch(msgMetadata)) {
+                offloaded.splitBatch = SplitBatch.split(uncompressedPayload, msgMetadata.getNumMessagesInBatch());
+            }
+        } catch (Throwable t) {
+            // let the message be processed from scratch, in order
+            if (log.isDebugEnabled()) {
+                log.debug("[{}][{}] Failed to preprocess message {}/{}", topic, subscription,
+                        offloaded.messageId.getLedgerId(), offloaded.messageId.getEntryId(), t);
+            }
+            offloaded.releasePreprocessed();
+            offloaded.msgMetadata = null;
+            headersAndPayload.readerIndex(readerIndex);
+        } finally {
+            offloaded.ready = true;
+        }
+    }
+
+    private void drainOffloadedMessages() {
+        if (OFFLOADED_MESSAGES_DRAINERS_UPDATER.getAndIncrement(this) != 0) {
+            // another thread is processing the messages, it will pick this one up
+            return;
+        }
+        int missed = 1;
+        do {
+            OffloadedMessage offloaded;
+            while ((offloaded = offloadedMessages.peek()) != null && offloaded.ready) {
+                offloadedMessages.poll();
+                try {
+                    processOffloadedMessage(offloaded);
+                } catch (Throwable t) {
+                    log.error("[{}][{}] Failed to process message {}/{}", topic, subscription,
+                            offloaded.messageId.getLedgerId(), offloaded.messageId.getEntryId(), t);
+                } finally {
+                    offloaded.release();
+                }
+            }
+            missed = OFFLOADED_MESSAGES_DRAINERS_UPDATER.addAndGet(this, -missed);
+        } while (missed != 0);
+    }
+
+    private void processOffloadedMessage(OffloadedMessage offloaded) {
+        if (offloaded.discarded) {
+            return;
+        }
+        State state = getState();
+        if (offloaded.cnx != cnx() || offloaded.subscribeEpoch != offloadedMessagesSubscribeEpoch
+                || state == State.Closing || state == State.Closed) {
+            // the consumer was closed or subscribed again in the meantime, the broker will deliver the message again
+            return;
+        }
+        if (offloaded.epoch != offloadedMessagesEpoch) {
+            // the receiver queue was cleared by a seek or a redelivery, the broker will deliver the message again
+            increaseAvailablePermits(offloaded.cnx,
+                    offloaded.msgMetadata != null ? offloaded.msgMetadata.getNumMessagesInBatch() : 1);
+            return;
+        }
+        processMessage(offloaded.messageId, offloaded.redeliveryCount, offloaded.ackSet, offloaded.headersAndPayload,
+                offloaded.cnx, offloaded);
+    }
+
+    /**
+     * Prepares an offloaded message on the payload processing executor.
+     */
+    final class OffloadedMessageTask implements Runnable {
+        private final OffloadedMessage offloaded;
+
+        private OffloadedMessageTask(OffloadedMessage offloaded) {
+            this.offloaded = offloaded;
+        }
+
+        @Override
+        public void run() {
+            preprocessOffloadedMessage(offloaded);
+            drainOffloadedMessages();
+        }
+
+        /**
+         * Drop the message of a task that will never run, because the executor was shut down.
+         */
+        void discard() {
+            offloaded.discarded = true;
+            offloaded.ready = true;
+            drainOffloadedMessages();
+        }
+    }
+
+    /**
+     * A received message waiting in {@link #offloadedMessages}, along with what was already prepared for it.
+     */
+    private static final class OffloadedMessage {
+        final MessageIdData messageId;
+        final int redeliveryCount;
+        final List<Long> ackSet;
+        final ByteBuf headersAndPayload;
+        final ClientCnx cnx;
+        final int epoch;
+        final int subscribeEpoch;
+
+        // set by the payload processing thread before the message is marked as ready
+        MessageMetadata msgMetadata;
+        boolean discarded;
+        ByteBuf uncompressedPayload;
+        SplitBatch splitBatch;
+        volatile boolean ready;
+
+        OffloadedMessage(MessageIdData messageId, int redeliveryCount, List<Long> ackSet, ByteBuf headersAndPayload,
+                ClientCnx cnx, int epoch, int subscribeEpoch) {
+            this.messageId = messageId;
+            this.redeliveryCount = redeliveryCount;
+            this.ackSet = ackSet;
+            this.headersAndPayload = headersAndPayload;
+            this.cnx = cnx;
+            this.epoch = epoch;
+            this.subscribeEpoch = subscribeEpoch;
+        }
+
+        SplitBatch takeSplitBatch() {
+            SplitBatch splitBatch = this.splitBatch;
+            this.splitBatch = null;
+            return splitBatch;
+        }
+
+        void releasePreprocessed() {
+            if (uncompressedPayload != null) {
+                uncompressedPayload.release();
+                uncompressedPayload = null;
+            }
+            if (splitBatch != null) {
+                splitBatch.release();
+                splitBatch = null;
+            }
+        }
+
+        void release() {
+            releasePreprocessed();
+            headersAndPayload.release();
+        }
+    }
+
+    /**
+     * The individual messages of a batch, deserialized ahead of time.
+     */
+    private static final class SplitBatch {
+        final SingleMessageMetadata[] metadata;
+        final ByteBuf[] payloads;
+
+        private SplitBatch(int batchSize) {
+            this.metadata = new SingleMessageMetadata[batchSize];
+            this.payloads = new ByteBuf[batchSize];
+        }
+
+        static SplitBatch split(ByteBuf uncompressedPayload, int batchSize) throws IOException {
+            SplitBatch splitBatch = new SplitBatch(batchSize);
+            int readerIndex = uncompressedPayload.readerIndex();
+            try {
+                for (int i = 0; i < batchSize; i++) {
+                    splitBatch.metadata[i] = new SingleMessageMetadata();
+                    splitBatch.payloads[i] = Commands.deSerializeSingleMessageInBatch(uncompressedPayload,
+                            splitBatch.metadata[i], i, batchSize);
+                }
+            } catch (IOException | RuntimeException e) {
+                splitBatch.release();
+                uncompressedPayload.readerIndex(readerIndex);
+                throw e;
+            }
+            return splitBatch;
+        }
+
+        void release() {
+            for (ByteBuf payload : payloads) {
+                if (payload != null) {
+                    payload.release();
+                }
+            }
+        }
+    }
+
     private boolean isTxnMessage(MessageMetadata messageMetadata) {
         return messageMetadata.hasTxnidMostBits() && messageMetadata.hasTxnidLeastBits();
     }
@@ -1218,6 +1591,13 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
 
     void receiveIndividualMessagesFromBatch(MessageMetadata msgMetadata, int redeliveryCount, List<Long> ackSet, ByteBuf uncompressedPayload,
             MessageIdData messageId, ClientCnx cnx) {
+        receiveIndividualMessagesFromBatch(msgMetadata, redeliveryCount, ackSet, uncompressedPayload, null, messageId,
+                cnx, null);
+    }
+
+    private void receiveIndividualMessagesFromBatch(MessageMetadata msgMetadata, int redeliveryCount,
+            List<Long> ackSet, ByteBuf uncompressedPayload, SplitBatch splitBatch, MessageIdData messageId,
+            ClientCnx cnx, OffloadedMessage offloaded) {
         int batchSize = msgMetadata.getNumMessagesInBatch();
 
         // create ack tracker for entry aka batch
@@ -1234,7 +1614,7 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
             ackBitSet = BitSetRecyclable.valueOf(SafeCollectionUtils.longListToArray(ackSet));
         }
 
-        SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+        SingleMessageMetadata singleMessageMetadata = splitBatch == null ? new SingleMessageMetadata() : null;
         int skippedMessages = 0;
         try {
             for (int i = 0; i < batchSize; ++i) {
@@ -1242,8 +1622,14 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
                     log.debug("[{}] [{}] processing message num - {} in batch", subscription, consumerName, i);
                 }
 
-                ByteBuf singleMessagePayload = Commands.deSerializeSingleMessageInBatch(uncompressedPayload,
-                        singleMessageMetadata, i, batchSize);
+                ByteBuf singleMessagePayload;
+                if (splitBatch != null) {
+                    singleMessageMetadata = splitBatch.metadata[i];
+                    singleMessagePayload = splitBatch.payloads[i];
+                } else {
+                    singleMessagePayload = Commands.deSerializeSingleMessageInBatch(uncompressedPayload,
+                            singleMessageMetadata, i, batchSize);
+                }
 
                 if (isSameEntry(messageId) && isPriorBatchIndex(i)) {
                     // If we are receiving a batch message, we need to discard messages that were prior
@@ -1282,6 +1668,11 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
                 }
                 lock.readLock().lock();
                 try {
+                    if (isStaleOffloadedMessage(offloaded, cnx, 1)) {
+                        // the rest of the batch is dropped as well
+                        singleMessagePayload.release();
+                        continue;
+                    }
                     if (peekPendingReceive() != null) {
                         notifyPendingReceivedCallback(message, null);
                     } else if (enqueueMessageAndCheckBatchReceive(message)) {
@@ -1474,7 +1865,21 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
     private ByteBuf uncompressPayloadIfNeeded(MessageIdData messageId, MessageMetadata msgMetadata, ByteBuf payload,
             ClientCnx currentCnx, boolean checkMaxMessageSize) {
         CompressionType compressionType = msgMetadata.getCompression();
-        CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(compressionType);
+        CompressionCodec codec;
+        if (msgMetadata.hasCompressionDictionaryId()) {
+            codec = compressionDictionaries.get(msgMetadata.getCompressionDictionaryId());
+            if (codec == null) {
+                // The message is kept unacknowledged, to be consumed once the consumer is given the dictionary
+                MessageId m = new MessageIdImpl(messageId.getLedgerId(), messageId.getEntryId(), partitionIndex);
+                log.error("[{}][{}][{}][{}] Message delivery failed since it was compressed with unknown dictionary {}",
+                        topic, subscription, consumerName, m,
+                        Integer.toUnsignedLong(msgMetadata.getCompressionDictionaryId()));
+                unAckedMessageTracker.add(m);
+                return null;
+            }
+        } else {
+            codec = CompressionCodecProvider.getCompressionCodec(compressionType);
+        }
         int uncompressedSize = msgMetadata.getUncompressedSize();
         int payloadSize = payload.readableBytes();
         if (checkMaxMessageSize && payloadSize > ClientCnx.getMaxMessageSize()) {
@@ -1556,11 +1961,17 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
         ClientCnx cnx = cnx();
         if (isConnected() && cnx.getRemoteEndpointProtocolVersion() >= ProtocolVersion.v2.getValue()) {
             int currentSize = 0;
-            synchronized (this) {
-                currentSize = incomingMessages.size();
-                incomingMessages.clear();
-                resetIncomingMessageSize();
-                unAckedMessageTracker.clear();
+            lock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    discardOffloadedMessages(false);
+                    currentSize = incomingMessages.size();
+                    incomingMessages.clear();
+                    resetIncomingMessageSize();
+                    unAckedMessageTracker.clear();
+                }
+            } finally {
+                lock.writeLock().unlock();
             }
             cnx.ctx().writeAndFlush(Commands.newRedeliverUnacknowledgedMessages(consumerId), cnx.ctx().voidPromise());
             if (currentSize > 0) {
@@ -1777,8 +2188,14 @@ public class ConsumerImpl<T> extends ConsumerBase<T> implements ConnectionHandle
             duringSeek.set(true);
             lastDequeuedMessageId = MessageId.earliest;
 
-            incomingMessages.clear();
-            resetIncomingMessageSize();
+            lock.writeLock().lock();
+            try {
+                discardOffloadedMessages(false);
+                incomingMessages.clear();
+                resetIncomingMessageSize();
+            } finally {
+                lock.writeLock().unlock();
+            }
             seekFuture.complete(null);
         }).exceptionally(e -> {
             log.error("[{}][{}] Failed to reset subscription: {}", topic, subscription, e.getCause().getMessage());
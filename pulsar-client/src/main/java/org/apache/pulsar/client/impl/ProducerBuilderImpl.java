@@ -48,6 +48,8 @@ import org.apache.pulsar.client.api.interceptor.ProducerInterceptorWrapper;
 import org.apache.pulsar.client.impl.DefaultCryptoKeyReader;
 import org.apache.pulsar.client.impl.conf.ConfigurationDataUtils;
 import org.apache.pulsar.client.impl.conf.ProducerConfigurationData;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.util.FutureUtil;
 
 import lombok.NonNull;
@@ -101,6 +103,8 @@ public class ProducerBuilderImpl<T> implements ProducerBuilder<T> {
         // config validation
         checkArgument(!(conf.isBatchingEnabled() && conf.isChunkingEnabled()),
                 "Batching and chunking of messages can't be enabled together");
+        checkArgument(conf.getCompressionDictionary() == null || conf.getCompressionType() == CompressionType.ZSTD,
+                "Compression dictionaries can only be used with ZSTD compression");
         if (conf.getTopicName() == null) {
             return FutureUtil
                     .failedFuture(new IllegalArgumentException("Topic name must be set on the producer builder"));
@@ -326,6 +330,21 @@ public class ProducerBuilderImpl<T> implements ProducerBuilder<T> {
         return this;
     }
 
+    @Override
+    public ProducerBuilder<T> compressionDictionary(@NonNull byte[] dictionary) {
+        CompressionCodecProvider.checkZstdDictionarySupport();
+        checkArgument(CompressionCodecZstdDictionary.getDictionaryId(dictionary) != 0,
+                "Not a valid Zstd dictionary");
+        conf.setCompressionDictionary(dictionary);
+        return this;
+    }
+
+    @Override
+    public ProducerBuilder<T> enableLockFreeSendPipeline(boolean lockFreeSendPipeline) {
+        conf.setLockFreeSendPipelineEnabled(lockFreeSendPipeline);
+        return this;
+    }
+
     private void setMessageRoutingMode() throws PulsarClientException {
         if(conf.getMessageRoutingMode() == null && conf.getCustomMessageRouter() == null) {
             messageRoutingMode(MessageRoutingMode.RoundRobinPartition);
@@ -39,19 +39,25 @@ import io.netty.util.ReferenceCountUtil;
 import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
 import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.internal.PlatformDependent;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.client.api.BatcherBuilder;
@@ -75,6 +81,7 @@ import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.api.proto.ProtocolVersion;
 import org.apache.pulsar.common.compression.CompressionCodec;
 import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.protocol.ByteBufPair;
 import org.apache.pulsar.common.protocol.Commands;
@@ -114,6 +121,7 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
     private final ProducerStatsRecorder stats;
 
     private final CompressionCodec compressor;
+    private final int compressionDictionaryId;
 
     static final AtomicLongFieldUpdater<ProducerImpl> LAST_SEQ_ID_PUBLISHED_UPDATER = AtomicLongFieldUpdater
             .newUpdater(ProducerImpl.class, "lastSequenceIdPublished");
@@ -138,6 +146,15 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
 
     private Optional<Long> topicEpoch = Optional.empty();
 
+    // With the lock-free send pipeline, the application threads only enqueue the messages here and a single task at
+    // a time, on the send queue executor, adds them to the batch or the pending messages while holding the producer
+    // lock. Null when the pipeline is disabled.
+    private final Queue<Runnable> sendQueue;
+    private final Executor sendQueueExecutor;
+    private static final AtomicIntegerFieldUpdater<ProducerImpl> SEND_QUEUE_DRAINERS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ProducerImpl.class, "sendQueueDrainers");
+    private volatile int sendQueueDrainers = 0;
+
     @SuppressWarnings("rawtypes")
     private static final AtomicLongFieldUpdater<ProducerImpl> msgIdGeneratorUpdater = AtomicLongFieldUpdater
             .newUpdater(ProducerImpl.class, "msgIdGenerator");
@@ -155,8 +172,23 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         this.pendingMessages = createPendingMessagesQueue();
         this.pendingCallbacks = createPendingCallbacksQueue();
         this.semaphore = new Semaphore(conf.getMaxPendingMessages(), true);
+        if (conf.isLockFreeSendPipelineEnabled()) {
+            this.sendQueue = PlatformDependent.newMpscQueue();
+            this.sendQueueExecutor = client.eventLoopGroup().next();
+        } else {
+            this.sendQueue = null;
+            this.sendQueueExecutor = null;
+        }
 
-        this.compressor = CompressionCodecProvider.getCompressionCodec(conf.getCompressionType());
+        if (conf.getCompressionDictionary() != null) {
+            CompressionCodecZstdDictionary dictionaryCodec =
+                    new CompressionCodecZstdDictionary(conf.getCompressionDictionary());
+            this.compressor = dictionaryCodec;
+            this.compressionDictionaryId = dictionaryCodec.getDictionaryId();
+        } else {
+            this.compressor = CompressionCodecProvider.getCompressionCodec(conf.getCompressionType());
+            this.compressionDictionaryId = 0;
+        }
 
         if (conf.getInitialSequenceId() != null) {
             long initialSequenceId = conf.getInitialSequenceId();
@@ -441,6 +473,22 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
             }
         }
 
+        if (sendQueue != null) {
+            // the sequence id is assigned when the message is taken from the send queue, in the order of the queue
+            final ByteBuf finalCompressedPayload = compressedPayload;
+            final boolean finalCompressed = compressed;
+            final int finalTotalChunks = totalChunks;
+            enqueueSend(() -> sendQueuedMessage(msg, payload, finalCompressedPayload, finalCompressed,
+                    finalTotalChunks, uncompressedSize, callback));
+        } else {
+            serializeAndSendChunks(msg, payload, compressedPayload, compressed, totalChunks, uncompressedSize,
+                    callback);
+        }
+    }
+
+    private void serializeAndSendChunks(MessageImpl<?> msg, ByteBuf payload, ByteBuf compressedPayload,
+            boolean compressed, int totalChunks, int uncompressedSize, SendCallback callback) {
+        MessageMetadata msgMetadata = msg.getMessageBuilder();
         try {
             synchronized (this) {
                 int readStartIndex = 0;
@@ -467,6 +515,53 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         }
     }
 
+    private void enqueueSend(Runnable send) {
+        sendQueue.offer(send);
+        if (SEND_QUEUE_DRAINERS_UPDATER.getAndIncrement(this) == 0) {
+            try {
+                sendQueueExecutor.execute(this::drainSendQueue);
+            } catch (RejectedExecutionException e) {
+                // the client is shutting down, don't leave the queued messages behind
+                drainSendQueue();
+            }
+        }
+    }
+
+    private void drainSendQueue() {
+        int missed = 1;
+        do {
+            Runnable send;
+            while ((send = sendQueue.poll()) != null) {
+                try {
+                    send.run();
+                } catch (Throwable t) {
+                    log.error("[{}] [{}] Failed to process a queued send", topic, producerName, t);
+                }
+            }
+            missed = SEND_QUEUE_DRAINERS_UPDATER.addAndGet(this, -missed);
+        } while (missed != 0);
+    }
+
+    private void sendQueuedMessage(MessageImpl<?> msg, ByteBuf payload, ByteBuf compressedPayload,
+            boolean compressed, int totalChunks, int uncompressedSize, SendCallback callback) {
+        switch (getState()) {
+        case Ready:
+        case Connecting:
+        case RegisteringSchema:
+            serializeAndSendChunks(msg, payload, compressedPayload, compressed, totalChunks, uncompressedSize,
+                    callback);
+            break;
+        default:
+            // the producer was closed, fenced or terminated while the message was waiting in the send queue
+            compressedPayload.release();
+            semaphore.release(totalChunks);
+            client.getMemoryLimitController().releaseMemory(uncompressedSize);
+            MessageMetadata msgMetadata = msg.getMessageBuilder();
+            isValidProducerState(callback,
+                    msgMetadata.hasSequenceId() ? msgMetadata.getSequenceId() : lastSequenceIdPushed + 1);
+        }
+    }
+
     private void serializeAndSendMessage(MessageImpl<?> msg, ByteBuf payload,
             long sequenceId, String uuid, int chunkId, int totalChunks, int readStartIndex, int chunkMaxSizeInBytes, ByteBuf compressedPayload,
             boolean compressed, int compressedPayloadSize,
@@ -498,6 +593,9 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
             if (conf.getCompressionType() != CompressionType.NONE) {
                 msgMetadata
                         .setCompression(CompressionCodecProvider.convertToWireProtocol(conf.getCompressionType()));
+                if (compressionDictionaryId != 0) {
+                    msgMetadata.setCompressionDictionaryId(compressionDictionaryId);
+                }
             }
             msgMetadata.setUncompressedSize(uncompressedSize);
         }
@@ -1151,6 +1249,8 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         long highestSequenceId;
         int totalChunks = 0;
         int chunkId = -1;
+        // list of messages of the batch this op was recycled from, cleared, to be reused by the next batch
+        private List<MessageImpl<?>> recycledMsgs;
 
         static OpSendMsg create(MessageImpl<?> msg, ByteBufPair cmd, long sequenceId, SendCallback callback) {
             OpSendMsg op = RECYCLER.get();
@@ -1225,8 +1325,22 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
             }
         }
 
+        /**
+         * Returns an empty list for the messages of the next batch, which is the list of a previous batch when this
+         * op was recycled from one.
+         */
+        List<MessageImpl<?>> takeRecycledMessagesList() {
+            List<MessageImpl<?>> list = recycledMsgs;
+            recycledMsgs = null;
+            return list != null ? list : new ArrayList<>();
+        }
+
         void recycle() {
             msg = null;
+            if (msgs != null) {
+                msgs.clear();
+                recycledMsgs = msgs;
+            }
             msgs = null;
             cmd = null;
             callback = null;
@@ -1313,7 +1427,7 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         cnx.sendRequestWithId(
                 Commands.newProducer(topic, producerId, requestId, producerName, conf.isEncryptionEnabled(), metadata,
                        schemaInfo, connectionHandler.epoch, userProvidedProducerName,
-                       conf.getAccessMode(), topicEpoch),
+                       conf.getAccessMode(), topicEpoch, compressionDictionaryId),
                 requestId).thenAccept(response -> {
                     String producerName = response.getProducerName();
                     long lastSequenceId = response.getLastSequenceId();
@@ -1657,6 +1771,22 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
 
     @Override
     public CompletableFuture<Void> flushAsync() {
+        if (sendQueue != null) {
+            // flush once the messages sent before have been taken from the send queue
+            CompletableFuture<Void> flushFuture = new CompletableFuture<>();
+            enqueueSend(() -> doFlushAsync().whenComplete((ignored, e) -> {
+                if (e != null) {
+                    flushFuture.completeExceptionally(e);
+                } else {
+                    flushFuture.complete(null);
+                }
+            }));
+            return flushFuture;
+        }
+        return doFlushAsync();
+    }
+
+    private CompletableFuture<Void> doFlushAsync() {
         CompletableFuture<MessageId> lastSendFuture;
         synchronized (ProducerImpl.this) {
             if (isBatchMessagingEnabled()) {
@@ -1670,12 +1800,20 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
     @Override
     protected void triggerFlush() {
         if (isBatchMessagingEnabled()) {
-            synchronized (ProducerImpl.this) {
-                batchMessageAndSend();
+            if (sendQueue != null) {
+                enqueueSend(this::doTriggerFlush);
+            } else {
+                doTriggerFlush();
             }
         }
     }
 
+    private void doTriggerFlush() {
+        synchronized (ProducerImpl.this) {
+            batchMessageAndSend();
+        }
+    }
+
     // must acquire semaphore before enqueuing
     private void batchMessageAndSend() {
         if (log.isTraceEnabled()) {
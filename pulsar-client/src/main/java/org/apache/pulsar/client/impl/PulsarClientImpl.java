@@ -41,6 +41,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -96,6 +97,7 @@ public class PulsarClientImpl implements PulsarClient {
     private final Timer timer;
     private final ExecutorProvider externalExecutorProvider;
     private final ExecutorProvider internalExecutorService;
+    private final ExecutorService payloadProcessingExecutor;
 
     public enum State {
         Open, Closing, Closed
@@ -147,6 +149,10 @@ public class PulsarClientImpl implements PulsarClient {
         this.cnxPool = cnxPool;
         externalExecutorProvider = new ExecutorProvider(conf.getNumListenerThreads(), getThreadFactory("pulsar-external-listener"));
         internalExecutorService = new ExecutorProvider(conf.getNumIoThreads(), getThreadFactory("pulsar-client-internal"));
+        payloadProcessingExecutor = conf.getNumPayloadProcessingThreads() > 0
+                ? Executors.newFixedThreadPool(conf.getNumPayloadProcessingThreads(),
+                        getThreadFactory("pulsar-client-payload"))
+                : null;
         if (conf.getServiceUrl().startsWith("http")) {
             lookup = new HttpLookupService(conf, eventLoopGroup);
         } else {
@@ -652,6 +658,14 @@ public class PulsarClientImpl implements PulsarClient {
             timer.stop();
             externalExecutorProvider.shutdownNow();
             internalExecutorService.shutdownNow();
+            if (payloadProcessingExecutor != null) {
+                // the messages of the tasks that never ran have to be released
+                for (Runnable task : payloadProcessingExecutor.shutdownNow()) {
+                    if (task instanceof ConsumerImpl.OffloadedMessageTask) {
+                        ((ConsumerImpl<?>.OffloadedMessageTask) task).discard();
+                    }
+                }
+            }
             conf.getAuthentication().close();
         } catch (Throwable t) {
             log.warn("Failed to shutdown Pulsar client", t);
@@ -689,6 +703,14 @@ public class PulsarClientImpl implements PulsarClient {
         return externalExecutorProvider;
     }
 
+    /**
+     * The executor consumers offload the processing of the received payloads to, or null if they are processed on
+     * the IO threads.
+     */
+    ExecutorService payloadProcessingExecutor() {
+        return payloadProcessingExecutor;
+    }
+
     long newProducerId() {
         return producerIdGenerator.getAndIncrement();
     }
@@ -41,6 +41,8 @@ import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.impl.DefaultCryptoKeyReader;
 import org.apache.pulsar.client.impl.conf.ConfigurationDataUtils;
 import org.apache.pulsar.client.impl.conf.ReaderConfigurationData;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.compression.CompressionCodecZstdDictionary;
 import org.apache.pulsar.common.util.FutureUtil;
 
 @Getter(AccessLevel.PUBLIC)
@@ -160,6 +162,15 @@ public class ReaderBuilderImpl<T> implements ReaderBuilder<T> {
         return this;
     }
 
+    @Override
+    public ReaderBuilder<T> compressionDictionary(@NonNull byte[] dictionary) {
+        CompressionCodecProvider.checkZstdDictionarySupport();
+        checkArgument(CompressionCodecZstdDictionary.getDictionaryId(dictionary) != 0,
+                "Not a valid Zstd dictionary");
+        conf.getCompressionDictionaries().add(dictionary);
+        return this;
+    }
+
     @Override
     public ReaderBuilder<T> receiverQueueSize(int receiverQueueSize) {
         conf.setReceiverQueueSize(receiverQueueSize);
@@ -88,6 +88,7 @@ public class ReaderImpl<T> implements Reader<T> {
         }
 
         consumerConfiguration.setCryptoFailureAction(readerConfiguration.getCryptoFailureAction());
+        consumerConfiguration.getCompressionDictionaries().addAll(readerConfiguration.getCompressionDictionaries());
         if (readerConfiguration.getCryptoKeyReader() != null) {
             consumerConfiguration.setCryptoKeyReader(readerConfiguration.getCryptoKeyReader());
         }
@@ -62,6 +62,7 @@ public class ClientConfigurationData implements Serializable, Cloneable {
 
     private int numIoThreads = 1;
     private int numListenerThreads = 1;
+    private int numPayloadProcessingThreads = 0;
     private int connectionsPerBroker = 1;
 
     private boolean useTcpNoDelay = true;
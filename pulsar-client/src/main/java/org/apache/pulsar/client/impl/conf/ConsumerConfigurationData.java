@@ -25,6 +25,8 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -100,6 +102,9 @@ public class ConsumerConfigurationData<T> implements Serializable, Cloneable {
 
     private ConsumerCryptoFailureAction cryptoFailureAction = ConsumerCryptoFailureAction.FAIL;
 
+    @JsonIgnore
+    private List<byte[]> compressionDictionaries = new ArrayList<>();
+
     private SortedMap<String, String> properties = new TreeMap<>();
 
     private boolean readCompacted = false;
@@ -148,6 +153,7 @@ public class ConsumerConfigurationData<T> implements Serializable, Cloneable {
             ConsumerConfigurationData<T> c = (ConsumerConfigurationData<T>) super.clone();
             c.topicNames = Sets.newTreeSet(this.topicNames);
             c.properties = Maps.newTreeMap(this.properties);
+            c.compressionDictionaries = new ArrayList<>(this.compressionDictionaries);
             return c;
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException("Failed to clone ConsumerConfigurationData");
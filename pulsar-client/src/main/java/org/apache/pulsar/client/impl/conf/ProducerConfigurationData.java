@@ -79,6 +79,7 @@ public class ProducerConfigurationData implements Serializable, Cloneable {
     @JsonIgnore
     private BatcherBuilder batcherBuilder = BatcherBuilder.DEFAULT;
     private boolean chunkingEnabled = false;
+    private boolean lockFreeSendPipelineEnabled = false;
 
     @JsonIgnore
     private CryptoKeyReader cryptoKeyReader;
@@ -91,6 +92,9 @@ public class ProducerConfigurationData implements Serializable, Cloneable {
 
     private CompressionType compressionType = CompressionType.NONE;
 
+    @JsonIgnore
+    private byte[] compressionDictionary = null;
+
     // Cannot use Optional<Long> since it's not serializable
     private Long initialSequenceId = null;
 
@@ -20,6 +20,7 @@ package org.apache.pulsar.client.impl.conf;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.pulsar.client.api.ConsumerCryptoFailureAction;
@@ -54,6 +55,9 @@ public class ReaderConfigurationData<T> implements Serializable, Cloneable {
     private CryptoKeyReader cryptoKeyReader = null;
     private ConsumerCryptoFailureAction cryptoFailureAction = ConsumerCryptoFailureAction.FAIL;
 
+    @JsonIgnore
+    private List<byte[]> compressionDictionaries = new ArrayList<>();
+
     private boolean readCompacted = false;
     private boolean resetIncludeHead = false;
 
@@ -62,7 +66,9 @@ public class ReaderConfigurationData<T> implements Serializable, Cloneable {
     @SuppressWarnings("unchecked")
     public ReaderConfigurationData<T> clone() {
         try {
-            return (ReaderConfigurationData<T>) super.clone();
+            ReaderConfigurationData<T> c = (ReaderConfigurationData<T>) super.clone();
+            c.compressionDictionaries = new ArrayList<>(this.compressionDictionaries);
+            return c;
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException("Failed to clone ReaderConfigurationData");
         }
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.impl.ProducerImpl.OpSendMsg;
+import org.apache.pulsar.client.impl.conf.ProducerConfigurationData;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BatchMessageContainerImplTest {
+
+    private BatchMessageContainerImpl container;
+    private long sequenceId = 0;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        ProducerConfigurationData conf = new ProducerConfigurationData();
+        ProducerImpl<?> producer = mock(ProducerImpl.class);
+        when(producer.getConfiguration()).thenReturn(conf);
+        when(producer.getTopic()).thenReturn("persistent://prop/ns/batch");
+        when(producer.getProducerName()).thenReturn("producer");
+        when(producer.encryptMessage(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(producer.sendMessage(anyLong(), anyLong(), anyLong(), anyInt(), any(), any()))
+                .thenAnswer(invocation -> {
+                    // keep the metadata and the batch payload together, that's all the tests look at
+                    ByteBuf payload = invocation.getArgument(5);
+                    ByteBuf metadataAndPayload = Commands.serializeMetadataAndPayload(ChecksumType.None,
+                            invocation.getArgument(4), payload);
+                    payload.release();
+                    return ByteBufPair.get(metadataAndPayload, Unpooled.EMPTY_BUFFER);
+                });
+
+        container = new BatchMessageContainerImpl();
+        container.setProducer(producer);
+    }
+
+    private MessageImpl<?> newMessage(String value) {
+        MessageMetadata metadata = new MessageMetadata()
+                .setProducerName("producer")
+                .setSequenceId(sequenceId++)
+                .setPublishTime(System.currentTimeMillis())
+                .setPartitionKey("key-" + value);
+        return MessageImpl.create(metadata, ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)), Schema.BYTES);
+    }
+
+    private void assertBatch(OpSendMsg op, String... values) throws Exception {
+        assertEquals(op.msgs.size(), values.length);
+        ByteBuf metadataAndPayload = op.cmd.getFirst();
+        MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
+        assertEquals(metadata.getNumMessagesInBatch(), values.length);
+        SingleMessageMetadata singleMetadata = new SingleMessageMetadata();
+        for (int i = 0; i < values.length; i++) {
+            ByteBuf payload = Commands.deSerializeSingleMessageInBatch(metadataAndPayload, singleMetadata, i,
+                    values.length);
+            assertEquals(payload.toString(StandardCharsets.UTF_8), values[i]);
+            assertEquals(singleMetadata.getPartitionKey(), "key-" + values[i]);
+            payload.release();
+        }
+    }
+
+    @Test
+    public void testBatchIsSerializedWhileAddingMessages() throws Exception {
+        assertFalse(container.add(newMessage("a"), null));
+        assertFalse(container.add(newMessage("bb"), null));
+        assertFalse(container.add(newMessage("ccc"), null));
+        assertEquals(container.getNumMessagesInBatch(), 3);
+        assertEquals(container.getCurrentBatchSize(), 6);
+
+        OpSendMsg op = container.createOpSendMsg();
+        container.clear();
+        assertTrue(container.isEmpty());
+        assertEquals(op.sequenceId, 0);
+        assertEquals(op.highestSequenceId, 2);
+        assertBatch(op, "a", "bb", "ccc");
+        op.cmd.release();
+        op.recycle();
+    }
+
+    @Test
+    public void testMessagesListIsReusedAcrossBatches() throws Exception {
+        container.add(newMessage("a"), null);
+        container.add(newMessage("b"), null);
+        OpSendMsg first = container.createOpSendMsg();
+        container.clear();
+        List<MessageImpl<?>> firstList = first.msgs;
+        first.cmd.release();
+        first.recycle();
+        // the recycled op keeps the list of its batch for the container
+        assertTrue(firstList.isEmpty());
+
+        container.add(newMessage("c"), null);
+        OpSendMsg second = container.createOpSendMsg();
+        container.clear();
+        assertBatch(second, "c");
+
+        container.add(newMessage("d"), null);
+        container.add(newMessage("e"), null);
+        OpSendMsg third = container.createOpSendMsg();
+        container.clear();
+        if (second == first) {
+            // same op object out of the recycler, the container went on with the list of the first batch
+            assertSame(third.msgs, firstList);
+        }
+        assertBatch(third, "d", "e");
+        second.cmd.release();
+        third.cmd.release();
+    }
+
+    @Test
+    public void testDiscardReleasesBatchBuffer() throws Exception {
+        container.add(newMessage("a"), null);
+        container.discard(new Exception("discarded"));
+        assertTrue(container.isEmpty());
+
+        container.add(newMessage("b"), null);
+        OpSendMsg op = container.createOpSendMsg();
+        container.clear();
+        assertBatch(op, "b");
+        op.cmd.release();
+        op.recycle();
+    }
+}
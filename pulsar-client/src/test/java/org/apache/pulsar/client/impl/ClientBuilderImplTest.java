@@ -70,4 +70,9 @@ public class ClientBuilderImplTest {
         }).build();
     }
 
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testClientBuilderWithNegativePayloadProcessingThreads() throws PulsarClientException {
+        PulsarClient.builder().serviceUrl("pulsar://localhost:6650").payloadProcessingThreads(-1);
+    }
+
 }
@@ -18,7 +18,9 @@
  */
 package org.apache.pulsar.common.compression;
 
+import io.netty.buffer.ByteBuf;
 import java.nio.ByteBuffer;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
 
 /**
  * Utilities.
@@ -35,4 +37,21 @@ public abstract class AirliftUtils {
         }
         return encodedNio;
     }
+
+    /**
+     * Airlift works either on a memory address or on a heap array. Buffers that have neither, such as composite
+     * buffers holding entries read from bookies, are copied into a pooled direct buffer rather than being merged
+     * into a newly allocated heap array by {@link ByteBuf#nioBuffer()}.
+     *
+     * @return the source itself, or a copy that needs to be released by the caller
+     */
+    static ByteBuf ensureAddressable(ByteBuf source) {
+        if (source.hasMemoryAddress() || source.hasArray()) {
+            return source;
+        }
+        int length = source.readableBytes();
+        ByteBuf copy = PulsarByteBufAllocator.DEFAULT.directBuffer(length, length);
+        copy.writeBytes(source, source.readerIndex(), length);
+        return copy;
+    }
 }
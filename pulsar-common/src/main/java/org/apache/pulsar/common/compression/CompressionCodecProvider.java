@@ -25,9 +25,15 @@ import org.apache.pulsar.client.api.CompressionType;
 /**
  * Provider of compression codecs used in Pulsar.
  *
+ * <p>The codecs work directly on the memory of direct buffers and only fall back to heap copies when the buffers
+ * can't be accessed that way. For ZLib this requires the {@link java.nio.ByteBuffer} support of
+ * {@link java.util.zip.Deflater} that was added in Java 11, so {@link CompressionCodecZLibDirect} is only used when
+ * running on Java 11 or later.
+ *
  * @see CompressionCodecNone
  * @see CompressionCodecLZ4
  * @see CompressionCodecZLib
+ * @see CompressionCodecZLibDirect
  * @see CompressionCodecZstd
  * @see CompressionCodecSnappy
  */
@@ -39,11 +45,28 @@ public class CompressionCodecProvider {
         codecs = new EnumMap<>(org.apache.pulsar.common.api.proto.CompressionType.class);
         codecs.put(org.apache.pulsar.common.api.proto.CompressionType.NONE, new CompressionCodecNone());
         codecs.put(org.apache.pulsar.common.api.proto.CompressionType.LZ4, new CompressionCodecLZ4());
-        codecs.put(org.apache.pulsar.common.api.proto.CompressionType.ZLIB, new CompressionCodecZLib());
+        codecs.put(org.apache.pulsar.common.api.proto.CompressionType.ZLIB,
+                CompressionCodecZLibDirect.isSupported() ? new CompressionCodecZLibDirect() : new CompressionCodecZLib());
         codecs.put(org.apache.pulsar.common.api.proto.CompressionType.ZSTD, new CompressionCodecZstd());
         codecs.put(org.apache.pulsar.common.api.proto.CompressionType.SNAPPY, new CompressionCodecSnappy());
     }
 
+    /**
+     * Check that the <code>com.github.luben:zstd-jni</code> library needed by
+     * {@link CompressionCodecZstdDictionary} is on the classpath.
+     *
+     * @throws IllegalStateException if the library is missing
+     */
+    public static void checkZstdDictionarySupport() {
+        try {
+            Class.forName("com.github.luben.zstd.ZstdDictCompress", false,
+                    CompressionCodecProvider.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IllegalStateException("Zstd dictionary compression requires the com.github.luben:zstd-jni"
+                    + " library on the classpath", e);
+        }
+    }
+
     public static CompressionCodec getCompressionCodec(org.apache.pulsar.common.api.proto.CompressionType type) {
         return codecs.get(type);
     }
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+
+/**
+ * ZLib Compression working on direct buffers.
+ *
+ * <p>Unlike {@link CompressionCodecZLib}, which needs to copy direct buffers into heap arrays, this codec hands the
+ * memory of the buffers to zlib through the {@link ByteBuffer} variants of {@link Deflater} and {@link Inflater}.
+ * Those are only available on Java 11 and later, so they are looked up at runtime and the codec can only be created
+ * when {@link #isSupported()}, see {@link CompressionCodecProvider}. The output is the same as
+ * {@link CompressionCodecZLib}.
+ */
+public class CompressionCodecZLibDirect implements CompressionCodec {
+
+    private static final MethodHandle DEFLATER_SET_INPUT;
+    private static final MethodHandle DEFLATER_DEFLATE;
+    private static final MethodHandle INFLATER_SET_INPUT;
+    private static final MethodHandle INFLATER_INFLATE;
+
+    static {
+        MethodHandle deflaterSetInput = null;
+        MethodHandle deflaterDeflate = null;
+        MethodHandle inflaterSetInput = null;
+        MethodHandle inflaterInflate = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            deflaterSetInput = lookup.findVirtual(Deflater.class, "setInput",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+            deflaterDeflate = lookup.findVirtual(Deflater.class, "deflate",
+                    MethodType.methodType(int.class, ByteBuffer.class, int.class));
+            inflaterSetInput = lookup.findVirtual(Inflater.class, "setInput",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+            inflaterInflate = lookup.findVirtual(Inflater.class, "inflate",
+                    MethodType.methodType(int.class, ByteBuffer.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // running on Java 8, the codec is not supported
+            deflaterSetInput = deflaterDeflate = inflaterSetInput = inflaterInflate = null;
+        }
+        DEFLATER_SET_INPUT = deflaterSetInput;
+        DEFLATER_DEFLATE = deflaterDeflate;
+        INFLATER_SET_INPUT = inflaterSetInput;
+        INFLATER_INFLATE = inflaterInflate;
+    }
+
+    /**
+     * @return whether the {@link ByteBuffer} variants of {@link Deflater} and {@link Inflater} are available
+     */
+    public static boolean isSupported() {
+        return INFLATER_INFLATE != null;
+    }
+
+    public CompressionCodecZLibDirect() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("ZLib compression on direct buffers requires Java 11 or later");
+        }
+    }
+
+    private final FastThreadLocal<Deflater> deflater = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() throws Exception {
+            return new Deflater();
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) throws Exception {
+            deflater.end();
+        }
+    };
+
+    private final FastThreadLocal<Inflater> inflater = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() throws Exception {
+            return new Inflater();
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) throws Exception {
+            inflater.end();
+        }
+    };
+
+    @Override
+    public ByteBuf encode(ByteBuf source) {
+        int sizeEstimate = (int) Math.ceil(source.readableBytes() * 1.001) + 14;
+        ByteBuf compressed = PulsarByteBufAllocator.DEFAULT.directBuffer(sizeEstimate);
+
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        if (source.nioBufferCount() == 1) {
+            setInput(deflater, source.internalNioBuffer(source.readerIndex(), source.readableBytes()));
+            while (!deflater.needsInput()) {
+                deflate(deflater, compressed, Deflater.SYNC_FLUSH);
+            }
+        } else {
+            // composite buffers are fed to zlib one component at a time and only flushed after the last one, so the
+            // output is the same as for a contiguous buffer
+            ByteBuffer[] inputs = source.nioBuffers(source.readerIndex(), source.readableBytes());
+            for (int i = 0; i < inputs.length; i++) {
+                int flush = i == inputs.length - 1 ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+                setInput(deflater, inputs[i]);
+                while (!deflater.needsInput()) {
+                    deflate(deflater, compressed, flush);
+                }
+            }
+        }
+
+        return compressed;
+    }
+
+    private static void deflate(Deflater deflater, ByteBuf out, int flush) {
+        int numBytes;
+        do {
+            if (!out.isWritable()) {
+                out.ensureWritable(Math.max(out.capacity() >> 3, 64));
+            }
+            int writerIndex = out.writerIndex();
+            numBytes = deflate(deflater, out.internalNioBuffer(writerIndex, out.writableBytes()), flush);
+            out.writerIndex(writerIndex + numBytes);
+        } while (numBytes > 0);
+    }
+
+    private static void setInput(Deflater deflater, ByteBuffer input) {
+        try {
+            DEFLATER_SET_INPUT.invokeExact(deflater, input);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    private static int deflate(Deflater deflater, ByteBuffer output, int flush) {
+        try {
+            return (int) DEFLATER_DEFLATE.invokeExact(deflater, output, flush);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    @Override
+    public ByteBuf decode(ByteBuf encoded, int uncompressedLength) throws IOException {
+        ByteBuf uncompressed = PulsarByteBufAllocator.DEFAULT.directBuffer(uncompressedLength, uncompressedLength);
+        ByteBuffer output = uncompressed.internalNioBuffer(0, uncompressedLength);
+
+        Inflater inflater = this.inflater.get();
+        inflater.reset();
+        try {
+            if (encoded.nioBufferCount() == 1) {
+                inflate(inflater, encoded.internalNioBuffer(encoded.readerIndex(), encoded.readableBytes()), output);
+            } else {
+                for (ByteBuffer input : encoded.nioBuffers(encoded.readerIndex(), encoded.readableBytes())) {
+                    inflate(inflater, input, output);
+                }
+            }
+        } catch (DataFormatException e) {
+            uncompressed.release();
+            throw new IOException(e);
+        }
+
+        if (output.position() != uncompressedLength) {
+            uncompressed.release();
+            throw new IOException("Expected " + uncompressedLength + " uncompressed bytes but got "
+                    + output.position());
+        }
+        uncompressed.writerIndex(uncompressedLength);
+        return uncompressed;
+    }
+
+    private static void inflate(Inflater inflater, ByteBuffer input, ByteBuffer output) throws DataFormatException {
+        try {
+            INFLATER_SET_INPUT.invokeExact(inflater, input);
+            while (!inflater.needsInput() && output.hasRemaining()) {
+                if ((int) INFLATER_INFLATE.invokeExact(inflater, output) == 0 && !inflater.needsInput()) {
+                    // neither progressing nor waiting for more input, eg. a preset dictionary is required
+                    return;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            return new IllegalStateException(t);
+        }
+    }
+}
@@ -54,7 +54,18 @@ public class CompressionCodecZstd implements CompressionCodec {
             };
 
     @Override
-    public ByteBuf encode(ByteBuf source) {
+    public ByteBuf encode(ByteBuf raw) {
+        ByteBuf source = AirliftUtils.ensureAddressable(raw);
+        try {
+            return encodeAddressable(source);
+        } finally {
+            if (source != raw) {
+                source.release();
+            }
+        }
+    }
+
+    private static ByteBuf encodeAddressable(ByteBuf source) {
         int uncompressedLength = source.readableBytes();
         int maxLength = (int) ZSTD_COMPRESSOR.maxCompressedLength(uncompressedLength);
 
@@ -81,7 +92,18 @@ public class CompressionCodecZstd implements CompressionCodec {
     }
 
     @Override
-    public ByteBuf decode(ByteBuf encoded, int uncompressedLength) throws IOException {
+    public ByteBuf decode(ByteBuf compressed, int uncompressedLength) throws IOException {
+        ByteBuf encoded = AirliftUtils.ensureAddressable(compressed);
+        try {
+            return decodeAddressable(encoded, uncompressedLength);
+        } finally {
+            if (encoded != compressed) {
+                encoded.release();
+            }
+        }
+    }
+
+    private static ByteBuf decodeAddressable(ByteBuf encoded, int uncompressedLength) throws IOException {
         ByteBuf uncompressed = PulsarByteBufAllocator.DEFAULT.buffer(uncompressedLength, uncompressedLength);
 
         if (encoded.hasMemoryAddress() && uncompressed.hasMemoryAddress()) {
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Objects;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+
+/**
+ * Zstandard Compression using a pre-trained dictionary.
+ *
+ * <p>Small payloads compress poorly on their own since each one starts with an empty compression window. A
+ * dictionary trained on representative payloads of a topic primes that window, which usually improves the
+ * compression ratio of small messages considerably. Both the producer and the consumer need to use the same
+ * dictionary, which is identified by the id embedded in it (see {@link #getDictionaryId()}).
+ *
+ * <p>This codec relies on the native <code>com.github.luben:zstd-jni</code> library, which needs to be available on
+ * the classpath of applications that use dictionary compression.
+ */
+public class CompressionCodecZstdDictionary implements CompressionCodec {
+
+    private static final int ZSTD_COMPRESSION_LEVEL = 3;
+
+    private final int dictionaryId;
+    private final ZstdDictCompress dictCompress;
+    private final ZstdDictDecompress dictDecompress;
+
+    public CompressionCodecZstdDictionary(byte[] dictionary) {
+        Objects.requireNonNull(dictionary, "dictionary");
+        this.dictionaryId = getDictionaryId(dictionary);
+        if (dictionaryId == 0) {
+            throw new IllegalArgumentException("Not a valid Zstd dictionary");
+        }
+        this.dictCompress = new ZstdDictCompress(dictionary, ZSTD_COMPRESSION_LEVEL);
+        this.dictDecompress = new ZstdDictDecompress(dictionary);
+    }
+
+    /**
+     * Return the id of the dictionary, which is recorded in the metadata of the messages compressed with it.
+     */
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    /**
+     * Return the id of a Zstd dictionary, or 0 if the content is not a Zstd dictionary.
+     */
+    public static int getDictionaryId(byte[] dictionary) {
+        return (int) Zstd.getDictIdFromDict(dictionary);
+    }
+
+    /**
+     * Train a dictionary on a set of sample payloads.
+     *
+     * @param samples
+     *            payloads representative of the messages that will be compressed with the dictionary
+     * @param dictionarySize
+     *            the maximum size of the dictionary, in bytes
+     * @return the content of the dictionary
+     */
+    public static byte[] trainDictionary(Collection<byte[]> samples, int dictionarySize) {
+        int samplesSize = 0;
+        for (byte[] sample : samples) {
+            samplesSize += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer(samplesSize, dictionarySize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+
+    @Override
+    public ByteBuf encode(ByteBuf source) {
+        int uncompressedLength = source.readableBytes();
+        int maxLength = (int) Zstd.compressBound(uncompressedLength);
+
+        ByteBuf target = PulsarByteBufAllocator.DEFAULT.directBuffer(maxLength, maxLength);
+        ByteBuf directSource = toDirect(source);
+        try {
+            long compressedLength = Zstd.compressDirectByteBufferFastDict(
+                    target.nioBuffer(0, maxLength), 0, maxLength,
+                    directSource.nioBuffer(directSource.readerIndex(), uncompressedLength), 0, uncompressedLength,
+                    dictCompress);
+            if (Zstd.isError(compressedLength)) {
+                target.release();
+                throw new IllegalStateException("Zstd compression failed: " + Zstd.getErrorName(compressedLength));
+            }
+            target.writerIndex((int) compressedLength);
+            return target;
+        } finally {
+            if (directSource != source) {
+                directSource.release();
+            }
+        }
+    }
+
+    @Override
+    public ByteBuf decode(ByteBuf encoded, int uncompressedLength) throws IOException {
+        ByteBuf uncompressed = PulsarByteBufAllocator.DEFAULT.directBuffer(uncompressedLength, uncompressedLength);
+        ByteBuf directEncoded = toDirect(encoded);
+        try {
+            int encodedLength = directEncoded.readableBytes();
+            long decompressedLength = Zstd.decompressDirectByteBufferFastDict(
+                    uncompressed.nioBuffer(0, uncompressedLength), 0, uncompressedLength,
+                    directEncoded.nioBuffer(directEncoded.readerIndex(), encodedLength), 0, encodedLength,
+                    dictDecompress);
+            if (Zstd.isError(decompressedLength) || decompressedLength != uncompressedLength) {
+                uncompressed.release();
+                throw new IOException("Zstd decompression failed: " + (Zstd.isError(decompressedLength)
+                        ? Zstd.getErrorName(decompressedLength)
+                        : "expected " + uncompressedLength + " bytes but got " + decompressedLength));
+            }
+        } finally {
+            if (directEncoded != encoded) {
+                directEncoded.release();
+            }
+        }
+
+        uncompressed.writerIndex(uncompressedLength);
+        return uncompressed;
+    }
+
+    /**
+     * The native library only accepts direct buffers backed by a single memory region.
+     */
+    private static ByteBuf toDirect(ByteBuf buf) {
+        if (buf.isDirect() && buf.nioBufferCount() == 1) {
+            return buf;
+        }
+        int length = buf.readableBytes();
+        ByteBuf direct = PulsarByteBufAllocator.DEFAULT.directBuffer(length, length);
+        direct.writeBytes(buf, buf.readerIndex(), length);
+        return direct;
+    }
+}
@@ -124,6 +124,10 @@ public class Policies {
 
     public Set<SubType> subscription_types_enabled = Sets.newHashSet();
 
+    // Ids of the Zstd dictionaries the producers are allowed to compress messages with
+    @SuppressWarnings("checkstyle:MemberName")
+    public Set<Integer> compression_dictionary_ids = Sets.newHashSet();
+
     @Override
     public int hashCode() {
         return Objects.hash(auth_policies, replication_clusters,
@@ -145,7 +149,8 @@ public class Policies {
                 schema_compatibility_strategy,
                 is_allow_auto_update_schema,
                 offload_policies,
-                subscription_types_enabled);
+                subscription_types_enabled,
+                compression_dictionary_ids);
     }
 
     @Override
@@ -187,7 +192,8 @@ public class Policies {
                     && schema_compatibility_strategy == other.schema_compatibility_strategy
                     && is_allow_auto_update_schema == other.is_allow_auto_update_schema
                     && Objects.equals(offload_policies, other.offload_policies)
-                    && Objects.equals(subscription_types_enabled, other.subscription_types_enabled);
+                    && Objects.equals(subscription_types_enabled, other.subscription_types_enabled)
+                    && Objects.equals(compression_dictionary_ids, other.compression_dictionary_ids);
         }
 
         return false;
@@ -247,7 +253,8 @@ public class Policies {
                 .add("schema_compatibility_Strategy", schema_compatibility_strategy)
                 .add("is_allow_auto_update_Schema", is_allow_auto_update_schema)
                 .add("offload_policies", offload_policies)
-                .add("subscription_types_enabled", subscription_types_enabled).toString();
+                .add("subscription_types_enabled", subscription_types_enabled)
+                .add("compression_dictionary_ids", compression_dictionary_ids).toString();
     }
 
     private static final long MAX_BUNDLES = ((long) 1) << 32;
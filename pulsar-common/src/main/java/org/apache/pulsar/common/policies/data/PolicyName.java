@@ -45,5 +45,6 @@ public enum PolicyName {
     SUBSCRIPTION_AUTH_MODE,
     ENCRYPTION,
     TTL,
-    MAX_TOPICS
+    MAX_TOPICS,
+    COMPRESSION_DICTIONARY
 }
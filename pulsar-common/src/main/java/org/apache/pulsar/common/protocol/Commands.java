@@ -704,6 +704,14 @@ public class Commands {
           boolean encrypted, Map<String, String> metadata, SchemaInfo schemaInfo,
           long epoch, boolean userProvidedProducerName,
           ProducerAccessMode accessMode, Optional<Long> topicEpoch) {
+        return newProducer(topic, producerId, requestId, producerName, encrypted, metadata, schemaInfo, epoch,
+                userProvidedProducerName, accessMode, topicEpoch, 0);
+    }
+
+    public static ByteBuf newProducer(String topic, long producerId, long requestId, String producerName,
+          boolean encrypted, Map<String, String> metadata, SchemaInfo schemaInfo,
+          long epoch, boolean userProvidedProducerName,
+          ProducerAccessMode accessMode, Optional<Long> topicEpoch, int compressionDictionaryId) {
         BaseCommand cmd = localCmd(Type.PRODUCER);
         CommandProducer producer = cmd.setProducer()
                 .setTopic(topic)
@@ -728,6 +736,9 @@ public class Commands {
         }
 
         topicEpoch.ifPresent(producer::setTopicEpoch);
+        if (compressionDictionaryId != 0) {
+            producer.setCompressionDictionaryId(compressionDictionaryId);
+        }
         return serializeWithSize(cmd);
     }
 
@@ -1683,17 +1694,22 @@ public class Commands {
             skipBrokerEntryMetadataIfExist(metadataAndPayload);
             MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
             metadataAndPayload.readerIndex(readerIdx);
-            if (metadata.hasOrderingKey()) {
-                return metadata.getOrderingKey();
-            } else if (metadata.hasPartitionKey()) {
-                return metadata.getPartitionKey().getBytes(StandardCharsets.UTF_8);
-            }
+            return resolveStickyKey(metadata);
         } catch (Throwable t) {
             log.error("[{}] [{}] Failed to peek sticky key from the message metadata", topic, subscription, t);
         }
         return Commands.NONE_KEY;
     }
 
+    public static byte[] resolveStickyKey(MessageMetadata metadata) {
+        if (metadata.hasOrderingKey()) {
+            return metadata.getOrderingKey();
+        } else if (metadata.hasPartitionKey()) {
+            return metadata.getPartitionKey().getBytes(StandardCharsets.UTF_8);
+        }
+        return Commands.NONE_KEY;
+    }
+
     public static int getCurrentProtocolVersion() {
         // Return the last ProtocolVersion enum value
         return ProtocolVersion.values()[ProtocolVersion.values().length - 1].getValue();
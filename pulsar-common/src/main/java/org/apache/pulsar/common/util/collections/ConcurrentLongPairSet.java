@@ -207,6 +207,25 @@ public class ConcurrentLongPairSet implements LongPairSet {
         return items;
     }
 
+    @Override
+    public int items(int numberOfItems, long[] items) {
+        checkArgument(items.length >= 2 * numberOfItems);
+        int[] count = new int[1];
+        for (Section s : sections) {
+            s.forEach((item1, item2) -> {
+                if (count[0] < numberOfItems) {
+                    items[2 * count[0]] = item1;
+                    items[2 * count[0] + 1] = item2;
+                    count[0]++;
+                }
+            });
+            if (count[0] >= numberOfItems) {
+                break;
+            }
+        }
+        return count[0];
+    }
+
     // A section is a portion of the hash map that is covered by a single
     @SuppressWarnings("serial")
     private static final class Section extends StampedLock {
@@ -18,6 +18,8 @@
  */
 package org.apache.pulsar.common.util.collections;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Set;
@@ -143,6 +145,24 @@ public class ConcurrentSortedLongPairSet implements LongPairSet {
         return items;
     }
 
+    /**
+     * Copies the smallest keys into the provided array, in ascending order.
+     */
+    @Override
+    public int items(int numberOfItems, long[] items) {
+        checkArgument(items.length >= 2 * numberOfItems);
+        SortedItemsCollector collector = new SortedItemsCollector(items, numberOfItems);
+        for (Map.Entry<Long, ConcurrentLongPairSet> entry : longPairSets.entrySet()) {
+            if (collector.isFull()) {
+                break;
+            }
+            collector.startSegment();
+            entry.getValue().forEach(collector);
+            collector.sortSegment();
+        }
+        return collector.count;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -198,4 +218,93 @@ public class ConcurrentSortedLongPairSet implements LongPairSet {
         return false;
     }
 
+    /**
+     * Collects the smallest keys of consecutive {@link ConcurrentLongPairSet}s, which all share the same first item.
+     * The keys of the current set are kept as a max-heap on the second item, so that once the array is full a smaller
+     * key replaces the largest one, and are heap-sorted once the set has been iterated.
+     */
+    private static final class SortedItemsCollector implements LongPairConsumer {
+        private final long[] items;
+        private final int capacity;
+        private int count;
+        private int segmentStart;
+
+        SortedItemsCollector(long[] items, int capacity) {
+            this.items = items;
+            this.capacity = capacity;
+        }
+
+        boolean isFull() {
+            return count >= capacity;
+        }
+
+        void startSegment() {
+            segmentStart = count;
+        }
+
+        @Override
+        public void accept(long item1, long item2) {
+            int segmentSize = count - segmentStart;
+            if (count < capacity) {
+                items[2 * count] = item1;
+                setItem2(segmentSize, item2);
+                count++;
+                siftUp(segmentSize);
+            } else if (segmentSize > 0 && item2 < item2(0)) {
+                setItem2(0, item2);
+                siftDown(0, segmentSize);
+            }
+        }
+
+        void sortSegment() {
+            for (int size = count - segmentStart; size > 1; size--) {
+                swap(0, size - 1);
+                siftDown(0, size - 1);
+            }
+        }
+
+        private void siftUp(int idx) {
+            while (idx > 0) {
+                int parent = (idx - 1) / 2;
+                if (item2(parent) >= item2(idx)) {
+                    return;
+                }
+                swap(parent, idx);
+                idx = parent;
+            }
+        }
+
+        private void siftDown(int idx, int size) {
+            while (true) {
+                int largest = idx;
+                int left = 2 * idx + 1;
+                int right = left + 1;
+                if (left < size && item2(left) > item2(largest)) {
+                    largest = left;
+                }
+                if (right < size && item2(right) > item2(largest)) {
+                    largest = right;
+                }
+                if (largest == idx) {
+                    return;
+                }
+                swap(idx, largest);
+                idx = largest;
+            }
+        }
+
+        private long item2(int idx) {
+            return items[2 * (segmentStart + idx) + 1];
+        }
+
+        private void setItem2(int idx, long item2) {
+            items[2 * (segmentStart + idx) + 1] = item2;
+        }
+
+        private void swap(int idx1, int idx2) {
+            long tmp = item2(idx1);
+            setItem2(idx1, item2(idx2));
+            setItem2(idx2, tmp);
+        }
+    }
 }
\ No newline at end of file
@@ -81,6 +81,19 @@ public interface LongPairSet {
      */
     <T> Set<T> items(int numberOfItems, LongPairFunction<T> longPairConverter);
 
+    /**
+     * Copies keys into the provided array without allocating an object per key. The first item of the i-th key is
+     * stored at index {@code 2 * i} and its second item at index {@code 2 * i + 1}.
+     *
+     * @param numberOfItems
+     *            max number of keys to copy
+     * @param items
+     *            destination array, with room for at least numberOfItems keys
+     *
+     * @return the number of keys copied
+     */
+    int items(int numberOfItems, long[] items);
+
     /**
      * Check if set is empty.
      *
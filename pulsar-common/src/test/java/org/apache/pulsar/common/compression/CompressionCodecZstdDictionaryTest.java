@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.compression;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.apache.pulsar.common.api.proto.CompressionType;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CompressionCodecZstdDictionaryTest {
+
+    private static List<byte[]> samples(int count, int offset) {
+        List<byte[]> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = offset + i;
+            String json = "{\"id\":" + id + ",\"user\":\"user-" + (id % 97) + "\",\"type\":\"page_view\","
+                    + "\"url\":\"https://pulsar.apache.org/docs/en/" + (id % 13) + "/concepts-messaging\","
+                    + "\"agent\":\"Mozilla/5.0 (X11; Linux x86_64)\",\"ts\":" + (1600000000000L + id) + "}";
+            samples.add(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return samples;
+    }
+
+    private static final byte[] DICTIONARY = CompressionCodecZstdDictionary.trainDictionary(samples(2000, 0), 4096);
+
+    @DataProvider(name = "direct")
+    public Object[][] direct() {
+        return new Object[][] { { true }, { false } };
+    }
+
+    @Test(dataProvider = "direct")
+    public void testCompressDecompress(boolean direct) throws IOException {
+        CompressionCodecZstdDictionary codec = new CompressionCodecZstdDictionary(DICTIONARY);
+        for (byte[] data : samples(20, 100_000)) {
+            ByteBuf raw = direct ? PulsarByteBufAllocator.DEFAULT.directBuffer() : Unpooled.buffer();
+            raw.writeBytes(data);
+
+            ByteBuf compressed = codec.encode(raw);
+            assertEquals(raw.readableBytes(), data.length);
+            ByteBuf uncompressed = codec.decode(compressed, data.length);
+            assertEquals(uncompressed.readableBytes(), data.length);
+            byte[] result = new byte[data.length];
+            uncompressed.readBytes(result);
+            assertEquals(result, data);
+
+            raw.release();
+            compressed.release();
+            uncompressed.release();
+        }
+    }
+
+    @Test
+    public void testDictionaryImprovesRatioOfSmallPayloads() {
+        CompressionCodec plain = CompressionCodecProvider.getCompressionCodec(CompressionType.ZSTD);
+        CompressionCodec withDictionary = new CompressionCodecZstdDictionary(DICTIONARY);
+        long plainSize = 0;
+        long dictionarySize = 0;
+        for (byte[] data : samples(100, 100_000)) {
+            ByteBuf raw = Unpooled.wrappedBuffer(data);
+            ByteBuf a = plain.encode(raw);
+            ByteBuf b = withDictionary.encode(raw);
+            plainSize += a.readableBytes();
+            dictionarySize += b.readableBytes();
+            a.release();
+            b.release();
+        }
+        assertTrue(dictionarySize * 2 < plainSize, "plain: " + plainSize + ", dictionary: " + dictionarySize);
+    }
+
+    @Test
+    public void testDictionaryId() {
+        CompressionCodecZstdDictionary codec = new CompressionCodecZstdDictionary(DICTIONARY);
+        assertNotEquals(codec.getDictionaryId(), 0);
+        assertEquals(codec.getDictionaryId(), CompressionCodecZstdDictionary.getDictionaryId(DICTIONARY));
+
+        try {
+            new CompressionCodecZstdDictionary("not a dictionary".getBytes(StandardCharsets.UTF_8));
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDecodeWithWrongDictionary() {
+        CompressionCodecZstdDictionary codec = new CompressionCodecZstdDictionary(DICTIONARY);
+        CompressionCodecZstdDictionary other = new CompressionCodecZstdDictionary(
+                CompressionCodecZstdDictionary.trainDictionary(samples(2000, 50_000), 2048));
+        assertNotEquals(other.getDictionaryId(), codec.getDictionaryId());
+
+        byte[] data = samples(1, 100_000).get(0);
+        ByteBuf compressed = codec.encode(Unpooled.wrappedBuffer(data));
+        try {
+            other.decode(compressed, data.length).release();
+            fail("should have failed");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            compressed.release();
+        }
+    }
+}
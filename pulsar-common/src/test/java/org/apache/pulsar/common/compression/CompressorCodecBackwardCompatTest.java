@@ -21,11 +21,16 @@ package org.apache.pulsar.common.compression;
 import static org.testng.Assert.assertEquals;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.testng.SkipException;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -38,14 +43,19 @@ public class CompressorCodecBackwardCompatTest {
 
     @DataProvider(name = "codecs")
     public Object[][] codecProvider() {
-        return new Object[][] {
+        List<Object[]> codecs = new ArrayList<>(Arrays.asList(new Object[][] {
                 { new CompressionCodecLZ4(), new CompressionCodecLZ4JNI() },
                 { new CompressionCodecLZ4JNI(), new CompressionCodecLZ4() },
                 { new CompressionCodecZstd(), new CompressionCodecZstdJNI() },
                 { new CompressionCodecZstdJNI(), new CompressionCodecZstd() },
                 { new CompressionCodecSnappy(), new CompressionCodecSnappyJNI() },
                 { new CompressionCodecSnappyJNI(), new CompressionCodecSnappy() },
-        };
+        }));
+        if (CompressionCodecZLibDirect.isSupported()) {
+            codecs.add(new Object[] { new CompressionCodecZLib(), new CompressionCodecZLibDirect() });
+            codecs.add(new Object[] { new CompressionCodecZLibDirect(), new CompressionCodecZLib() });
+        }
+        return codecs.toArray(new Object[0][]);
     }
 
     @Test(dataProvider = "codecs")
@@ -80,4 +90,36 @@ public class CompressorCodecBackwardCompatTest {
         assertEquals(compressedDirect.refCnt(), 0);
         assertEquals(compressedDirect.refCnt(), 0);
     }
+
+    @DataProvider(name = "zlibInputs")
+    public Object[][] zlibInputProvider() {
+        byte[] data = text.getBytes();
+        CompositeByteBuf composite = Unpooled.compositeBuffer();
+        composite.addComponent(true, Unpooled.directBuffer().writeBytes(data, 0, 100));
+        composite.addComponent(true, Unpooled.directBuffer().writeBytes(data, 100, data.length - 100));
+        return new Object[][] {
+                { Unpooled.EMPTY_BUFFER },
+                { Unpooled.directBuffer().writeBytes(data) },
+                { composite },
+        };
+    }
+
+    @Test(dataProvider = "zlibInputs")
+    void testZLibDirectSameOutput(ByteBuf raw) throws IOException {
+        if (!CompressionCodecZLibDirect.isSupported()) {
+            throw new SkipException("ZLib on direct buffers requires Java 11");
+        }
+        int length = raw.readableBytes();
+        ByteBuf expected = new CompressionCodecZLib().encode(raw);
+        ByteBuf compressed = new CompressionCodecZLibDirect().encode(raw);
+        assertEquals(compressed, expected);
+
+        ByteBuf uncompressed = new CompressionCodecZLibDirect().decode(compressed, length);
+        assertEquals(uncompressed, raw);
+
+        expected.release();
+        compressed.release();
+        uncompressed.release();
+        raw.release();
+    }
 }
@@ -25,6 +25,7 @@ import com.google.common.base.Charsets;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
@@ -132,6 +133,43 @@ public class CompressorCodecTest {
         assertEquals(compressed.refCnt(), 0);
     }
 
+    @Test(dataProvider = "codecAndText")
+    void testCompressDecompressCompositeAndHeapByteBuf(CompressionType type, String sourceText) throws IOException {
+        CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(type);
+        byte[] data = sourceText.getBytes();
+        int half = data.length / 2;
+        CompositeByteBuf raw = PulsarByteBufAllocator.DEFAULT.compositeDirectBuffer();
+        raw.addComponent(true, Unpooled.directBuffer().writeBytes(data, 0, half));
+        raw.addComponent(true, Unpooled.directBuffer().writeBytes(data, half, data.length - half));
+
+        ByteBuf compressed = codec.encode(raw);
+        assertEquals(raw.readableBytes(), data.length);
+
+        // Entries read from bookies are usually composite buffers, and may be on the heap
+        int compressedSize = compressed.readableBytes();
+        int split = compressedSize / 2;
+        CompositeByteBuf compositeCompressed = PulsarByteBufAllocator.DEFAULT.compositeDirectBuffer();
+        compositeCompressed.addComponent(true, compressed.retainedSlice(0, split));
+        compositeCompressed.addComponent(true, compressed.retainedSlice(split, compressedSize - split));
+        ByteBuf heapCompressed = Unpooled.copiedBuffer(compressed);
+
+        ByteBuf uncompressed = codec.decode(compositeCompressed, data.length);
+        ByteBuf uncompressedFromHeap = codec.decode(heapCompressed, data.length);
+
+        assertEquals(compressed.readableBytes(), compressedSize);
+        assertEquals(uncompressed, raw);
+        assertEquals(uncompressedFromHeap, raw);
+
+        raw.release();
+        compressed.release();
+        compositeCompressed.release();
+        uncompressed.release();
+        uncompressedFromHeap.release();
+
+        assertEquals(raw.refCnt(), 0);
+        assertEquals(compressed.refCnt(), 0);
+    }
+
     @Test(dataProvider = "codec")
     void testEmptyInput(CompressionType type, String compressedText) throws IOException {
         CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(type);
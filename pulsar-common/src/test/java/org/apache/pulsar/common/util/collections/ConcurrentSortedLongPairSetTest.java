@@ -206,6 +206,31 @@ public class ConcurrentSortedLongPairSetTest {
         assertEquals(set.size(), n - limit);
     }
 
+    @Test
+    public void testItemsIntoArray() {
+        LongPairSet set = new ConcurrentSortedLongPairSet(16);
+
+        Random random = new Random(0);
+        List<LongPair> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long item1 = random.nextInt(5);
+            long item2 = random.nextInt(1000);
+            if (set.add(item1, item2)) {
+                expected.add(new LongPair(item1, item2));
+            }
+        }
+        expected.sort(null);
+
+        for (int limit : new int[] { 0, 1, 7, 64, 150, expected.size(), expected.size() + 10 }) {
+            long[] items = new long[2 * limit];
+            int count = set.items(limit, items);
+            assertEquals(count, Math.min(limit, expected.size()));
+            for (int i = 0; i < count; i++) {
+                assertEquals(new LongPair(items[2 * i], items[2 * i + 1]), expected.get(i));
+            }
+        }
+    }
+
     @Test
     public void testEqualsObjects() {
 
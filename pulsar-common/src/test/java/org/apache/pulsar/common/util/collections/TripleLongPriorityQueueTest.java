@@ -23,6 +23,8 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.util.PriorityQueue;
+import java.util.Random;
 import org.testng.annotations.Test;
 
 public class TripleLongPriorityQueueTest {
@@ -135,4 +137,65 @@ public class TripleLongPriorityQueueTest {
 
         pq.close();
     }
+
+    @Test
+    public void testPopUpTo() {
+        TripleLongPriorityQueue pq = new TripleLongPriorityQueue();
+        for (int i = 10; i > 0; i--) {
+            pq.add(i, i * 2, i * 3);
+        }
+
+        long[] items = new long[8];
+        assertEquals(pq.pop(0, 4, items), 0);
+        assertEquals(pq.size(), 10);
+
+        // Limited by the max number of items
+        assertEquals(pq.pop(7, 4, items), 4);
+        assertEquals(items, new long[] {2, 3, 4, 6, 6, 9, 8, 12});
+        assertEquals(pq.peekN1(), 5);
+
+        // Limited by the max value of the 1st item
+        assertEquals(pq.pop(7, 4, items), 3);
+        assertEquals(items[0], 10);
+        assertEquals(items[5], 21);
+        assertEquals(pq.peekN1(), 8);
+
+        assertEquals(pq.pop(Long.MAX_VALUE, 4, items), 3);
+        assertTrue(pq.isEmpty());
+        assertEquals(pq.pop(Long.MAX_VALUE, 4, items), 0);
+
+        try {
+            pq.pop(Long.MAX_VALUE, 5, items);
+            fail("Should fail");
+        } catch (IllegalArgumentException e) {
+            // Ok
+        }
+
+        pq.close();
+    }
+
+    @Test
+    public void testRandomItems() {
+        TripleLongPriorityQueue pq = new TripleLongPriorityQueue();
+        PriorityQueue<Long> expected = new PriorityQueue<>();
+        Random random = new Random(0);
+
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++) {
+                long n = random.nextInt(10000);
+                pq.add(n, n + 1, n + 2);
+                expected.add(n);
+            }
+            for (int i = 0; i < 500; i++) {
+                long n = expected.poll();
+                assertEquals(pq.peekN1(), n);
+                assertEquals(pq.peekN2(), n + 1);
+                assertEquals(pq.peekN3(), n + 2);
+                pq.pop();
+            }
+            assertEquals(pq.size(), expected.size());
+        }
+
+        pq.close();
+    }
 }